@@ -0,0 +1,106 @@
+package de.tuebingen.sfs.causal.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.generator.PartitionSampler;
+import de.tuebingen.sfs.causal.generator.RandomCausalModel;
+import de.tuebingen.sfs.util.struct.Triple;
+
+/**
+ * Seeded synthetic inputs for the benchmarks: a random DAG over numbered variables, cognate partitions
+ * in which classes are inherited along the DAG edges, and uniform significance thresholds
+ * (see the generator package).
+ */
+public class BenchmarkData
+{
+	public String[] varNames;
+	//parents of each variable, all parents have smaller indices
+	public int[][] parents;
+	public List<Set<Set<Triple<String,String,String>>>> partitions;
+	public double[][] thresholds;
+
+	/**
+	 * @param numVars number of variables
+	 * @param avgParents expected number of parents per variable
+	 * @param numConcepts number of sample partitions (concepts)
+	 * @param inheritProb probability that a variable inherits the class of one of its parents
+	 * @param seed
+	 */
+	public BenchmarkData(int numVars, double avgParents, int numConcepts, double inheritProb, long seed)
+	{
+		RandomCausalModel model = new RandomCausalModel(numVars, avgParents, 0, 0, seed);
+		varNames = model.varNames;
+		parents = model.parents;
+		partitions = new PartitionSampler(model, inheritProb, 0.05, seed + 1).samplePartitions(numConcepts);
+
+		thresholds = new double[numVars][numVars];
+		for (double[] row : thresholds)
+		{
+			Arrays.fill(row, numConcepts / 40.0);
+		}
+	}
+
+	/**
+	 * @return the skeleton of the DAG with circle ends
+	 */
+	public CausalGraph skeleton()
+	{
+		CausalGraph graph = new CausalGraph(varNames, false);
+		for (int var = 0; var < parents.length; var++)
+		{
+			for (int parent : parents[var])
+			{
+				graph.addLink(parent, var);
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * @return the skeleton of the DAG with arrows into the colliders of all unshielded triples, as after the v-structure phase
+	 */
+	public CausalGraph skeletonWithVStructures()
+	{
+		CausalGraph graph = skeleton();
+		for (int var = 0; var < parents.length; var++)
+		{
+			for (int i = 0; i < parents[var].length; i++)
+			{
+				for (int j = i + 1; j < parents[var].length; j++)
+				{
+					if (!graph.hasLink(parents[var][i], parents[var][j]))
+					{
+						graph.putArrow(parents[var][i], var, true);
+						graph.putArrow(parents[var][j], var, true);
+					}
+				}
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Silences the progress output of the algorithms during measurements.
+	 * @return the previous System.out, to be restored afterwards
+	 */
+	public static PrintStream silenceSystemOut()
+	{
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream()
+		{
+			public void write(int b)
+			{
+			}
+
+			public void write(byte[] b, int off, int len)
+			{
+			}
+		}));
+		return out;
+	}
+}
@@ -0,0 +1,147 @@
+package de.tuebingen.sfs.causal.benchmark;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tuebingen.sfs.causal.data.BlockCutTree;
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.data.PathNeighborSearch;
+
+/**
+ * Graph primitives on the skeleton of a random DAG.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CausalGraphBenchmark
+{
+	@Param({"100", "1000"})
+	public int numVars;
+
+	@Param({"3.0"})
+	public double avgParents;
+
+	@Param({"1"})
+	public long seed;
+
+	CausalGraph graph;
+	int[] queryVars1;
+	int[] queryVars2;
+	int queryIndex;
+	//all links of the skeleton, as queried by one level of PC*
+	int[] linkVars1;
+	int[] linkVars2;
+	PathNeighborSearch pathNeighborSearch;
+
+	@Setup
+	public void setup()
+	{
+		BenchmarkData data = new BenchmarkData(numVars, avgParents, 0, 0.0, seed);
+		graph = data.skeleton();
+		Random rand = new Random(seed);
+		queryVars1 = new int[1024];
+		queryVars2 = new int[1024];
+		for (int i = 0; i < queryVars1.length; i++)
+		{
+			queryVars1[i] = rand.nextInt(numVars);
+			queryVars2[i] = rand.nextInt(numVars);
+		}
+		int numLinks = 0;
+		for (int var = 0; var < numVars; var++)
+		{
+			numLinks += graph.getNumNeighbors(var);
+		}
+		linkVars1 = new int[numLinks / 2];
+		linkVars2 = new int[numLinks / 2];
+		int linkIndex = 0;
+		for (int var1 = 0; var1 < numVars; var1++)
+		{
+			for (int var2 : graph.getNeighbors(var1))
+			{
+				if (var2 < var1) continue;
+				linkVars1[linkIndex] = var1;
+				linkVars2[linkIndex++] = var2;
+			}
+		}
+		pathNeighborSearch = new PathNeighborSearch(graph);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public boolean hasLink()
+	{
+		queryIndex = (queryIndex + 1) & 1023;
+		return graph.hasLink(queryVars1[queryIndex], queryVars2[queryIndex]);
+	}
+
+	@Benchmark
+	public int[] listUnshieldedTripleArray()
+	{
+		return graph.listUnshieldedTripleArray();
+	}
+
+	@Benchmark
+	public Set<Integer> getNeighborsOnAcyclicPathsBetween()
+	{
+		queryIndex = (queryIndex + 1) & 1023;
+		return graph.getNeighborsOnAcyclicPathsBetween(queryVars1[queryIndex], queryVars2[queryIndex], 2);
+	}
+
+	@Benchmark
+	public int[][] getNeighborArraysForAllLinks()
+	{
+		return pathNeighborSearch.getNeighborArrays(linkVars1, linkVars2, 2);
+	}
+
+	@Benchmark
+	public int[][] getNeighborArrayForEachLink()
+	{
+		int[][] neighbors = new int[linkVars1.length][];
+		for (int i = 0; i < linkVars1.length; i++)
+		{
+			neighbors[i] = pathNeighborSearch.getNeighborArray(linkVars1[i], linkVars2[i], 2);
+		}
+		return neighbors;
+	}
+
+	@Benchmark
+	public CausalGraph snapshot()
+	{
+		return graph.snapshot();
+	}
+
+	@Benchmark
+	public CausalGraph readOnlySnapshot()
+	{
+		return graph.readOnlySnapshot();
+	}
+
+	@Benchmark
+	public BlockCutTree blockCutTree()
+	{
+		return new BlockCutTree(graph);
+	}
+
+	@Benchmark
+	public Set<Integer> getNodesOnAcyclicPathsBetween()
+	{
+		queryIndex = (queryIndex + 1) & 1023;
+		return graph.getNodesOnAcyclicPathsBetween(queryVars1[queryIndex], queryVars2[queryIndex], numVars);
+	}
+}
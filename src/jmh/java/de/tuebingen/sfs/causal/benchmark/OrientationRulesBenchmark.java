@@ -0,0 +1,109 @@
+package de.tuebingen.sfs.causal.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.heuristics.arrows.OrientationRuleEngine;
+import de.tuebingen.sfs.causal.heuristics.arrows.OrientationRules;
+
+/**
+ * Orientation rule fixpoints, starting from a DAG skeleton with all v-structures oriented,
+ * computed by sweeps over the whole graph and by the OrientationRuleEngine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrientationRulesBenchmark
+{
+	@Param({"100", "400"})
+	public int numVars;
+
+	@Param({"2.0"})
+	public double avgParents;
+
+	@Param({"1"})
+	public long seed;
+
+	String[] varNames;
+	OrientationRules rules = new OrientationRules(false, null);
+	CausalGraph initialGraph;
+	CausalGraph graph;
+
+	@Setup(Level.Trial)
+	public void setupTrial()
+	{
+		BenchmarkData data = new BenchmarkData(numVars, avgParents, 0, 0.0, seed);
+		varNames = data.varNames;
+		initialGraph = data.skeletonWithVStructures();
+	}
+
+	@Setup(Level.Invocation)
+	public void setupInvocation()
+	{
+		graph = initialGraph.snapshot();
+	}
+
+	@Benchmark
+	public CausalGraph pcRules()
+	{
+		boolean hasChanged = true;
+		while (hasChanged)
+		{
+			hasChanged = false;
+			hasChanged |= rules.applyZhangOrientationRule1(graph, varNames);
+			hasChanged |= rules.applyZhangOrientationRule2(graph, varNames);
+			hasChanged |= rules.applyZhangOrientationRule3(graph, varNames);
+		}
+		return graph;
+	}
+
+	@Benchmark
+	public CausalGraph allZhangRules()
+	{
+		boolean hasChanged = true;
+		while (hasChanged)
+		{
+			hasChanged = false;
+			hasChanged |= rules.applyZhangOrientationRule1(graph, varNames);
+			hasChanged |= rules.applyZhangOrientationRule2(graph, varNames);
+			hasChanged |= rules.applyZhangOrientationRule3(graph, varNames);
+			hasChanged |= rules.applyZhangOrientationRule5(graph, varNames);
+			hasChanged |= rules.applyZhangOrientationRule6(graph, varNames);
+			hasChanged |= rules.applyZhangOrientationRule7(graph, varNames);
+			hasChanged |= rules.applyZhangOrientationRule8(graph, varNames);
+			hasChanged |= rules.applyZhangOrientationRule9(graph, varNames);
+			hasChanged |= rules.applyZhangOrientationRule10(graph, varNames);
+		}
+		return graph;
+	}
+
+	@Benchmark
+	public CausalGraph pcRulesEngine()
+	{
+		new OrientationRuleEngine(graph, varNames, 1, 2, 3).run();
+		return graph;
+	}
+
+	@Benchmark
+	public CausalGraph allZhangRulesEngine()
+	{
+		new OrientationRuleEngine(graph, varNames, 1, 2, 3, 5, 6, 7, 8, 9, 10).run();
+		return graph;
+	}
+}
@@ -0,0 +1,88 @@
+package de.tuebingen.sfs.causal.benchmark;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tuebingen.sfs.causal.algorithms.PcAlgorithm;
+import de.tuebingen.sfs.causal.algorithms.PcStarAlgorithm;
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.heuristics.arrows.CausalArrowFinderPcDefault;
+import de.tuebingen.sfs.causal.heuristics.separation.PartialCorrelationDiscreteUnitFlow;
+
+/**
+ * Full PC and PC* runs (skeleton and orientation) on unit-flow data sampled from a random DAG.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PcAlgorithmBenchmark
+{
+	@Param({"20", "40"})
+	public int numVars;
+
+	@Param({"1.5"})
+	public double avgParents;
+
+	@Param({"200"})
+	public int numConcepts;
+
+	@Param({"3"})
+	public int maxCondSetSize;
+
+	@Param({"1"})
+	public long seed;
+
+	BenchmarkData data;
+	PrintStream out;
+
+	@Setup
+	public void setup()
+	{
+		data = new BenchmarkData(numVars, avgParents, numConcepts, 0.7, seed);
+		out = BenchmarkData.silenceSystemOut();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		System.setOut(out);
+	}
+
+	@Benchmark
+	public CausalGraph pcStable()
+	{
+		CausalGraph graph = new CausalGraph(data.varNames, true);
+		PartialCorrelationDiscreteUnitFlow measure = new PartialCorrelationDiscreteUnitFlow(data.partitions, graph,
+				data.varNames, data.thresholds, false);
+		new PcAlgorithm(measure, new CausalArrowFinderPcDefault<Object>(null, data.varNames, true, false),
+				data.varNames, graph, maxCondSetSize, true, false, true).run();
+		return graph;
+	}
+
+	@Benchmark
+	public CausalGraph pcStar()
+	{
+		CausalGraph graph = new CausalGraph(data.varNames, true);
+		PartialCorrelationDiscreteUnitFlow measure = new PartialCorrelationDiscreteUnitFlow(data.partitions, graph,
+				data.varNames, data.thresholds, false);
+		new PcStarAlgorithm(measure, new CausalArrowFinderPcDefault<Object>(null, data.varNames, true, false),
+				data.varNames, graph, maxCondSetSize, true, false, true, false).run();
+		return graph;
+	}
+}
@@ -0,0 +1,73 @@
+package de.tuebingen.sfs.causal.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.tuebingen.sfs.util.struct.SetOperations;
+import de.tuebingen.sfs.util.struct.SubsetEnumerator;
+
+/**
+ * Enumeration of separating set candidates: all k-subsets of a neighbor list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubsetBenchmark
+{
+	@Param({"10", "40"})
+	public int numNeighbors;
+
+	@Param({"2", "4"})
+	public int k;
+
+	List<Integer> neighborList;
+	int[] neighborArray;
+
+	@Setup
+	public void setup()
+	{
+		neighborList = new ArrayList<Integer>();
+		neighborArray = new int[numNeighbors];
+		for (int i = 0; i < numNeighbors; i++)
+		{
+			neighborList.add(3 * i);
+			neighborArray[i] = 3 * i;
+		}
+	}
+
+	@Benchmark
+	public void getSubsets(Blackhole blackhole)
+	{
+		for (Set<Integer> subset : SetOperations.getSubsets(neighborList, k))
+		{
+			blackhole.consume(subset.contains(0));
+		}
+	}
+
+	@Benchmark
+	public void subsetEnumerator(Blackhole blackhole)
+	{
+		for (Set<Integer> subset : new SubsetEnumerator(neighborArray, k))
+		{
+			blackhole.consume(subset.contains(0));
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package de.tuebingen.sfs.causal.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.heuristics.separation.PartialCorrelationDiscreteUnitFlow;
+
+/**
+ * Single unit-flow CI tests on the true skeleton, conditioning on random neighbor subsets of the first variable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UnitFlowBenchmark
+{
+	@Param({"50", "200"})
+	public int numVars;
+
+	@Param({"200", "1000"})
+	public int numConcepts;
+
+	@Param({"2"})
+	public int condSetSize;
+
+	@Param({"1"})
+	public long seed;
+
+	PartialCorrelationDiscreteUnitFlow measure;
+	List<int[]> pairs;
+	//conditioning sets in ascending order, for the primitive API
+	List<int[]> condSets;
+	int queryIndex;
+
+	@Setup
+	public void setup()
+	{
+		BenchmarkData data = new BenchmarkData(numVars, 3.0, numConcepts, 0.7, seed);
+		CausalGraph graph = data.skeleton();
+		measure = new PartialCorrelationDiscreteUnitFlow(data.partitions, graph, data.varNames, data.thresholds, false);
+		Random rand = new Random(seed);
+		pairs = new ArrayList<int[]>();
+		condSets = new ArrayList<int[]>();
+		while (pairs.size() < 256)
+		{
+			int x = rand.nextInt(numVars);
+			int y = rand.nextInt(numVars);
+			if (x == y) continue;
+			List<Integer> neighbors = new ArrayList<Integer>(graph.getNeighbors(x));
+			neighbors.remove((Integer) y);
+			Set<Integer> condSet = new TreeSet<Integer>();
+			while (condSet.size() < Math.min(condSetSize, neighbors.size()))
+			{
+				condSet.add(neighbors.get(rand.nextInt(neighbors.size())));
+			}
+			pairs.add(new int[] {x, y});
+			int[] condSetArray = new int[condSet.size()];
+			int numCondVars = 0;
+			for (int condVar : condSet)
+			{
+				condSetArray[numCondVars++] = condVar;
+			}
+			condSets.add(condSetArray);
+		}
+	}
+
+	@Benchmark
+	public double partialCorrelation()
+	{
+		queryIndex = (queryIndex + 1) & 255;
+		int[] pair = pairs.get(queryIndex);
+		int[] condSet = condSets.get(queryIndex);
+		return measure.partialCorrelation(pair[0], pair[1], condSet, condSet.length);
+	}
+}
@@ -0,0 +1,357 @@
+package de.tuebingen.sfs.causal.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjIntConsumer;
+
+import de.tuebingen.sfs.causal.data.BlockCutTree;
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.data.SepSetStore;
+import de.tuebingen.sfs.causal.heuristics.arrows.OrientationRuleEngine;
+import de.tuebingen.sfs.causal.heuristics.arrows.OrientationRules;
+import de.tuebingen.sfs.causal.heuristics.separation.PartialCorrelation;
+import de.tuebingen.sfs.util.struct.Pair;
+import de.tuebingen.sfs.util.struct.SubsetEnumerator;
+
+/**
+ * FCI (Spirtes et al. 2000, with the orientation rules of Zhang 2008) on top of the skeleton phase of a
+ * PcAlgorithm or PcStarAlgorithm, producing a PAG which allows for latent confounders. After the v-structures of
+ * the skeleton have been oriented, every remaining link except the preset ones is tested again given subsets of
+ * the Possible-D-SEP of both endpoints (including the links found undeletable given their neighbors), and the
+ * PAG is then oriented from scratch with the resulting separating sets.
+ * As Possible-D-SEP can contain most variables of a dense graph, this phase can be bounded by the length of the
+ * paths which are followed, the size of the tested subsets, and a budget of time or CI tests. Links whose tests
+ * are cut off by the budget are kept (see getIncompleteLinks()), which results in a sound, but less complete PAG.
+ * The tests are run on the executor of the skeleton algorithm (if it has one), with the Possible-D-SEP sets from
+ * the start of the phase, and links are only removed afterwards, so that parallel and sequential runs produce
+ * the same PAG as long as the budget is not exhausted. Only the first separating set of each pair is used.
+ */
+public class FciAlgorithm {
+	public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+	PcAlgorithm skeletonAlgorithm;
+	PartialCorrelation<?> corrMeasure;
+	String[] varNames;
+	CausalGraph graph;
+
+	// bounds and budget of the Possible-D-SEP phase
+	int maxPathLength = UNBOUNDED;
+	int maxSetSize;
+	long maxNanos = Long.MAX_VALUE;
+	long maxCITests = Long.MAX_VALUE;
+	// whether the candidates are restricted to the variables on paths between the two variables of a link
+	boolean biconnectedRestriction;
+
+	// links which were not tested against all subsets of Possible-D-SEP because the budget was exhausted
+	List<Pair<Integer, Integer>> incompleteLinks = new ArrayList<Pair<Integer, Integer>>();
+
+	/**
+	 * @param skeletonAlgorithm configured algorithm for the skeleton phase, including its executor and metrics
+	 *            (its arrow finder is not used, and should be null)
+	 */
+	public FciAlgorithm(PcAlgorithm skeletonAlgorithm) {
+		this.skeletonAlgorithm = skeletonAlgorithm;
+		this.corrMeasure = skeletonAlgorithm.corrMeasure;
+		this.varNames = skeletonAlgorithm.varNames;
+		this.graph = skeletonAlgorithm.graph;
+		this.maxSetSize = skeletonAlgorithm.maxCondSetSize;
+	}
+
+	/**
+	 * @param maxPathLength maximal number of links on the paths which lead into Possible-D-SEP (default: UNBOUNDED)
+	 */
+	public void setMaxPathLength(int maxPathLength) {
+		this.maxPathLength = maxPathLength;
+	}
+
+	/**
+	 * @param maxSetSize maximal size of the tested subsets of Possible-D-SEP (default: the maximal separating set
+	 *            size of the skeleton algorithm)
+	 */
+	public void setMaxSetSize(int maxSetSize) {
+		this.maxSetSize = maxSetSize;
+	}
+
+	/**
+	 * @param millis wall-clock time after which no more tests are started in the Possible-D-SEP phase
+	 */
+	public void setTimeBudget(long millis) {
+		this.maxNanos = millis * 1000000;
+	}
+
+	/**
+	 * @param numCITests number of CI tests after which no more tests are started in the Possible-D-SEP phase
+	 */
+	public void setTestBudget(long numCITests) {
+		this.maxCITests = numCITests;
+	}
+
+	/**
+	 * @param biconnectedRestriction whether to restrict the separating set candidates of each link to the variables
+	 *            of Possible-D-SEP which lie on some path between its two variables, i.e. in the blocks between
+	 *            them in the block-cut tree of the skeleton (default: false)
+	 */
+	public void setBiconnectedRestriction(boolean biconnectedRestriction) {
+		this.biconnectedRestriction = biconnectedRestriction;
+	}
+
+	/**
+	 * @return the links which are kept only because the budget of the last Possible-D-SEP phase was exhausted
+	 *         before all of their tests were run
+	 */
+	public List<Pair<Integer, Integer>> getIncompleteLinks() {
+		return incompleteLinks;
+	}
+
+	public void run() {
+		runSkeletonInference();
+		runPossibleDSepInference();
+		runDirectionalityInference();
+	}
+
+	public void runSkeletonInference() {
+		skeletonAlgorithm.runSkeletonInference();
+	}
+
+	/**
+	 * Second skeleton phase: removes the links which are separated by a subset of the Possible-D-SEP of one of
+	 * their endpoints, as determined on the skeleton with its v-structures.
+	 */
+	public void runPossibleDSepInference() {
+		RunMetrics metrics = skeletonAlgorithm.metrics;
+		if (metrics != null)
+			metrics.startSkeletonPhase();
+		skeletonAlgorithm.addEmptySepSetsForUntestedPairs();
+		orientVStructures(false);
+
+		final int[][] possibleDSep = new int[varNames.length][];
+		for (int var = 0; var < varNames.length; var++) {
+			possibleDSep[var] = toArray(graph.getPossibleDSep(var, maxPathLength));
+		}
+		// links found undeletable in the skeleton phase were only tested given their neighbors, and are tested again
+		final List<Pair<Integer, Integer>> links = new ArrayList<Pair<Integer, Integer>>();
+		for (Pair<Integer, Integer> link : graph.listAllLinks()) {
+			if (!graph.hasPresetLink(link.first, link.second))
+				links.add(link);
+		}
+		BlockCutTree blockCutTree = biconnectedRestriction ? graph.getBlockCutTree() : null;
+		final int[][] candidates = new int[2 * links.size()][];
+		for (int i = 0; i < links.size(); i++) {
+			Pair<Integer, Integer> link = links.get(i);
+			candidates[2 * i] = without(possibleDSep[link.first], link.second);
+			candidates[2 * i + 1] = without(possibleDSep[link.second], link.first);
+			if (blockCutTree != null) {
+				int[] varsOnPaths = toArray(blockCutTree.getNodesOnPathsBetween(link.first, link.second));
+				candidates[2 * i] = intersection(candidates[2 * i], varsOnPaths);
+				candidates[2 * i + 1] = intersection(candidates[2 * i + 1], varsOnPaths);
+			}
+		}
+		if (!PcAlgorithm.QUIET)
+			System.out.println("Testing " + links.size() + " links against subsets of Possible-D-SEP.");
+
+		final long startNanos = System.nanoTime();
+		final AtomicLong numCITestsStarted = new AtomicLong();
+		final TestOutcome[] outcomes = new TestOutcome[links.size()];
+		runTests(links.size(), (measure, i) -> outcomes[i] = testLink(links.get(i), candidates[2 * i],
+				candidates[2 * i + 1], measure, startNanos, numCITestsStarted));
+
+		incompleteLinks = new ArrayList<Pair<Integer, Integer>>();
+		SepSetStore separatingSets = skeletonAlgorithm.separatingSets;
+		for (int i = 0; i < links.size(); i++) {
+			Pair<Integer, Integer> link = links.get(i);
+			int[] sepSet = outcomes[i].sepSet;
+			if (metrics != null)
+				metrics.numPossibleDSepTests += outcomes[i].numCITests;
+			if (sepSet != null) {
+				if (PcAlgorithm.basicInfo())
+					System.out.println("    successful independence test, link (" + varNames[link.first] + ","
+							+ varNames[link.second] + ") can be removed by conditioning on "
+							+ skeletonAlgorithm.varSetToString(PcAlgorithm.toSet(sepSet, sepSet.length)));
+				separatingSets.remove(link.first, link.second);
+				separatingSets.add(link.first, link.second, sepSet, sepSet.length);
+				skeletonAlgorithm.registerSepSets(link);
+				graph.removeLink(link.first, link.second);
+			} else if (!outcomes[i].complete) {
+				incompleteLinks.add(link);
+			}
+		}
+		if (!PcAlgorithm.QUIET && !incompleteLinks.isEmpty())
+			System.out.println("Budget exhausted, " + incompleteLinks.size()
+					+ " links were not tested against all subsets of Possible-D-SEP.");
+		if (metrics != null) {
+			metrics.numIncompleteLinks += incompleteLinks.size();
+			metrics.endSkeletonPhase();
+		}
+	}
+
+	/**
+	 * Tests the link given subsets of the candidates from the Possible-D-SEP of its first and then its second
+	 * variable, in the order of increasing size, until a separating set is found or the budget is exhausted.
+	 */
+	private TestOutcome testLink(Pair<Integer, Integer> link, int[] firstCandidates, int[] secondCandidates,
+			PartialCorrelation<?> measure, long startNanos, AtomicLong numCITestsStarted) {
+		TestOutcome outcome = new TestOutcome();
+		for (int side = 0; side < 2; side++) {
+			int[] candidates = (side == 0) ? firstCandidates : secondCandidates;
+			int maxDepth = Math.min(maxSetSize, candidates.length);
+			int[] candidate = new int[maxDepth];
+			// the empty set was already tested in the skeleton phase
+			for (int depth = 1; depth <= maxDepth; depth++) {
+				SubsetEnumerator separatingSetCandidates = new SubsetEnumerator(candidates, depth);
+				while (separatingSetCandidates.next()) {
+					separatingSetCandidates.copyCurrent(candidate);
+					// subsets of both Possible-D-SEP sets were already tested for the first variable
+					if (side == 1 && containsAll(firstCandidates, candidate, depth))
+						continue;
+					if (System.nanoTime() - startNanos >= maxNanos
+							|| numCITestsStarted.incrementAndGet() > maxCITests) {
+						outcome.complete = false;
+						return outcome;
+					}
+					outcome.numCITests++;
+					double partialCorrelation = measure.partialCorrelation(link.first, link.second, candidate, depth);
+					if (measure.independenceTest(partialCorrelation, link.first, link.second, candidate, depth)) {
+						outcome.sepSet = Arrays.copyOf(candidate, depth);
+						return outcome;
+					}
+				}
+			}
+		}
+		return outcome;
+	}
+
+	/**
+	 * Orients the PAG from scratch with the separating sets from both skeleton phases.
+	 */
+	public void runDirectionalityInference() {
+		RunMetrics metrics = skeletonAlgorithm.metrics;
+		if (metrics != null)
+			metrics.startOrientationPhase();
+		skeletonAlgorithm.addEmptySepSetsForUntestedPairs();
+
+		// the v-structures found before the Possible-D-SEP phase may have lost links
+		for (int var1 = 0; var1 < varNames.length; var1++) {
+			for (int var2 : graph.getNeighbors(var1)) {
+				if (!graph.hasPresetEnd(var1, var2))
+					graph.setEndSymbol(var1, var2, CausalGraph.CIRCLE_END);
+			}
+		}
+		orientVStructures(true);
+
+		OrientationRules orientationRules = skeletonAlgorithm.createOrientationRules();
+		do {
+			new OrientationRuleEngine(graph, varNames, orientationRules, 1, 2, 3, 5, 6, 7, 8, 9, 10).run();
+		} while (applyDiscriminatingPathRule(orientationRules));
+
+		if (metrics != null)
+			metrics.endOrientationPhase();
+	}
+
+	/**
+	 * Orients the unshielded triples whose dependent variable is not in the separating set of the causes as
+	 * cause1 *-> dependent <-* cause2.
+	 * @param report whether to count and print the v-structures
+	 */
+	private void orientVStructures(boolean report) {
+		int[] triples = graph.listUnshieldedTripleArray();
+		for (int t = 0; t < triples.length; t += 3) {
+			int cause1 = triples[t];
+			int cause2 = triples[t + 1];
+			int dependent = triples[t + 2];
+			if (SepSetStore.contains(skeletonAlgorithm.separatingSets.get(cause1, cause2, 0), dependent))
+				continue;
+			if (report && skeletonAlgorithm.metrics != null)
+				skeletonAlgorithm.metrics.numVStructures++;
+			if (report && PcAlgorithm.basicInfo())
+				System.out.println("Found v-structure: " + varNames[cause1] + " *-> " + varNames[dependent] + " <-* "
+						+ varNames[cause2]);
+			if (!graph.hasPresetEnd(cause1, dependent))
+				graph.setEndSymbol(cause1, dependent, CausalGraph.ARROW_END);
+			if (!graph.hasPresetEnd(cause2, dependent))
+				graph.setEndSymbol(cause2, dependent, CausalGraph.ARROW_END);
+		}
+	}
+
+	/**
+	 * Applies R4 to one discriminating path for each link j o-* k where possible.
+	 * @return whether the graph has changed
+	 */
+	private boolean applyDiscriminatingPathRule(OrientationRules orientationRules) {
+		boolean changed = false;
+		for (List<Integer> path : OrientationRules.findDiscriminatingPaths(graph)) {
+			boolean inSepSet = SepSetStore.contains(
+					skeletonAlgorithm.separatingSets.get(path.get(0), path.get(path.size() - 1), 0),
+					path.get(path.size() - 2));
+			changed |= orientationRules.applyZhangOrientationRule4(graph, varNames, path, inSepSet);
+		}
+		return changed;
+	}
+
+	private void runTests(int numTasks, ObjIntConsumer<PartialCorrelation<?>> task) {
+		if (skeletonAlgorithm.testsInParallel()) {
+			skeletonAlgorithm.runInParallel(numTasks, task);
+		} else {
+			for (int i = 0; i < numTasks; i++) {
+				task.accept(corrMeasure, i);
+			}
+		}
+	}
+
+	private static int[] toArray(Set<Integer> vars) {
+		int[] array = new int[vars.size()];
+		int numVars = 0;
+		for (int var : vars) {
+			array[numVars++] = var;
+		}
+		return array;
+	}
+
+	/**
+	 * @return the sorted array without var
+	 */
+	private static int[] without(int[] vars, int var) {
+		int pos = Arrays.binarySearch(vars, var);
+		if (pos < 0)
+			return vars;
+		int[] result = new int[vars.length - 1];
+		System.arraycopy(vars, 0, result, 0, pos);
+		System.arraycopy(vars, pos + 1, result, pos, vars.length - pos - 1);
+		return result;
+	}
+
+	/**
+	 * @return the sorted array of the variables in both sorted arrays
+	 */
+	private static int[] intersection(int[] vars1, int[] vars2) {
+		int[] result = new int[Math.min(vars1.length, vars2.length)];
+		int numVars = 0;
+		for (int var : vars1) {
+			if (Arrays.binarySearch(vars2, var) >= 0)
+				result[numVars++] = var;
+		}
+		return Arrays.copyOf(result, numVars);
+	}
+
+	private static boolean containsAll(int[] sortedVars, int[] vars, int numVars) {
+		for (int i = 0; i < numVars; i++) {
+			if (Arrays.binarySearch(sortedVars, vars[i]) < 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Outcome of the Possible-D-SEP tests for one link, computed by a worker thread and applied by the thread
+	 * running the algorithm.
+	 */
+	static class TestOutcome {
+		long numCITests;
+		// separating set found for the link (null: not separated)
+		int[] sepSet;
+		// whether all tests were run within the budget
+		boolean complete = true;
+	}
+}
@@ -2,23 +2,35 @@ package de.tuebingen.sfs.causal.algorithms;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
 
 import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.data.SepSetStore;
 import de.tuebingen.sfs.causal.heuristics.arrows.CausalArrowFinder;
+import de.tuebingen.sfs.causal.heuristics.arrows.OrientationRuleEngine;
 import de.tuebingen.sfs.causal.heuristics.arrows.OrientationRules;
 import de.tuebingen.sfs.causal.heuristics.separation.PartialCorrelation;
 import de.tuebingen.sfs.util.struct.Pair;
-import de.tuebingen.sfs.util.struct.SetOperations;
+import de.tuebingen.sfs.util.struct.SubsetEnumerator;
 
 public class PcAlgorithm {
 	public static boolean BASIC_INFO = true;
 	public static boolean VERBOSE = false;
+	// suppresses all progress output of the algorithm and the orientation rules, regardless of BASIC_INFO and VERBOSE,
+	// so that no log messages are formatted at all
+	public static boolean QUIET = false;
 
 	PartialCorrelation<?> corrMeasure;
 	CausalArrowFinder<?> arrowFinder;
@@ -29,7 +41,28 @@ public class PcAlgorithm {
 	boolean stable;
 	boolean acyclicity;
 
-	public Map<Integer, Map<Integer, List<Set<Integer>>>> separatingSets;
+	// optional executor for parallel CI testing within each depth level (null: sequential)
+	ExecutorService executor;
+
+	// separating set collection policy: number of separating sets after which the tests for a link are stopped
+	public static final int ALL_SEPSETS = Integer.MAX_VALUE;
+	public static final int FIRST_SEPSET = 1;
+	int maxSepSets = ALL_SEPSETS;
+
+	// whether the lower bounds of monotone measures are used to skip CI tests (changes the remaining link strengths)
+	boolean boundPruning;
+
+	// links whose separating sets were truncated by maxSepSets, keyed by (link.first, link.second)
+	Map<Integer, Map<Integer, TruncatedLink>> truncatedLinks;
+	// links in the order of their removal (only if maxSepSets is set), to restore earlier states of the skeleton
+	List<Pair<Integer, Integer>> removedLinks;
+
+	// optional collection of counters and timers (null: not collected)
+	RunMetrics metrics;
+
+	public SepSetStore separatingSets;
+	// whether the arrow finder reads the separating sets from separatingSets instead of registerSepSets()
+	boolean arrowFinderSharesSepSets;
 
 	public PcAlgorithm(PartialCorrelation<?> corrMeasure, CausalArrowFinder<?> arrowFinder, String[] varNames,
 			CausalGraph initialGraphWithConstraints, int maxCondSetSize, boolean stable, boolean conservative, boolean acyclicity) {
@@ -42,7 +75,7 @@ public class PcAlgorithm {
 		this.conservative = conservative;
 		this.acyclicity = acyclicity;
 		
-		this.separatingSets = new TreeMap<Integer, Map<Integer, List<Set<Integer>>>>();
+		this.separatingSets = new SepSetStore();
 
 	}
 
@@ -51,54 +84,141 @@ public class PcAlgorithm {
 		runDirectionalityInference();
 	}
 
+	/**
+	 * Enables parallel CI testing within each depth level, e.g. on a ForkJoinPool, or switches back to sequential
+	 * processing if executor is null. In the main phase, only the stable version is parallelized: since its link
+	 * removals are deferred to the end of each level, all links of a level can be tested independently, and the
+	 * result is identical to a sequential stable run. Each worker thread uses its own fork of the correlation
+	 * measure, operating on a snapshot of the graph taken at the start of the parallel phase. For measures which
+	 * cannot be forked (see PartialCorrelation.isForkable()), the tests are run sequentially.
+	 * @param executor
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @return whether CI tests are run in parallel, i.e. an executor is set and the measure can be forked
+	 */
+	boolean testsInParallel() {
+		return executor != null && corrMeasure.isForkable();
+	}
+
+	/**
+	 * Sets the separating set collection policy: ALL_SEPSETS (default) tests all candidates of a removable link,
+	 * FIRST_SEPSET or any other k stops as soon as k separating sets have been found. The orientation phase
+	 * then runs the additional tests it needs on demand, only for the outer pairs of unshielded triples.
+	 * @param maxSepSets
+	 */
+	public void setMaxSepSets(int maxSepSets) {
+		this.maxSepSets = maxSepSets;
+	}
+
+	/**
+	 * Enables the pruning of CI tests with the lower bounds of monotone measures (see PartialCorrelation.isMonotone()),
+	 * which has no effect on other measures. All separating set candidates of a link (or of one of its sides) are
+	 * skipped if the lower bound for them is not accepted, and the bound test on all neighbors is run from depth 1
+	 * instead of depth 3. The skeleton and the separating sets stay the same, but the remaining strength of a link
+	 * whose candidates were skipped is the lower bound instead of the minimal partial correlation, so that it can be
+	 * lower than without pruning (e.g. in the link widths of CausalGraphOutput), and PC* ranks its links differently.
+	 * @param boundPruning
+	 */
+	public void setBoundPruning(boolean boundPruning) {
+		this.boundPruning = boundPruning;
+	}
+
+	/**
+	 * @return whether CI tests can be skipped based on the lower bounds of the measure
+	 */
+	boolean prunesWithBounds() {
+		return boundPruning && corrMeasure.isMonotone();
+	}
+
+	/**
+	 * Enables the collection of run metrics (CI tests, removed links and time per separating set size, orientation
+	 * rule firings), or disables it if metrics is null.
+	 * @param metrics
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public RunMetrics getMetrics() {
+		return metrics;
+	}
+
+	static boolean basicInfo() {
+		return BASIC_INFO && !QUIET;
+	}
+
+	static boolean verbose() {
+		return VERBOSE && !QUIET;
+	}
+
 	public void runSkeletonInference() {
 		initializeSepSets();
+		if (metrics != null)
+			metrics.startSkeletonPhase();
 
 		// phase 1: create skeleton
 
 		for (int depth = 0; depth <= maxCondSetSize; depth++) {
 			List<Pair<Integer, Integer>> links = graph.listAllDeletableLinks();
-			System.out.println(
-					"Proceeding to separating set size " + depth + ", " + links.size() + " deletable links found.");
+			if (!QUIET)
+				System.out.println(
+						"Proceeding to separating set size " + depth + ", " + links.size() + " deletable links found.");
 
 			if (links.size() == 0) {
-				System.out.println("Skeleton inference is finished.");
+				if (!QUIET)
+					System.out.println("Skeleton inference is finished.");
 				break;
 			}
+			if (metrics != null)
+				metrics.startLevel(depth, links.size(), corrMeasure);
 
-			if (depth > 2) {
+			if (depth > 2 || (depth > 0 && prunesWithBounds())) {
 				// preprocessing for speedup: detect all links which persist even when
 				// conditioning on all neighbor nodes
 				// and take them out of the iteration if they persist (upper bound criterion,
 				// detecting non-deletable nodes)
+				// with bound pruning of a monotone measure, this is exact and therefore done at every depth
+				// (links taken out keep the bound as their remaining strength, see setBoundPruning())
+				// the tests do not depend on each other, so they can be run in parallel before the graph is updated
+				double[] upperBoundCorrelations = null;
+				if (testsInParallel())
+					upperBoundCorrelations = computeUpperBoundCorrelations(links);
+				int linkIndex = 0;
 				int linkID = 0;
 				for (Pair<Integer, Integer> link : links) {
-					if (VERBOSE)
+					if (verbose())
 						System.out.print("checking link (" + varNames[link.first] + "," + varNames[link.second] + ")");
-					Set<Integer> neighborVariables = new TreeSet<Integer>();
-					neighborVariables.addAll(graph.getNeighbors(link.first));
-					neighborVariables.addAll(graph.getNeighbors(link.second));
-					neighborVariables.remove(link.first);
-					neighborVariables.remove(link.second);
-					double partialCorrelation = corrMeasure.partialCorrelation(link.first, link.second,
-							neighborVariables);
+					Set<Integer> neighborVariables = getAllNeighborVariables(link);
+					double partialCorrelation = (upperBoundCorrelations != null) ? upperBoundCorrelations[linkIndex]
+							: upperBoundCorrelation(corrMeasure, link, neighborVariables, prunesWithBounds());
+					linkIndex++;
 					if (graph.hasPresetLink(link.first, link.second)) {
 						graph.setUndeletableLink(link.first, link.second, true);
 						graph.setRemainingLinkStrength(link.first, link.second, Math.max(partialCorrelation, 0.2));
 						graph.setRemainingLinkStrength(link.second, link.first, Math.max(partialCorrelation, 0.2));
+						if (metrics != null)
+							metrics.countUpperBoundTest(true);
 						continue;
 					}
-					if (corrMeasure.independenceTest(partialCorrelation, link.first, link.second, neighborVariables)) {
-						if (VERBOSE)
+					boolean independent = corrMeasure.independenceTest(partialCorrelation, link.first, link.second,
+							neighborVariables);
+					if (metrics != null)
+						metrics.countUpperBoundTest(!independent);
+					if (independent) {
+						if (verbose())
 							System.out.println("    successful independence test, link (" + varNames[link.first] + ","
 									+ varNames[link.second] + ") can be removed (overlap: " + partialCorrelation
 									+ ") by conditioning on all variables on connecting paths, i.e. "
 									+ varSetToString(neighborVariables));
 					} else {
-						if (BASIC_INFO)
+						if (basicInfo())
 							System.out.println("    found undeletable link (" + varNames[link.first] + ","
 									+ varNames[link.second] + ")");
-						if (VERBOSE)
+						if (verbose())
 							System.out.println("    " + "(" + varNames[link.first] + "," + varNames[link.second]
 									+ ") did not disappear (overlap: " + partialCorrelation
 									+ ") even when conditioning on all variables on connecting paths, i.e. "
@@ -108,7 +228,7 @@ public class PcAlgorithm {
 						graph.setRemainingLinkStrength(link.second, link.first, partialCorrelation);
 					}
 					linkID++;
-					if (VERBOSE)
+					if (verbose())
 						System.out.println("check " + linkID + "/" + links.size() + " complete!");
 				}
 				links = graph.listAllDeletableLinks();
@@ -117,168 +237,453 @@ public class PcAlgorithm {
 			// cache for links to delete at end of step (for stable version)
 			List<Pair<Integer, Integer>> linksToRemove = new LinkedList<Pair<Integer, Integer>>();
 
-			for (Pair<Integer, Integer> link : links) {
-				boolean presetLink = graph.hasPresetLink(link.first, link.second);
-				boolean foundSepSet = false;
-				double minPartialCorrelation = 1.0;
-				if (depth > 0)
-					minPartialCorrelation = graph.getRemainingLinkStrength(link.first, link.second);
-				List<Integer> neighbors1 = new ArrayList<Integer>();
-				for (int neighbor : graph.getNeighbors(link.first)) {
-					if (neighbor != link.second)
-						neighbors1.add(neighbor);
+			if (stable && testsInParallel()) {
+				// test all links of the level in parallel, then report and apply the results in link order
+				final List<Pair<Integer, Integer>> linkList = new ArrayList<Pair<Integer, Integer>>(links);
+				final LinkTestResult[] results = new LinkTestResult[linkList.size()];
+				final int currentDepth = depth;
+				runInParallel(linkList.size(),
+						(measure, i) -> results[i] = testLink(linkList.get(i), currentDepth, measure, false));
+				for (int i = 0; i < linkList.size(); i++) {
+					reportLinkTest(linkList.get(i), results[i]);
+					applyLinkTest(linkList.get(i), results[i], linksToRemove);
 				}
-				List<Set<Integer>> separatingSetCandidates1 = SetOperations.getSubsets(neighbors1, depth);
-				if (!presetLink) {
-					if (BASIC_INFO)
-						System.out.println("  Attempting to separate pair " + varNames[link.first] + "-"
-								+ varNames[link.second] + " using the " + neighbors1.size() + " other neighbors of "
-								+ varNames[link.first] + ", forming " + separatingSetCandidates1.size()
-								+ " separating set candidates");
-				} else {
-					if (BASIC_INFO)
-						System.out.println("  Minimizing partial correlation for fixed link " + varNames[link.first]
-								+ "-" + varNames[link.second] + " using the " + neighbors1.size()
-								+ " other neighbors of " + varNames[link.first] + ", forming "
-								+ separatingSetCandidates1.size() + " separating set candidates");
+			} else {
+				for (Pair<Integer, Integer> link : links) {
+					applyLinkTest(link, testLink(link, depth, corrMeasure, true), linksToRemove);
 				}
-				for (Set<Integer> separatingSetCandidate : separatingSetCandidates1) {
-					double partialCorrelation = corrMeasure.partialCorrelation(link.first, link.second,
-							separatingSetCandidate);
-					if (partialCorrelation < minPartialCorrelation)
-						minPartialCorrelation = partialCorrelation;
-					if (!presetLink && corrMeasure.independenceTest(partialCorrelation, link.first, link.second,
-							separatingSetCandidate)) {
-						if (BASIC_INFO)
-							System.out.println("    successful independence test, link (" + varNames[link.first] + ","
-									+ varNames[link.second] + ") can be removed by conditioning on "
-									+ varSetToString(separatingSetCandidate));
-						storeSepSet(link.first, link.second, separatingSetCandidate);
-						storeSepSet(link.second, link.first, separatingSetCandidate);
-						foundSepSet = true;
-					}
+			}
+			if (stable) {
+				for (Pair<Integer, Integer> link : linksToRemove) {
+					removeLink(link);
 				}
-				List<Integer> neighbors2 = new ArrayList<Integer>();
-				for (int neighbor : graph.getNeighbors(link.second)) {
-					if (neighbor != link.first)
-						neighbors2.add(neighbor);
+			}
+			if (metrics != null)
+				metrics.endLevel(corrMeasure);
+			if (!QUIET)
+				graph.printInTextFormat();
+		}
+
+		if (metrics != null)
+			metrics.endSkeletonPhase();
+		if (!QUIET)
+			corrMeasure.displayRelevantInformation();
+	}
+
+	/**
+	 * Runs the CI tests for one link on all separating set candidates of the given size, without modifying the graph.
+	 * @param link
+	 * @param depth separating set size
+	 * @param measure the correlation measure (or a fork of it) to run the tests with
+	 * @param printProgress whether to print progress messages immediately (instead of via reportLinkTest)
+	 * @return the separating sets found, and the minimal partial correlation
+	 */
+	protected LinkTestResult testLink(Pair<Integer, Integer> link, int depth, PartialCorrelation<?> measure,
+			boolean printProgress) {
+		LinkTestResult result = new LinkTestResult(graph.hasPresetLink(link.first, link.second), depth);
+		result.minPartialCorrelation = 1.0;
+		if (depth > 0)
+			result.minPartialCorrelation = graph.getRemainingLinkStrength(link.first, link.second);
+		result.candidateNeighbors[0] = getOtherNeighbors(link.first, link.second);
+		result.candidateNeighbors[1] = getOtherNeighbors(link.second, link.first);
+		testSeparatingSetCandidates(link, 0, measure, result, printProgress);
+		if (result.sepSets.size() < maxSepSets)
+			testSeparatingSetCandidates(link, 1, measure, result, printProgress);
+		return result;
+	}
+
+	private int[] getOtherNeighbors(int var, int otherVar) {
+		int[] neighbors = new int[graph.getNumNeighbors(var)];
+		int numNeighbors = 0;
+		for (int neighbor : graph.getNeighbors(var)) {
+			if (neighbor != otherVar)
+				neighbors[numNeighbors++] = neighbor;
+		}
+		return (numNeighbors == neighbors.length) ? neighbors : Arrays.copyOf(neighbors, numNeighbors);
+	}
+
+	private void testSeparatingSetCandidates(Pair<Integer, Integer> link, int side, PartialCorrelation<?> measure,
+			LinkTestResult result, boolean printProgress) {
+		int[] neighbors = result.candidateNeighbors[side];
+		SubsetEnumerator separatingSetCandidates = new SubsetEnumerator(neighbors, result.depth);
+		result.sideTested[side] = true;
+		result.numNeighbors[side] = neighbors.length;
+		result.numCandidates[side] = separatingSetCandidates.count();
+		if (printProgress)
+			printSeparationAttempt(link, result, side);
+		if (result.depth > 0 && result.numCandidates[side] > 1 && boundPruning && measure.isMonotone()
+				&& !canSeparate(link, neighbors, measure, result)) {
+			if (side == 0)
+				result.numSepSetsFirstSide = result.sepSets.size();
+			return;
+		}
+		// the candidates are copied into the same array in every step, only found separating sets are boxed
+		int[] candidate = new int[result.depth];
+		while (separatingSetCandidates.next()) {
+			separatingSetCandidates.copyCurrent(candidate);
+			double partialCorrelation = measure.partialCorrelation(link.first, link.second, candidate, result.depth);
+			result.numCITests++;
+			if (partialCorrelation < result.minPartialCorrelation)
+				result.minPartialCorrelation = partialCorrelation;
+			if (!result.presetLink && measure.independenceTest(partialCorrelation, link.first, link.second,
+					candidate, result.depth)) {
+				Set<Integer> sepSet = toSet(candidate, result.depth);
+				if (printProgress)
+					printSuccessfulTest(link, sepSet);
+				result.sepSets.add(sepSet);
+				if (result.sepSets.size() >= maxSepSets) {
+					result.truncated = true;
+					break;
 				}
-				List<Set<Integer>> separatingSetCandidates2 = SetOperations.getSubsets(neighbors2, depth);
-				if (!presetLink) {
-					if (BASIC_INFO)
-						System.out.println("  Attempting to separate pair " + varNames[link.first] + "-"
-								+ varNames[link.second] + " using the " + neighbors2.size() + " other neighbors of "
-								+ varNames[link.second] + ", forming " + separatingSetCandidates2.size()
-								+ " separating set candidates");
-				} else {
-					if (BASIC_INFO)
-						System.out.println("  Minimizing partial correlation for fixed link " + varNames[link.first]
-								+ "-" + varNames[link.second] + " using the " + neighbors2.size()
-								+ " other neighbors of " + varNames[link.second] + ", forming "
-								+ separatingSetCandidates2.size() + " separating set candidates");
+			}
+		}
+		if (side == 0)
+			result.numSepSetsFirstSide = result.sepSets.size();
+	}
+
+	/**
+	 * Tests whether any subset of the neighbors can be a separating set for the link, using the lower bound of a
+	 * monotone measure, so that the candidates of one side can be skipped as a whole. The bound then stands in for
+	 * their partial correlations in the minimal partial correlation of the link.
+	 */
+	private boolean canSeparate(Pair<Integer, Integer> link, int[] neighbors, PartialCorrelation<?> measure,
+			LinkTestResult result) {
+		double lowerBound = measure.lowerBound(link.first, link.second, neighbors, neighbors.length);
+		result.numCITests++;
+		if (lowerBound < result.minPartialCorrelation)
+			result.minPartialCorrelation = lowerBound;
+		return measure.independenceTest(lowerBound, link.first, link.second, neighbors, neighbors.length);
+	}
+
+	static Set<Integer> toSet(int[] vars, int numVars) {
+		Set<Integer> varSet = new TreeSet<Integer>();
+		for (int i = 0; i < numVars; i++) {
+			varSet.add(vars[i]);
+		}
+		return varSet;
+	}
+
+	/**
+	 * Prints the progress messages for a link tested without printProgress, in the order of a sequential run.
+	 */
+	protected void reportLinkTest(Pair<Integer, Integer> link, LinkTestResult result) {
+		for (int side = 0; side < 2; side++) {
+			if (!result.sideTested[side])
+				continue;
+			printSeparationAttempt(link, result, side);
+			int from = (side == 0) ? 0 : result.numSepSetsFirstSide;
+			int to = (side == 0) ? result.numSepSetsFirstSide : result.sepSets.size();
+			for (Set<Integer> sepSet : result.sepSets.subList(from, to)) {
+				printSuccessfulTest(link, sepSet);
+			}
+		}
+	}
+
+	/**
+	 * Stores the separating sets found for a link, and removes the link (or schedules it for removal in the stable
+	 * version), or updates its remaining link strength if no separating set was found.
+	 */
+	protected void applyLinkTest(Pair<Integer, Integer> link, LinkTestResult result,
+			List<Pair<Integer, Integer>> linksToRemove) {
+		if (metrics != null)
+			metrics.countLinkTest(result.numCITests, result.sepSets.size());
+		for (Set<Integer> sepSet : result.sepSets) {
+			storeSepSet(link.first, link.second, sepSet);
+		}
+		if (result.truncated)
+			addTruncatedLink(link, result.depth, result.candidateNeighbors);
+		if (result.sepSets.size() > 0) {
+			registerSepSets(link);
+			if (stable) {
+				linksToRemove.add(link);
+			} else {
+				removeLink(link);
+			}
+		} else {
+			if (result.presetLink)
+				graph.setRemainingLinkStrength(link.first, link.second, 1.0);
+			else
+				graph.setRemainingLinkStrength(link.first, link.second, result.minPartialCorrelation);
+		}
+	}
+
+	private void printSeparationAttempt(Pair<Integer, Integer> link, LinkTestResult result, int side) {
+		if (!basicInfo())
+			return;
+		String var = varNames[(side == 0) ? link.first : link.second];
+		if (!result.presetLink) {
+			System.out.println("  Attempting to separate pair " + varNames[link.first] + "-" + varNames[link.second]
+					+ " using the " + result.numNeighbors[side] + " other neighbors of " + var + ", forming "
+					+ result.numCandidates[side] + " separating set candidates");
+		} else {
+			System.out.println("  Minimizing partial correlation for fixed link " + varNames[link.first] + "-"
+					+ varNames[link.second] + " using the " + result.numNeighbors[side] + " other neighbors of " + var
+					+ ", forming " + result.numCandidates[side] + " separating set candidates");
+		}
+	}
+
+	private void printSuccessfulTest(Pair<Integer, Integer> link, Set<Integer> sepSet) {
+		if (basicInfo())
+			System.out.println("    successful independence test, link (" + varNames[link.first] + ","
+					+ varNames[link.second] + ") can be removed by conditioning on " + varSetToString(sepSet));
+	}
+
+	private Set<Integer> getAllNeighborVariables(Pair<Integer, Integer> link) {
+		Set<Integer> neighborVariables = new TreeSet<Integer>();
+		neighborVariables.addAll(graph.getNeighbors(link.first));
+		neighborVariables.addAll(graph.getNeighbors(link.second));
+		neighborVariables.remove(link.first);
+		neighborVariables.remove(link.second);
+		return neighborVariables;
+	}
+
+	private double[] computeUpperBoundCorrelations(final List<Pair<Integer, Integer>> links) {
+		final List<Pair<Integer, Integer>> linkList = new ArrayList<Pair<Integer, Integer>>(links);
+		final double[] partialCorrelations = new double[linkList.size()];
+		runInParallel(linkList.size(), (measure, i) -> {
+			Pair<Integer, Integer> link = linkList.get(i);
+			partialCorrelations[i] = upperBoundCorrelation(measure, link, getAllNeighborVariables(link), boundPruning);
+		});
+		return partialCorrelations;
+	}
+
+	/**
+	 * @return the partial correlation given all neighbor variables, or the lower bound for the separating set
+	 *         candidates among them if bound pruning is enabled and the measure is monotone
+	 */
+	private static double upperBoundCorrelation(PartialCorrelation<?> measure, Pair<Integer, Integer> link,
+			Set<Integer> neighborVariables, boolean boundPruning) {
+		int[] neighborArray = new int[neighborVariables.size()];
+		int numNeighbors = 0;
+		for (int neighbor : neighborVariables) {
+			neighborArray[numNeighbors++] = neighbor;
+		}
+		if (boundPruning && measure.isMonotone())
+			return measure.lowerBound(link.first, link.second, neighborArray, numNeighbors);
+		return measure.partialCorrelation(link.first, link.second, neighborArray, numNeighbors);
+	}
+
+	/**
+	 * Runs task(0), ..., task(numTasks - 1) on the executor and waits for all of them to finish.
+	 * Worker threads pick up the next task index as soon as they are done, which balances links with very
+	 * different numbers of separating set candidates. Each worker passes its own fork of the correlation
+	 * measure to the task, set to a read-only snapshot of the current graph.
+	 */
+	protected void runInParallel(final int numTasks, final ObjIntConsumer<PartialCorrelation<?>> task) {
+		int parallelism = (executor instanceof ForkJoinPool) ? ((ForkJoinPool) executor).getParallelism()
+				: Runtime.getRuntime().availableProcessors();
+		final CausalGraph graphSnapshot = graph.readOnlySnapshot();
+		final AtomicInteger nextTask = new AtomicInteger();
+		List<Future<?>> futures = new ArrayList<Future<?>>(parallelism);
+		for (int worker = 0; worker < Math.min(parallelism, numTasks); worker++) {
+			final PartialCorrelation<?> workerMeasure = corrMeasure.fork();
+			workerMeasure.setGraph(graphSnapshot);
+			futures.add(executor.submit(() -> {
+				for (int i = nextTask.getAndIncrement(); i < numTasks; i = nextTask.getAndIncrement()) {
+					task.accept(workerMeasure, i);
 				}
-				for (Set<Integer> separatingSetCandidate : separatingSetCandidates2) {
-					double partialCorrelation = corrMeasure.partialCorrelation(link.first, link.second,
-							separatingSetCandidate);
-					if (partialCorrelation < minPartialCorrelation)
-						minPartialCorrelation = partialCorrelation;
-					if (!presetLink && corrMeasure.independenceTest(partialCorrelation, link.first, link.second,
-							separatingSetCandidate)) {
-						if (BASIC_INFO)
-							System.out.println("    successful independence test, link (" + varNames[link.first] + ","
-									+ varNames[link.second] + ") can be removed by conditioning on "
-									+ varSetToString(separatingSetCandidate));
-						storeSepSet(link.first, link.second, separatingSetCandidate);
-						storeSepSet(link.second, link.first, separatingSetCandidate);
-						foundSepSet = true;
-					}
+			}));
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	protected void removeLink(Pair<Integer, Integer> link) {
+		graph.removeLink(link.first, link.second);
+		if (maxSepSets < ALL_SEPSETS)
+			removedLinks.add(link);
+	}
+
+	protected void addTruncatedLink(Pair<Integer, Integer> link, int depth, int[]... candidateNeighbors) {
+		Map<Integer, TruncatedLink> submap = truncatedLinks.get(link.first);
+		if (submap == null) {
+			submap = new TreeMap<Integer, TruncatedLink>();
+			truncatedLinks.put(link.first, submap);
+		}
+		submap.put(link.second, new TruncatedLink(link, depth, candidateNeighbors, removedLinks.size()));
+	}
+
+	private TruncatedLink getTruncatedLink(int var1, int var2) {
+		Map<Integer, TruncatedLink> submap = truncatedLinks.get(Math.min(var1, var2));
+		if (submap == null)
+			return null;
+		TruncatedLink truncatedLink = submap.get(Math.max(var1, var2));
+		if (truncatedLink == null) {
+			// links are not necessarily stored with the smaller variable first
+			submap = truncatedLinks.get(Math.max(var1, var2));
+			if (submap != null)
+				truncatedLink = submap.get(Math.min(var1, var2));
+		}
+		return truncatedLink;
+	}
+
+	/**
+	 * Runs the additional CI tests which the orientation phase needs for links whose separating sets were
+	 * truncated by maxSepSets, only for the outer pairs of unshielded triples. For a rule which only asks whether
+	 * some separating set contains the middle variable, only candidates containing it are tested; a rule which
+	 * counts separating sets gets the complete list. For graph-dependent measures, the skeleton is temporarily
+	 * rewound to its state when the link was tested, so the result is the same as with ALL_SEPSETS.
+	 */
+	protected void completeTruncatedSepSets() {
+		if (truncatedLinks == null || truncatedLinks.isEmpty())
+			return;
+		int sepSetUsage = CausalArrowFinder.USES_ALL_SEPSETS;
+		if (arrowFinder != null)
+			sepSetUsage = arrowFinder.getSepSetUsage();
+		else if (conservative)
+			sepSetUsage = CausalArrowFinder.USES_SEPSETS_CONTAINING;
+		if (sepSetUsage == CausalArrowFinder.USES_FIRST_SEPSET)
+			return;
+
+		List<TruncatedLink> linksToComplete = new ArrayList<TruncatedLink>();
+		int[] triples = graph.listUnshieldedTripleArray();
+		int[] triple = new int[3];
+		for (int t = 0; t < triples.length; t += 3) {
+			System.arraycopy(triples, t, triple, 0, 3);
+			TruncatedLink truncatedLink = getTruncatedLink(triple[0], triple[1]);
+			if (truncatedLink == null || truncatedLink.completed)
+				continue;
+			if (truncatedLink.middleVars == null) {
+				truncatedLink.middleVars = new ArrayList<Integer>();
+				linksToComplete.add(truncatedLink);
+			}
+			truncatedLink.middleVars.add(triple[2]);
+		}
+
+		// latest removals first, so that the skeleton only needs to be rewound step by step
+		Collections.sort(linksToComplete, (link1, link2) -> link2.removalLogPosition - link1.removalLogPosition);
+		boolean rewind = corrMeasure.dependsOnGraph();
+		int logPosition = removedLinks.size();
+		for (TruncatedLink truncatedLink : linksToComplete) {
+			while (rewind && logPosition > truncatedLink.removalLogPosition) {
+				Pair<Integer, Integer> removedLink = removedLinks.get(--logPosition);
+				graph.addLink(removedLink.first, removedLink.second);
+			}
+			Pair<Integer, Integer> link = truncatedLink.link;
+			if (sepSetUsage == CausalArrowFinder.USES_SEPSETS_CONTAINING) {
+				for (int middleVar : truncatedLink.middleVars) {
+					if (separatingSets.countContaining(link.first, link.second, middleVar) > 0)
+						continue;
+					Set<Integer> sepSet = findSepSetContaining(truncatedLink, middleVar);
+					if (sepSet != null)
+						storeSepSet(link.first, link.second, sepSet);
 				}
-				if (foundSepSet) {
-					registerSepSets(link);
-					if (stable) {
-						linksToRemove.add(link);
-					} else {
-						graph.removeLink(link.first, link.second);
+			} else {
+				separatingSets.remove(link.first, link.second);
+				for (int[] neighbors : truncatedLink.candidateNeighbors) {
+					for (Set<Integer> candidate : new SubsetEnumerator(neighbors, truncatedLink.depth)) {
+						if (isSeparatingSet(link, candidate))
+							storeSepSet(link.first, link.second, candidate);
 					}
-				} else {
-					if (presetLink)
-						graph.setRemainingLinkStrength(link.first, link.second, 1.0);
-					else
-						graph.setRemainingLinkStrength(link.first, link.second, minPartialCorrelation);
 				}
+				truncatedLink.completed = true;
 			}
-			if (stable) {
-				for (Pair<Integer, Integer> link : linksToRemove) {
-					graph.removeLink(link.first, link.second);
-				}
+			truncatedLink.middleVars = null;
+			registerSepSets(link);
+		}
+		for (int i = logPosition; i < removedLinks.size(); i++) {
+			graph.removeLink(removedLinks.get(i).first, removedLinks.get(i).second);
+		}
+	}
+
+	private Set<Integer> findSepSetContaining(TruncatedLink truncatedLink, int var) {
+		if (truncatedLink.depth == 0)
+			return null;
+		for (int[] neighbors : truncatedLink.candidateNeighbors) {
+			int[] otherNeighbors = new int[neighbors.length];
+			int numOtherNeighbors = 0;
+			for (int neighbor : neighbors) {
+				if (neighbor != var)
+					otherNeighbors[numOtherNeighbors++] = neighbor;
+			}
+			if (numOtherNeighbors == neighbors.length)
+				continue;
+			for (Set<Integer> rest : new SubsetEnumerator(otherNeighbors, numOtherNeighbors, truncatedLink.depth - 1)) {
+				Set<Integer> candidate = new TreeSet<Integer>(rest);
+				candidate.add(var);
+				if (isSeparatingSet(truncatedLink.link, candidate))
+					return candidate;
 			}
-			graph.printInTextFormat();
 		}
+		return null;
+	}
 
-		corrMeasure.displayRelevantInformation();
+	private boolean isSeparatingSet(Pair<Integer, Integer> link, Set<Integer> candidate) {
+		double partialCorrelation = corrMeasure.partialCorrelation(link.first, link.second, candidate);
+		if (metrics != null)
+			metrics.numCompletionTests++;
+		return corrMeasure.independenceTest(partialCorrelation, link.first, link.second, candidate);
 	}
 
 	public void runDirectionalityInference() {
-
-		for (int var1 = 0; var1 < varNames.length; var1++) {
-			for (int var2 = 0; var2 < varNames.length; var2++) {
-				if (var1 == var2)
-					continue;
-				List<Set<Integer>> sepSetsForVarPair = separatingSets.get(var1).get(var2);
-				if (sepSetsForVarPair == null) {
-					sepSetsForVarPair = new LinkedList<Set<Integer>>();
-					sepSetsForVarPair.add(new TreeSet<Integer>());
-					separatingSets.get(var1).put(var2, sepSetsForVarPair);
+		if (metrics != null)
+			metrics.startOrientationPhase();
+		completeTruncatedSepSets();
+		addEmptySepSetsForUntestedPairs();
+		if (arrowFinder != null && !arrowFinderSharesSepSets) {
+			for (int var1 = 0; var1 < varNames.length; var1++) {
+				for (int var2 = 0; var2 < varNames.length; var2++) {
+					if (var1 != var2)
+						arrowFinder.registerSepSets(var1, var2, separatingSets.getSepSets(var1, var2));
 				}
-				if (arrowFinder != null) arrowFinder.registerSepSets(var1, var2, sepSetsForVarPair);
 			}
 		}
 		
 		if (arrowFinder != null) {
-			for (String[] arrow : arrowFinder.findArrows(graph, true)) {
+			for (String[] arrow : arrowFinder.findArrows(graph, !QUIET)) {
 				int arrowStart = Arrays.asList(varNames).indexOf(arrow[0]);
 				int arrowEnd = Arrays.asList(varNames).indexOf(arrow[1]);
 				if (!graph.hasPresetArrow(arrowStart, arrowEnd) && !graph.hasPresetArrow(arrowEnd, arrowStart)) {
-					if (BASIC_INFO)
+					if (basicInfo())
 						System.out.println("Arrow finder adds arrow: " + arrow[0] + " -> " + arrow[1]);
 					graph.putArrow(arrowStart, arrowEnd, true);
 				}
 			}
 		} else {
 			// phase 2: establish arrows by analyzing the unshielded triples
-			for (Integer[] triple : graph.listUnshieldedTriples()) {
-				List<Set<Integer>> relevantSepSets = separatingSets.get(triple[0]).get(triple[1]);
-				int sepSetsContainingK = 0;
-				int numRelevantSepSets = relevantSepSets.size();
-				for (Set<Integer> sepSet : relevantSepSets) {
-					if (sepSet.contains(triple[2])) {
-						sepSetsContainingK++;
-					}
-				}
-				numRelevantSepSets = relevantSepSets.size();
+			int[] triples = graph.listUnshieldedTripleArray();
+			int[] triple = new int[3];
+			for (int t = 0; t < triples.length; t += 3) {
+				System.arraycopy(triples, t, triple, 0, 3);
+				int sepSetsContainingK = separatingSets.countContaining(triple[0], triple[1], triple[2]);
+				int numRelevantSepSets = separatingSets.size(triple[0], triple[1]);
 				// System.err.println("Separation sets containing K: " + sepSetsContainingK +
-				// "/" + relevantSepSets.size());
+				// "/" + numRelevantSepSets);
 				if (conservative) {
 					if (sepSetsContainingK == 0) {
-						if (BASIC_INFO)
+						if (metrics != null)
+							metrics.numVStructures++;
+						if (basicInfo())
 							System.out.println("Found v-structure: " + varNames[triple[0]] + " -> "
 									+ varNames[triple[2]] + " <- " + varNames[triple[1]]);
 						graph.putArrow(triple[0], triple[2], true);
 						graph.putArrow(triple[1], triple[2], true);
 					} else {
-						if (VERBOSE)
+						if (verbose())
 							System.out.println("Not a v-structure: " + varNames[triple[0]] + " -> "
 									+ varNames[triple[2]] + " <- " + varNames[triple[1]]);
 					}
 				} else {
 					if (sepSetsContainingK <= numRelevantSepSets / 2) {
-						if (BASIC_INFO)
+						if (metrics != null)
+							metrics.numVStructures++;
+						if (basicInfo())
 							System.out.println("Found v-structure: " + varNames[triple[0]] + " -> "
 									+ varNames[triple[2]] + " <- " + varNames[triple[1]]);
 						graph.putArrow(triple[0], triple[2], true);
 						graph.putArrow(triple[1], triple[2], true);
 					} else {
-						if (VERBOSE)
+						if (verbose())
 							System.out.println("Not a v-structure: " + varNames[triple[0]] + " -> "
 									+ varNames[triple[2]] + " <- " + varNames[triple[1]]);
 					}
@@ -286,19 +691,34 @@ public class PcAlgorithm {
 			}
 
 			// phase 3: orient remaining edges according to DAG criterion
-			boolean hasChanged = true;
-			while (hasChanged) {
-				hasChanged = false;
-				
-				if (BASIC_INFO) OrientationRules.VERBOSE = true;
-
-				// rules for propagating arrows (just as in PC algorithm)
-				// R1: unshielded A *-> B o-* C => A *-> B --> C
-				hasChanged |= OrientationRules.applyZhangOrientationRule1(graph, varNames);
-				// R2: A *-> B -> C or A -> B *-> C and A *-o C => A *-> C
-				if (acyclicity) hasChanged |= OrientationRules.applyZhangOrientationRule2(graph, varNames);
-				// R3: v-structure A *-> B <-* C and A *-o D o-* C where D *-o B imply D *-> B
-				if (acyclicity) hasChanged |= OrientationRules.applyZhangOrientationRule3(graph, varNames);
+			// rules for propagating arrows (just as in PC algorithm), applied until nothing changes
+			// R1: unshielded A *-> B o-* C => A *-> B --> C
+			// R2: A *-> B -> C or A -> B *-> C and A *-o C => A *-> C
+			// R3: v-structure A *-> B <-* C and A *-o D o-* C where D *-o B imply D *-> B
+			int[] rules = acyclicity ? new int[] { 1, 2, 3 } : new int[] { 1 };
+			new OrientationRuleEngine(graph, varNames, createOrientationRules(), rules).run();
+		}
+		if (metrics != null)
+			metrics.endOrientationPhase();
+	}
+
+	/**
+	 * @return orientation rules for this run, which print the orientations according to the output settings and
+	 *         count them in the metrics
+	 */
+	OrientationRules createOrientationRules() {
+		return new OrientationRules(basicInfo() || (OrientationRules.VERBOSE && !QUIET),
+				(metrics != null) ? metrics.ruleFirings : null);
+	}
+
+	/**
+	 * Pairs which were never tested (not linked in the initial graph) count as separated by the empty set.
+	 */
+	protected void addEmptySepSetsForUntestedPairs() {
+		for (int var1 = 0; var1 < varNames.length; var1++) {
+			for (int var2 = var1 + 1; var2 < varNames.length; var2++) {
+				if (!separatingSets.hasSepSets(var1, var2))
+					separatingSets.add(var1, var2, new int[0], 0);
 			}
 		}
 	}
@@ -314,28 +734,66 @@ public class PcAlgorithm {
 		return string.toString();
 	}
 
-	protected void storeSepSet(Integer var1, Integer var2, Set<Integer> sepSet) {
-		Map<Integer, List<Set<Integer>>> submap = separatingSets.get(var1);
-		if (submap == null) {
-			submap = new TreeMap<Integer, List<Set<Integer>>>();
-			separatingSets.put(var1, submap);
-		}
-		List<Set<Integer>> sepSetsForVarPair = submap.get(var2);
-		if (sepSetsForVarPair == null) {
-			sepSetsForVarPair = new LinkedList<Set<Integer>>();
-			submap.put(var2, sepSetsForVarPair);
-		}
-		sepSetsForVarPair.add(sepSet);
+	/**
+	 * Stores a separating set for the unordered pair (var1, var2).
+	 */
+	protected void storeSepSet(int var1, int var2, Set<Integer> sepSet) {
+		separatingSets.add(var1, var2, sepSet);
 	}
 	
 	protected void initializeSepSets() {
-		separatingSets = new TreeMap<Integer, Map<Integer, List<Set<Integer>>>>();
-		for (int var = 0; var < varNames.length; var++) {
-			separatingSets.put(var, new TreeMap<Integer, List<Set<Integer>>>());
+		truncatedLinks = new TreeMap<Integer, Map<Integer, TruncatedLink>>();
+		removedLinks = new ArrayList<Pair<Integer, Integer>>();
+		separatingSets = new SepSetStore();
+		arrowFinderSharesSepSets = (arrowFinder != null) && arrowFinder.useSepSetStore(separatingSets);
+	}
+
+	protected void registerSepSets(Pair<Integer, Integer> link) {
+		corrMeasure.registerSepSets(link.first, link.second, separatingSets.getSepSets(link.first, link.second));
+	}
+
+	/**
+	 * Outcome of the CI tests for one link at one depth.
+	 */
+	protected static class LinkTestResult {
+		boolean presetLink;
+		List<Set<Integer>> sepSets = new ArrayList<Set<Integer>>();
+		double minPartialCorrelation;
+		int depth;
+		// whether testing stopped at maxSepSets before all candidates were tested
+		boolean truncated;
+		// per side (neighbors of link.first, neighbors of link.second)
+		int[][] candidateNeighbors = new int[2][];
+		boolean[] sideTested = new boolean[2];
+		int[] numNeighbors = new int[2];
+		long[] numCandidates = new long[2];
+		int numSepSetsFirstSide;
+		long numCITests;
+
+		LinkTestResult(boolean presetLink, int depth) {
+			this.presetLink = presetLink;
+			this.depth = depth;
 		}
 	}
 
-	private void registerSepSets(Pair<Integer, Integer> link) {
-		corrMeasure.registerSepSets(link.first, link.second, separatingSets.get(link.first).get(link.second));
+	/**
+	 * A removed link whose separating set candidates were not all tested, with what is needed to test the rest.
+	 */
+	protected static class TruncatedLink {
+		Pair<Integer, Integer> link;
+		int depth;
+		int[][] candidateNeighbors;
+		// number of links removed before the tests for this link were run
+		int removalLogPosition;
+		boolean completed;
+		// middle variables of the unshielded triples pending completion
+		List<Integer> middleVars;
+
+		TruncatedLink(Pair<Integer, Integer> link, int depth, int[][] candidateNeighbors, int removalLogPosition) {
+			this.link = link;
+			this.depth = depth;
+			this.candidateNeighbors = candidateNeighbors;
+			this.removalLogPosition = removalLogPosition;
+		}
 	}
 }
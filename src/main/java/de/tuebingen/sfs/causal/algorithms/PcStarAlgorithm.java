@@ -9,11 +9,12 @@ import java.util.Set;
 import java.util.TreeMap;
 
 import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.data.PathNeighborSearch;
 import de.tuebingen.sfs.causal.heuristics.arrows.CausalArrowFinder;
 import de.tuebingen.sfs.causal.heuristics.separation.PartialCorrelation;
 import de.tuebingen.sfs.util.struct.Pair;
 import de.tuebingen.sfs.util.struct.RankingEntry;
-import de.tuebingen.sfs.util.struct.SetOperations;
+import de.tuebingen.sfs.util.struct.SubsetEnumerator;
 
 public class PcStarAlgorithm extends PcAlgorithm {
 
@@ -27,18 +28,37 @@ public class PcStarAlgorithm extends PcAlgorithm {
 		this.randomLinkOrder = randomLinkOrder;
 	}
 
+	protected void completeTruncatedSepSets() {
+		super.completeTruncatedSepSets();
+		if (arrowFinder == null || arrowFinderSharesSepSets)
+			return;
+		for (Map<Integer, TruncatedLink> submap : truncatedLinks.values()) {
+			for (TruncatedLink truncatedLink : submap.values()) {
+				Pair<Integer, Integer> link = truncatedLink.link;
+				arrowFinder.registerSepSets(link.first, link.second, separatingSets.getSepSets(link.first, link.second));
+			}
+		}
+	}
+
 	public void runSkeletonInference() {
 		initializeSepSets();
+		if (metrics != null)
+			metrics.startSkeletonPhase();
+		PathNeighborSearch pathNeighborSearch = new PathNeighborSearch(graph);
 
 		for (int depth = 0; depth <= maxCondSetSize; depth++) {
 			List<Pair<Integer, Integer>> links = graph.listAllDeletableLinks();
-			System.out.println("Proceeding to separating set size " + depth + ", " + links.size()
-					+ " potentially deletable links left.");
+			if (!QUIET)
+				System.out.println("Proceeding to separating set size " + depth + ", " + links.size()
+						+ " potentially deletable links left.");
 
 			if (links.size() == 0) {
-				System.out.println("Skeleton inference is finished.");
+				if (!QUIET)
+					System.out.println("Skeleton inference is finished.");
 				break;
 			}
+			if (metrics != null)
+				metrics.startLevel(depth, links.size(), corrMeasure);
 
 			// sort links by remaining link strength, remove weakest links first
 			List<RankingEntry<Pair<Integer, Integer>>> linkRanking = new ArrayList<RankingEntry<Pair<Integer, Integer>>>(
@@ -61,63 +81,108 @@ public class PcStarAlgorithm extends PcAlgorithm {
 				Collections.sort(linkRanking);
 			}
 
-			for (RankingEntry<Pair<Integer, Integer>> rankedLink : linkRanking) {
+			// pcStar algorithm: only consider neighbors on undirected acyclic paths between the two variables,
+			// determined for all links in one batch, and determined again for links next to removed links
+			int[] linkVars1 = new int[linkRanking.size()];
+			int[] linkVars2 = new int[linkRanking.size()];
+			for (int rank = 0; rank < linkRanking.size(); rank++) {
+				linkVars1[rank] = linkRanking.get(rank).key.first;
+				linkVars2[rank] = linkRanking.get(rank).key.second;
+			}
+			int batchSkeletonVersion = graph.getSkeletonVersion();
+			int[][] batchNeighbors = pathNeighborSearch.getNeighborArrays(linkVars1, linkVars2, 2);
+
+			for (int rank = 0; rank < linkRanking.size(); rank++) {
+				RankingEntry<Pair<Integer, Integer>> rankedLink = linkRanking.get(rank);
 				Pair<Integer, Integer> link = rankedLink.key;
 				double minPartialCorrelation = rankedLink.value;
 
 				boolean presetLink = graph.hasPresetLink(link.first, link.second);
 				boolean foundSepSet = false;
+				boolean truncated = false;
+				int numSepSets = 0;
+				long numCITests = 0;
 
-				// pcStar algorithm: only consider neighbors on undirected acyclic paths between
-				// link.first and link.second
-				List<Integer> neighbors = new ArrayList<Integer>();
-				neighbors.addAll(graph.getNeighborsOnAcyclicPathsBetween(link.first, link.second, 2));
+				int[] neighborArray = batchNeighbors[rank];
+				if (!pathNeighborSearch.isUnchangedSince(link.first, link.second, 2, batchSkeletonVersion))
+					neighborArray = pathNeighborSearch.getNeighborArray(link.first, link.second, 2);
 
-				List<Set<Integer>> separatingSetCandidates = SetOperations.getSubsets(neighbors, depth);
+				SubsetEnumerator separatingSetCandidates = new SubsetEnumerator(neighborArray, depth);
+				long numCandidates = separatingSetCandidates.count();
 
 				if (!presetLink) {
-					if (!BASIC_INFO || separatingSetCandidates.size() > 0)
+					if (!QUIET && (!BASIC_INFO || numCandidates > 0))
 						System.out.println(
 								"  Attempting to separate pair " + varNames[link.first] + "-" + varNames[link.second]
-										+ " using the " + neighbors.size() + " neighbors of " + varNames[link.first]
+										+ " using the " + neighborArray.length + " neighbors of " + varNames[link.first]
 										+ " and " + varNames[link.second] + " on connecting paths, forming "
-										+ separatingSetCandidates.size() + " separating set candidates");
+										+ numCandidates + " separating set candidates");
 				} else {
-					if (!BASIC_INFO || separatingSetCandidates.size() > 0)
+					if (!QUIET && (!BASIC_INFO || numCandidates > 0))
 						System.out.println("  Minimizing partial correlation for fixed link " + varNames[link.first]
-								+ "-" + varNames[link.second] + " using the " + neighbors.size() + " neighbors of "
+								+ "-" + varNames[link.second] + " using the " + neighborArray.length + " neighbors of "
 								+ varNames[link.first] + " and " + varNames[link.second]
-								+ " on connecting paths, forming " + separatingSetCandidates.size()
+								+ " on connecting paths, forming " + numCandidates
 								+ " separating set candidates");
 				}
-				if (VERBOSE)
+				if (verbose())
 					System.out.println("  Remaining link strength: " + minPartialCorrelation);
-				for (Set<Integer> separatingSetCandidate : separatingSetCandidates) {
-					double partialCorrelation = corrMeasure.partialCorrelation(link.first, link.second,
-							separatingSetCandidate);
+				// without bound pruning, all candidates are tested even for monotone measures, because the minimal
+				// partial correlation decides about the rank of the link at the next depth
+				// with bound pruning, a link which no candidate can separate keeps the bound as its strength, and
+				// is marked as undeletable, because the candidates of later depths are subsets of the same neighbors
+				boolean canSeparate = true;
+				if (!presetLink && depth > 0 && numCandidates > 1 && prunesWithBounds()) {
+					double lowerBound = corrMeasure.lowerBound(link.first, link.second, neighborArray,
+							neighborArray.length);
+					numCITests++;
+					canSeparate = corrMeasure.independenceTest(lowerBound, link.first, link.second, neighborArray,
+							neighborArray.length);
+					if (!canSeparate) {
+						if (lowerBound < minPartialCorrelation)
+							minPartialCorrelation = lowerBound;
+						if (verbose())
+							System.out.println("      No separating set among the candidates, lower bound: " + lowerBound);
+						graph.setUndeletableLink(link.first, link.second, true);
+					}
+				}
+				// the candidates are copied into the same array in every step, only found separating sets are boxed
+				int[] candidate = new int[depth];
+				while (canSeparate && separatingSetCandidates.next()) {
+					separatingSetCandidates.copyCurrent(candidate);
+					double partialCorrelation = corrMeasure.partialCorrelation(link.first, link.second, candidate,
+							depth);
+					numCITests++;
 					if (partialCorrelation < minPartialCorrelation) {
 						minPartialCorrelation = partialCorrelation;
-						if (VERBOSE)
+						if (verbose())
 							System.out.println("      Reduced link strength: " + minPartialCorrelation);
 					}
 					if (!presetLink && corrMeasure.independenceTest(partialCorrelation, link.first, link.second,
-							separatingSetCandidate)) {
-						if (BASIC_INFO)
+							candidate, depth)) {
+						Set<Integer> sepSet = toSet(candidate, depth);
+						if (basicInfo())
 							System.out.println("    successful independence test, link (" + varNames[link.first] + ","
 									+ varNames[link.second] + ") can be removed by conditioning on "
-									+ varSetToString(separatingSetCandidate));
-						storeSepSet(link.first, link.second, separatingSetCandidate);
-						storeSepSet(link.second, link.first, separatingSetCandidate);
+									+ varSetToString(sepSet));
+						storeSepSet(link.first, link.second, sepSet);
 						foundSepSet = true;
+						if (++numSepSets >= maxSepSets) {
+							addTruncatedLink(link, depth, neighborArray);
+							truncated = true;
+							break;
+						}
 					}
 				}
+				if (metrics != null)
+					metrics.countLinkTest(numCITests, numSepSets);
 				if (foundSepSet) {
-					corrMeasure.registerSepSets(link.first, link.second,
-							separatingSets.get(link.first).get(link.second));
-					if (arrowFinder != null)
+					registerSepSets(link);
+					// truncated separating sets are passed on once they have been completed
+					if (arrowFinder != null && !arrowFinderSharesSepSets && !truncated)
 						arrowFinder.registerSepSets(link.first, link.second,
-								separatingSets.get(link.first).get(link.second));
-					graph.removeLink(link.first, link.second);
+								separatingSets.getSepSets(link.first, link.second));
+					removeLink(link);
 				} else {
 					if (presetLink)
 						graph.setRemainingLinkStrength(link.first, link.second, 1.0);
@@ -130,12 +195,16 @@ public class PcStarAlgorithm extends PcAlgorithm {
 			links = graph.listAllDeletableLinks();
 			for (Pair<Integer, Integer> link : links) {
 				if (corrMeasure.maxCondSetSizeReached(link.first, link.second, depth)) {
-					if (VERBOSE)
+					if (verbose())
 						System.err.println("    maximal condition set size reached at " + depth + " for link ("
 								+ varNames[link.first] + "," + varNames[link.second] + "), marked as unremovable.");
 					graph.setUndeletableLink(link.first, link.second, true);
 				}
 			}
+			if (metrics != null)
+				metrics.endLevel(corrMeasure);
 		}
+		if (metrics != null)
+			metrics.endSkeletonPhase();
 	}
 }
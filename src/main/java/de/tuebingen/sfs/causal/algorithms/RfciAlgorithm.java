@@ -1,5 +1,299 @@
 package de.tuebingen.sfs.causal.algorithms;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.data.SepSetStore;
+import de.tuebingen.sfs.causal.heuristics.arrows.OrientationRuleEngine;
+import de.tuebingen.sfs.causal.heuristics.arrows.OrientationRules;
+import de.tuebingen.sfs.causal.heuristics.separation.PartialCorrelation;
+import de.tuebingen.sfs.util.struct.Pair;
+import de.tuebingen.sfs.util.struct.SubsetEnumerator;
+
+/**
+ * RFCI (Colombo et al. 2012) on top of the skeleton phase of a PcAlgorithm or PcStarAlgorithm, producing a PAG
+ * which allows for latent confounders. Instead of the Possible-D-SEP tests of FCI, RFCI only runs additional CI
+ * tests on the unshielded triples and discriminating paths it is about to orient, which can remove further links.
+ * These tests are run in batches on the executor of the skeleton algorithm (if it has one), and their results are
+ * applied in a fixed order afterwards, so that parallel and sequential runs produce the same PAG.
+ * Only the first separating set of each pair is used, so the skeleton algorithm can be run with
+ * setMaxSepSets(FIRST_SEPSET).
+ */
 public class RfciAlgorithm {
+	PcAlgorithm skeletonAlgorithm;
+	PartialCorrelation<?> corrMeasure;
+	String[] varNames;
+	CausalGraph graph;
+
+	/**
+	 * @param skeletonAlgorithm configured algorithm for the skeleton phase, including its executor and metrics
+	 *            (its arrow finder is not used, and should be null)
+	 */
+	public RfciAlgorithm(PcAlgorithm skeletonAlgorithm) {
+		this.skeletonAlgorithm = skeletonAlgorithm;
+		this.corrMeasure = skeletonAlgorithm.corrMeasure;
+		this.varNames = skeletonAlgorithm.varNames;
+		this.graph = skeletonAlgorithm.graph;
+	}
+
+	public void run() {
+		runSkeletonInference();
+		runDirectionalityInference();
+	}
+
+	public void runSkeletonInference() {
+		skeletonAlgorithm.runSkeletonInference();
+	}
+
+	public void runDirectionalityInference() {
+		RunMetrics metrics = skeletonAlgorithm.metrics;
+		if (metrics != null)
+			metrics.startOrientationPhase();
+		skeletonAlgorithm.addEmptySepSetsForUntestedPairs();
+
+		// phase 2: test and orient the unshielded triples
+		int[] tripleArray = graph.listUnshieldedTripleArray();
+		List<int[]> triples = new ArrayList<int[]>(tripleArray.length / 3);
+		for (int t = 0; t < tripleArray.length; t += 3) {
+			triples.add(Arrays.copyOfRange(tripleArray, t, t + 3));
+		}
+		orientUnshieldedTriples(triples);
+
+		// phase 3: orientation rules, alternating with the discriminating path rule (R4), whose tests may remove
+		// links and thereby create new unshielded triples
+		OrientationRules orientationRules = skeletonAlgorithm.createOrientationRules();
+		do {
+			new OrientationRuleEngine(graph, varNames, orientationRules, 1, 2, 3, 5, 6, 7, 8, 9, 10).run();
+		} while (applyDiscriminatingPathRule(orientationRules));
+
+		if (metrics != null)
+			metrics.endOrientationPhase();
+	}
+
+	/**
+	 * Tests the unshielded triples (cause1, cause2, dependent) in batches, and orients those whose two links
+	 * survive the tests as v-structures if the dependent variable is not in the separating set of the causes.
+	 * A link removed by the tests turns the common neighbors of its endpoints into new unshielded triples,
+	 * which are tested in the next batch.
+	 */
+	private void orientUnshieldedTriples(List<int[]> triples) {
+		List<int[]> vStructureCandidates = new ArrayList<int[]>();
+		while (!triples.isEmpty()) {
+			final List<int[]> batch = new ArrayList<int[]>(triples.size());
+			for (int[] triple : triples) {
+				if (hasLinks(triple))
+					batch.add(triple);
+			}
+			final TestOutcome[] outcomes = new TestOutcome[batch.size()];
+			runTests(batch.size(), (measure, i) -> outcomes[i] = testTriple(batch.get(i), measure));
+
+			triples = new ArrayList<int[]>();
+			for (int i = 0; i < batch.size(); i++) {
+				int[] triple = batch.get(i);
+				countTests(outcomes[i]);
+				// skip triples which lost a link by the outcome of an earlier triple
+				if (!hasLinks(triple))
+					continue;
+				int[][] sepSets = outcomes[i].sepSets;
+				if (sepSets[0] == null && sepSets[1] == null) {
+					vStructureCandidates.add(triple);
+					continue;
+				}
+				for (int side = 0; side < 2; side++) {
+					if (sepSets[side] != null)
+						separate(triple[side], triple[2], sepSets[side], triples);
+				}
+			}
+		}
+
+		RunMetrics metrics = skeletonAlgorithm.metrics;
+		for (int[] triple : vStructureCandidates) {
+			if (!hasLinks(triple)
+					|| SepSetStore.contains(skeletonAlgorithm.separatingSets.get(triple[0], triple[1], 0), triple[2]))
+				continue;
+			if (metrics != null)
+				metrics.numVStructures++;
+			if (PcAlgorithm.basicInfo())
+				System.out.println("Found v-structure: " + varNames[triple[0]] + " *-> " + varNames[triple[2]]
+						+ " <-* " + varNames[triple[1]]);
+			if (!graph.hasPresetEnd(triple[0], triple[2]))
+				graph.setEndSymbol(triple[0], triple[2], CausalGraph.ARROW_END);
+			if (!graph.hasPresetEnd(triple[1], triple[2]))
+				graph.setEndSymbol(triple[1], triple[2], CausalGraph.ARROW_END);
+		}
+	}
+
+	/**
+	 * Tests both links of the triple given the separating set of the causes (without the dependent variable).
+	 * Preset links are not tested, as they cannot be removed.
+	 */
+	private TestOutcome testTriple(int[] triple, PartialCorrelation<?> measure) {
+		int[] condSet = without(skeletonAlgorithm.separatingSets.get(triple[0], triple[1], 0), triple[2], -1);
+		TestOutcome outcome = new TestOutcome(2);
+		for (int side = 0; side < 2; side++) {
+			if (graph.hasPresetLink(triple[side], triple[2]))
+				continue;
+			outcome.sepSets[side] = findMinimalSepSet(triple[side], triple[2], condSet, measure, outcome);
+		}
+		return outcome;
+	}
+
+	/**
+	 * Applies R4 to one discriminating path for each link j o-* k where possible. As the orientation depends on
+	 * the separating set of the endpoints, the links on the path are tested given that set first, and a link
+	 * found to be removable is removed instead of orienting along the path.
+	 * @return whether the graph has changed
+	 */
+	private boolean applyDiscriminatingPathRule(OrientationRules orientationRules) {
+		final List<List<Integer>> paths = OrientationRules.findDiscriminatingPaths(graph);
+		if (paths.isEmpty())
+			return false;
+		final TestOutcome[] outcomes = new TestOutcome[paths.size()];
+		runTests(paths.size(), (measure, i) -> outcomes[i] = testPath(paths.get(i), measure));
+
+		boolean changed = false;
+		List<int[]> newTriples = new ArrayList<int[]>();
+		for (int i = 0; i < paths.size(); i++) {
+			List<Integer> path = paths.get(i);
+			countTests(outcomes[i]);
+			boolean separated = false;
+			for (int pos = 0; pos < path.size() - 1; pos++) {
+				int[] sepSet = outcomes[i].sepSets[pos];
+				if (sepSet != null && graph.hasLink(path.get(pos), path.get(pos + 1))) {
+					separate(path.get(pos), path.get(pos + 1), sepSet, newTriples);
+					separated = true;
+					changed = true;
+				}
+			}
+			// a removed link breaks the path, earlier orientations are checked by the rule
+			if (separated)
+				continue;
+			boolean inSepSet = SepSetStore.contains(
+					skeletonAlgorithm.separatingSets.get(path.get(0), path.get(path.size() - 1), 0),
+					path.get(path.size() - 2));
+			changed |= orientationRules.applyZhangOrientationRule4(graph, varNames, path, inSepSet);
+		}
+		if (!newTriples.isEmpty())
+			orientUnshieldedTriples(newTriples);
+		return changed;
+	}
+
+	/**
+	 * Tests the links on the path one after another given the separating set of its endpoints (without the
+	 * variables of the link), until the first removable link is found. Preset links are not tested.
+	 */
+	private TestOutcome testPath(List<Integer> path, PartialCorrelation<?> measure) {
+		int[] sepSet = skeletonAlgorithm.separatingSets.get(path.get(0), path.get(path.size() - 1), 0);
+		TestOutcome outcome = new TestOutcome(path.size() - 1);
+		for (int pos = 0; pos < path.size() - 1; pos++) {
+			int var1 = path.get(pos);
+			int var2 = path.get(pos + 1);
+			if (graph.hasPresetLink(var1, var2))
+				continue;
+			outcome.sepSets[pos] = findMinimalSepSet(var1, var2, without(sepSet, var1, var2), measure, outcome);
+			if (outcome.sepSets[pos] != null)
+				break;
+		}
+		return outcome;
+	}
+
+	/**
+	 * @return a minimal subset of condSet which separates the pair, or null if condSet does not separate it
+	 */
+	private int[] findMinimalSepSet(int var1, int var2, int[] condSet, PartialCorrelation<?> measure,
+			TestOutcome outcome) {
+		outcome.numCITests++;
+		if (!isIndependent(var1, var2, condSet, condSet.length, measure))
+			return null;
+		int[] candidate = new int[condSet.length];
+		for (int depth = 0; depth < condSet.length; depth++) {
+			SubsetEnumerator candidates = new SubsetEnumerator(condSet, depth);
+			while (candidates.next()) {
+				candidates.copyCurrent(candidate);
+				outcome.numCITests++;
+				if (isIndependent(var1, var2, candidate, depth, measure))
+					return Arrays.copyOf(candidate, depth);
+			}
+		}
+		return condSet;
+	}
+
+	private static boolean isIndependent(int var1, int var2, int[] condSet, int numVars,
+			PartialCorrelation<?> measure) {
+		double partialCorrelation = measure.partialCorrelation(var1, var2, condSet, numVars);
+		return measure.independenceTest(partialCorrelation, var1, var2, condSet, numVars);
+	}
+
+	/**
+	 * Removes the link between var1 and var2, stores sepSet as its only separating set, and adds the unshielded
+	 * triples formed with the common neighbors of the two variables to newTriples.
+	 */
+	private void separate(int var1, int var2, int[] sepSet, List<int[]> newTriples) {
+		if (PcAlgorithm.basicInfo())
+			System.out.println("    successful independence test, link (" + varNames[var1] + "," + varNames[var2]
+					+ ") can be removed by conditioning on "
+					+ skeletonAlgorithm.varSetToString(PcAlgorithm.toSet(sepSet, sepSet.length)));
+		SepSetStore separatingSets = skeletonAlgorithm.separatingSets;
+		separatingSets.remove(var1, var2);
+		separatingSets.add(var1, var2, sepSet, sepSet.length);
+		skeletonAlgorithm.registerSepSets(new Pair<Integer, Integer>(var1, var2));
+		graph.removeLink(var1, var2);
+
+		int cause1 = Math.min(var1, var2);
+		int cause2 = Math.max(var1, var2);
+		for (int neighbor : graph.getNeighbors(cause1)) {
+			if (graph.hasLink(neighbor, cause2) && !graph.hasPresetArrow(neighbor, cause1)
+					&& !graph.hasPresetArrow(neighbor, cause2))
+				newTriples.add(new int[] { cause1, cause2, neighbor });
+		}
+	}
+
+	private boolean hasLinks(int[] triple) {
+		return graph.hasLink(triple[0], triple[2]) && graph.hasLink(triple[1], triple[2]);
+	}
+
+	/**
+	 * @return the sorted separating set without var1 and var2 (-1: none)
+	 */
+	private static int[] without(int[] sepSet, int var1, int var2) {
+		int[] vars = new int[sepSet.length];
+		int numVars = 0;
+		for (int var : sepSet) {
+			if (var != var1 && var != var2)
+				vars[numVars++] = var;
+		}
+		return Arrays.copyOf(vars, numVars);
+	}
+
+	private void runTests(int numTasks, ObjIntConsumer<PartialCorrelation<?>> task) {
+		if (skeletonAlgorithm.testsInParallel()) {
+			skeletonAlgorithm.runInParallel(numTasks, task);
+		} else {
+			for (int i = 0; i < numTasks; i++) {
+				task.accept(corrMeasure, i);
+			}
+		}
+	}
+
+	private void countTests(TestOutcome outcome) {
+		if (skeletonAlgorithm.metrics != null)
+			skeletonAlgorithm.metrics.numRfciTests += outcome.numCITests;
+	}
+
+	/**
+	 * Outcome of the CI tests for one unshielded triple or discriminating path, computed by a worker thread and
+	 * applied by the thread running the algorithm.
+	 */
+	static class TestOutcome {
+		long numCITests;
+		// minimal separating sets for the links of the triple or path (null: not separated)
+		int[][] sepSets;
 
+		TestOutcome(int numLinks) {
+			sepSets = new int[numLinks][];
+		}
+	}
 }
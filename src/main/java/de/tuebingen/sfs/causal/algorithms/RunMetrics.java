@@ -0,0 +1,177 @@
+package de.tuebingen.sfs.causal.algorithms;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.tuebingen.sfs.causal.heuristics.separation.CachedPartialCorrelation;
+import de.tuebingen.sfs.causal.heuristics.separation.PartialCorrelation;
+
+/**
+ * Counters and timers for one run of PcAlgorithm, PcStarAlgorithm, RfciAlgorithm or FciAlgorithm (see
+ * PcAlgorithm.setMetrics()), collected per separating set size in the skeleton phase and per rule in the
+ * orientation phase, and exportable as JSON or CSV. All counters are updated by the thread running the
+ * algorithm; the tests run by worker threads are counted when their results are applied.
+ */
+public class RunMetrics {
+	public List<LevelMetrics> levels = new ArrayList<LevelMetrics>();
+	LevelMetrics currentLevel;
+
+	// CI tests run on demand for truncated separating sets (see PcAlgorithm.setMaxSepSets())
+	public long numCompletionTests;
+	// CI tests run by RfciAlgorithm on unshielded triples and discriminating paths
+	public long numRfciTests;
+	// CI tests run by FciAlgorithm on subsets of Possible-D-SEP, and links whose tests were cut off by its budget
+	public long numPossibleDSepTests;
+	public long numIncompleteLinks;
+	public long skeletonNanos;
+	public long orientationNanos;
+	// v-structures found by the built-in rule (when no arrow finder is used)
+	public long numVStructures;
+	// orientations made by each rule, indexed by rule number
+	public long[] ruleFirings = new long[11];
+
+	long phaseStart;
+
+	/**
+	 * Metrics for the tests with one separating set size.
+	 */
+	public static class LevelMetrics {
+		public int depth;
+		public long numLinks;
+		// links tested against all neighbors at once in the pre-pass, and those found undeletable
+		public long numUpperBoundTests;
+		public long numUndeletableLinks;
+		public long numLinksTested;
+		public long numCITests;
+		public long maxCITestsPerLink;
+		public long numLinksRemoved;
+		public long numSepSets;
+		public long numCacheHits;
+		public long numCacheMisses;
+		public long nanos;
+
+		LevelMetrics(int depth, long numLinks) {
+			this.depth = depth;
+			this.numLinks = numLinks;
+		}
+	}
+
+	public void startSkeletonPhase() {
+		phaseStart = System.nanoTime();
+	}
+
+	public void endSkeletonPhase() {
+		skeletonNanos += System.nanoTime() - phaseStart;
+	}
+
+	public void startOrientationPhase() {
+		phaseStart = System.nanoTime();
+	}
+
+	public void endOrientationPhase() {
+		orientationNanos += System.nanoTime() - phaseStart;
+	}
+
+	public void startLevel(int depth, long numLinks, PartialCorrelation<?> measure) {
+		currentLevel = new LevelMetrics(depth, numLinks);
+		levels.add(currentLevel);
+		if (measure instanceof CachedPartialCorrelation) {
+			currentLevel.numCacheHits = -((CachedPartialCorrelation<?>) measure).getNumHits();
+			currentLevel.numCacheMisses = -((CachedPartialCorrelation<?>) measure).getNumMisses();
+		}
+		currentLevel.nanos = -System.nanoTime();
+	}
+
+	public void endLevel(PartialCorrelation<?> measure) {
+		currentLevel.nanos += System.nanoTime();
+		if (measure instanceof CachedPartialCorrelation) {
+			currentLevel.numCacheHits += ((CachedPartialCorrelation<?>) measure).getNumHits();
+			currentLevel.numCacheMisses += ((CachedPartialCorrelation<?>) measure).getNumMisses();
+		} else {
+			currentLevel.numCacheHits = 0;
+			currentLevel.numCacheMisses = 0;
+		}
+		currentLevel = null;
+	}
+
+	public void countUpperBoundTest(boolean undeletable) {
+		currentLevel.numUpperBoundTests++;
+		if (undeletable)
+			currentLevel.numUndeletableLinks++;
+	}
+
+	public void countLinkTest(long numCITests, int numSepSets) {
+		currentLevel.numLinksTested++;
+		currentLevel.numCITests += numCITests;
+		if (numCITests > currentLevel.maxCITestsPerLink)
+			currentLevel.maxCITestsPerLink = numCITests;
+		currentLevel.numSepSets += numSepSets;
+		if (numSepSets > 0)
+			currentLevel.numLinksRemoved++;
+	}
+
+	public long getNumCITests() {
+		long numCITests = numCompletionTests + numRfciTests + numPossibleDSepTests;
+		for (LevelMetrics level : levels) {
+			numCITests += level.numUpperBoundTests + level.numCITests;
+		}
+		return numCITests;
+	}
+
+	public void writeJson(PrintStream out) {
+		out.println("{");
+		out.println("  \"skeletonMillis\": " + millis(skeletonNanos) + ",");
+		out.println("  \"orientationMillis\": " + millis(orientationNanos) + ",");
+		out.println("  \"numCITests\": " + getNumCITests() + ",");
+		out.println("  \"numCompletionTests\": " + numCompletionTests + ",");
+		out.println("  \"numRfciTests\": " + numRfciTests + ",");
+		out.println("  \"numPossibleDSepTests\": " + numPossibleDSepTests + ",");
+		out.println("  \"numIncompleteLinks\": " + numIncompleteLinks + ",");
+		out.println("  \"numVStructures\": " + numVStructures + ",");
+		out.println("  \"levels\": [");
+		for (int i = 0; i < levels.size(); i++) {
+			LevelMetrics level = levels.get(i);
+			out.println("    {\"depth\": " + level.depth + ", \"numLinks\": " + level.numLinks
+					+ ", \"numUpperBoundTests\": " + level.numUpperBoundTests + ", \"numUndeletableLinks\": "
+					+ level.numUndeletableLinks + ", \"numLinksTested\": " + level.numLinksTested
+					+ ", \"numCITests\": " + level.numCITests + ", \"maxCITestsPerLink\": " + level.maxCITestsPerLink
+					+ ", \"numLinksRemoved\": " + level.numLinksRemoved + ", \"numSepSets\": " + level.numSepSets
+					+ ", \"numCacheHits\": " + level.numCacheHits + ", \"numCacheMisses\": " + level.numCacheMisses
+					+ ", \"millis\": " + millis(level.nanos) + "}" + ((i < levels.size() - 1) ? "," : ""));
+		}
+		out.println("  ],");
+		StringBuilder firings = new StringBuilder();
+		for (int rule = 1; rule < ruleFirings.length; rule++) {
+			if (firings.length() > 0)
+				firings.append(", ");
+			firings.append("\"R" + rule + "\": " + ruleFirings[rule]);
+		}
+		out.println("  \"ruleFirings\": {" + firings + "}");
+		out.println("}");
+	}
+
+	/**
+	 * Writes one line per level and one line per rule, with the columns that do not apply left empty.
+	 */
+	public void writeCsv(PrintStream out) {
+		out.println("phase,depth,numLinks,numUpperBoundTests,numUndeletableLinks,numLinksTested,numCITests,"
+				+ "maxCITestsPerLink,numLinksRemoved,numSepSets,numCacheHits,numCacheMisses,millis,rule,numFirings");
+		for (LevelMetrics level : levels) {
+			out.println("skeleton," + level.depth + "," + level.numLinks + "," + level.numUpperBoundTests + ","
+					+ level.numUndeletableLinks + "," + level.numLinksTested + "," + level.numCITests + ","
+					+ level.maxCITestsPerLink + "," + level.numLinksRemoved + "," + level.numSepSets + ","
+					+ level.numCacheHits + "," + level.numCacheMisses + "," + millis(level.nanos) + ",,");
+		}
+		out.println("completion,,,,,," + numCompletionTests + ",,,,,,,,");
+		out.println("rfci,,,,,," + numRfciTests + ",,,,,,,,");
+		out.println("possibleDSep,,,,,," + numPossibleDSepTests + ",,,,,,,,");
+		for (int rule = 1; rule < ruleFirings.length; rule++) {
+			out.println("orientation,,,,,,,,,,,,,R" + rule + "," + ruleFirings[rule]);
+		}
+	}
+
+	private static String millis(long nanos) {
+		return String.valueOf(nanos / 1000000.0);
+	}
+}
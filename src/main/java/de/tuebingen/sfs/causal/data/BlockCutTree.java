@@ -0,0 +1,484 @@
+package de.tuebingen.sfs.causal.data;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Block-cut tree of the skeleton of a CausalGraph at the time of construction: the biconnected components
+ * (blocks) and the articulation points which connect them. A variable lies on some simple path between var1
+ * and var2 iff it belongs to one of the blocks on the path between var1 and var2 in the tree, so that the
+ * variables on paths between two variables can be determined without enumerating paths. The tree is built in
+ * linear time (Hopcroft and Tarjan 1973) and does not change with the graph (see CausalGraph.getBlockCutTree()).
+ * Each thread keeps its own marks for the queries, so that they can be run concurrently.
+ */
+public class BlockCutTree
+{
+	int numVars;
+	int skeletonVersion;
+
+	//skeleton as adjacency arrays
+	int[] neighborStarts;
+	int[] neighbors;
+
+	//variables of each block
+	int[] blockStarts;
+	int[] blockVars;
+	int numBlocks;
+
+	//tree nodes are the blocks (0 ... numBlocks - 1), followed by the articulation points
+	int[] treeNode; //of each variable: its articulation point node, or its only block (-1 for isolated variables)
+	int[] treeParent;
+	int[] treeDepth;
+	int[] treeComponent;
+
+	//maximal number of path extensions in the depth-first search of a query for paths of more than 3 links
+	public static final long MAX_PATH_STEPS = 1000000;
+
+	//marks and buffers of the queries, for each thread
+	ThreadLocal<Query> queries = new ThreadLocal<Query>();
+
+	/**
+	 * Marks and buffers of the queries of one thread. The marks are valid if equal to the current epoch, the
+	 * other arrays are only reset on the marked variables.
+	 */
+	static class Query
+	{
+		int[] marks;
+		int epoch;
+		//the marked variables of the current query
+		int[] markedVars;
+		int numMarkedVars;
+		//arrays of the depth-bounded queries
+		int[] distances1;
+		int[] distances2;
+		int[] agenda;
+		int[] path;
+		boolean[] onPath;
+		int[] foundMarks;
+		long numSteps;
+
+		Query(int numVars)
+		{
+			marks = new int[numVars];
+			markedVars = new int[numVars];
+		}
+	}
+
+	public BlockCutTree(CausalGraph graph)
+	{
+		numVars = graph.varNames.length;
+		skeletonVersion = graph.getSkeletonVersion();
+		neighborStarts = new int[numVars + 1];
+		for (int var = 0; var < numVars; var++)
+		{
+			neighborStarts[var + 1] = neighborStarts[var] + graph.getNumNeighbors(var);
+		}
+		neighbors = new int[neighborStarts[numVars]];
+		for (int var = 0; var < numVars; var++)
+		{
+			int pos = neighborStarts[var];
+			for (int neighbor : graph.getNeighbors(var))
+			{
+				neighbors[pos++] = neighbor;
+			}
+		}
+		findBlocks();
+		buildTree();
+	}
+
+	/**
+	 * Iterative version of the depth-first search by Hopcroft and Tarjan, which pops a block from the stack of
+	 * visited links whenever no link from below a tree link leads above its upper variable.
+	 */
+	private void findBlocks()
+	{
+		int[] discovery = new int[numVars];
+		Arrays.fill(discovery, -1);
+		int[] low = new int[numVars];
+		int[] parent = new int[numVars];
+		int[] nextNeighborPos = new int[numVars];
+		int[] dfsStack = new int[numVars];
+		//visited links as pairs of variables
+		int[] linkStack = new int[neighbors.length];
+		int linkStackSize = 0;
+		int time = 0;
+
+		int[] blockOfVar = new int[numVars];
+		Arrays.fill(blockOfVar, -1);
+		blockStarts = new int[numVars + 1];
+		int[] vars = new int[neighbors.length];
+		int numBlockVars = 0;
+
+		for (int root = 0; root < numVars; root++)
+		{
+			if (discovery[root] >= 0 || neighborStarts[root] == neighborStarts[root + 1]) continue;
+			int dfsStackSize = 0;
+			dfsStack[dfsStackSize++] = root;
+			discovery[root] = low[root] = time++;
+			parent[root] = -1;
+			nextNeighborPos[root] = neighborStarts[root];
+			while (dfsStackSize > 0)
+			{
+				int var = dfsStack[dfsStackSize - 1];
+				if (nextNeighborPos[var] < neighborStarts[var + 1])
+				{
+					int neighbor = neighbors[nextNeighborPos[var]++];
+					if (discovery[neighbor] < 0)
+					{
+						linkStack[linkStackSize++] = var;
+						linkStack[linkStackSize++] = neighbor;
+						discovery[neighbor] = low[neighbor] = time++;
+						parent[neighbor] = var;
+						nextNeighborPos[neighbor] = neighborStarts[neighbor];
+						dfsStack[dfsStackSize++] = neighbor;
+					}
+					else if (neighbor != parent[var] && discovery[neighbor] < discovery[var])
+					{
+						linkStack[linkStackSize++] = var;
+						linkStack[linkStackSize++] = neighbor;
+						low[var] = Math.min(low[var], discovery[neighbor]);
+					}
+					continue;
+				}
+				dfsStackSize--;
+				int upperVar = parent[var];
+				if (upperVar < 0) continue;
+				low[upperVar] = Math.min(low[upperVar], low[var]);
+				if (low[var] >= discovery[upperVar])
+				{
+					//the links above and including (upperVar, var) form a block
+					int linkVar1;
+					int linkVar2;
+					do
+					{
+						linkVar2 = linkStack[--linkStackSize];
+						linkVar1 = linkStack[--linkStackSize];
+						if (blockOfVar[linkVar1] != numBlocks)
+						{
+							blockOfVar[linkVar1] = numBlocks;
+							vars[numBlockVars++] = linkVar1;
+						}
+						if (blockOfVar[linkVar2] != numBlocks)
+						{
+							blockOfVar[linkVar2] = numBlocks;
+							vars[numBlockVars++] = linkVar2;
+						}
+					}
+					while (linkVar1 != upperVar || linkVar2 != var);
+					Arrays.sort(vars, blockStarts[numBlocks], numBlockVars);
+					blockStarts[++numBlocks] = numBlockVars;
+				}
+			}
+		}
+		blockStarts = Arrays.copyOf(blockStarts, numBlocks + 1);
+		blockVars = Arrays.copyOf(vars, numBlockVars);
+	}
+
+	private void buildTree()
+	{
+		//variables in more than one block are articulation points
+		int[] numBlocksOfVar = new int[numVars];
+		int[] someBlockOfVar = new int[numVars];
+		for (int block = 0; block < numBlocks; block++)
+		{
+			for (int i = blockStarts[block]; i < blockStarts[block + 1]; i++)
+			{
+				numBlocksOfVar[blockVars[i]]++;
+				someBlockOfVar[blockVars[i]] = block;
+			}
+		}
+		treeNode = new int[numVars];
+		int numNodes = numBlocks;
+		for (int var = 0; var < numVars; var++)
+		{
+			if (numBlocksOfVar[var] == 0) treeNode[var] = -1;
+			else if (numBlocksOfVar[var] == 1) treeNode[var] = someBlockOfVar[var];
+			else treeNode[var] = numNodes++;
+		}
+		//tree links between each block and its articulation points, as adjacency arrays
+		int[] nodeLinkStarts = new int[numNodes + 1];
+		for (int block = 0; block < numBlocks; block++)
+		{
+			for (int i = blockStarts[block]; i < blockStarts[block + 1]; i++)
+			{
+				int var = blockVars[i];
+				if (treeNode[var] >= numBlocks)
+				{
+					nodeLinkStarts[block + 1]++;
+					nodeLinkStarts[treeNode[var] + 1]++;
+				}
+			}
+		}
+		for (int node = 0; node < numNodes; node++)
+		{
+			nodeLinkStarts[node + 1] += nodeLinkStarts[node];
+		}
+		int[] nodeLinks = new int[nodeLinkStarts[numNodes]];
+		int[] numNodeLinks = new int[numNodes];
+		for (int block = 0; block < numBlocks; block++)
+		{
+			for (int i = blockStarts[block]; i < blockStarts[block + 1]; i++)
+			{
+				int cutNode = treeNode[blockVars[i]];
+				if (cutNode >= numBlocks)
+				{
+					nodeLinks[nodeLinkStarts[block] + numNodeLinks[block]++] = cutNode;
+					nodeLinks[nodeLinkStarts[cutNode] + numNodeLinks[cutNode]++] = block;
+				}
+			}
+		}
+		//root each tree of the forest at its first block
+		treeParent = new int[numNodes];
+		treeDepth = new int[numNodes];
+		treeComponent = new int[numNodes];
+		Arrays.fill(treeComponent, -1);
+		int[] agenda = new int[numNodes];
+		for (int root = 0; root < numBlocks; root++)
+		{
+			if (treeComponent[root] >= 0) continue;
+			treeComponent[root] = root;
+			treeParent[root] = -1;
+			int agendaStart = 0;
+			int agendaEnd = 0;
+			agenda[agendaEnd++] = root;
+			while (agendaStart < agendaEnd)
+			{
+				int node = agenda[agendaStart++];
+				for (int i = nodeLinkStarts[node]; i < nodeLinkStarts[node + 1]; i++)
+				{
+					int child = nodeLinks[i];
+					if (treeComponent[child] >= 0) continue;
+					treeComponent[child] = root;
+					treeParent[child] = node;
+					treeDepth[child] = treeDepth[node] + 1;
+					agenda[agendaEnd++] = child;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the skeleton version of the graph from which the tree was built
+	 */
+	public int getSkeletonVersion()
+	{
+		return skeletonVersion;
+	}
+
+	public int getNumBlocks()
+	{
+		return numBlocks;
+	}
+
+	public boolean isArticulationPoint(int var)
+	{
+		return treeNode[var] >= numBlocks;
+	}
+
+	private Query getQuery()
+	{
+		Query query = queries.get();
+		if (query == null)
+		{
+			query = new Query(numVars);
+			queries.set(query);
+		}
+		return query;
+	}
+
+	/**
+	 * @return the variables (other than var1 and var2) which lie on some simple path between var1 and var2
+	 */
+	public Set<Integer> getNodesOnPathsBetween(int var1, int var2)
+	{
+		Query query = getQuery();
+		Set<Integer> nodes = new TreeSet<Integer>();
+		if (!markNodesOnPathsBetween(query, var1, var2)) return nodes;
+		for (int i = 0; i < query.numMarkedVars; i++)
+		{
+			int var = query.markedVars[i];
+			if (var != var1 && var != var2) nodes.add(var);
+		}
+		return nodes;
+	}
+
+	/**
+	 * Depth-bounded variant of getNodesOnPathsBetween(): the variables on simple paths of at most maxLength links
+	 * between var1 and var2, see getNodesOnPathsBetween(int, int, int, long), with at most MAX_PATH_STEPS steps.
+	 */
+	public Set<Integer> getNodesOnPathsBetween(int var1, int var2, int maxLength)
+	{
+		return getNodesOnPathsBetween(var1, var2, maxLength, MAX_PATH_STEPS);
+	}
+
+	/**
+	 * Depth-bounded variant of getNodesOnPathsBetween(): the variables on simple paths of at most maxLength links
+	 * between var1 and var2. Up to 3 links, these are the variables whose distances d1 from var1 (not via var2)
+	 * and d2 to var2 (not via var1) within the blocks between the two variables add up to at most maxLength,
+	 * which are computed by two breadth-first searches. For longer paths, this can include variables which are
+	 * only on longer simple paths, so that the paths within these blocks are enumerated by a depth-first search
+	 * instead, which is pruned by the distances to var2. The number of these paths can grow exponentially with
+	 * maxLength in dense blocks, so that the search is given up after maxSteps path extensions, and the variables
+	 * with d1 + d2 <= maxLength are returned instead, a superset of the exact result.
+	 */
+	public Set<Integer> getNodesOnPathsBetween(int var1, int var2, int maxLength, long maxSteps)
+	{
+		if (maxLength >= numVars - 1) return getNodesOnPathsBetween(var1, var2);
+		Query query = getQuery();
+		Set<Integer> nodes = new TreeSet<Integer>();
+		if (maxLength < 2 || !markNodesOnPathsBetween(query, var1, var2)) return nodes;
+		if (query.distances1 == null)
+		{
+			query.distances1 = new int[numVars];
+			query.distances2 = new int[numVars];
+			Arrays.fill(query.distances1, -1);
+			Arrays.fill(query.distances2, -1);
+			query.agenda = new int[numVars];
+		}
+		distancesWithinMarks(query, var2, var1, maxLength - 1, query.distances2);
+		boolean exact = false;
+		if (maxLength > 3)
+		{
+			if (query.path == null)
+			{
+				query.path = new int[numVars];
+				query.onPath = new boolean[numVars];
+				query.foundMarks = new int[numVars];
+			}
+			query.path[0] = var1;
+			query.onPath[var1] = true;
+			query.numSteps = 0;
+			exact = findPathsWithinMarks(query, 1, var2, maxLength, maxSteps);
+			query.onPath[var1] = false;
+			if (exact)
+			{
+				for (int i = 0; i < query.numMarkedVars; i++)
+				{
+					int var = query.markedVars[i];
+					if (var != var1 && query.foundMarks[var] == query.epoch) nodes.add(var);
+				}
+			}
+			else
+			{
+				//the search was given up, the marks of the variables on the current path are reset
+				for (int i = 0; i < query.numMarkedVars; i++)
+				{
+					query.onPath[query.markedVars[i]] = false;
+				}
+			}
+		}
+		if (!exact)
+		{
+			distancesWithinMarks(query, var1, var2, maxLength - 1, query.distances1);
+			for (int i = 0; i < query.numMarkedVars; i++)
+			{
+				int var = query.markedVars[i];
+				if (var == var1 || var == var2 || query.distances1[var] < 0 || query.distances2[var] < 0) continue;
+				if (query.distances1[var] + query.distances2[var] <= maxLength) nodes.add(var);
+			}
+		}
+		for (int i = 0; i < query.numMarkedVars; i++)
+		{
+			query.distances1[query.markedVars[i]] = -1;
+			query.distances2[query.markedVars[i]] = -1;
+		}
+		return nodes;
+	}
+
+	/**
+	 * Extends the path of the given length by the marked neighbors of its last variable from which var2 can
+	 * still be reached within maxLength links, and marks the variables of the paths which arrive at var2.
+	 * @return false if the search was given up after maxSteps extensions
+	 */
+	private boolean findPathsWithinMarks(Query query, int length, int var2, int maxLength, long maxSteps)
+	{
+		int var = query.path[length - 1];
+		for (int i = neighborStarts[var]; i < neighborStarts[var + 1]; i++)
+		{
+			int neighbor = neighbors[i];
+			if (neighbor == var2)
+			{
+				for (int pos = 1; pos < length; pos++)
+				{
+					query.foundMarks[query.path[pos]] = query.epoch;
+				}
+				continue;
+			}
+			if (query.marks[neighbor] != query.epoch || query.onPath[neighbor] || query.distances2[neighbor] < 0
+					|| length + query.distances2[neighbor] > maxLength) continue;
+			if (++query.numSteps > maxSteps) return false;
+			query.path[length] = neighbor;
+			query.onPath[neighbor] = true;
+			if (!findPathsWithinMarks(query, length + 1, var2, maxLength, maxSteps)) return false;
+			query.onPath[neighbor] = false;
+		}
+		return true;
+	}
+
+	/**
+	 * Marks the variables of the blocks on the tree path between var1 and var2 with a new epoch.
+	 * @return false if var1 and var2 are not connected
+	 */
+	private boolean markNodesOnPathsBetween(Query query, int var1, int var2)
+	{
+		query.epoch++;
+		query.numMarkedVars = 0;
+		int node1 = treeNode[var1];
+		int node2 = treeNode[var2];
+		if (var1 == var2 || node1 < 0 || node2 < 0 || treeComponent[node1] != treeComponent[node2]) return false;
+		while (node1 != node2)
+		{
+			if (treeDepth[node1] >= treeDepth[node2])
+			{
+				markBlock(query, node1);
+				node1 = treeParent[node1];
+			}
+			else
+			{
+				markBlock(query, node2);
+				node2 = treeParent[node2];
+			}
+		}
+		markBlock(query, node1);
+		return true;
+	}
+
+	private void markBlock(Query query, int node)
+	{
+		if (node >= numBlocks) return;
+		for (int i = blockStarts[node]; i < blockStarts[node + 1]; i++)
+		{
+			int var = blockVars[i];
+			if (query.marks[var] == query.epoch) continue;
+			query.marks[var] = query.epoch;
+			query.markedVars[query.numMarkedVars++] = var;
+		}
+	}
+
+	/**
+	 * Stores the distances of the marked variables from startVar up to maxDistance, without passing through
+	 * excludedVar, in distances (which must be -1 on all marked variables, and stays -1 where the distance is
+	 * larger or the variable is unreachable).
+	 */
+	private void distancesWithinMarks(Query query, int startVar, int excludedVar, int maxDistance, int[] distances)
+	{
+		int[] agenda = query.agenda;
+		int agendaStart = 0;
+		int agendaEnd = 0;
+		distances[startVar] = 0;
+		agenda[agendaEnd++] = startVar;
+		while (agendaStart < agendaEnd)
+		{
+			int var = agenda[agendaStart++];
+			if (distances[var] == maxDistance) break;
+			for (int i = neighborStarts[var]; i < neighborStarts[var + 1]; i++)
+			{
+				int neighbor = neighbors[i];
+				if (neighbor == excludedVar || query.marks[neighbor] != query.epoch || distances[neighbor] >= 0) continue;
+				distances[neighbor] = distances[var] + 1;
+				agenda[agendaEnd++] = neighbor;
+			}
+		}
+	}
+}
@@ -9,13 +9,18 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -27,30 +32,44 @@ public class CausalGraph
 	public String[] varNames;
 	public Map<String, Integer> nameToVar;
 	
-	//skeleton
-	Map<Integer,Set<Integer>> neighbors;
+	//skeleton, end symbols, preset and undeletable flags, and remaining link strengths
+	CausalGraphStorage storage;
+	//incremented whenever a link is added or removed, so that cached computations on the skeleton can be invalidated
+	int skeletonVersion;
+	//skeleton version after the last change of a link of each variable
+	int[] varSkeletonVersions;
+	//notified of end symbol changes, e.g. by an incremental orientation rule engine (not copied into snapshots)
+	EndSymbolListener endSymbolListener;
+	//block-cut tree of the skeleton for path queries, rebuilt on demand (not copied into snapshots)
+	//volatile, so that concurrent readers of a snapshot only see fully built trees
+	volatile BlockCutTree blockCutTree;
+	//reusable buffers of each thread for getNeighborsOnAcyclicPathsBetween(), created on demand (not copied into snapshots)
+	ThreadLocal<PathNeighborSearch> pathNeighborSearches = new ThreadLocal<PathNeighborSearch>();
 	
-	//end symbols with value constants
-	Map<Integer,Map<Integer,Integer>> endSymbol;
+	//end symbol value constants
 	public static final int CIRCLE_END = 0; //this is the default symbol in a PAG (joker, non-commitment)
 	public static final int LINE_END = 1;
 	public static final int ARROW_END = 2;
 	
-	//non-removable links (no conditional independence tests for these remain necessary)
-	Map<Integer,Map<Integer,Boolean>> hasUndeletableLink;
-	
-	//predetermined link and arrows
-	Map<Integer,Map<Integer,Boolean>> hasPresetLink;
-	Map<Integer,Map<Integer,Boolean>> hasPresetEndSymbol;	
-	
-	//remaining link strength (used to prioritize links to remove, and determines width of edges in output)
-	Map<Integer, Map<Integer, Double>> remainingLinkStrength;
+	//storage type constants
+	public static final int DENSE_STORAGE = 0; //bitset and matrix rows, fastest for up to a few thousand variables
+	public static final int SPARSE_STORAGE = 1; //sorted adjacency lists, memory linear in the number of links
 	
 	//optional display: coordinates and colors
 	Map<Integer, Map<Integer, String>> colors;
 	Map<Integer, Point2D.Double> coordinates;
 
 	public CausalGraph(String[] varNames, boolean completeGraph)
+	{
+		this(varNames, completeGraph, DENSE_STORAGE);
+	}
+	
+	/**
+	 * @param varNames
+	 * @param completeGraph whether to start with all variables linked by o-o links
+	 * @param storageType DENSE_STORAGE or SPARSE_STORAGE
+	 */
+	public CausalGraph(String[] varNames, boolean completeGraph, int storageType)
 	{
 		this.varNames = varNames;
 		nameToVar = new TreeMap<String, Integer>();
@@ -58,86 +77,87 @@ public class CausalGraph
 		{
 			nameToVar.put(varNames[varIndex], varIndex);
 		}
-		neighbors = new TreeMap<Integer,Set<Integer>>();
-		for (int varIndex = 0; varIndex < varNames.length; varIndex++)
-		{
-			neighbors.put(varIndex, new TreeSet<Integer>());
-		}
-		endSymbol = new TreeMap<Integer,Map<Integer, Integer>>();
-		for (int varIndex = 0; varIndex < varNames.length; varIndex++)
-		{
-			endSymbol.put(varIndex, new TreeMap<Integer, Integer>());
-		}
 		
-		hasUndeletableLink = new TreeMap<Integer,Map<Integer, Boolean>>();
-		for (int varIndex = 0; varIndex < varNames.length; varIndex++)
+		//no links, circle ends, no preset or undeletable links, link strength 1.0
+		switch (storageType)
 		{
-			hasUndeletableLink.put(varIndex, new TreeMap<Integer, Boolean>());
-		}
-		hasPresetLink = new TreeMap<Integer,Map<Integer, Boolean>>();
-		for (int varIndex = 0; varIndex < varNames.length; varIndex++)
-		{
-			hasPresetLink.put(varIndex, new TreeMap<Integer, Boolean>());
-		}
-		hasPresetEndSymbol = new TreeMap<Integer,Map<Integer, Boolean>>();
-		for (int varIndex = 0; varIndex < varNames.length; varIndex++)
-		{
-			hasPresetEndSymbol.put(varIndex, new TreeMap<Integer, Boolean>());
-		}
-		
-		remainingLinkStrength = new TreeMap<Integer, Map<Integer, Double>>();
-		for (int var = 0; var < varNames.length; var++) {
-			remainingLinkStrength.put(var, new TreeMap<Integer, Double>());
+			case DENSE_STORAGE:
+				storage = new DenseCausalGraphStorage(varNames.length);
+				break;
+			case SPARSE_STORAGE:
+				storage = new SparseCausalGraphStorage(varNames.length);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown storage type: " + storageType);
 		}
 		
 		colors = new TreeMap<Integer,Map<Integer, String>>();
-		for (int varIndex = 0; varIndex < varNames.length; varIndex++)
-		{
-			colors.put(varIndex, new TreeMap<Integer, String>());
-		}
 		
 		coordinates = new TreeMap<Integer, Point2D.Double>();
 		
-		for (int var1 = 0; var1 < varNames.length; var1++)
-		{
-			for (int var2 = 0; var2 < varNames.length; var2++)
-			{
-				if (var1 != var2)
-				{
-					putPresetLink(var1, var2, false);
-					markEndAsPreset(var1, var2, false);	
-					setUndeletableLink(var1, var2, false);
-				}
-			}
-		}
-		
+		varSkeletonVersions = new int[varNames.length];
 		if (completeGraph)
 		{
+			//all end symbols are circles by default
 			for (int var1 = 0; var1 < varNames.length; var1++)
 			{
-				for (int var2 = 0; var2 < varNames.length; var2++)
+				for (int var2 = var1 + 1; var2 < varNames.length; var2++)
 				{
-					if (var1 != var2)
-					{
-						addLink(var1, var2);
-						putArrow(var1, var2, false);
-					}
+					addLink(var1, var2);
 				}
 			}
 		}
-		
-		
+	}
+	
+	private CausalGraph(CausalGraph other, boolean readOnly)
+	{
+		this.varNames = other.varNames;
+		this.nameToVar = other.nameToVar;
+		this.storage = other.storage.snapshot(readOnly);
+		this.colors = new TreeMap<Integer,Map<Integer, String>>();
+		for (Map.Entry<Integer, Map<Integer, String>> entry : other.colors.entrySet())
+		{
+			this.colors.put(entry.getKey(), new TreeMap<Integer, String>(entry.getValue()));
+		}
+		this.coordinates = new TreeMap<Integer, Point2D.Double>(other.coordinates);
+		this.varSkeletonVersions = new int[varNames.length];
+	}
+	
+	/**
+	 * Creates a copy of the current state of the graph. Later changes to either graph are not visible in the other.
+	 * The two graphs share the rows of their storage until one of them changes a row (copy-on-write), so taking a
+	 * snapshot only costs time linear in the number of variables, and a changed row is copied once.
+	 * @return a graph with the same links, end symbols, flags and link strengths
+	 */
+	public CausalGraph snapshot()
+	{
+		return new CausalGraph(this, false);
+	}
+	
+	/**
+	 * Creates an immutable copy of the current state of the graph, e.g. for handing it to concurrent CI tests
+	 * while the original graph is modified: attempts to change the links, end symbols, flags or link strengths
+	 * of the snapshot throw an UnsupportedOperationException. Like snapshot(), it shares the rows of this graph.
+	 * Its queries can run concurrently: getNeighborsOnAcyclicPathsBetween() and the block-cut tree behind
+	 * getNodesOnAcyclicPathsBetween() keep their buffers per thread, and the tree is built by the first query.
+	 * @return a read-only graph with the same links, end symbols, flags and link strengths
+	 */
+	public CausalGraph readOnlySnapshot()
+	{
+		return new CausalGraph(this, true);
 	}
 	
 	public boolean hasLink(int var1, int var2)
 	{
-		return neighbors.get(var1).contains(var2);
+		return storage.hasLink(var1, var2);
 	}
 	
 	public void addLink(int var1, int var2)
 	{
-		neighbors.get(var1).add(var2);
-		neighbors.get(var2).add(var1);
+		storage.addLink(var1, var2);
+		skeletonVersion++;
+		varSkeletonVersions[var1] = skeletonVersion;
+		varSkeletonVersions[var2] = skeletonVersion;
 	}
 	
 	public void removeLink(int var1, int var2)
@@ -146,15 +166,31 @@ public class CausalGraph
 		{
 			System.err.println("WARNING: removing preset link (this should not happen!)");
 		}
-		neighbors.get(var1).remove(var2);
-		neighbors.get(var2).remove(var1);
+		storage.removeLink(var1, var2);
+		skeletonVersion++;
+		varSkeletonVersions[var1] = skeletonVersion;
+		varSkeletonVersions[var2] = skeletonVersion;
+	}
+	
+	/**
+	 * @return a number which changes whenever a link is added or removed
+	 */
+	public int getSkeletonVersion()
+	{
+		return skeletonVersion;
+	}
+	
+	/**
+	 * @return the skeleton version after the last change of a link of var (0 if none has changed)
+	 */
+	public int getSkeletonVersion(int var)
+	{
+		return varSkeletonVersions[var];
 	}
 	
 	public int getEndSymbol(int var1, int var2)
 	{
-		Integer symbol = endSymbol.get(var1).get(var2);
-		if (symbol == null) return CIRCLE_END;
-		return symbol;
+		return storage.getEndSymbol(var1, var2);
 	}
 	
 	public void setEndSymbol(int var1, int var2, int symbol)
@@ -163,16 +199,40 @@ public class CausalGraph
 		{
 			//System.err.println("WARNING: touching preset end symbol (this should not happen!)");
 		}
-		endSymbol.get(var1).put(var2, symbol);
+		changeEndSymbol(var1, var2, symbol);
+	}
+	
+	private void changeEndSymbol(int var1, int var2, int symbol)
+	{
+		if (endSymbolListener == null)
+		{
+			storage.setEndSymbol(var1, var2, symbol);
+		}
+		else if (storage.getEndSymbol(var1, var2) != symbol)
+		{
+			storage.setEndSymbol(var1, var2, symbol);
+			endSymbolListener.endSymbolChanged(var1, var2);
+		}
+	}
+	
+	/**
+	 * @param listener to be notified of all later changes of end symbols, or null
+	 */
+	public void setEndSymbolListener(EndSymbolListener listener)
+	{
+		endSymbolListener = listener;
+	}
+	
+	public EndSymbolListener getEndSymbolListener()
+	{
+		return endSymbolListener;
 	}
 	
 	public void convertCirclesToLines() {
-		for (int var1 : endSymbol.keySet()) {
-			Map<Integer,Integer> endSymbolsForVar1 = endSymbol.get(var1);
-			for (int var2 : endSymbolsForVar1.keySet()) {
-				Integer endSymbolForVar1Var2 = endSymbolsForVar1.get(var2);
-				if (endSymbolForVar1Var2 == CausalGraph.CIRCLE_END) {
-					endSymbolsForVar1.put(var2, CausalGraph.LINE_END);
+		for (int var1 = 0; var1 < varNames.length; var1++) {
+			for (int var2 = storage.nextNeighbor(var1, 0); var2 >= 0; var2 = storage.nextNeighbor(var1, var2 + 1)) {
+				if (storage.getEndSymbol(var1, var2) == CausalGraph.CIRCLE_END) {
+					changeEndSymbol(var1, var2, CausalGraph.LINE_END);
 				}
 			}
 		}
@@ -180,10 +240,7 @@ public class CausalGraph
 	
 	public boolean hasArrow(int var1, int var2)
 	{
-		Integer symbol = endSymbol.get(var1).get(var2);
-		if (symbol == null) return false;
-		if (symbol == ARROW_END) return true;
-		return false;
+		return storage.getEndSymbol(var1, var2) == ARROW_END;
 	}
 	
 	public void putArrow(int var1, int var2, boolean arrow)
@@ -194,22 +251,33 @@ public class CausalGraph
 		}
 		if (arrow == true)
 		{
-			endSymbol.get(var1).put(var2, ARROW_END);
+			changeEndSymbol(var1, var2, ARROW_END);
 			if (getEndSymbol(var2, var1) == CIRCLE_END)
 			{
-				endSymbol.get(var2).put(var1, LINE_END);
+				changeEndSymbol(var2, var1, LINE_END);
 			}
 		}
 		else
 		{
-			endSymbol.get(var1).put(var2, CIRCLE_END);
+			changeEndSymbol(var1, var2, CIRCLE_END);
 		}
 	}
 	
 	public void setLinkColor(int var1, int var2, String colorString)
 	{
-		colors.get(var1).put(var2, colorString);
-		colors.get(var2).put(var1, colorString);
+		putColor(var1, var2, colorString);
+		putColor(var2, var1, colorString);
+	}
+	
+	private void putColor(int var1, int var2, String colorString)
+	{
+		Map<Integer, String> colorsForVar1 = colors.get(var1);
+		if (colorsForVar1 == null)
+		{
+			colorsForVar1 = new TreeMap<Integer, String>();
+			colors.put(var1, colorsForVar1);
+		}
+		colorsForVar1.put(var2, colorString);
 	}
 	
 	/**
@@ -220,7 +288,8 @@ public class CausalGraph
 	 */
 	public String getLinkColor(int var1, int var2)
 	{
-		String color = colors.get(var1).get(var2);
+		Map<Integer, String> colorsForVar1 = colors.get(var1);
+		String color = (colorsForVar1 == null) ? null : colorsForVar1.get(var2);
 		if (color == null)
 		{
 			if (getEndSymbol(var1, var2) == ARROW_END)
@@ -296,35 +365,35 @@ public class CausalGraph
 	public boolean hasUndeletableLink(int var1, int var2)
 	{
 		if (var1 == var2) return false;
-		return (hasUndeletableLink.get(var1).get(var2) || hasUndeletableLink.get(var2).get(var1));	
+		return (storage.getFlag(CausalGraphStorage.UNDELETABLE_LINK, var1, var2) || storage.getFlag(CausalGraphStorage.UNDELETABLE_LINK, var2, var1));	
 	}
 	
 	public void setUndeletableLink(int var1, int var2, boolean link)
 	{
-		hasUndeletableLink.get(var1).put(var2, link);
-		hasUndeletableLink.get(var2).put(var1, link);		
+		storage.setFlag(CausalGraphStorage.UNDELETABLE_LINK, var1, var2, link);
+		storage.setFlag(CausalGraphStorage.UNDELETABLE_LINK, var2, var1, link);		
 	}
 	
 	public boolean hasPresetLink(int var1, int var2)
 	{
 		if (var1 == var2) return false;
-		return (hasPresetLink.get(var1).get(var2) || hasPresetLink.get(var2).get(var1));	
+		return (storage.getFlag(CausalGraphStorage.PRESET_LINK, var1, var2) || storage.getFlag(CausalGraphStorage.PRESET_LINK, var2, var1));	
 	}
 	
 	public void putPresetLink(int var1, int var2, boolean link)
 	{
-		hasPresetLink.get(var1).put(var2, link);
-		hasPresetLink.get(var2).put(var1, link);		
+		storage.setFlag(CausalGraphStorage.PRESET_LINK, var1, var2, link);
+		storage.setFlag(CausalGraphStorage.PRESET_LINK, var2, var1, link);		
 	}
 	
 	public boolean hasPresetEnd(int var1, int var2)
 	{
-		return hasPresetEndSymbol.get(var1).get(var2);	
+		return storage.getFlag(CausalGraphStorage.PRESET_END, var1, var2);	
 	}
 	
 	public void markEndAsPreset(int var1, int var2, boolean presetValue)
 	{
-		hasPresetEndSymbol.get(var1).put(var2, presetValue);	
+		storage.setFlag(CausalGraphStorage.PRESET_END, var1, var2, presetValue);	
 	}
 	
 	public boolean hasPresetArrow(int var1, int var2)
@@ -383,30 +452,85 @@ public class CausalGraph
 	
 	public List<Integer[]> listUnshieldedTriples()
 	{
-		List<Integer[]> unshieldedTriples = new LinkedList<Integer[]>();
-		for (int cause1Index = 0; cause1Index < varNames.length; cause1Index++)
+		int[] triples = listUnshieldedTripleArray();
+		List<Integer[]> unshieldedTriples = new ArrayList<Integer[]>(triples.length / 3);
+		for (int i = 0; i < triples.length; i += 3)
+		{
+			unshieldedTriples.add(new Integer[] {triples[i], triples[i + 1], triples[i + 2]});
+		}
+		return unshieldedTriples;
+	}
+	
+	/**
+	 * Enumerates the unshielded triples by intersecting neighbor lists, in time proportional to the number of
+	 * paths of length two instead of cubic in the number of variables.
+	 * @return the unshielded triples as consecutive entries (cause1, cause2, dependent) with cause1 < cause2,
+	 * ordered by cause1, cause2 and dependent as in listUnshieldedTriples()
+	 */
+	public int[] listUnshieldedTripleArray()
+	{
+		int numVars = varNames.length;
+		int[] triples = new int[48];
+		int numEntries = 0;
+		//non-adjacent variables at distance two from cause1, marked with cause1 to avoid duplicates
+		int[] candidates = new int[numVars];
+		int[] markedBy = new int[numVars];
+		Arrays.fill(markedBy, -1);
+		for (int cause1 = 0; cause1 < numVars; cause1++)
 		{
-			for (int cause2Index = cause1Index + 1; cause2Index < varNames.length; cause2Index++)
+			int numCandidates = 0;
+			for (int neighbor = nextNeighbor(cause1, 0); neighbor >= 0; neighbor = nextNeighbor(cause1, neighbor + 1))
 			{
-				for (int dependentIndex = 0; dependentIndex < varNames.length; dependentIndex++)
+				for (int cause2 = nextNeighbor(neighbor, cause1 + 1); cause2 >= 0; cause2 = nextNeighbor(neighbor, cause2 + 1))
 				{
-					if (dependentIndex == cause1Index || dependentIndex == cause2Index) continue;
-					if (!hasLink(cause1Index, cause2Index) && hasLink(cause1Index,dependentIndex) && hasLink(cause2Index,dependentIndex))
-					{
-						if (!hasPresetArrow(dependentIndex, cause1Index) && !hasPresetArrow(dependentIndex, cause2Index))
-						{
-							unshieldedTriples.add(new Integer[] {cause1Index, cause2Index, dependentIndex});
-						}
-					}
+					if (markedBy[cause2] == cause1) continue;
+					markedBy[cause2] = cause1;
+					if (!storage.hasLink(cause1, cause2)) candidates[numCandidates++] = cause2;
+				}
+			}
+			Arrays.sort(candidates, 0, numCandidates);
+			for (int i = 0; i < numCandidates; i++)
+			{
+				int cause2 = candidates[i];
+				//common neighbors in ascending order, walking the shorter neighbor list
+				int walked = cause1;
+				int other = cause2;
+				if (storage.getNumNeighbors(cause2) < storage.getNumNeighbors(cause1))
+				{
+					walked = cause2;
+					other = cause1;
+				}
+				for (int dependent = nextNeighbor(walked, 0); dependent >= 0; dependent = nextNeighbor(walked, dependent + 1))
+				{
+					if (!storage.hasLink(other, dependent)) continue;
+					if (hasPresetArrow(dependent, cause1) || hasPresetArrow(dependent, cause2)) continue;
+					if (numEntries + 3 > triples.length) triples = Arrays.copyOf(triples, triples.length * 2);
+					triples[numEntries++] = cause1;
+					triples[numEntries++] = cause2;
+					triples[numEntries++] = dependent;
 				}
 			}
 		}
-		return unshieldedTriples;
+		return Arrays.copyOf(triples, numEntries);
+	}
+	
+	int nextNeighbor(int var, int fromVar)
+	{
+		return (fromVar < varNames.length) ? storage.nextNeighbor(var, fromVar) : -1;
 	}
 	
+	/**
+	 * @param var
+	 * @return a live, unmodifiable view of the neighbors of var in ascending order
+	 */
 	public Set<Integer> getNeighbors(int var)
 	{
-		return neighbors.get(var);
+		return new NeighborSet(var);
+	}
+	
+	public int getNumNeighbors(int var)
+	{
+		return storage.getNumNeighbors(var);
 	}
 	
 	public Set<Integer> getParents(int var)
@@ -424,11 +548,7 @@ public class CausalGraph
 	
 	public double getRemainingLinkStrength(int var1, int var2) {
 		if (!hasLink(var1,var2)) return 0.0;
-		Map<Integer, Double> strengths = remainingLinkStrength.get(var1);
-		if (strengths == null) return 1.0;
-		Double strength = strengths.get(var2);
-		if (strength == null) return 1.0;
-		else return strength;
+		return storage.getRemainingLinkStrength(var1, var2);
 	}
 	
 	public void setRemainingLinkStrength(int var1, int var2, double strength) {
@@ -437,12 +557,7 @@ public class CausalGraph
 		    + "non-existing link (" + varNames[var1] + "," + varNames[var2] + ")." 
 			+ "This should not happen!");
 		}
-		Map<Integer, Double> strengths = remainingLinkStrength.get(var1);
-		if (strengths == null) {
-			strengths = new TreeMap<Integer,Double>();
-			remainingLinkStrength.put(var1, strengths);
-		}
-		strengths.put(var2, strength);
+		storage.setRemainingLinkStrength(var1, var2, strength);
 	}
 	
 	public Set<Integer> getAncestors(int var)
@@ -467,85 +582,34 @@ public class CausalGraph
 	public List<Integer> getNeighbors(Integer var1, Integer var2) 
 	{
 		List<Integer> result = new ArrayList<Integer>();
-		Set<Integer> neighbors1 = neighbors.get(var1);
-		Set<Integer> neighbors2 = neighbors.get(var2);
-		for (int neighbor : neighbors1)
+		for (int neighbor : getNeighbors(var1))
 		{
 			if (neighbor != var2) result.add(neighbor);
 		}
-		for (int neighbor : neighbors2)
+		for (int neighbor : getNeighbors(var2))
 		{
-			if (neighbor != var1 && !neighbors1.contains(neighbor)) result.add(neighbor);
+			if (neighbor != var1 && !hasLink(var1, neighbor)) result.add(neighbor);
 		}
 		return result;
 	}
 	
 	/**
-	 * Uses breadth-first search from both sides to find all neighbors on acyclic paths between var1 and var2
+	 * Uses breadth-first search from both sides to find all neighbors on acyclic paths between var1 and var2,
+	 * see PathNeighborSearch. Each thread uses its own search buffers, so that concurrent queries are safe as
+	 * long as the skeleton is not changed.
 	 * @param var1
 	 * @param var2
 	 * @return
 	 */
 	public Set<Integer> getNeighborsOnAcyclicPathsBetween(Integer var1, Integer var2, int maxDepth)
 	{
-		//System.err.println("getNeighborsOnAcyclicPathsBetween(" + var1 + "," + var2 + ") with maxDepth=" + maxDepth);
-		Set<Integer> foundNeighbors = new TreeSet<Integer>();
-		
-		for (int neighbor : getNeighbors(var1))
-		{
-			if (neighbor == var2) continue;
-			if (bfsSearch(var1, neighbor, var2, maxDepth)) 
-			{
-				foundNeighbors.add(neighbor);
-			}
-		}
-
-		for (int neighbor : getNeighbors(var2))
+		PathNeighborSearch pathNeighborSearch = pathNeighborSearches.get();
+		if (pathNeighborSearch == null)
 		{
-			if (neighbor == var1) continue;
-			if (bfsSearch(var2, neighbor, var1, maxDepth)) 
-			{
-				foundNeighbors.add(neighbor);
-			}
+			pathNeighborSearch = new PathNeighborSearch(this);
+			pathNeighborSearches.set(pathNeighborSearch);
 		}
-		//System.err.println("= " + foundNeighbors);
-		return foundNeighbors;
-	}
-	
-	private boolean bfsSearch(int startVar, int startVarNeighbor, int goalVar, int maxDepth)
-	{
-		//System.err.println("  bfsSearch(" + startVar + "," + startVarNeighbor + "," + goalVar + ") with maxDepth=" + maxDepth);
-		//also store depth
-		List<Pair<Integer,Integer>> agenda = new LinkedList<Pair<Integer,Integer>>();
-		agenda.add(new Pair<Integer,Integer>(startVarNeighbor,1));
-
-		Set<Integer> processed = new TreeSet<Integer>();
-		processed.add(startVar);
-		
-		while (agenda.size() > 0)
-		{
-			Pair<Integer,Integer> nextIDandDepth = agenda.remove(0);
-			int nextID = nextIDandDepth.first;
-			int depth = nextIDandDepth.second;
-			Set<Integer> neighbors = getNeighbors(nextID);
-			for (int neighborVar : neighbors)
-			{
-				if (!processed.contains(neighborVar))
-				{
-					if (neighborVar == goalVar) return true;
-					if (depth == maxDepth) continue;
-					else
-					{
-						agenda.add(new Pair<Integer,Integer>(neighborVar, depth + 1));
-					}
-				}
-			}
-			processed.add(nextID);
-			
-			//System.err.println("    agenda = " + agenda);
-			//System.err.println("    processed = " + processed);
-		}
-		return false;
+		return pathNeighborSearch.getNeighborsOnAcyclicPathsBetween(var1, var2, maxDepth);
 	}
 	
 	/**
@@ -583,7 +647,7 @@ public class CausalGraph
 		for (List<Integer> currentBfsPath : currentBfsPaths)
 		{
 			int head = currentBfsPath.get(0);
-			for (int neighbor : neighbors.get(head))
+			for (int neighbor : getNeighbors(head))
 			{
 				if (currentBfsPath.contains(neighbor)) continue;
 				if (getEndSymbol(neighbor, head) == ARROW_END)
@@ -622,7 +686,8 @@ public class CausalGraph
 	
 	
 	/**
-	 * Uses depth-first search to find all neighbors on acyclic paths between var1 and var2 shorter than maxDepth
+	 * Finds the variables on acyclic paths of at most maxDepth links between var1 and var2 using the block-cut
+	 * tree of the skeleton, see BlockCutTree.getNodesOnPathsBetween().
 	 * @param var1
 	 * @param var2
 	 * @param maxDepth
@@ -630,42 +695,22 @@ public class CausalGraph
 	 */
 	public Set<Integer> getNodesOnAcyclicPathsBetween(Integer var1, Integer var2, int maxDepth) 
 	{
-		Set<Integer> nodesFromWhichGoalCanBeReached = new TreeSet<Integer>();
-		List<Integer> currentDfsPath = new LinkedList<Integer>();
-		currentDfsPath.add(var1);
-		
-		dfsStep(currentDfsPath, var2, maxDepth, nodesFromWhichGoalCanBeReached);
-		
-		nodesFromWhichGoalCanBeReached.remove(var1);
-		
-		return nodesFromWhichGoalCanBeReached;
+		return getBlockCutTree().getNodesOnPathsBetween(var1, var2, maxDepth);
 	}
 	
-	//DFS code: horribly inefficient for the connecting neighbors task!
-	private void dfsStep(List<Integer> currentDfsPath, int goalVar, int maxDepth, Set<Integer> nodesFromWhichGoalCanBeReached)
+	/**
+	 * @return the block-cut tree of the current skeleton, which is rebuilt after links have been added or removed
+	 *         (concurrent first queries on a read-only snapshot may each build a tree, but all get a complete one)
+	 */
+	public BlockCutTree getBlockCutTree()
 	{
-		//System.err.println(currentDfsPath + " -> " + goalVar);
-		int lastVar = currentDfsPath.get(currentDfsPath.size() - 1);
-		Set<Integer> neighbors = getNeighbors(lastVar);
-		for (int neighborVar : neighbors)
+		BlockCutTree tree = blockCutTree;
+		if (tree == null || tree.getSkeletonVersion() != skeletonVersion)
 		{
-			if (!currentDfsPath.contains(neighborVar))
-			{
-				if (neighborVar == goalVar)
-				{
-					nodesFromWhichGoalCanBeReached.addAll(currentDfsPath);
-				}
-				else
-				{
-					if (currentDfsPath.size() < maxDepth)
-					{
-						currentDfsPath.add(neighborVar);
-						dfsStep(currentDfsPath, goalVar, maxDepth, nodesFromWhichGoalCanBeReached);
-						currentDfsPath.remove(currentDfsPath.size() - 1);
-					}
-				}
-			}
+			tree = new BlockCutTree(this);
+			blockCutTree = tree;
 		}
+		return tree;
 	}
 	
 	/**
@@ -716,7 +761,8 @@ public class CausalGraph
 	}
 	
 	/**
-	 * Uses depth-first search to find all uncovered potentially directed paths between var1 and var2 shorter than maxDepth
+	 * Uses depth-first search to find all uncovered potentially directed paths between var1 and var2 shorter than maxDepth.
+	 * The number of paths can be exponential, use findUncoveredPotentiallyDirectedPath() to find a single one.
 	 * @param var1
 	 * @param var2
 	 * @param maxDepth
@@ -773,7 +819,8 @@ public class CausalGraph
 	}
 	
 	/**
-	 * Uses depth-first search to find all uncovered cirlce paths between var1 and var2 shorter than maxDepth
+	 * Uses depth-first search to find all uncovered circle paths between var1 and var2 shorter than maxDepth.
+	 * The number of paths can be exponential, use findUncoveredCirclePath() to find a single one.
 	 * @param var1
 	 * @param var2
 	 * @param maxDepth
@@ -821,7 +868,7 @@ public class CausalGraph
 					if (currentDfsPath.size() < maxDepth)
 					{
 						currentDfsPath.add(neighborVar);
-						uncoveredPotentiallyDirectedStep(currentDfsPath, goalVar, maxDepth, paths);
+						uncoveredCircleStep(currentDfsPath, goalVar, maxDepth, paths);
 						currentDfsPath.remove(currentDfsPath.size() - 1);
 					}
 				}
@@ -829,16 +876,255 @@ public class CausalGraph
 		}
 	}
 	
+	/**
+	 * Searches an uncovered potentially directed path <var1, firstVar, ..., var2> without enumerating paths,
+	 * see findUncoveredPath().
+	 * @return the variables of the path including var1 and var2, or null if none was found
+	 */
+	public List<Integer> findUncoveredPotentiallyDirectedPath(int var1, int firstVar, int var2)
+	{
+		return findUncoveredPath(var1, firstVar, var2, false, -1, 0);
+	}
+	
+	/**
+	 * Variant of findUncoveredPotentiallyDirectedPath() which runs the exact search for at most maxExactSteps
+	 * steps if the polynomial search fails, see findUncoveredPathOnWalkLinks().
+	 */
+	public List<Integer> findUncoveredPotentiallyDirectedPath(int var1, int firstVar, int var2, long maxExactSteps)
+	{
+		return findUncoveredPath(var1, firstVar, var2, false, -1, maxExactSteps);
+	}
+	
+	/**
+	 * Searches an uncovered circle path <var1, firstVar, ..., lastVar, var2> where lastVar is not adjacent
+	 * to nonAdjacentVar (or any lastVar for nonAdjacentVar = -1), see findUncoveredPath().
+	 * @return the variables of the path including var1 and var2, or null if none was found
+	 */
+	public List<Integer> findUncoveredCirclePath(int var1, int firstVar, int var2, int nonAdjacentVar)
+	{
+		return findUncoveredPath(var1, firstVar, var2, true, nonAdjacentVar, 0);
+	}
+	
+	/**
+	 * Variant of findUncoveredCirclePath() which runs the exact search for at most maxExactSteps steps if the
+	 * polynomial search fails, see findUncoveredPathOnWalkLinks().
+	 */
+	public List<Integer> findUncoveredCirclePath(int var1, int firstVar, int var2, int nonAdjacentVar, long maxExactSteps)
+	{
+		return findUncoveredPath(var1, firstVar, var2, true, nonAdjacentVar, maxExactSteps);
+	}
+	
+	/**
+	 * Breadth-first search over the links (previous, current) on paths from var1, which suffice to check
+	 * for uncovered triples and link types, so that time and memory are polynomial in the number of links.
+	 * Every link is only expanded from the first (shortest) path on which it is reached, and the variables
+	 * on that path are not revisited, so the result is always a path. In rare cases, a path only exists
+	 * through some variable on the shortest path to one of its links, and is missed. A state which excludes
+	 * these cases would have to contain the variables on the path, so the exact search is exponential, and
+	 * only run by findUncoveredPathOnWalkLinks() within a budget of maxExactSteps (0: never).
+	 */
+	private List<Integer> findUncoveredPath(int var1, int firstVar, int var2, boolean circlePath, int nonAdjacentVar, long maxExactSteps)
+	{
+		if (!storage.hasLink(var1, firstVar) || !isPathLink(var1, firstVar, circlePath)) return null;
+		if (firstVar == var2)
+		{
+			List<Integer> path = new ArrayList<Integer>();
+			path.add(var1);
+			path.add(var2);
+			return path;
+		}
+		//maps each reached link (previous << 32 | current) to the link before it on the path from var1
+		Map<Long,Long> previousLinks = new HashMap<Long,Long>();
+		ArrayDeque<Long> agenda = new ArrayDeque<Long>();
+		long firstLink = ((long) var1 << 32) | firstVar;
+		previousLinks.put(firstLink, -1L);
+		agenda.add(firstLink);
+		while (!agenda.isEmpty())
+		{
+			long link = agenda.poll();
+			int previous = (int) (link >>> 32);
+			int current = (int) link;
+			for (int next = nextNeighbor(current, 0); next >= 0; next = nextNeighbor(current, next + 1))
+			{
+				if (next == var1 || storage.hasLink(previous, next) || !isPathLink(current, next, circlePath)) continue;
+				if (next == var2)
+				{
+					if (nonAdjacentVar >= 0 && storage.hasLink(current, nonAdjacentVar)) continue;
+					List<Integer> path = new LinkedList<Integer>();
+					path.add(var2);
+					for (long pathLink = link; pathLink != -1L; pathLink = previousLinks.get(pathLink))
+					{
+						path.add(0, (int) pathLink);
+					}
+					path.add(0, var1);
+					return path;
+				}
+				long nextLink = ((long) current << 32) | next;
+				if (previousLinks.containsKey(nextLink) || isOnPath(next, link, previousLinks)) continue;
+				previousLinks.put(nextLink, link);
+				agenda.add(nextLink);
+			}
+		}
+		if (maxExactSteps <= 0) return null;
+		return findUncoveredPathOnWalkLinks(var1, firstVar, var2, circlePath, nonAdjacentVar, maxExactSteps);
+	}
+	
+	/**
+	 * Exact search for the paths missed by findUncoveredPath(). First, the links (previous, current) on walks
+	 * from var1 to var2 (on which variables may repeat) are determined in polynomial time, by a forward search
+	 * from the first link and a backward search from the last ones. If there are none, there is no path either.
+	 * Otherwise, a depth-first search enumerates the paths along these links, which takes exponential time in
+	 * the worst case, and is therefore given up (returning null) after maxSteps neighbors have been considered.
+	 */
+	private List<Integer> findUncoveredPathOnWalkLinks(int var1, int firstVar, int var2, boolean circlePath, int nonAdjacentVar, long maxSteps)
+	{
+		//maps each link reached by a walk from var1 to the links before it on such walks
+		Map<Long,List<Long>> previousLinks = new HashMap<Long,List<Long>>();
+		List<Long> lastLinks = new ArrayList<Long>();
+		ArrayDeque<Long> agenda = new ArrayDeque<Long>();
+		long firstLink = ((long) var1 << 32) | firstVar;
+		previousLinks.put(firstLink, new ArrayList<Long>());
+		agenda.add(firstLink);
+		while (!agenda.isEmpty())
+		{
+			long link = agenda.poll();
+			int previous = (int) (link >>> 32);
+			int current = (int) link;
+			for (int next = nextNeighbor(current, 0); next >= 0; next = nextNeighbor(current, next + 1))
+			{
+				if (next == var1 || storage.hasLink(previous, next) || !isPathLink(current, next, circlePath)) continue;
+				if (next == var2)
+				{
+					if (nonAdjacentVar < 0 || !storage.hasLink(current, nonAdjacentVar)) lastLinks.add(link);
+					continue;
+				}
+				long nextLink = ((long) current << 32) | next;
+				List<Long> linksBefore = previousLinks.get(nextLink);
+				if (linksBefore == null)
+				{
+					linksBefore = new ArrayList<Long>();
+					previousLinks.put(nextLink, linksBefore);
+					agenda.add(nextLink);
+				}
+				linksBefore.add(link);
+			}
+		}
+		Set<Long> walkLinks = new HashSet<Long>(lastLinks);
+		agenda.addAll(lastLinks);
+		while (!agenda.isEmpty())
+		{
+			for (long linkBefore : previousLinks.get(agenda.poll()))
+			{
+				if (walkLinks.add(linkBefore)) agenda.add(linkBefore);
+			}
+		}
+		if (!walkLinks.contains(firstLink)) return null;
+		
+		List<Integer> path = new ArrayList<Integer>();
+		path.add(var1);
+		path.add(firstVar);
+		boolean[] onPath = new boolean[varNames.length];
+		onPath[var1] = true;
+		onPath[firstVar] = true;
+		//the neighbor of the variable at each position of the path from which to continue the search
+		int[] nextCandidates = new int[varNames.length];
+		long numSteps = 0;
+		while (path.size() > 1 && numSteps++ < maxSteps)
+		{
+			int pos = path.size() - 1;
+			int previous = path.get(pos - 1);
+			int current = path.get(pos);
+			int next = nextNeighbor(current, nextCandidates[pos]);
+			if (next < 0)
+			{
+				onPath[current] = false;
+				path.remove(pos);
+				continue;
+			}
+			nextCandidates[pos] = next + 1;
+			if (onPath[next] || storage.hasLink(previous, next) || !isPathLink(current, next, circlePath)) continue;
+			if (next == var2)
+			{
+				if (nonAdjacentVar >= 0 && storage.hasLink(current, nonAdjacentVar)) continue;
+				path.add(var2);
+				return path;
+			}
+			if (!walkLinks.contains(((long) current << 32) | next)) continue;
+			onPath[next] = true;
+			path.add(next);
+			nextCandidates[pos + 1] = 0;
+		}
+		return null;
+	}
+	
+	private boolean isPathLink(int var1, int var2, boolean circlePath)
+	{
+		if (circlePath) return getEndSymbol(var1, var2) == CIRCLE_END && getEndSymbol(var2, var1) == CIRCLE_END;
+		//disallow <-* and *-- (otherwise, path would not be potentially directed)
+		return getEndSymbol(var2, var1) != ARROW_END && getEndSymbol(var1, var2) != LINE_END;
+	}
+	
+	private static boolean isOnPath(int var, long link, Map<Long,Long> previousLinks)
+	{
+		for (long pathLink = link; pathLink != -1L; pathLink = previousLinks.get(pathLink))
+		{
+			if ((int) pathLink == var) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Possible-D-SEP of var as in FCI: the variables connected to var by a path of at most maxPathLength links
+	 * on which every inner variable is a collider or forms a triangle with its two neighbors on the path.
+	 * Breadth-first search over the links (previous, current) as in findUncoveredPath(), but without excluding
+	 * revisited variables, which can only add variables (i.e. CI tests), but keeps the search polynomial.
+	 * @return the variables in Possible-D-SEP of var, without var itself
+	 */
+	public Set<Integer> getPossibleDSep(int var, int maxPathLength)
+	{
+		Set<Integer> possibleDSep = new TreeSet<Integer>();
+		Set<Long> reachedLinks = new HashSet<Long>();
+		ArrayDeque<Long> agenda = new ArrayDeque<Long>();
+		for (int neighbor = nextNeighbor(var, 0); neighbor >= 0; neighbor = nextNeighbor(var, neighbor + 1))
+		{
+			possibleDSep.add(neighbor);
+			long link = ((long) var << 32) | neighbor;
+			reachedLinks.add(link);
+			agenda.add(link);
+		}
+		for (int length = 1; length < maxPathLength && !agenda.isEmpty(); length++)
+		{
+			for (int numLinks = agenda.size(); numLinks > 0; numLinks--)
+			{
+				long link = agenda.poll();
+				int previous = (int) (link >>> 32);
+				int current = (int) link;
+				boolean arrowIntoCurrent = getEndSymbol(previous, current) == ARROW_END;
+				for (int next = nextNeighbor(current, 0); next >= 0; next = nextNeighbor(current, next + 1))
+				{
+					if (next == previous) continue;
+					boolean collider = arrowIntoCurrent && getEndSymbol(next, current) == ARROW_END;
+					if (!collider && !storage.hasLink(previous, next)) continue;
+					long nextLink = ((long) current << 32) | next;
+					if (!reachedLinks.add(nextLink)) continue;
+					if (next != var) possibleDSep.add(next);
+					agenda.add(nextLink);
+				}
+			}
+		}
+		return possibleDSep;
+	}
+
 	public Set<Integer> getConnectedVars(int startVar)
 	{
 		List<Integer> agenda = new LinkedList<Integer>();
-		agenda.addAll(neighbors.get(startVar));
+		agenda.addAll(getNeighbors(startVar));
 		Set<Integer> reachedNodes = new TreeSet<Integer>();
-		reachedNodes.addAll(neighbors.get(startVar));
+		reachedNodes.addAll(getNeighbors(startVar));
 		while (agenda.size() > 0)
 		{
 			int var = agenda.remove(0);
-			for (int neighbor : neighbors.get(var))
+			for (int neighbor : getNeighbors(var))
 			{
 				if (!reachedNodes.contains(neighbor))
 				{
@@ -853,14 +1139,14 @@ public class CausalGraph
 	public Set<Integer> getConnectedVarsNotVia(int startVar, int forbiddenNeighbor)
 	{
 		List<Integer> agenda = new LinkedList<Integer>();
-		agenda.addAll(neighbors.get(startVar));
+		agenda.addAll(getNeighbors(startVar));
 		agenda.remove((Integer) forbiddenNeighbor);
 		Set<Integer> reachedNodes = new TreeSet<Integer>();
-		reachedNodes.addAll(neighbors.get(startVar));
+		reachedNodes.addAll(getNeighbors(startVar));
 		while (agenda.size() > 0)
 		{
 			int var = agenda.remove(0);
-			for (int neighbor : neighbors.get(var))
+			for (int neighbor : getNeighbors(var))
 			{
 				if (var == startVar && neighbor == forbiddenNeighbor) continue;
 				if (!reachedNodes.contains(neighbor))
@@ -906,11 +1192,9 @@ public class CausalGraph
 	public List<Integer> getSharedNeighbors(int var1, int var2)
 	{
 		List<Integer> sharedNeighbors = new ArrayList<Integer>();
-		Set<Integer> neighbors1 = neighbors.get(var1);
-		Set<Integer> neighbors2 = neighbors.get(var2);
-		for (int neighbor : neighbors1)
+		for (int neighbor : getNeighbors(var1))
 		{
-			if (neighbors2.contains(neighbor)) sharedNeighbors.add(neighbor);
+			if (hasLink(var2, neighbor)) sharedNeighbors.add(neighbor);
 		}
 		return sharedNeighbors;
 	}
@@ -920,6 +1204,58 @@ public class CausalGraph
 		CausalGraphOutput.outputToTextFormat(this, System.out);
 	}
 	
-
+	/**
+	 * Read-only view of the neighbors of a variable, iterating over the storage without boxing the whole set.
+	 */
+	private class NeighborSet extends AbstractSet<Integer>
+	{
+		final int var;
+		
+		NeighborSet(int var)
+		{
+			this.var = var;
+		}
+		
+		public boolean contains(Object o)
+		{
+			if (!(o instanceof Integer)) return false;
+			int neighbor = (Integer) o;
+			if (neighbor < 0 || neighbor >= varNames.length) return false;
+			return storage.hasLink(var, neighbor);
+		}
+		
+		public int size()
+		{
+			return storage.getNumNeighbors(var);
+		}
+		
+		public Iterator<Integer> iterator()
+		{
+			return new Iterator<Integer>()
+			{
+				int next = storage.nextNeighbor(var, 0);
+				
+				public boolean hasNext()
+				{
+					return next >= 0;
+				}
+				
+				public Integer next()
+				{
+					if (next < 0) throw new NoSuchElementException();
+					int current = next;
+					next = (current + 1 < varNames.length) ? storage.nextNeighbor(var, current + 1) : -1;
+					return current;
+				}
+			};
+		}
+	}
 	
+	public interface EndSymbolListener
+	{
+		/**
+		 * Called after the end symbol of the link between var1 and var2 at var2 has changed.
+		 */
+		void endSymbolChanged(int var1, int var2);
+	}
 }
@@ -5,12 +5,9 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
 import de.tuebingen.sfs.util.io.ListReader;
 import de.tuebingen.sfs.util.struct.Pair;
@@ -110,7 +107,7 @@ public class CausalGraphInput {
 		return graph;
 	}
 	
-	public static Pair<CausalGraph,Map<Integer,Map<Integer,List<Set<Integer>>>>> loadFromSkeletonFile(String skeletonFileName) throws IOException
+	public static Pair<CausalGraph,SepSetStore> loadFromSkeletonFile(String skeletonFileName) throws IOException
 	{
 		List<String[]> lines = ListReader.arrayFromTSV(skeletonFileName);
 		
@@ -134,7 +131,7 @@ public class CausalGraphInput {
 		}
 		String[] varNames = varNameList.toArray(new String[varNameList.size()]);
 		CausalGraph graph = new CausalGraph(varNames, false);
-		Map<Integer,Map<Integer,List<Set<Integer>>>> sepSets = new TreeMap<Integer,Map<Integer,List<Set<Integer>>>>();
+		SepSetStore sepSets = new SepSetStore();
 		
 		//load connections (line[1] = o-o) and separating sets (line[3], split by "  ")
 		for (String[] line : lines)
@@ -147,23 +144,20 @@ public class CausalGraphInput {
 			}
 			else if (line[1].equals("ooo"))
 			{
-				List<Set<Integer>> sepSetsEntry = new LinkedList<Set<Integer>>();
 				for (String sepSetString : line[3].split("  "))
 				{
-					Set<Integer> sepSet = new TreeSet<Integer>();
-					for (String varName : sepSetString.substring(1, sepSetString.length() - 1).split(","))
+					String[] sepSetVarNames = sepSetString.substring(1, sepSetString.length() - 1).split(",");
+					int[] sepSet = new int[sepSetVarNames.length];
+					int sepSetSize = 0;
+					for (String varName : sepSetVarNames)
 					{
 						if (varName.length() > 0)
 						{
-							sepSet.add(varToID.get(varName));
+							sepSet[sepSetSize++] = varToID.get(varName);
 						}
 					}
-					sepSetsEntry.add(sepSet);
+					sepSets.add(var1, var2, sepSet, sepSetSize);
 				}
-				if (sepSets.get(var1) == null) sepSets.put(var1, new TreeMap<Integer,List<Set<Integer>>>());
-				if (sepSets.get(var2) == null) sepSets.put(var2, new TreeMap<Integer,List<Set<Integer>>>());
-				sepSets.get(var1).put(var2, sepSetsEntry);
-				sepSets.get(var2).put(var1, sepSetsEntry);
 			}
 			else
 			{
@@ -171,6 +165,6 @@ public class CausalGraphInput {
 			}
 		}
 		
-		return new Pair<CausalGraph,Map<Integer,Map<Integer,List<Set<Integer>>>>>(graph, sepSets);
+		return new Pair<CausalGraph,SepSetStore>(graph, sepSets);
 	}
 }
@@ -0,0 +1,80 @@
+package de.tuebingen.sfs.causal.data;
+
+/**
+ * Storage backend for the skeleton, end symbols, flags and link strengths of a CausalGraph.
+ * All accessors are directed; symmetric properties (links, preset links, undeletable links)
+ * are maintained in both directions by CausalGraph. Absent entries have the default values
+ * (no link, CIRCLE_END, flag not set, remaining link strength 1.0).
+ * Snapshots share the per-variable rows with the storage they were taken from, and whichever
+ * storage first writes to a shared row copies it (copy-on-write), so that rows are never changed
+ * while another storage can read them.
+ */
+abstract class CausalGraphStorage
+{
+	//flag types
+	static final int PRESET_LINK = 0;
+	static final int PRESET_END = 1;
+	static final int UNDELETABLE_LINK = 2;
+	static final int NUM_FLAGS = 3;
+
+	final int numVars;
+
+	//a row can be written in place iff its stamp equals the owner stamp, which changes whenever a snapshot is taken
+	int ownerStamp = 1;
+	//set for snapshots which reject all changes
+	boolean readOnly;
+
+	CausalGraphStorage(int numVars)
+	{
+		this.numVars = numVars;
+	}
+
+	/**
+	 * Takes a snapshot in time linear in the number of variables: only the arrays of row references
+	 * are copied, and all rows become shared between this storage and the snapshot.
+	 * @param readOnly whether the snapshot rejects changes (which also saves its row stamps)
+	 * @return a storage with the same content, which is independent of later changes to this storage
+	 */
+	abstract CausalGraphStorage snapshot(boolean readOnly);
+
+	void checkWritable()
+	{
+		if (readOnly)
+		{
+			throw new UnsupportedOperationException("cannot change a read-only snapshot of a causal graph");
+		}
+	}
+
+	abstract boolean hasLink(int var1, int var2);
+
+	/**
+	 * Adds the link in both directions.
+	 * @return false if the link was already present
+	 */
+	abstract boolean addLink(int var1, int var2);
+
+	/**
+	 * Removes the link in both directions, keeping end symbols, flags and strengths.
+	 * @return false if there was no such link
+	 */
+	abstract boolean removeLink(int var1, int var2);
+
+	/**
+	 * @return the smallest neighbor of var which is >= fromVar, or -1 if there is none
+	 */
+	abstract int nextNeighbor(int var, int fromVar);
+
+	abstract int getNumNeighbors(int var);
+
+	abstract int getEndSymbol(int var1, int var2);
+
+	abstract void setEndSymbol(int var1, int var2, int symbol);
+
+	abstract boolean getFlag(int flag, int var1, int var2);
+
+	abstract void setFlag(int flag, int var1, int var2, boolean value);
+
+	abstract double getRemainingLinkStrength(int var1, int var2);
+
+	abstract void setRemainingLinkStrength(int var1, int var2, double strength);
+}
@@ -122,13 +122,13 @@ public class CausalGraphSummary {
 	
 	public void addGraph(CausalGraph graph) {
 		
-		for (int var1 : graph.neighbors.keySet()) {
-			for (int var2 : graph.neighbors.get(var1)) {
+		for (int var1 = 0; var1 < graph.varNames.length; var1++) {
+			for (int var2 : graph.getNeighbors(var1)) {
 				this.neighbors.get(var1).add(var2);
 				increaseNeighborCount(var1, var2);
 				if (var1 > var2) continue;
-				int endSymbol1 = graph.endSymbol.get(var1).get(var2);
-				int endSymbol2 = graph.endSymbol.get(var2).get(var1);
+				int endSymbol1 = graph.getEndSymbol(var1, var2);
+				int endSymbol2 = graph.getEndSymbol(var2, var1);
 				increaseArrowSymbolCount(var1, var2, endSymbolsToArrowSymbol(endSymbol1, endSymbol2));
 			}
 		}
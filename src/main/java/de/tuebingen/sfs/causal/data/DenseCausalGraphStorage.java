@@ -0,0 +1,189 @@
+package de.tuebingen.sfs.causal.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Matrix-based storage: one bitset row of neighbors per variable, and byte/bitset/double rows
+ * for end symbols, flags and link strengths. Rows other than the neighbor rows are only
+ * allocated once a non-default value is written, so an empty graph costs O(n^2) bits.
+ * Rows are shared with snapshots and copied per row type before the first write.
+ */
+class DenseCausalGraphStorage extends CausalGraphStorage
+{
+	BitSet[] neighbors;
+	int[] numNeighbors;
+
+	//end symbol rows, null encodes a row of CIRCLE_END
+	byte[][] endSymbols;
+
+	//flag rows per flag type, null encodes a row of false
+	BitSet[][] flags;
+
+	//link strength rows, null encodes a row of 1.0
+	double[][] remainingLinkStrength;
+
+	//row types for the copy-on-write stamps, followed by one type per flag
+	private static final int NEIGHBOR_ROW = 0;
+	private static final int END_SYMBOL_ROW = 1;
+	private static final int LINK_STRENGTH_ROW = 2;
+	private static final int FLAG_ROW = 3;
+
+	//per row type and variable: the owner stamp under which the row was last copied or created (null if read-only)
+	int[][] rowStamps;
+
+	DenseCausalGraphStorage(int numVars)
+	{
+		super(numVars);
+		neighbors = new BitSet[numVars];
+		for (int var = 0; var < numVars; var++)
+		{
+			neighbors[var] = new BitSet(numVars);
+		}
+		numNeighbors = new int[numVars];
+		endSymbols = new byte[numVars][];
+		flags = new BitSet[NUM_FLAGS][numVars];
+		remainingLinkStrength = new double[numVars][];
+		rowStamps = new int[FLAG_ROW + NUM_FLAGS][numVars];
+		Arrays.fill(rowStamps[NEIGHBOR_ROW], ownerStamp);
+	}
+
+	private DenseCausalGraphStorage(DenseCausalGraphStorage other, boolean readOnly)
+	{
+		super(other.numVars);
+		neighbors = other.neighbors.clone();
+		numNeighbors = other.numNeighbors.clone();
+		endSymbols = other.endSymbols.clone();
+		flags = new BitSet[NUM_FLAGS][];
+		for (int flag = 0; flag < NUM_FLAGS; flag++)
+		{
+			flags[flag] = other.flags[flag].clone();
+		}
+		remainingLinkStrength = other.remainingLinkStrength.clone();
+		this.readOnly = readOnly;
+		if (!readOnly) rowStamps = new int[FLAG_ROW + NUM_FLAGS][numVars];
+	}
+
+	CausalGraphStorage snapshot(boolean readOnly)
+	{
+		DenseCausalGraphStorage snapshot = new DenseCausalGraphStorage(this, readOnly);
+		ownerStamp++;
+		return snapshot;
+	}
+
+	/**
+	 * @return whether the row can be written in place, i.e. it exists and is not shared with a snapshot
+	 */
+	private boolean ownsRow(int rowType, int var)
+	{
+		checkWritable();
+		return rowStamps[rowType][var] == ownerStamp;
+	}
+
+	private BitSet writableRow(BitSet[] rows, int rowType, int var)
+	{
+		if (!ownsRow(rowType, var))
+		{
+			//copied via or() because clone() can trim the shared row
+			BitSet row = new BitSet(numVars);
+			if (rows[var] != null) row.or(rows[var]);
+			rows[var] = row;
+			rowStamps[rowType][var] = ownerStamp;
+		}
+		return rows[var];
+	}
+
+	boolean hasLink(int var1, int var2)
+	{
+		return neighbors[var1].get(var2);
+	}
+
+	boolean addLink(int var1, int var2)
+	{
+		if (neighbors[var1].get(var2)) return false;
+		writableRow(neighbors, NEIGHBOR_ROW, var1).set(var2);
+		writableRow(neighbors, NEIGHBOR_ROW, var2).set(var1);
+		numNeighbors[var1]++;
+		numNeighbors[var2]++;
+		return true;
+	}
+
+	boolean removeLink(int var1, int var2)
+	{
+		if (!neighbors[var1].get(var2)) return false;
+		writableRow(neighbors, NEIGHBOR_ROW, var1).clear(var2);
+		writableRow(neighbors, NEIGHBOR_ROW, var2).clear(var1);
+		numNeighbors[var1]--;
+		numNeighbors[var2]--;
+		return true;
+	}
+
+	int nextNeighbor(int var, int fromVar)
+	{
+		return neighbors[var].nextSetBit(fromVar);
+	}
+
+	int getNumNeighbors(int var)
+	{
+		return numNeighbors[var];
+	}
+
+	int getEndSymbol(int var1, int var2)
+	{
+		byte[] row = endSymbols[var1];
+		if (row == null) return CausalGraph.CIRCLE_END;
+		return row[var2];
+	}
+
+	void setEndSymbol(int var1, int var2, int symbol)
+	{
+		byte[] row = endSymbols[var1];
+		if (row == null && symbol == CausalGraph.CIRCLE_END) return;
+		if (!ownsRow(END_SYMBOL_ROW, var1))
+		{
+			row = (row == null) ? new byte[numVars] : row.clone();
+			endSymbols[var1] = row;
+			rowStamps[END_SYMBOL_ROW][var1] = ownerStamp;
+		}
+		row[var2] = (byte) symbol;
+	}
+
+	boolean getFlag(int flag, int var1, int var2)
+	{
+		BitSet row = flags[flag][var1];
+		return row != null && row.get(var2);
+	}
+
+	void setFlag(int flag, int var1, int var2, boolean value)
+	{
+		if (flags[flag][var1] == null && !value) return;
+		writableRow(flags[flag], FLAG_ROW + flag, var1).set(var2, value);
+	}
+
+	double getRemainingLinkStrength(int var1, int var2)
+	{
+		double[] row = remainingLinkStrength[var1];
+		if (row == null) return 1.0;
+		return row[var2];
+	}
+
+	void setRemainingLinkStrength(int var1, int var2, double strength)
+	{
+		double[] row = remainingLinkStrength[var1];
+		if (!ownsRow(LINK_STRENGTH_ROW, var1))
+		{
+			if (row == null)
+			{
+				row = new double[numVars];
+				Arrays.fill(row, 1.0);
+			}
+			else
+			{
+				row = row.clone();
+			}
+			remainingLinkStrength[var1] = row;
+			rowStamps[LINK_STRENGTH_ROW][var1] = ownerStamp;
+		}
+		row[var2] = strength;
+	}
+}
@@ -0,0 +1,253 @@
+package de.tuebingen.sfs.causal.data;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Finds the neighbors of var1 and var2 which lie on acyclic paths of at most maxDepth links between them: a
+ * neighbor n of var1 (other than var2) qualifies iff var2 can be reached from n in at most maxDepth links without
+ * passing through var1, and vice versa. The breadth-first searches run on reusable int arrays whose labels are
+ * only valid if stamped with the current epoch, so that a query allocates nothing but its result. For maxDepth up
+ * to 2, the queries for many pairs (e.g. all links of a PC* level) can be answered in one batch which counts the
+ * shared neighbors of each variable only once. The queries of one instance must not be run concurrently, so each
+ * thread needs its own instance (as kept by CausalGraph.getNeighborsOnAcyclicPathsBetween()).
+ */
+public class PathNeighborSearch
+{
+	CausalGraph graph;
+	int numVars;
+
+	//breadth-first search agenda, and distances valid if stamped with the current epoch
+	int[] agenda;
+	int[] distances;
+	int[] distanceEpochs;
+	//neighbors of the start variable which the current search looks for
+	int[] targetEpochs;
+	int epoch;
+
+	//for batches: number of neighbors shared with the current goal variable
+	int[] sharedNeighborCounts;
+	int[] sharedNeighborEpochs;
+
+	//collects the neighbors found by a single query
+	int[] buffer;
+
+	public PathNeighborSearch(CausalGraph graph)
+	{
+		this.graph = graph;
+		numVars = graph.varNames.length;
+		agenda = new int[numVars];
+		distances = new int[numVars];
+		distanceEpochs = new int[numVars];
+		targetEpochs = new int[numVars];
+		sharedNeighborCounts = new int[numVars];
+		sharedNeighborEpochs = new int[numVars];
+		buffer = new int[2 * numVars];
+	}
+
+	public Set<Integer> getNeighborsOnAcyclicPathsBetween(int var1, int var2, int maxDepth)
+	{
+		Set<Integer> neighbors = new TreeSet<Integer>();
+		for (int neighbor : getNeighborArray(var1, var2, maxDepth))
+		{
+			neighbors.add(neighbor);
+		}
+		return neighbors;
+	}
+
+	/**
+	 * @return the neighbors of var1 and var2 on acyclic paths of at most maxDepth links between them, in
+	 *         ascending order
+	 */
+	public int[] getNeighborArray(int var1, int var2, int maxDepth)
+	{
+		int numFound = findNeighborsOnPaths(var1, var2, maxDepth, 0);
+		numFound = findNeighborsOnPaths(var2, var1, maxDepth, numFound);
+		Arrays.sort(buffer, 0, numFound);
+		return distinct(buffer, numFound);
+	}
+
+	/**
+	 * Searches from goalVar (without passing through startVar) until all neighbors of startVar are reached or
+	 * maxDepth is exhausted, and appends the reached neighbors to the buffer.
+	 * @return the new number of variables in the buffer
+	 */
+	private int findNeighborsOnPaths(int startVar, int goalVar, int maxDepth, int numFound)
+	{
+		epoch++;
+		int numTargets = 0;
+		for (int neighbor = graph.nextNeighbor(startVar, 0); neighbor >= 0; neighbor = graph.nextNeighbor(startVar, neighbor + 1))
+		{
+			if (neighbor == goalVar) continue;
+			targetEpochs[neighbor] = epoch;
+			numTargets++;
+		}
+		//startVar is stamped to keep the search from entering it
+		distanceEpochs[startVar] = epoch;
+		distanceEpochs[goalVar] = epoch;
+		distances[goalVar] = 0;
+		int agendaStart = 0;
+		int agendaEnd = 0;
+		agenda[agendaEnd++] = goalVar;
+		while (agendaStart < agendaEnd && numTargets > 0)
+		{
+			int var = agenda[agendaStart++];
+			if (distances[var] >= maxDepth) break;
+			for (int neighbor = graph.nextNeighbor(var, 0); neighbor >= 0; neighbor = graph.nextNeighbor(var, neighbor + 1))
+			{
+				if (distanceEpochs[neighbor] == epoch) continue;
+				distanceEpochs[neighbor] = epoch;
+				distances[neighbor] = distances[var] + 1;
+				agenda[agendaEnd++] = neighbor;
+				if (targetEpochs[neighbor] == epoch)
+				{
+					buffer[numFound++] = neighbor;
+					numTargets--;
+				}
+			}
+		}
+		return numFound;
+	}
+
+	/**
+	 * Answers the queries for all pairs (vars1[i], vars2[i]) on the current skeleton. For maxDepth up to 2, a
+	 * neighbor n of var1 qualifies iff it is linked to var2 or shares a neighbor other than var1 with var2, so
+	 * the half-queries are grouped by their goal variable, and the neighbors each variable shares with it are
+	 * counted once for the whole group. Larger depths fall back to one search per pair.
+	 * @return the neighbors for each pair, in ascending order
+	 */
+	public int[][] getNeighborArrays(int[] vars1, int[] vars2, int maxDepth)
+	{
+		int numPairs = vars1.length;
+		int[][] neighbors = new int[numPairs][];
+		if (maxDepth < 1 || maxDepth > 2)
+		{
+			for (int pair = 0; pair < numPairs; pair++)
+			{
+				neighbors[pair] = getNeighborArray(vars1[pair], vars2[pair], maxDepth);
+			}
+			return neighbors;
+		}
+		//half-query 2 * pair starts from vars1[pair] towards vars2[pair], 2 * pair + 1 the other way round
+		int[] goalStarts = new int[numVars + 1];
+		for (int pair = 0; pair < numPairs; pair++)
+		{
+			goalStarts[vars2[pair] + 1]++;
+			goalStarts[vars1[pair] + 1]++;
+		}
+		for (int var = 0; var < numVars; var++)
+		{
+			goalStarts[var + 1] += goalStarts[var];
+		}
+		int[] halfQueries = new int[2 * numPairs];
+		int[] numHalfQueries = new int[numVars];
+		for (int pair = 0; pair < numPairs; pair++)
+		{
+			halfQueries[goalStarts[vars2[pair]] + numHalfQueries[vars2[pair]]++] = 2 * pair;
+			halfQueries[goalStarts[vars1[pair]] + numHalfQueries[vars1[pair]]++] = 2 * pair + 1;
+		}
+		int[][] halfResults = new int[2 * numPairs][];
+		int[] found = new int[numVars];
+		for (int goalVar = 0; goalVar < numVars; goalVar++)
+		{
+			if (goalStarts[goalVar] == goalStarts[goalVar + 1]) continue;
+			epoch++;
+			//distance 1: the neighbors of goalVar; distance 2: the variables sharing a neighbor with it
+			for (int neighbor = graph.nextNeighbor(goalVar, 0); neighbor >= 0; neighbor = graph.nextNeighbor(goalVar, neighbor + 1))
+			{
+				distanceEpochs[neighbor] = epoch;
+				if (maxDepth < 2) continue;
+				for (int var = graph.nextNeighbor(neighbor, 0); var >= 0; var = graph.nextNeighbor(neighbor, var + 1))
+				{
+					if (sharedNeighborEpochs[var] != epoch)
+					{
+						sharedNeighborEpochs[var] = epoch;
+						sharedNeighborCounts[var] = 0;
+					}
+					sharedNeighborCounts[var]++;
+				}
+			}
+			for (int i = goalStarts[goalVar]; i < goalStarts[goalVar + 1]; i++)
+			{
+				int halfQuery = halfQueries[i];
+				int pair = halfQuery / 2;
+				int startVar = (halfQuery % 2 == 0) ? vars1[pair] : vars2[pair];
+				//paths via startVar do not count
+				int minSharedNeighbors = (distanceEpochs[startVar] == epoch) ? 2 : 1;
+				int numFound = 0;
+				for (int neighbor = graph.nextNeighbor(startVar, 0); neighbor >= 0; neighbor = graph.nextNeighbor(startVar, neighbor + 1))
+				{
+					if (neighbor == goalVar) continue;
+					if (distanceEpochs[neighbor] == epoch || (maxDepth == 2 && sharedNeighborEpochs[neighbor] == epoch
+							&& sharedNeighborCounts[neighbor] >= minSharedNeighbors))
+					{
+						found[numFound++] = neighbor;
+					}
+				}
+				halfResults[halfQuery] = Arrays.copyOf(found, numFound);
+			}
+		}
+		for (int pair = 0; pair < numPairs; pair++)
+		{
+			neighbors[pair] = merge(halfResults[2 * pair], halfResults[2 * pair + 1]);
+		}
+		return neighbors;
+	}
+
+	/**
+	 * Checks whether a result computed on the skeleton with the given version is still valid, i.e. whether no
+	 * link of var1, var2 or any of their current neighbors has been added or removed since then. Changes further
+	 * away cannot affect paths of up to two links, so this is only decidable for maxDepth up to 2.
+	 * @return false if the result may have changed
+	 */
+	public boolean isUnchangedSince(int var1, int var2, int maxDepth, int skeletonVersion)
+	{
+		if (maxDepth > 2) return graph.getSkeletonVersion() == skeletonVersion;
+		return isUnchangedAround(var1, skeletonVersion) && isUnchangedAround(var2, skeletonVersion);
+	}
+
+	private boolean isUnchangedAround(int var, int skeletonVersion)
+	{
+		if (graph.getSkeletonVersion(var) > skeletonVersion) return false;
+		for (int neighbor = graph.nextNeighbor(var, 0); neighbor >= 0; neighbor = graph.nextNeighbor(var, neighbor + 1))
+		{
+			if (graph.getSkeletonVersion(neighbor) > skeletonVersion) return false;
+		}
+		return true;
+	}
+
+	private static int[] distinct(int[] sortedVars, int length)
+	{
+		int numDistinct = 0;
+		for (int i = 0; i < length; i++)
+		{
+			if (numDistinct == 0 || sortedVars[numDistinct - 1] != sortedVars[i])
+			{
+				sortedVars[numDistinct++] = sortedVars[i];
+			}
+		}
+		return Arrays.copyOf(sortedVars, numDistinct);
+	}
+
+	private static int[] merge(int[] sortedVars1, int[] sortedVars2)
+	{
+		int[] merged = new int[sortedVars1.length + sortedVars2.length];
+		int i = 0;
+		int j = 0;
+		int numMerged = 0;
+		while (i < sortedVars1.length || j < sortedVars2.length)
+		{
+			int var;
+			if (j == sortedVars2.length || (i < sortedVars1.length && sortedVars1[i] < sortedVars2[j])) var = sortedVars1[i++];
+			else if (i == sortedVars1.length || sortedVars2[j] < sortedVars1[i]) var = sortedVars2[j++];
+			else
+			{
+				var = sortedVars1[i++];
+				j++;
+			}
+			merged[numMerged++] = var;
+		}
+		return Arrays.copyOf(merged, numMerged);
+	}
+}
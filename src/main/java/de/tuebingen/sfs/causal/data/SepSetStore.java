@@ -0,0 +1,241 @@
+package de.tuebingen.sfs.causal.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Separating sets of unordered pairs of variables, in the order in which they were added. Every pair is stored
+ * once, and every separating set is stored as a sorted int array, interned so that pairs with equal separating
+ * sets share one array. For each pair, the number of separating sets containing each variable is maintained,
+ * so that the v-structure tests can count them without iterating over the separating sets.
+ */
+public class SepSetStore
+{
+	Map<Long,PairSepSets> pairs;
+	Map<SepSetKey,int[]> internedSepSets;
+
+	static final int[] EMPTY_SEPSET = new int[0];
+
+	public SepSetStore()
+	{
+		pairs = new HashMap<Long,PairSepSets>();
+		internedSepSets = new HashMap<SepSetKey,int[]>();
+	}
+
+	private static long pairKey(int var1, int var2)
+	{
+		return ((long) Math.min(var1, var2) << 32) | Math.max(var1, var2);
+	}
+
+	/**
+	 * Adds the separating set vars[0], ..., vars[numVars - 1] (in any order, repeated variables count once) for
+	 * the pair. A separating set which was already added for the pair is added again.
+	 */
+	public void add(int var1, int var2, int[] vars, int numVars)
+	{
+		int[] sepSet = Arrays.copyOf(vars, numVars);
+		Arrays.sort(sepSet);
+		int numDistinct = 0;
+		for (int i = 0; i < numVars; i++)
+		{
+			if (numDistinct == 0 || sepSet[numDistinct - 1] != sepSet[i]) sepSet[numDistinct++] = sepSet[i];
+		}
+		if (numDistinct < numVars) sepSet = Arrays.copyOf(sepSet, numDistinct);
+		PairSepSets pairSepSets = pairs.get(pairKey(var1, var2));
+		if (pairSepSets == null)
+		{
+			pairSepSets = new PairSepSets();
+			pairs.put(pairKey(var1, var2), pairSepSets);
+		}
+		pairSepSets.add(intern(sepSet));
+	}
+
+	public void add(int var1, int var2, Set<Integer> sepSet)
+	{
+		int[] vars = new int[sepSet.size()];
+		int numVars = 0;
+		for (int var : sepSet)
+		{
+			vars[numVars++] = var;
+		}
+		add(var1, var2, vars, numVars);
+	}
+
+	public void addAll(int var1, int var2, List<Set<Integer>> sepSets)
+	{
+		for (Set<Integer> sepSet : sepSets)
+		{
+			add(var1, var2, sepSet);
+		}
+	}
+
+	private int[] intern(int[] sepSet)
+	{
+		if (sepSet.length == 0) return EMPTY_SEPSET;
+		SepSetKey key = new SepSetKey(sepSet);
+		int[] internedSepSet = internedSepSets.get(key);
+		if (internedSepSet == null)
+		{
+			internedSepSets.put(key, sepSet);
+			internedSepSet = sepSet;
+		}
+		return internedSepSet;
+	}
+
+	/**
+	 * @return whether any separating set was added for the pair
+	 */
+	public boolean hasSepSets(int var1, int var2)
+	{
+		return pairs.containsKey(pairKey(var1, var2));
+	}
+
+	/**
+	 * @return the number of separating sets of the pair
+	 */
+	public int size(int var1, int var2)
+	{
+		PairSepSets pairSepSets = pairs.get(pairKey(var1, var2));
+		return (pairSepSets == null) ? 0 : pairSepSets.numSepSets;
+	}
+
+	/**
+	 * @return the index-th separating set of the pair, as a sorted array which must not be modified
+	 */
+	public int[] get(int var1, int var2, int index)
+	{
+		PairSepSets pairSepSets = pairs.get(pairKey(var1, var2));
+		if (pairSepSets == null || index >= pairSepSets.numSepSets) throw new IndexOutOfBoundsException("no separating set " + index + " for pair (" + var1 + "," + var2 + ")");
+		return pairSepSets.sepSets[index];
+	}
+
+	/**
+	 * @return the number of separating sets of the pair which contain var
+	 */
+	public int countContaining(int var1, int var2, int var)
+	{
+		PairSepSets pairSepSets = pairs.get(pairKey(var1, var2));
+		return (pairSepSets == null) ? 0 : pairSepSets.countContaining(var);
+	}
+
+	public static boolean contains(int[] sepSet, int var)
+	{
+		return Arrays.binarySearch(sepSet, var) >= 0;
+	}
+
+	/**
+	 * Removes all separating sets of the pair.
+	 */
+	public void remove(int var1, int var2)
+	{
+		pairs.remove(pairKey(var1, var2));
+	}
+
+	/**
+	 * @return the separating sets of the pair as a list of new sets, or null if there are none
+	 */
+	public List<Set<Integer>> getSepSets(int var1, int var2)
+	{
+		PairSepSets pairSepSets = pairs.get(pairKey(var1, var2));
+		if (pairSepSets == null) return null;
+		List<Set<Integer>> sepSets = new ArrayList<Set<Integer>>(pairSepSets.numSepSets);
+		for (int i = 0; i < pairSepSets.numSepSets; i++)
+		{
+			Set<Integer> sepSet = new TreeSet<Integer>();
+			for (int var : pairSepSets.sepSets[i])
+			{
+				sepSet.add(var);
+			}
+			sepSets.add(sepSet);
+		}
+		return sepSets;
+	}
+
+	/**
+	 * @return the number of pairs with separating sets
+	 */
+	public int getNumPairs()
+	{
+		return pairs.size();
+	}
+
+	/**
+	 * @return the number of distinct non-empty separating sets
+	 */
+	public int getNumDistinctSepSets()
+	{
+		return internedSepSets.size();
+	}
+
+	static final class PairSepSets
+	{
+		int[][] sepSets = new int[1][];
+		int numSepSets;
+		//variables occurring in the separating sets (ascending), and the number of separating sets containing each
+		int[] memberVars = EMPTY_SEPSET;
+		int[] memberCounts = EMPTY_SEPSET;
+		int numMembers;
+
+		void add(int[] sepSet)
+		{
+			if (numSepSets == sepSets.length) sepSets = Arrays.copyOf(sepSets, numSepSets * 2);
+			sepSets[numSepSets++] = sepSet;
+			for (int var : sepSet)
+			{
+				int pos = Arrays.binarySearch(memberVars, 0, numMembers, var);
+				if (pos >= 0)
+				{
+					memberCounts[pos]++;
+					continue;
+				}
+				pos = -pos - 1;
+				if (numMembers == memberVars.length)
+				{
+					memberVars = Arrays.copyOf(memberVars, numMembers * 2 + 2);
+					memberCounts = Arrays.copyOf(memberCounts, numMembers * 2 + 2);
+				}
+				System.arraycopy(memberVars, pos, memberVars, pos + 1, numMembers - pos);
+				System.arraycopy(memberCounts, pos, memberCounts, pos + 1, numMembers - pos);
+				memberVars[pos] = var;
+				memberCounts[pos] = 1;
+				numMembers++;
+			}
+		}
+
+		int countContaining(int var)
+		{
+			//separating sets are small, so there are only few distinct members
+			int pos = Arrays.binarySearch(memberVars, 0, numMembers, var);
+			return (pos >= 0) ? memberCounts[pos] : 0;
+		}
+	}
+
+	static final class SepSetKey
+	{
+		final int[] vars;
+		final int hash;
+
+		SepSetKey(int[] vars)
+		{
+			this.vars = vars;
+			this.hash = Arrays.hashCode(vars);
+		}
+
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof SepSetKey)) return false;
+			SepSetKey other = (SepSetKey) o;
+			return hash == other.hash && Arrays.equals(vars, other.vars);
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package de.tuebingen.sfs.causal.data;
+
+import java.util.Arrays;
+
+/**
+ * Adjacency-list storage for large variable sets: per variable, a sorted int[] of partner
+ * variables with parallel arrays for link presence, flags, end symbols and link strengths.
+ * Only pairs which are linked or carry a non-default value have an entry, so memory scales
+ * with the number of links, and an empty graph is constructed in O(n). The entry arrays of a
+ * variable are shared with snapshots and copied together before the first write.
+ */
+class SparseCausalGraphStorage extends CausalGraphStorage
+{
+	//bits in the per-entry flag byte
+	private static final byte LINKED = 1;
+	private static final byte[] FLAG_BITS = {2, 4, 8}; //indexed by PRESET_LINK, PRESET_END, UNDELETABLE_LINK
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	//per variable: sorted partners, and parallel entry data (null for variables without entries)
+	int[][] partners;
+	byte[][] entryFlags;
+	byte[][] endSymbols;
+	double[][] remainingLinkStrength;
+	int[] numEntries;
+	int[] numNeighbors;
+	//per variable: the owner stamp under which its entry arrays were last copied or created (null if read-only)
+	int[] rowStamps;
+
+	SparseCausalGraphStorage(int numVars)
+	{
+		super(numVars);
+		partners = new int[numVars][];
+		entryFlags = new byte[numVars][];
+		endSymbols = new byte[numVars][];
+		remainingLinkStrength = new double[numVars][];
+		numEntries = new int[numVars];
+		numNeighbors = new int[numVars];
+		rowStamps = new int[numVars];
+	}
+
+	private SparseCausalGraphStorage(SparseCausalGraphStorage other, boolean readOnly)
+	{
+		super(other.numVars);
+		partners = other.partners.clone();
+		entryFlags = other.entryFlags.clone();
+		endSymbols = other.endSymbols.clone();
+		remainingLinkStrength = other.remainingLinkStrength.clone();
+		numEntries = other.numEntries.clone();
+		numNeighbors = other.numNeighbors.clone();
+		this.readOnly = readOnly;
+		if (!readOnly) rowStamps = new int[numVars];
+	}
+
+	CausalGraphStorage snapshot(boolean readOnly)
+	{
+		SparseCausalGraphStorage snapshot = new SparseCausalGraphStorage(this, readOnly);
+		ownerStamp++;
+		return snapshot;
+	}
+
+	/**
+	 * Copies the entry arrays of var before they are written to if they are shared with a snapshot.
+	 */
+	private void ownRow(int var)
+	{
+		checkWritable();
+		if (rowStamps[var] == ownerStamp || partners[var] == null) return;
+		partners[var] = partners[var].clone();
+		entryFlags[var] = entryFlags[var].clone();
+		endSymbols[var] = endSymbols[var].clone();
+		remainingLinkStrength[var] = remainingLinkStrength[var].clone();
+		rowStamps[var] = ownerStamp;
+	}
+
+	/**
+	 * @return index of the entry for var2 in the row of var1, or (-(insertion point) - 1) if there is none
+	 */
+	private int find(int var1, int var2)
+	{
+		if (partners[var1] == null) return -1;
+		return Arrays.binarySearch(partners[var1], 0, numEntries[var1], var2);
+	}
+
+	private int findOrInsert(int var1, int var2)
+	{
+		ownRow(var1);
+		int index = find(var1, var2);
+		if (index >= 0) return index;
+		index = -index - 1;
+		int size = numEntries[var1];
+		if (partners[var1] == null)
+		{
+			partners[var1] = new int[INITIAL_CAPACITY];
+			entryFlags[var1] = new byte[INITIAL_CAPACITY];
+			endSymbols[var1] = new byte[INITIAL_CAPACITY];
+			remainingLinkStrength[var1] = new double[INITIAL_CAPACITY];
+			rowStamps[var1] = ownerStamp;
+		}
+		else if (size == partners[var1].length)
+		{
+			int capacity = size + (size >> 1) + 1;
+			partners[var1] = Arrays.copyOf(partners[var1], capacity);
+			entryFlags[var1] = Arrays.copyOf(entryFlags[var1], capacity);
+			endSymbols[var1] = Arrays.copyOf(endSymbols[var1], capacity);
+			remainingLinkStrength[var1] = Arrays.copyOf(remainingLinkStrength[var1], capacity);
+		}
+		int numToShift = size - index;
+		if (numToShift > 0)
+		{
+			System.arraycopy(partners[var1], index, partners[var1], index + 1, numToShift);
+			System.arraycopy(entryFlags[var1], index, entryFlags[var1], index + 1, numToShift);
+			System.arraycopy(endSymbols[var1], index, endSymbols[var1], index + 1, numToShift);
+			System.arraycopy(remainingLinkStrength[var1], index, remainingLinkStrength[var1], index + 1, numToShift);
+		}
+		partners[var1][index] = var2;
+		entryFlags[var1][index] = 0;
+		endSymbols[var1][index] = CausalGraph.CIRCLE_END;
+		remainingLinkStrength[var1][index] = 1.0;
+		numEntries[var1]++;
+		return index;
+	}
+
+	/**
+	 * Drops an entry once it only holds default values again.
+	 */
+	private void removeIfDefault(int var1, int index)
+	{
+		if (entryFlags[var1][index] != 0 || endSymbols[var1][index] != CausalGraph.CIRCLE_END
+				|| remainingLinkStrength[var1][index] != 1.0) return;
+		int numToShift = numEntries[var1] - index - 1;
+		if (numToShift > 0)
+		{
+			System.arraycopy(partners[var1], index + 1, partners[var1], index, numToShift);
+			System.arraycopy(entryFlags[var1], index + 1, entryFlags[var1], index, numToShift);
+			System.arraycopy(endSymbols[var1], index + 1, endSymbols[var1], index, numToShift);
+			System.arraycopy(remainingLinkStrength[var1], index + 1, remainingLinkStrength[var1], index, numToShift);
+		}
+		numEntries[var1]--;
+	}
+
+	boolean hasLink(int var1, int var2)
+	{
+		int index = find(var1, var2);
+		return index >= 0 && (entryFlags[var1][index] & LINKED) != 0;
+	}
+
+	boolean addLink(int var1, int var2)
+	{
+		if (hasLink(var1, var2)) return false;
+		int index = findOrInsert(var1, var2);
+		entryFlags[var1][index] |= LINKED;
+		numNeighbors[var1]++;
+		index = findOrInsert(var2, var1);
+		entryFlags[var2][index] |= LINKED;
+		numNeighbors[var2]++;
+		return true;
+	}
+
+	boolean removeLink(int var1, int var2)
+	{
+		if (!hasLink(var1, var2)) return false;
+		ownRow(var1);
+		int index = find(var1, var2);
+		entryFlags[var1][index] &= ~LINKED;
+		numNeighbors[var1]--;
+		removeIfDefault(var1, index);
+		ownRow(var2);
+		index = find(var2, var1);
+		entryFlags[var2][index] &= ~LINKED;
+		numNeighbors[var2]--;
+		removeIfDefault(var2, index);
+		return true;
+	}
+
+	int nextNeighbor(int var, int fromVar)
+	{
+		if (partners[var] == null) return -1;
+		int index = find(var, fromVar);
+		if (index < 0) index = -index - 1;
+		int size = numEntries[var];
+		byte[] flags = entryFlags[var];
+		while (index < size && (flags[index] & LINKED) == 0) index++;
+		if (index == size) return -1;
+		return partners[var][index];
+	}
+
+	int getNumNeighbors(int var)
+	{
+		return numNeighbors[var];
+	}
+
+	int getEndSymbol(int var1, int var2)
+	{
+		int index = find(var1, var2);
+		if (index < 0) return CausalGraph.CIRCLE_END;
+		return endSymbols[var1][index];
+	}
+
+	void setEndSymbol(int var1, int var2, int symbol)
+	{
+		if (symbol == CausalGraph.CIRCLE_END)
+		{
+			int index = find(var1, var2);
+			if (index < 0) return;
+			ownRow(var1);
+			endSymbols[var1][index] = (byte) symbol;
+			removeIfDefault(var1, index);
+		}
+		else
+		{
+			int index = findOrInsert(var1, var2);
+			endSymbols[var1][index] = (byte) symbol;
+		}
+	}
+
+	boolean getFlag(int flag, int var1, int var2)
+	{
+		int index = find(var1, var2);
+		return index >= 0 && (entryFlags[var1][index] & FLAG_BITS[flag]) != 0;
+	}
+
+	void setFlag(int flag, int var1, int var2, boolean value)
+	{
+		if (value)
+		{
+			int index = findOrInsert(var1, var2);
+			entryFlags[var1][index] |= FLAG_BITS[flag];
+		}
+		else
+		{
+			int index = find(var1, var2);
+			if (index < 0) return;
+			ownRow(var1);
+			entryFlags[var1][index] &= ~FLAG_BITS[flag];
+			removeIfDefault(var1, index);
+		}
+	}
+
+	double getRemainingLinkStrength(int var1, int var2)
+	{
+		int index = find(var1, var2);
+		if (index < 0) return 1.0;
+		return remainingLinkStrength[var1][index];
+	}
+
+	void setRemainingLinkStrength(int var1, int var2, double strength)
+	{
+		if (strength == 1.0)
+		{
+			int index = find(var1, var2);
+			if (index < 0) return;
+			ownRow(var1);
+			remainingLinkStrength[var1][index] = strength;
+			removeIfDefault(var1, index);
+		}
+		else
+		{
+			int index = findOrInsert(var1, var2);
+			remainingLinkStrength[var1][index] = strength;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package de.tuebingen.sfs.causal.generator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import de.tuebingen.sfs.util.struct.Triple;
+
+/**
+ * Samples cognate-style partitions from a random causal model, as consumed by PartialCorrelationDiscreteUnitFlow:
+ * for each concept, every variable (including latent ones) either inherits the class of a random parent, or
+ * innovates a new class. Each class of observed variables becomes one set of (variable, concept, class) triples.
+ * 
+ * The partition file has one line per element (variable, concept ID, class ID), with the elements of each
+ * concept on consecutive lines. Concepts are sampled one at a time, so writing needs memory linear
+ * in the number of variables only.
+ */
+public class PartitionSampler
+{
+	RandomCausalModel model;
+	//probability of inheriting a class from a parent
+	double inheritProb;
+	//probability that a variable has no element for a concept
+	double missingProb;
+	Random rand;
+
+	//class of each variable for the current concept
+	int[] classes;
+
+	public PartitionSampler(RandomCausalModel model, double inheritProb, double missingProb, long seed)
+	{
+		this.model = model;
+		this.inheritProb = inheritProb;
+		this.missingProb = missingProb;
+		this.rand = new Random(seed);
+		this.classes = new int[model.getNumVars()];
+	}
+
+	/**
+	 * Samples the classes of all variables for the next concept.
+	 * @return the number of classes
+	 */
+	private int sampleClasses()
+	{
+		int nextClass = 0;
+		//latent variables are roots
+		for (int var = model.numObserved; var < model.getNumVars(); var++)
+		{
+			classes[var] = nextClass++;
+		}
+		for (int var = 0; var < model.numObserved; var++)
+		{
+			int[] varParents = model.parents[var];
+			if (varParents.length > 0 && rand.nextDouble() < inheritProb)
+				classes[var] = classes[varParents[rand.nextInt(varParents.length)]];
+			else
+				classes[var] = nextClass++;
+		}
+		return nextClass;
+	}
+
+	/**
+	 * Streams numConcepts partitions to out.
+	 */
+	public void writePartitions(int numConcepts, PrintStream out)
+	{
+		for (int concept = 0; concept < numConcepts; concept++)
+		{
+			sampleClasses();
+			for (int var = 0; var < model.numObserved; var++)
+			{
+				if (rand.nextDouble() < missingProb) continue;
+				out.println(model.varNames[var] + "\tc" + concept + "\tf" + classes[var]);
+			}
+		}
+	}
+
+	/**
+	 * @return numConcepts partitions, sampled in the same way as by writePartitions()
+	 */
+	public List<Set<Set<Triple<String,String,String>>>> samplePartitions(int numConcepts)
+	{
+		List<Set<Set<Triple<String,String,String>>>> partitions = new ArrayList<Set<Set<Triple<String,String,String>>>>(numConcepts);
+		for (int concept = 0; concept < numConcepts; concept++)
+		{
+			sampleClasses();
+			Map<Integer,Set<Triple<String,String,String>>> sets = new LinkedHashMap<Integer,Set<Triple<String,String,String>>>();
+			for (int var = 0; var < model.numObserved; var++)
+			{
+				if (rand.nextDouble() < missingProb) continue;
+				Set<Triple<String,String,String>> set = sets.get(classes[var]);
+				if (set == null)
+				{
+					set = new HashSet<Triple<String,String,String>>();
+					sets.put(classes[var], set);
+				}
+				set.add(new Triple<String,String,String>(model.varNames[var], "c" + concept, "f" + classes[var]));
+			}
+			partitions.add(new HashSet<Set<Triple<String,String,String>>>(sets.values()));
+		}
+		return partitions;
+	}
+
+	/**
+	 * Reads a partition file as written by writePartitions().
+	 */
+	public static List<Set<Set<Triple<String,String,String>>>> readPartitions(String fileName) throws IOException
+	{
+		List<Set<Set<Triple<String,String,String>>>> partitions = new ArrayList<Set<Set<Triple<String,String,String>>>>();
+		BufferedReader in = new BufferedReader(new FileReader(new File(fileName)));
+		String currentConcept = null;
+		Map<String,Set<Triple<String,String,String>>> sets = null;
+		String line;
+		while ((line = in.readLine()) != null)
+		{
+			String[] tokens = line.split("\t");
+			if (!tokens[1].equals(currentConcept))
+			{
+				if (sets != null) partitions.add(new HashSet<Set<Triple<String,String,String>>>(sets.values()));
+				currentConcept = tokens[1];
+				sets = new LinkedHashMap<String,Set<Triple<String,String,String>>>();
+			}
+			Set<Triple<String,String,String>> set = sets.get(tokens[2]);
+			if (set == null)
+			{
+				set = new HashSet<Triple<String,String,String>>();
+				sets.put(tokens[2], set);
+			}
+			set.add(new Triple<String,String,String>(tokens[0], tokens[1], tokens[2]));
+		}
+		if (sets != null) partitions.add(new HashSet<Set<Triple<String,String,String>>>(sets.values()));
+		in.close();
+		return partitions;
+	}
+
+	/**
+	 * Streams a thresholds matrix with the same value for each pair of variables, one row per line.
+	 */
+	public static void writeUniformThresholds(int numVars, double threshold, PrintStream out)
+	{
+		StringBuilder row = new StringBuilder();
+		for (int var = 0; var < numVars; var++)
+		{
+			if (var > 0) row.append("\t");
+			row.append(threshold);
+		}
+		String rowString = row.toString();
+		for (int var = 0; var < numVars; var++)
+		{
+			out.println(rowString);
+		}
+	}
+
+	public static double[][] readThresholds(String fileName) throws IOException
+	{
+		List<double[]> rows = new ArrayList<double[]>();
+		BufferedReader in = new BufferedReader(new FileReader(new File(fileName)));
+		String line;
+		while ((line = in.readLine()) != null)
+		{
+			String[] tokens = line.split("\t");
+			double[] row = new double[tokens.length];
+			for (int i = 0; i < tokens.length; i++)
+			{
+				row[i] = Double.parseDouble(tokens[i]);
+			}
+			rows.add(row);
+		}
+		in.close();
+		return rows.toArray(new double[rows.size()][]);
+	}
+}
@@ -0,0 +1,256 @@
+package de.tuebingen.sfs.causal.generator;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+
+/**
+ * Random causal model: a DAG over observed variables in topological order (each variable only has parents
+ * with smaller indices), plus latent root variables which act as confounders of a few observed variables each.
+ * Latent variables have the indices numObserved, ..., numObserved + numLatent - 1.
+ * Memory is linear in the number of edges, so models with many thousands of variables can be sampled.
+ */
+public class RandomCausalModel
+{
+	public int numObserved;
+	public int numLatent;
+	public String[] varNames;
+
+	//parents of each observed variable (observed ones with smaller indices, and latent ones)
+	public int[][] parents;
+	//observed children of each latent variable
+	public int[][] latentChildren;
+
+	/**
+	 * @param numObserved number of observed variables
+	 * @param avgParents expected number of observed parents per observed variable (Poisson-distributed)
+	 * @param numLatent number of latent confounders
+	 * @param childrenPerLatent number of observed children of each latent confounder
+	 * @param seed
+	 */
+	public RandomCausalModel(int numObserved, double avgParents, int numLatent, int childrenPerLatent, long seed)
+	{
+		Random rand = new Random(seed);
+		this.numObserved = numObserved;
+		this.numLatent = numLatent;
+		varNames = new String[numObserved + numLatent];
+		for (int var = 0; var < numObserved; var++)
+		{
+			varNames[var] = "L" + var;
+		}
+		for (int latent = 0; latent < numLatent; latent++)
+		{
+			varNames[numObserved + latent] = "H" + latent;
+		}
+
+		int[] numParents = new int[numObserved];
+		parents = new int[numObserved][];
+		for (int var = 0; var < numObserved; var++)
+		{
+			int numVarParents = Math.min(var, samplePoisson(avgParents, rand));
+			parents[var] = sampleDistinct(var, numVarParents, rand);
+			numParents[var] = numVarParents;
+		}
+
+		latentChildren = new int[numLatent][];
+		for (int latent = 0; latent < numLatent; latent++)
+		{
+			latentChildren[latent] = sampleDistinct(numObserved, Math.min(numObserved, childrenPerLatent), rand);
+			for (int child : latentChildren[latent])
+			{
+				if (numParents[child] == parents[child].length)
+				{
+					parents[child] = Arrays.copyOf(parents[child], numParents[child] * 2 + 1);
+				}
+				parents[child][numParents[child]++] = numObserved + latent;
+			}
+		}
+		for (int var = 0; var < numObserved; var++)
+		{
+			if (numParents[var] < parents[var].length) parents[var] = Arrays.copyOf(parents[var], numParents[var]);
+		}
+	}
+
+	private static int samplePoisson(double mean, Random rand)
+	{
+		//Knuth's method, sufficient for small means
+		double limit = Math.exp(-mean);
+		double product = rand.nextDouble();
+		int k = 0;
+		while (product > limit)
+		{
+			product *= rand.nextDouble();
+			k++;
+		}
+		return k;
+	}
+
+	/**
+	 * @return k distinct random numbers from [0, n) in ascending order
+	 */
+	private static int[] sampleDistinct(int n, int k, Random rand)
+	{
+		int[] sample = new int[k];
+		if (k > n / 2)
+		{
+			//dense case: selection sampling
+			int numSelected = 0;
+			for (int i = 0; i < n && numSelected < k; i++)
+			{
+				if (rand.nextInt(n - i) < k - numSelected) sample[numSelected++] = i;
+			}
+			return sample;
+		}
+		Set<Integer> selected = new HashSet<Integer>();
+		int numSelected = 0;
+		while (numSelected < k)
+		{
+			int candidate = rand.nextInt(n);
+			if (selected.add(candidate)) sample[numSelected++] = candidate;
+		}
+		Arrays.sort(sample);
+		return sample;
+	}
+
+	public int getNumVars()
+	{
+		return numObserved + numLatent;
+	}
+
+	public boolean isLatent(int var)
+	{
+		return var >= numObserved;
+	}
+
+	/**
+	 * @return whether var1 is a proper ancestor of var2 (among the observed variables)
+	 */
+	public boolean isAncestor(int var1, int var2)
+	{
+		//var1 can only be an ancestor if it comes first in the topological order
+		if (var1 >= var2) return false;
+		BitSet visited = new BitSet(numObserved);
+		Deque<Integer> agenda = new ArrayDeque<Integer>();
+		agenda.add(var2);
+		while (!agenda.isEmpty())
+		{
+			int var = agenda.poll();
+			for (int parent : parents[var])
+			{
+				if (parent == var1) return true;
+				//parents below var1 cannot lead back to var1
+				if (isLatent(parent) || parent < var1 || visited.get(parent)) continue;
+				visited.set(parent);
+				agenda.add(parent);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Visits the links of the ground truth graph over the observed variables: the directed edges of the DAG,
+	 * and for each pair of children of a latent confounder which are not adjacent yet, a bidirected edge,
+	 * or a directed edge if one of them is an ancestor of the other (as in the MAG). Inducing paths through
+	 * observed colliders are not taken into account, so this is the latent projection for root confounders only.
+	 */
+	public void visitObservedLinks(LinkVisitor visitor)
+	{
+		Set<Long> linked = new HashSet<Long>();
+		for (int var = 0; var < numObserved; var++)
+		{
+			for (int parent : parents[var])
+			{
+				if (isLatent(parent)) continue;
+				linked.add(pairKey(parent, var));
+				visitor.visit(parent, var, CausalGraph.LINE_END, CausalGraph.ARROW_END);
+			}
+		}
+		for (int latent = 0; latent < numLatent; latent++)
+		{
+			int[] children = latentChildren[latent];
+			for (int i = 0; i < children.length; i++)
+			{
+				for (int j = i + 1; j < children.length; j++)
+				{
+					if (!linked.add(pairKey(children[i], children[j]))) continue;
+					if (isAncestor(children[i], children[j]))
+						visitor.visit(children[i], children[j], CausalGraph.LINE_END, CausalGraph.ARROW_END);
+					else
+						visitor.visit(children[i], children[j], CausalGraph.ARROW_END, CausalGraph.ARROW_END);
+				}
+			}
+		}
+	}
+
+	private static long pairKey(int var1, int var2)
+	{
+		return ((long) Math.min(var1, var2) << 32) | Math.max(var1, var2);
+	}
+
+	/**
+	 * Streams the ground truth graph over the observed variables in the text format read by CausalGraphInput.
+	 */
+	public void writeInTextFormat(final PrintStream out)
+	{
+		out.println("#names");
+		for (int var = 0; var < numObserved; var++)
+		{
+			out.println(var + "\t" + varNames[var]);
+		}
+		out.println("#links");
+		visitObservedLinks(new LinkVisitor()
+		{
+			public void visit(int var1, int var2, int endAtVar1, int endAtVar2)
+			{
+				out.println(varNames[var1] + "\t" + endToString(endAtVar1, true) + "-" + endToString(endAtVar2, false) + "\t" + varNames[var2]);
+			}
+		});
+	}
+
+	private static String endToString(int endSymbol, boolean left)
+	{
+		switch (endSymbol)
+		{
+			case CausalGraph.ARROW_END:
+				return left ? "<" : ">";
+			case CausalGraph.LINE_END:
+				return "-";
+			default:
+				return "o";
+		}
+	}
+
+	/**
+	 * @return the ground truth graph over the observed variables
+	 */
+	public CausalGraph toCausalGraph(int storageType)
+	{
+		final CausalGraph graph = new CausalGraph(Arrays.copyOf(varNames, numObserved), false, storageType);
+		visitObservedLinks(new LinkVisitor()
+		{
+			public void visit(int var1, int var2, int endAtVar1, int endAtVar2)
+			{
+				graph.addLink(var1, var2);
+				graph.setEndSymbol(var2, var1, endAtVar1);
+				graph.setEndSymbol(var1, var2, endAtVar2);
+			}
+		});
+		return graph;
+	}
+
+	public interface LinkVisitor
+	{
+		/**
+		 * @param endAtVar1 end symbol of the link at var1
+		 * @param endAtVar2 end symbol of the link at var2
+		 */
+		void visit(int var1, int var2, int endAtVar1, int endAtVar2);
+	}
+}
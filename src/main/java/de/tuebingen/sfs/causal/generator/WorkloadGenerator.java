@@ -0,0 +1,55 @@
+package de.tuebingen.sfs.causal.generator;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Command-line generator for synthetic workloads. Writes into the output directory:
+ * graph.txt (ground truth in text format), partitions.tsv and thresholds.tsv.
+ * 
+ * Usage: WorkloadGenerator outputDir numVars numConcepts [avgParents numLatent childrenPerLatent inheritProb thresholdFactor seed]
+ */
+public class WorkloadGenerator
+{
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 3)
+		{
+			System.err.println("Usage: WorkloadGenerator outputDir numVars numConcepts [avgParents numLatent childrenPerLatent inheritProb thresholdFactor seed]");
+			System.exit(1);
+		}
+		File outputDir = new File(args[0]);
+		int numVars = Integer.parseInt(args[1]);
+		int numConcepts = Integer.parseInt(args[2]);
+		double avgParents = (args.length > 3) ? Double.parseDouble(args[3]) : 1.5;
+		int numLatent = (args.length > 4) ? Integer.parseInt(args[4]) : numVars / 20;
+		int childrenPerLatent = (args.length > 5) ? Integer.parseInt(args[5]) : 2;
+		double inheritProb = (args.length > 6) ? Double.parseDouble(args[6]) : 0.7;
+		//threshold as a fraction of the number of concepts
+		double thresholdFactor = (args.length > 7) ? Double.parseDouble(args[7]) : 0.025;
+		long seed = (args.length > 8) ? Long.parseLong(args[8]) : 1;
+
+		outputDir.mkdirs();
+		RandomCausalModel model = new RandomCausalModel(numVars, avgParents, numLatent, childrenPerLatent, seed);
+
+		PrintStream out = openFile(new File(outputDir, "graph.txt"));
+		model.writeInTextFormat(out);
+		out.close();
+
+		out = openFile(new File(outputDir, "partitions.tsv"));
+		new PartitionSampler(model, inheritProb, 0.05, seed + 1).writePartitions(numConcepts, out);
+		out.close();
+
+		out = openFile(new File(outputDir, "thresholds.tsv"));
+		PartitionSampler.writeUniformThresholds(numVars, numConcepts * thresholdFactor, out);
+		out.close();
+	}
+
+	private static PrintStream openFile(File file) throws IOException
+	{
+		return new PrintStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16), false, "UTF-8");
+	}
+}
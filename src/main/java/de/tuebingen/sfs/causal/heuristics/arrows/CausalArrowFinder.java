@@ -4,12 +4,18 @@ import java.util.List;
 import java.util.Set;
 
 import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.data.SepSetStore;
 
 public abstract class CausalArrowFinder<T>
 {
 	protected T data;
 	protected String[] varNames;
 	
+	//how findArrows() evaluates the separating sets of the outer pair of an unshielded triple
+	public static final int USES_ALL_SEPSETS = 0; //e.g. a majority rule
+	public static final int USES_SEPSETS_CONTAINING = 1; //only whether some separating set contains the middle variable
+	public static final int USES_FIRST_SEPSET = 2;
+	
 	public CausalArrowFinder(T data, String[] varNames)
 	{
 		this.data = data;
@@ -20,5 +26,24 @@ public abstract class CausalArrowFinder<T>
 	{
 	}
 	
+	/**
+	 * Offers the separating set store of the algorithm, so that the arrow finder can read the separating sets
+	 * from there instead of keeping its own copies. If it accepts, registerSepSets() is not called any more.
+	 * @return whether the arrow finder uses the store
+	 */
+	public boolean useSepSetStore(SepSetStore sepSets)
+	{
+		return false;
+	}
+	
+	/**
+	 * @return USES_ALL_SEPSETS, USES_SEPSETS_CONTAINING or USES_FIRST_SEPSET, determining which
+	 * additional tests are needed if separating set collection was stopped early
+	 */
+	public int getSepSetUsage()
+	{
+		return USES_ALL_SEPSETS;
+	}
+	
 	public abstract List<String[]> findArrows(CausalGraph graph, boolean verbose);
 }
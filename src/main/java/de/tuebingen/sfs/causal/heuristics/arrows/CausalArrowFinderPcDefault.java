@@ -2,12 +2,11 @@ package de.tuebingen.sfs.causal.heuristics.arrows;
 
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
 
 import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.data.SepSetStore;
 import de.tuebingen.sfs.util.struct.Pair;
 
 public class CausalArrowFinderPcDefault<T> extends CausalArrowFinder<T>
@@ -15,83 +14,80 @@ public class CausalArrowFinderPcDefault<T> extends CausalArrowFinder<T>
 	public static boolean BASIC_INFO = true;
 	public static boolean VERBOSE = false;
 	
-	public Map<Integer,Map<Integer,List<Set<Integer>>>> sepSets;
+	public SepSetStore sepSets;
 	public boolean stable;
 	public boolean conservative;
 	
 	public CausalArrowFinderPcDefault(T data, String[] varNames, boolean stable, boolean conservative) 
 	{
 		super(data, varNames);
-		this.sepSets = new TreeMap<Integer,Map<Integer,List<Set<Integer>>>>();
+		this.sepSets = new SepSetStore();
 		this.stable = stable;
 		this.conservative = conservative;
 	}
 	
+	/**
+	 * Adds separating sets for the unordered pair (xVar, yVar).
+	 */
 	public void registerSepSets(int xVar, int yVar, List<Set<Integer>> newSepSets)
 	{
 		if (VERBOSE) System.out.println("registerSepSets(" + xVar + "," + yVar + "," + newSepSets + ")");
 		if (newSepSets == null) return;
-		Map<Integer,List<Set<Integer>>> submap = sepSets.get(xVar);
-		if (submap == null)
-		{
-			submap = new TreeMap<Integer, List<Set<Integer>>>();
-			sepSets.put(xVar, submap);
-		}
-		List<Set<Integer>> sepSetsForVarPair = submap.get(yVar);
-		if (sepSetsForVarPair == null)
-		{
-			sepSetsForVarPair = new LinkedList<Set<Integer>>();
-			submap.put(yVar, sepSetsForVarPair);
-		}
-		for (Set<Integer> sepSet : newSepSets)
-		{
-			sepSetsForVarPair.add(sepSet);
-		}
+		sepSets.addAll(xVar, yVar, newSepSets);
+	}
+	
+	public boolean useSepSetStore(SepSetStore sepSets)
+	{
+		this.sepSets = sepSets;
+		return true;
+	}
+
+	public int getSepSetUsage()
+	{
+		if (conservative) return USES_SEPSETS_CONTAINING;
+		if (stable) return USES_ALL_SEPSETS;
+		return USES_FIRST_SEPSET;
 	}
 
 	@Override
 	public List<String[]> findArrows(CausalGraph graph, boolean verbose) 
 	{
-		for (Integer[] triple : graph.listUnshieldedTriples())
+		int[] triples = graph.listUnshieldedTripleArray();
+		int[] triple = new int[3];
+		for (int t = 0; t < triples.length; t += 3)
 		{
-			if (VERBOSE) System.out.print("sepSets[" + varNames[triple[0]] + "][" + varNames[triple[1]] + "] = ");
-			List<Set<Integer>> relevantSepSets = sepSets.get(triple[0]).get(triple[1]);
-			if (VERBOSE) {
+			System.arraycopy(triples, t, triple, 0, 3);
+			if (VERBOSE && verbose) System.out.print("sepSets[" + varNames[triple[0]] + "][" + varNames[triple[1]] + "] = ");
+			int numRelevantSepSets = sepSets.size(triple[0], triple[1]);
+			if (VERBOSE && verbose) {
 				List<Set<String>> sepSetsOutput = new LinkedList<Set<String>>();
-				for (Set<Integer> sepSet : relevantSepSets) {
+				for (int i = 0; i < numRelevantSepSets; i++) {
 					Set<String> sepSetOutput = new TreeSet<String>();
-					for (int var : sepSet) {
+					for (int var : sepSets.get(triple[0], triple[1], i)) {
 						sepSetOutput.add(varNames[var]);				
 					}
 					sepSetsOutput.add(sepSetOutput);
 				}
 				System.out.println(sepSetsOutput);
 			}
-			int sepSetsContainingK = 0;
+			int sepSetsContainingK = sepSets.countContaining(triple[0], triple[1], triple[2]);
 			boolean firstSepSetContainsK = false;
-			if (relevantSepSets.size() > 0) firstSepSetContainsK = relevantSepSets.get(0).contains(triple[2]);
-			for (Set<Integer> sepSet : relevantSepSets)
-			{
-				if (sepSet.contains(triple[2]))
-				{
-					sepSetsContainingK++;
-				}
-			}
-			if (VERBOSE) System.out.println("Separation sets containing " + varNames[triple[2]] + ": " + sepSetsContainingK + "/" + relevantSepSets.size());
+			if (numRelevantSepSets > 0) firstSepSetContainsK = SepSetStore.contains(sepSets.get(triple[0], triple[1], 0), triple[2]);
+			if (VERBOSE && verbose) System.out.println("Separation sets containing " + varNames[triple[2]] + ": " + sepSetsContainingK + "/" + numRelevantSepSets);
 			if (conservative)
 			{
 				if (sepSetsContainingK == 0)
 				{
-					if (BASIC_INFO) System.out.println("Found v-structure: " + varNames[triple[0]] + " -> " + varNames[triple[2]] + " <- " + varNames[triple[1]]);
+					if (BASIC_INFO && verbose) System.out.println("Found v-structure: " + varNames[triple[0]] + " -> " + varNames[triple[2]] + " <- " + varNames[triple[1]]);
 					if (!graph.hasPresetEnd(triple[0], triple[2])) graph.putArrow(triple[0], triple[2], true);
 					if (!graph.hasPresetEnd(triple[1], triple[2])) graph.putArrow(triple[1], triple[2], true);	
 				}
 			}
 			else if (stable)
 			{
-				if (sepSetsContainingK <= relevantSepSets.size() / 2)
+				if (sepSetsContainingK <= numRelevantSepSets / 2)
 				{
-					if (BASIC_INFO) System.out.println("Found v-structure: " + varNames[triple[0]] + " -> " + varNames[triple[2]] + " <- " + varNames[triple[1]]);
+					if (BASIC_INFO && verbose) System.out.println("Found v-structure: " + varNames[triple[0]] + " -> " + varNames[triple[2]] + " <- " + varNames[triple[1]]);
 					if (!graph.hasPresetEnd(triple[0], triple[2])) graph.putArrow(triple[0], triple[2], true);
 					if (!graph.hasPresetEnd(triple[1], triple[2])) graph.putArrow(triple[1], triple[2], true);	
 				}
@@ -100,7 +96,7 @@ public class CausalArrowFinderPcDefault<T> extends CausalArrowFinder<T>
 			{
 				if (!firstSepSetContainsK)
 				{
-					if (BASIC_INFO) System.out.println("Found v-structure: " + varNames[triple[0]] + " -> " + varNames[triple[2]] + " <- " + varNames[triple[1]]);
+					if (BASIC_INFO && verbose) System.out.println("Found v-structure: " + varNames[triple[0]] + " -> " + varNames[triple[2]] + " <- " + varNames[triple[1]]);
 					if (!graph.hasPresetEnd(triple[0], triple[2])) graph.putArrow(triple[0], triple[2], true);
 					if (!graph.hasPresetEnd(triple[1], triple[2])) graph.putArrow(triple[1], triple[2], true);	
 				}
@@ -108,19 +104,11 @@ public class CausalArrowFinderPcDefault<T> extends CausalArrowFinder<T>
 		}
 		
 		//phase 3: orient remaining edges according to DAG criterion
-		boolean hasChanged = true;
-		while (hasChanged)
-		{
-			hasChanged = false;
-			
-			//rules for propagating arrows (just as in PC algorithm)
-			//R1: unshielded A *-> B o-* C => A *-> B --> C
-			hasChanged |= OrientationRules.applyZhangOrientationRule1(graph, varNames);
-			//R2: A *-> B -> C or A -> B *-> C and A *-o C => A *-> C
-			hasChanged |= OrientationRules.applyZhangOrientationRule2(graph, varNames);
-			//R3: v-structure A *-> B <-* C and A *-o D o-* C where D *-o B imply D *-> B
-			hasChanged |= OrientationRules.applyZhangOrientationRule3(graph, varNames);
-		}
+		//rules for propagating arrows (just as in PC algorithm), applied until nothing changes
+		//R1: unshielded A *-> B o-* C => A *-> B --> C
+		//R2: A *-> B -> C or A -> B *-> C and A *-o C => A *-> C
+		//R3: v-structure A *-> B <-* C and A *-o D o-* C where D *-o B imply D *-> B
+		new OrientationRuleEngine(graph, varNames, 1, 2, 3).run();
 		
 		//slightly roundabout: extract the arrows from the graph we directly operated on,
 		//these might be inserted once again by the calling code (which should not do any harm)
@@ -0,0 +1,280 @@
+package de.tuebingen.sfs.causal.heuristics.arrows;
+
+import java.util.BitSet;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+
+/**
+ * Applies a sequence of the rules in OrientationRules until none of them changes the graph any more, with the
+ * same result as repeated sweeps in which each rule is applied to the whole graph. The local rules (R1, R2, R3,
+ * R6, R7, R8) only re-check the unshielded triples and links around changed end symbols, in the order in which
+ * a sweep would check them. The rules on paths (R5, R9, R10) are applied as sweeps, but only if an end symbol
+ * has changed since their last application.
+ */
+public class OrientationRuleEngine implements CausalGraph.EndSymbolListener {
+	CausalGraph graph;
+	String[] varNames;
+	OrientationRules orientationRules;
+	int[] rules;
+	// listener registered by the caller, which is notified through the engine while it is running
+	CausalGraph.EndSymbolListener callerListener;
+
+	// directed links in the order of CausalGraph.listAllLinksInBothDirections(), with both directions
+	// of each link next to each other, and the positions of the links incident to each variable
+	int skeletonVersion;
+	int[] linkVars1;
+	int[] linkVars2;
+	int[] incidentLinkStarts;
+	int[] incidentLinks;
+
+	// unshielded triples as in CausalGraph.listUnshieldedTripleArray(), which are sorted by cause1,
+	// and the positions of the triples with each dependent variable
+	int[] triples;
+	int[] cause1Starts;
+	int[] dependentStarts;
+	int[] dependentTriples;
+	// whether an end symbol which decides about the unshielded triples (see CausalGraph.hasPresetArrow()) has changed
+	boolean triplesOutdated;
+
+	// for each of the rules, the positions of the triples or links which need to be re-checked
+	BitSet[] dirty;
+	long numChanges;
+	long[] numChangesAtLastSweep;
+
+	/**
+	 * @param rules numbers of the rules to apply in each round, in this order
+	 */
+	public OrientationRuleEngine(CausalGraph graph, String[] varNames, int... rules) {
+		this(graph, varNames, new OrientationRules(), rules);
+	}
+
+	/**
+	 * @param orientationRules the rules to apply, which decide about logging and counting the orientations
+	 * @param rules numbers of the rules to apply in each round, in this order
+	 */
+	public OrientationRuleEngine(CausalGraph graph, String[] varNames, OrientationRules orientationRules,
+			int... rules) {
+		for (int rule : rules) {
+			if (rule < 1 || rule > 10 || rule == 4)
+				throw new IllegalArgumentException("unsupported orientation rule: R" + rule);
+		}
+		this.graph = graph;
+		this.varNames = varNames;
+		this.orientationRules = orientationRules;
+		this.rules = rules;
+		dirty = new BitSet[rules.length];
+		for (int r = 0; r < rules.length; r++) {
+			dirty[r] = new BitSet();
+		}
+		numChangesAtLastSweep = new long[rules.length];
+	}
+
+	/**
+	 * Applies the rules until the graph does not change any more. The engine is registered as the end symbol
+	 * listener of the graph while it is running, and passes the changes on to the listener it replaces, which is
+	 * restored afterwards.
+	 * @return whether any end symbol was changed
+	 */
+	public boolean run() {
+		long numChangesBefore = numChanges;
+		callerListener = graph.getEndSymbolListener();
+		graph.setEndSymbolListener(this);
+		try {
+			indexLinks();
+			indexTriples();
+			for (int r = 0; r < rules.length; r++) {
+				markAll(r);
+				numChangesAtLastSweep[r] = -1;
+			}
+			while (hasPendingChecks()) {
+				if (graph.getSkeletonVersion() != skeletonVersion) {
+					indexLinks();
+					indexTriples();
+					for (int r = 0; r < rules.length; r++) {
+						markAll(r);
+					}
+				}
+				for (int r = 0; r < rules.length; r++) {
+					applyRule(r);
+				}
+			}
+		} finally {
+			graph.setEndSymbolListener(callerListener);
+			callerListener = null;
+		}
+		return numChanges > numChangesBefore;
+	}
+
+	private boolean hasPendingChecks() {
+		for (int r = 0; r < rules.length; r++) {
+			if (isPathRule(rules[r]) ? numChanges != numChangesAtLastSweep[r] : !dirty[r].isEmpty())
+				return true;
+		}
+		return false;
+	}
+
+	private void applyRule(int r) {
+		int rule = rules[r];
+		if (isPathRule(rule)) {
+			if (numChanges == numChangesAtLastSweep[r])
+				return;
+			numChangesAtLastSweep[r] = numChanges;
+			if (rule == 5)
+				orientationRules.applyZhangOrientationRule5(graph, varNames);
+			else if (rule == 9)
+				orientationRules.applyZhangOrientationRule9(graph, varNames);
+			else
+				orientationRules.applyZhangOrientationRule10(graph, varNames);
+			return;
+		}
+		if (isTripleRule(rule) && triplesOutdated) {
+			indexTriples();
+			for (int q = 0; q < rules.length; q++) {
+				if (isTripleRule(rules[q]))
+					markAll(q);
+			}
+		}
+		// patterns which become dirty behind the current one are checked in the same pass, as in a sweep
+		BitSet patterns = dirty[r];
+		for (int i = patterns.nextSetBit(0); i >= 0; i = patterns.nextSetBit(i + 1)) {
+			patterns.clear(i);
+			switch (rule) {
+			case 1:
+				orientationRules.applyZhangOrientationRule1(graph, varNames, triples[3 * i], triples[3 * i + 1],
+						triples[3 * i + 2]);
+				break;
+			case 3:
+				orientationRules.applyZhangOrientationRule3(graph, varNames, triples[3 * i], triples[3 * i + 1],
+						triples[3 * i + 2]);
+				break;
+			case 7:
+				orientationRules.applyZhangOrientationRule7(graph, varNames, triples[3 * i], triples[3 * i + 1],
+						triples[3 * i + 2]);
+				break;
+			case 2:
+				orientationRules.applyZhangOrientationRule2(graph, varNames, linkVars1[i], linkVars2[i]);
+				break;
+			case 6:
+				orientationRules.applyZhangOrientationRule6(graph, varNames, linkVars1[i], linkVars2[i]);
+				break;
+			case 8:
+				orientationRules.applyZhangOrientationRule8(graph, varNames, linkVars1[i], linkVars2[i]);
+				break;
+			}
+		}
+	}
+
+	public void endSymbolChanged(int var1, int var2) {
+		if (callerListener != null)
+			callerListener.endSymbolChanged(var1, var2);
+		numChanges++;
+		if (graph.hasPresetEnd(var1, var2) || graph.hasPresetEnd(var2, var1))
+			triplesOutdated = true;
+		for (int r = 0; r < rules.length; r++) {
+			switch (rules[r]) {
+			case 1:
+			case 7:
+				// the rule only reads the two links of the triple, which are incident to the dependent variable
+				markTriplesWithDependent(dirty[r], var1);
+				markTriplesWithDependent(dirty[r], var2);
+				break;
+			case 3:
+				// also reads the links between cause1 and the common neighbors of the causes
+				markTriplesWithDependent(dirty[r], var1);
+				markTriplesWithDependent(dirty[r], var2);
+				markTriplesWithCause1(dirty[r], var1);
+				markTriplesWithCause1(dirty[r], var2);
+				break;
+			case 2:
+			case 6:
+			case 8:
+				// the rules only read links incident to one of the two variables
+				markIncidentLinks(dirty[r], var1);
+				markIncidentLinks(dirty[r], var2);
+				break;
+			}
+		}
+	}
+
+	private static boolean isPathRule(int rule) {
+		return rule == 5 || rule == 9 || rule == 10;
+	}
+
+	private static boolean isTripleRule(int rule) {
+		return rule == 1 || rule == 3 || rule == 7;
+	}
+
+	private void markAll(int r) {
+		dirty[r].clear();
+		if (!isPathRule(rules[r]))
+			dirty[r].set(0, isTripleRule(rules[r]) ? triples.length / 3 : linkVars1.length);
+	}
+
+	private void markIncidentLinks(BitSet patterns, int var) {
+		for (int i = incidentLinkStarts[var]; i < incidentLinkStarts[var + 1]; i++) {
+			patterns.set(incidentLinks[i], incidentLinks[i] + 2);
+		}
+	}
+
+	private void markTriplesWithDependent(BitSet patterns, int var) {
+		for (int i = dependentStarts[var]; i < dependentStarts[var + 1]; i++) {
+			patterns.set(dependentTriples[i]);
+		}
+	}
+
+	private void markTriplesWithCause1(BitSet patterns, int var) {
+		if (cause1Starts[var] < cause1Starts[var + 1])
+			patterns.set(cause1Starts[var], cause1Starts[var + 1]);
+	}
+
+	private void indexLinks() {
+		int numVars = varNames.length;
+		skeletonVersion = graph.getSkeletonVersion();
+		incidentLinkStarts = new int[numVars + 1];
+		for (int var = 0; var < numVars; var++) {
+			incidentLinkStarts[var + 1] = incidentLinkStarts[var] + graph.getNumNeighbors(var);
+		}
+		int numLinks = incidentLinkStarts[numVars];
+		linkVars1 = new int[numLinks];
+		linkVars2 = new int[numLinks];
+		incidentLinks = new int[numLinks];
+		int[] numIncidentLinks = new int[numVars];
+		int link = 0;
+		for (int var1 = 0; var1 < numVars; var1++) {
+			for (int var2 : graph.getNeighbors(var1)) {
+				if (var2 < var1)
+					continue;
+				linkVars1[link] = var1;
+				linkVars2[link] = var2;
+				linkVars1[link + 1] = var2;
+				linkVars2[link + 1] = var1;
+				incidentLinks[incidentLinkStarts[var1] + numIncidentLinks[var1]++] = link;
+				incidentLinks[incidentLinkStarts[var2] + numIncidentLinks[var2]++] = link;
+				link += 2;
+			}
+		}
+	}
+
+	private void indexTriples() {
+		int numVars = varNames.length;
+		triples = graph.listUnshieldedTripleArray();
+		triplesOutdated = false;
+		int numTriples = triples.length / 3;
+		cause1Starts = new int[numVars + 1];
+		dependentStarts = new int[numVars + 1];
+		for (int i = 0; i < numTriples; i++) {
+			cause1Starts[triples[3 * i] + 1]++;
+			dependentStarts[triples[3 * i + 2] + 1]++;
+		}
+		for (int var = 0; var < numVars; var++) {
+			cause1Starts[var + 1] += cause1Starts[var];
+			dependentStarts[var + 1] += dependentStarts[var];
+		}
+		dependentTriples = new int[numTriples];
+		int[] numDependentTriples = new int[numVars];
+		for (int i = 0; i < numTriples; i++) {
+			int dependent = triples[3 * i + 2];
+			dependentTriples[dependentStarts[dependent] + numDependentTriples[dependent]++] = i;
+		}
+	}
+}
@@ -1,64 +1,127 @@
 package de.tuebingen.sfs.causal.heuristics.arrows;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import de.tuebingen.sfs.causal.data.CausalGraph;
 import de.tuebingen.sfs.causal.data.CausalGraphOutput;
 import de.tuebingen.sfs.util.struct.Pair;
 
+/**
+ * The orientation rules of Zhang (2008). Each run of an algorithm uses its own instance, which decides whether the
+ * orientations are printed and where they are counted, so that concurrent runs do not share any state.
+ */
 public class OrientationRules {
+	// default for instances created without arguments, never changed by the algorithms
 	public static boolean VERBOSE = false;
 
-	public static boolean applyZhangOrientationRule1(CausalGraph graph, String[] varNames) {
+	boolean verbose;
+	// optional counters for the orientations made by each rule, indexed by rule number (e.g. RunMetrics.ruleFirings)
+	long[] firings;
+	// budget of the exact search for each uncovered path missed by the polynomial search (0: off)
+	long maxExactPathSteps;
+
+	public OrientationRules() {
+		this(VERBOSE, null);
+	}
+
+	/**
+	 * @param verbose whether to print each orientation
+	 * @param firings counters for the orientations made by each rule, or null
+	 */
+	public OrientationRules(boolean verbose, long[] firings) {
+		this.verbose = verbose;
+		this.firings = firings;
+	}
+
+	/**
+	 * @param maxExactPathSteps number of steps of the exponential search for an uncovered path in R5, R9 and R10,
+	 *            which is run whenever the polynomial search finds none, and finds the rare paths it misses
+	 *            (default: 0, i.e. these rules can miss some orientations)
+	 */
+	public void setMaxExactPathSteps(long maxExactPathSteps) {
+		this.maxExactPathSteps = maxExactPathSteps;
+	}
+
+	private void countFiring(int rule) {
+		if (firings != null)
+			firings[rule]++;
+	}
+
+	public boolean applyZhangOrientationRule1(CausalGraph graph, String[] varNames) {
 		// R1: unshielded A *-> B o-* C => A *-> B --> C
 		boolean hasChanged = false;
-		for (Integer[] triple : graph.listUnshieldedTriples()) {
-			if (graph.getEndSymbol(triple[0], triple[2]) == CausalGraph.ARROW_END
-					&& graph.getEndSymbol(triple[1], triple[2]) == CausalGraph.CIRCLE_END) {
-				if (VERBOSE)
-					System.out.println("  R01: " + varNames[triple[0]] + " "
-							+ graph.getLinkRepresentation(triple[0], triple[2]) + " " + varNames[triple[2]] + " "
-							+ graph.getLinkRepresentation(triple[2], triple[1]) + " " + varNames[triple[1]]
-							+ ", therefore " + varNames[triple[2]] + " --> " + varNames[triple[1]]);
-				graph.setEndSymbol(triple[1], triple[2], CausalGraph.LINE_END);
-				graph.setEndSymbol(triple[2], triple[1], CausalGraph.ARROW_END);
-				hasChanged = true;
-			} else if (graph.getEndSymbol(triple[1], triple[2]) == CausalGraph.ARROW_END
-					&& graph.getEndSymbol(triple[0], triple[2]) == CausalGraph.CIRCLE_END) {
-				if (VERBOSE)
-					System.out.println("  R01: " + varNames[triple[1]] + " "
-							+ graph.getLinkRepresentation(triple[1], triple[2]) + " " + varNames[triple[2]] + " "
-							+ graph.getLinkRepresentation(triple[2], triple[0]) + " " + varNames[triple[0]]
-							+ ", therefore " + varNames[triple[2]] + " --> " + varNames[triple[0]]);
-				graph.setEndSymbol(triple[0], triple[2], CausalGraph.LINE_END);
-				graph.setEndSymbol(triple[2], triple[0], CausalGraph.ARROW_END);
-				hasChanged = true;
-			}
+		int[] triples = graph.listUnshieldedTripleArray();
+		for (int t = 0; t < triples.length; t += 3) {
+			hasChanged |= applyZhangOrientationRule1(graph, varNames, triples[t], triples[t + 1], triples[t + 2]);
 		}
 		return hasChanged;
 	}
 
-	public static boolean applyZhangOrientationRule2(CausalGraph graph, String[] varNames) {
+	/**
+	 * Applies R1 to the unshielded triple cause1 *-* dependent *-* cause2.
+	 */
+	public boolean applyZhangOrientationRule1(CausalGraph graph, String[] varNames, int cause1, int cause2,
+			int dependent) {
+		boolean hasChanged = false;
+		if (graph.getEndSymbol(cause1, dependent) == CausalGraph.ARROW_END
+				&& graph.getEndSymbol(cause2, dependent) == CausalGraph.CIRCLE_END) {
+			if (verbose)
+				System.out.println("  R01: " + varNames[cause1] + " "
+						+ graph.getLinkRepresentation(cause1, dependent) + " " + varNames[dependent] + " "
+						+ graph.getLinkRepresentation(dependent, cause2) + " " + varNames[cause2]
+						+ ", therefore " + varNames[dependent] + " --> " + varNames[cause2]);
+			graph.setEndSymbol(cause2, dependent, CausalGraph.LINE_END);
+			graph.setEndSymbol(dependent, cause2, CausalGraph.ARROW_END);
+			hasChanged = true;
+			countFiring(1);
+		} else if (graph.getEndSymbol(cause2, dependent) == CausalGraph.ARROW_END
+				&& graph.getEndSymbol(cause1, dependent) == CausalGraph.CIRCLE_END) {
+			if (verbose)
+				System.out.println("  R01: " + varNames[cause2] + " "
+						+ graph.getLinkRepresentation(cause2, dependent) + " " + varNames[dependent] + " "
+						+ graph.getLinkRepresentation(dependent, cause1) + " " + varNames[cause1]
+						+ ", therefore " + varNames[dependent] + " --> " + varNames[cause1]);
+			graph.setEndSymbol(cause1, dependent, CausalGraph.LINE_END);
+			graph.setEndSymbol(dependent, cause1, CausalGraph.ARROW_END);
+			hasChanged = true;
+			countFiring(1);
+		}
+		return hasChanged;
+	}
+
+	public boolean applyZhangOrientationRule2(CausalGraph graph, String[] varNames) {
 		//acyclicity condition
 		boolean hasChanged = false;
 		for (Pair<Integer, Integer> link : graph.listAllLinksInBothDirections()) {
-			if (graph.getEndSymbol(link.first, link.second) == CausalGraph.CIRCLE_END) {
-				for (int b : graph.getNeighborsOnAcyclicPathsBetween(link.first, link.second, 1)) {
-					if (graph.getEndSymbol(link.first, b) == CausalGraph.ARROW_END
-							&& graph.getEndSymbol(b, link.second) == CausalGraph.ARROW_END) {
-						if (graph.getEndSymbol(b, link.first) == CausalGraph.LINE_END
-								|| graph.getEndSymbol(link.second, b) == CausalGraph.LINE_END) {
-							graph.setEndSymbol(link.first, link.second, CausalGraph.ARROW_END);
-							if (VERBOSE)
-								System.out.println("  R02: " + varNames[link.first] + " "
-										+ graph.getLinkRepresentation(link.first, b) + " " + varNames[b] + " "
-										+ graph.getLinkRepresentation(b, link.second) + " " + varNames[link.second]
-										+ ", therefore " + varNames[link.first] + " "
-										+ graph.getLinkRepresentation(link.first, link.second) + " "
-										+ varNames[link.second]);
-							hasChanged = true;
-						}
+			hasChanged |= applyZhangOrientationRule2(graph, varNames, link.first, link.second);
+		}
+		return hasChanged;
+	}
+
+	/**
+	 * Applies R2 to the link between var1 and var2, in this direction.
+	 */
+	public boolean applyZhangOrientationRule2(CausalGraph graph, String[] varNames, int var1, int var2) {
+		boolean hasChanged = false;
+		if (graph.getEndSymbol(var1, var2) == CausalGraph.CIRCLE_END) {
+			for (int b : graph.getNeighborsOnAcyclicPathsBetween(var1, var2, 1)) {
+				if (graph.getEndSymbol(var1, b) == CausalGraph.ARROW_END
+						&& graph.getEndSymbol(b, var2) == CausalGraph.ARROW_END) {
+					if (graph.getEndSymbol(b, var1) == CausalGraph.LINE_END
+							|| graph.getEndSymbol(var2, b) == CausalGraph.LINE_END) {
+						graph.setEndSymbol(var1, var2, CausalGraph.ARROW_END);
+						if (verbose)
+							System.out.println("  R02: " + varNames[var1] + " "
+									+ graph.getLinkRepresentation(var1, b) + " " + varNames[b] + " "
+									+ graph.getLinkRepresentation(b, var2) + " " + varNames[var2]
+									+ ", therefore " + varNames[var1] + " "
+									+ graph.getLinkRepresentation(var1, var2) + " "
+									+ varNames[var2]);
+						hasChanged = true;
+						countFiring(2);
 					}
 				}
 			}
@@ -66,276 +129,396 @@ public class OrientationRules {
 		return hasChanged;
 	}
 
-	public static boolean applyZhangOrientationRule3(CausalGraph graph, String[] varNames) {
+	public boolean applyZhangOrientationRule3(CausalGraph graph, String[] varNames) {
 		//inference by a contradiction arising from unshielded collider with acyclicity condition
 		boolean hasChanged = false;
-		for (Integer[] triple : graph.listUnshieldedTriples()) {
-			if (graph.getEndSymbol(triple[0], triple[2]) == CausalGraph.ARROW_END
-					&& graph.getEndSymbol(triple[1], triple[2]) == CausalGraph.ARROW_END) {
-				for (int d : graph.getNeighborsOnAcyclicPathsBetween(triple[0], triple[1], 1)) {
-					if (graph.hasLink(d, triple[2]) && graph.getEndSymbol(d, triple[2]) == CausalGraph.CIRCLE_END) {
-						if (graph.getEndSymbol(triple[0], d) == CausalGraph.CIRCLE_END
-								&& graph.getEndSymbol(triple[1], triple[2]) == CausalGraph.CIRCLE_END) {
-							graph.setEndSymbol(d, triple[2], CausalGraph.ARROW_END);
-							if (VERBOSE)
-								System.out.println("  R03: " + varNames[triple[0]] + " "
-										+ graph.getLinkRepresentation(triple[0], triple[2]) + " " + varNames[triple[2]]
-										+ " " + graph.getLinkRepresentation(triple[2], triple[1]) + " "
-										+ varNames[triple[1]] + ", therefore " + varNames[d] + " "
-										+ graph.getLinkRepresentation(d, triple[2]) + " " + varNames[triple[2]]);
-							hasChanged = true;
-						}
+		int[] triples = graph.listUnshieldedTripleArray();
+		for (int t = 0; t < triples.length; t += 3) {
+			hasChanged |= applyZhangOrientationRule3(graph, varNames, triples[t], triples[t + 1], triples[t + 2]);
+		}
+		return hasChanged;
+	}
+
+	/**
+	 * Applies R3 to the unshielded triple cause1 *-* dependent *-* cause2.
+	 */
+	public boolean applyZhangOrientationRule3(CausalGraph graph, String[] varNames, int cause1, int cause2,
+			int dependent) {
+		boolean hasChanged = false;
+		if (graph.getEndSymbol(cause1, dependent) == CausalGraph.ARROW_END
+				&& graph.getEndSymbol(cause2, dependent) == CausalGraph.ARROW_END) {
+			for (int d : graph.getNeighborsOnAcyclicPathsBetween(cause1, cause2, 1)) {
+				if (graph.hasLink(d, dependent) && graph.getEndSymbol(d, dependent) == CausalGraph.CIRCLE_END) {
+					if (graph.getEndSymbol(cause1, d) == CausalGraph.CIRCLE_END
+							&& graph.getEndSymbol(cause2, dependent) == CausalGraph.CIRCLE_END) {
+						graph.setEndSymbol(d, dependent, CausalGraph.ARROW_END);
+						if (verbose)
+							System.out.println("  R03: " + varNames[cause1] + " "
+									+ graph.getLinkRepresentation(cause1, dependent) + " " + varNames[dependent]
+									+ " " + graph.getLinkRepresentation(dependent, cause2) + " "
+									+ varNames[cause2] + ", therefore " + varNames[d] + " "
+									+ graph.getLinkRepresentation(d, dependent) + " " + varNames[dependent]);
+						hasChanged = true;
+						countFiring(3);
+					}
+				}
+			}
+		}
+		return hasChanged;
+	}
+
+	/**
+	 * Finds the candidates for R4, which depends on separating sets and therefore has no sweep here.
+	 * @return one shortest discriminating path [start, ..., l, j, k] for each link j o-* k which has one
+	 */
+	public static List<List<Integer>> findDiscriminatingPaths(CausalGraph graph) {
+		List<List<Integer>> paths = new ArrayList<List<Integer>>();
+		for (int k = 0; k < graph.varNames.length; k++) {
+			for (int j : graph.getNeighbors(k)) {
+				if (graph.getEndSymbol(k, j) != CausalGraph.CIRCLE_END)
+					continue;
+				for (int l : graph.getNeighbors(j)) {
+					// l must be a collider on the path and a parent of k
+					if (graph.getEndSymbol(j, l) != CausalGraph.ARROW_END || !graph.hasLink(l, k)
+							|| graph.getEndSymbol(l, k) != CausalGraph.ARROW_END
+							|| graph.getEndSymbol(k, l) != CausalGraph.LINE_END)
+						continue;
+					List<List<Integer>> candidates = graph.getShortestDiscriminatingPaths(l, j, k);
+					if (!candidates.isEmpty()) {
+						paths.add(candidates.get(0));
+						break;
 					}
 				}
 			}
 		}
+		return paths;
+	}
+
+	/**
+	 * @return whether the path [start, ..., l, j, k] is (still) a discriminating path for j o-* k
+	 */
+	public static boolean isDiscriminatingPath(CausalGraph graph, List<Integer> path) {
+		int size = path.size();
+		int start = path.get(0);
+		int j = path.get(size - 2);
+		int k = path.get(size - 1);
+		if (graph.hasLink(start, k) || graph.getEndSymbol(k, j) != CausalGraph.CIRCLE_END)
+			return false;
+		for (int pos = 0; pos < size - 1; pos++) {
+			if (!graph.hasLink(path.get(pos), path.get(pos + 1)))
+				return false;
+		}
+		for (int pos = 1; pos < size - 2; pos++) {
+			int var = path.get(pos);
+			if (graph.getEndSymbol(path.get(pos - 1), var) != CausalGraph.ARROW_END
+					|| graph.getEndSymbol(path.get(pos + 1), var) != CausalGraph.ARROW_END
+					|| !graph.hasLink(var, k) || graph.getEndSymbol(var, k) != CausalGraph.ARROW_END
+					|| graph.getEndSymbol(k, var) != CausalGraph.LINE_END)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Applies R4 to the discriminating path [start, ..., l, j, k] for j o-* k, if it still is one: j --> k if j is
+	 * in the separating set of start and k, l <-> j <-> k otherwise. Preset ends are not changed.
+	 */
+	public boolean applyZhangOrientationRule4(CausalGraph graph, String[] varNames, List<Integer> path,
+			boolean inSepSet) {
+		if (!isDiscriminatingPath(graph, path))
+			return false;
+		int size = path.size();
+		int start = path.get(0);
+		int l = path.get(size - 3);
+		int j = path.get(size - 2);
+		int k = path.get(size - 1);
+		boolean hasChanged = false;
+		if (inSepSet) {
+			hasChanged |= setUnlessPreset(graph, k, j, CausalGraph.LINE_END);
+			hasChanged |= setUnlessPreset(graph, j, k, CausalGraph.ARROW_END);
+			if (hasChanged && verbose)
+				System.out.println("  R04: discriminating path from " + varNames[start] + " to " + varNames[k] + ", "
+						+ varNames[j] + " in separating set, therefore " + varNames[j] + " --> " + varNames[k]);
+		} else {
+			hasChanged |= setUnlessPreset(graph, j, l, CausalGraph.ARROW_END);
+			hasChanged |= setUnlessPreset(graph, l, j, CausalGraph.ARROW_END);
+			hasChanged |= setUnlessPreset(graph, k, j, CausalGraph.ARROW_END);
+			hasChanged |= setUnlessPreset(graph, j, k, CausalGraph.ARROW_END);
+			if (hasChanged && verbose)
+				System.out.println("  R04: discriminating path from " + varNames[start] + " to " + varNames[k] + ", "
+						+ varNames[j] + " not in separating set, therefore " + varNames[l] + " <-> " + varNames[j]
+						+ " <-> " + varNames[k]);
+		}
+		if (hasChanged)
+			countFiring(4);
 		return hasChanged;
 	}
 
-	public static boolean applyZhangOrientationRule5(CausalGraph graph, String[] varNames) {
+	/**
+	 * @return whether the end symbol has changed (preset ends are kept)
+	 */
+	private boolean setUnlessPreset(CausalGraph graph, int var1, int var2, int symbol) {
+		if (graph.hasPresetEnd(var1, var2) || graph.getEndSymbol(var1, var2) == symbol)
+			return false;
+		graph.setEndSymbol(var1, var2, symbol);
+		return true;
+	}
+
+	public boolean applyZhangOrientationRule5(CausalGraph graph, String[] varNames) {
 		// R5: A o-o B and uncovered circle path <A,C,...,D,B>, A -/- D, B -/- C 
 		//  => A --- C --- ... --- D --- B --- A
 		boolean hasChanged = false;
 		for (Pair<Integer, Integer> link : graph.listAllLinksInBothDirections()) {
-			if (graph.getEndSymbol(link.first, link.second) == CausalGraph.CIRCLE_END
-					&& graph.getEndSymbol(link.second, link.first) == CausalGraph.CIRCLE_END) {
-				List<List<Integer>> circlePaths = graph.getUncoveredCirclePathsBetween(link.first, link.second,
-						varNames.length);
-				while (circlePaths.size() > 0) {
-					boolean circlePathChange = false;
-					for (List<Integer> circlePath : circlePaths) {
-						// for a path smaller than <A,C,D,B>, we would inevitably have A *-* D and C *-*
-						// B (not a path otherwise)
-						if (circlePath.size() > 1) {
-							int c = circlePath.get(0);
-							int d = circlePath.get(circlePath.size() - 1);
-							if (graph.hasLink(link.first, d) || graph.hasLink(link.second, c))
-								continue;
-
-							graph.setEndSymbol(link.first, link.second, CausalGraph.LINE_END);
-							graph.setEndSymbol(link.second, link.first, CausalGraph.LINE_END);
-							if (VERBOSE)
-								System.out.print("  R05: found uncovered circle path " + varNames[link.first] + " "
-										+ graph.getLinkRepresentation(link.first, circlePath.get(0)) + " "
-										+ CausalGraphOutput.pathToString(circlePath, graph) + " "
-										+ graph.getLinkRepresentation(circlePath.get(circlePath.size() - 1),
-												link.second)
-										+ " " + varNames[link.second] + ", therefore " + varNames[link.first] + " "
-										+ graph.getLinkRepresentation(link.first, link.second) + " "
-										+ varNames[link.second]);
+			hasChanged |= applyZhangOrientationRule5(graph, varNames, link.first, link.second);
+		}
+		return hasChanged;
+	}
 
-							int v1 = -1;
-							int v2 = link.first;
-							for (int nextVariable : circlePath) {
-								v1 = v2;
-								v2 = nextVariable;
-								graph.setEndSymbol(v1, v2, CausalGraph.LINE_END);
-								graph.setEndSymbol(v2, v1, CausalGraph.LINE_END);
-							}
-							graph.setEndSymbol(v2, link.second, CausalGraph.LINE_END);
-							graph.setEndSymbol(link.second, v2, CausalGraph.LINE_END);
+	/**
+	 * Applies R5 to the link between a and b, orienting the first uncovered circle path found.
+	 */
+	public boolean applyZhangOrientationRule5(CausalGraph graph, String[] varNames, int a, int b) {
+		if (graph.getEndSymbol(a, b) != CausalGraph.CIRCLE_END || graph.getEndSymbol(b, a) != CausalGraph.CIRCLE_END)
+			return false;
+		for (int c : graph.getNeighbors(a)) {
+			// for a path smaller than <A,C,D,B>, we would inevitably have A *-* D and C *-* B (not a path otherwise)
+			if (c == b || graph.hasLink(c, b))
+				continue;
+			List<Integer> circlePath = graph.findUncoveredCirclePath(a, c, b, a, maxExactPathSteps);
+			if (circlePath == null)
+				continue;
 
-							if (VERBOSE)
-								System.out
-										.println(
-												" and " + varNames[link.first] + " "
-														+ graph.getLinkRepresentation(link.first, circlePath.get(0))
-														+ " " + CausalGraphOutput.pathToString(circlePath, graph) + " "
-														+ graph.getLinkRepresentation(
-																circlePath.get(circlePath.size() - 1), link.second)
-														+ " " + varNames[link.second]);
-							hasChanged = true;
-							circlePathChange = true;
-							break;
-						}
-					}
-					if (!circlePathChange)
-						break;
-					circlePaths = graph.getUncoveredCirclePathsBetween(link.first, link.second, varNames.length);
-				}
+			if (verbose)
+				System.out.print("  R05: found uncovered circle path "
+						+ CausalGraphOutput.pathToString(circlePath, graph) + ", therefore " + varNames[a] + " "
+						+ graph.getLinkRepresentation(a, b) + " " + varNames[b]);
+			graph.setEndSymbol(a, b, CausalGraph.LINE_END);
+			graph.setEndSymbol(b, a, CausalGraph.LINE_END);
+			for (int i = 1; i < circlePath.size(); i++) {
+				graph.setEndSymbol(circlePath.get(i - 1), circlePath.get(i), CausalGraph.LINE_END);
+				graph.setEndSymbol(circlePath.get(i), circlePath.get(i - 1), CausalGraph.LINE_END);
 			}
+			if (verbose)
+				System.out.println(" and " + CausalGraphOutput.pathToString(circlePath, graph));
+			countFiring(5);
+			return true;
+		}
+		return false;
+	}
+
+	public boolean applyZhangOrientationRule6(CausalGraph graph, String[] varNames) {
+		// R6: A --- B o-* C => B --* C
+		boolean hasChanged = false;
+		for (Pair<Integer, Integer> link : graph.listAllLinksInBothDirections()) {
+			hasChanged |= applyZhangOrientationRule6(graph, varNames, link.first, link.second);
 		}
 		return hasChanged;
 	}
 
-	public static boolean applyZhangOrientationRule6(CausalGraph graph, String[] varNames) {
+	/**
+	 * Applies R6 to the link between a and b, in this direction.
+	 */
+	public boolean applyZhangOrientationRule6(CausalGraph graph, String[] varNames, int a, int b) {
 		boolean hasChanged = false;
-		// R6: A --- B o-* C => B --* C
-		for (Pair<Integer, Integer> abLink : graph.listAllLinksInBothDirections()) {
-			if (graph.getEndSymbol(abLink.first, abLink.second) == CausalGraph.LINE_END
-					&& graph.getEndSymbol(abLink.second, abLink.first) == CausalGraph.LINE_END) {
-				for (int c : graph.getNeighbors(abLink.second)) {
-					if (graph.getEndSymbol(c, abLink.second) == CausalGraph.CIRCLE_END) {
-						if (VERBOSE)
-							System.out.print("  R06: " + varNames[abLink.first] + " "
-									+ graph.getLinkRepresentation(abLink.first, abLink.second) + " "
-									+ varNames[abLink.second] + " " + graph.getLinkRepresentation(abLink.second, c)
-									+ " " + varNames[c]);
-						graph.setEndSymbol(c, abLink.second, CausalGraph.LINE_END);
-						if (VERBOSE)
-							System.out.println(", therefore " + varNames[abLink.second] + " "
-									+ graph.getLinkRepresentation(abLink.second, c) + " " + varNames[c]);
-						hasChanged = true;
-					}
+		if (graph.getEndSymbol(a, b) == CausalGraph.LINE_END
+				&& graph.getEndSymbol(b, a) == CausalGraph.LINE_END) {
+			for (int c : graph.getNeighbors(b)) {
+				if (graph.getEndSymbol(c, b) == CausalGraph.CIRCLE_END) {
+					if (verbose)
+						System.out.print("  R06: " + varNames[a] + " "
+								+ graph.getLinkRepresentation(a, b) + " "
+								+ varNames[b] + " " + graph.getLinkRepresentation(b, c)
+								+ " " + varNames[c]);
+					graph.setEndSymbol(c, b, CausalGraph.LINE_END);
+					if (verbose)
+						System.out.println(", therefore " + varNames[b] + " "
+								+ graph.getLinkRepresentation(b, c) + " " + varNames[c]);
+					hasChanged = true;
+					countFiring(6);
 				}
 			}
 		}
-
 		return hasChanged;
 	}
 
-	public static boolean applyZhangOrientationRule7(CausalGraph graph, String[] varNames) {
-		boolean hasChanged = false;
+	public boolean applyZhangOrientationRule7(CausalGraph graph, String[] varNames) {
 		// R7: unshielded A --o B o-* C => B --*C
-		for (Integer[] triple : graph.listUnshieldedTriples()) {
-			if (graph.getEndSymbol(triple[0], triple[2]) == CausalGraph.CIRCLE_END
-					&& graph.getEndSymbol(triple[2], triple[0]) == CausalGraph.LINE_END
-					&& graph.getEndSymbol(triple[1], triple[2]) == CausalGraph.CIRCLE_END) {
-				if (VERBOSE)
-					System.out.print("  R07: " + varNames[triple[0]] + " "
-							+ graph.getLinkRepresentation(triple[0], triple[2]) + " " + varNames[triple[2]] + " "
-							+ graph.getLinkRepresentation(triple[2], triple[1]) + " " + varNames[triple[1]]);
-				graph.setEndSymbol(triple[1], triple[2], CausalGraph.LINE_END);
-				if (VERBOSE)
-					System.out.println(", therefore " + varNames[triple[2]] + " "
-							+ graph.getLinkRepresentation(triple[2], triple[1]) + " " + varNames[triple[1]]);
-				hasChanged = true;
-			} else if (graph.getEndSymbol(triple[1], triple[2]) == CausalGraph.CIRCLE_END
-					&& graph.getEndSymbol(triple[2], triple[1]) == CausalGraph.LINE_END
-					&& graph.getEndSymbol(triple[0], triple[2]) == CausalGraph.CIRCLE_END) {
-				if (VERBOSE)
-					System.out.print("  R07: " + varNames[triple[1]] + " "
-							+ graph.getLinkRepresentation(triple[1], triple[2]) + " " + varNames[triple[2]] + " "
-							+ graph.getLinkRepresentation(triple[2], triple[0]) + " " + varNames[triple[0]]);
-				graph.setEndSymbol(triple[0], triple[2], CausalGraph.LINE_END);
-				if (VERBOSE)
-					System.out.println(", therefore " + varNames[triple[2]] + " "
-							+ graph.getLinkRepresentation(triple[2], triple[0]) + " " + varNames[triple[0]]);
-				hasChanged = true;
-			}
+		boolean hasChanged = false;
+		int[] triples = graph.listUnshieldedTripleArray();
+		for (int t = 0; t < triples.length; t += 3) {
+			hasChanged |= applyZhangOrientationRule7(graph, varNames, triples[t], triples[t + 1], triples[t + 2]);
 		}
+		return hasChanged;
+	}
 
+	/**
+	 * Applies R7 to the unshielded triple cause1 *-* dependent *-* cause2.
+	 */
+	public boolean applyZhangOrientationRule7(CausalGraph graph, String[] varNames, int cause1, int cause2,
+			int dependent) {
+		boolean hasChanged = false;
+		if (graph.getEndSymbol(cause1, dependent) == CausalGraph.CIRCLE_END
+				&& graph.getEndSymbol(dependent, cause1) == CausalGraph.LINE_END
+				&& graph.getEndSymbol(cause2, dependent) == CausalGraph.CIRCLE_END) {
+			if (verbose)
+				System.out.print("  R07: " + varNames[cause1] + " "
+						+ graph.getLinkRepresentation(cause1, dependent) + " " + varNames[dependent] + " "
+						+ graph.getLinkRepresentation(dependent, cause2) + " " + varNames[cause2]);
+			graph.setEndSymbol(cause2, dependent, CausalGraph.LINE_END);
+			if (verbose)
+				System.out.println(", therefore " + varNames[dependent] + " "
+						+ graph.getLinkRepresentation(dependent, cause2) + " " + varNames[cause2]);
+			hasChanged = true;
+			countFiring(7);
+		} else if (graph.getEndSymbol(cause2, dependent) == CausalGraph.CIRCLE_END
+				&& graph.getEndSymbol(dependent, cause2) == CausalGraph.LINE_END
+				&& graph.getEndSymbol(cause1, dependent) == CausalGraph.CIRCLE_END) {
+			if (verbose)
+				System.out.print("  R07: " + varNames[cause2] + " "
+						+ graph.getLinkRepresentation(cause2, dependent) + " " + varNames[dependent] + " "
+						+ graph.getLinkRepresentation(dependent, cause1) + " " + varNames[cause1]);
+			graph.setEndSymbol(cause1, dependent, CausalGraph.LINE_END);
+			if (verbose)
+				System.out.println(", therefore " + varNames[dependent] + " "
+						+ graph.getLinkRepresentation(dependent, cause1) + " " + varNames[cause1]);
+			hasChanged = true;
+			countFiring(7);
+		}
 		return hasChanged;
 	}
 
-	public static boolean applyZhangOrientationRule8(CausalGraph graph, String[] varNames) {
+	public boolean applyZhangOrientationRule8(CausalGraph graph, String[] varNames) {
 		// R8: A o-> C and (A --> B --> C or A --o B --> C) => A --> C
 		boolean hasChanged = false;
 		for (Pair<Integer, Integer> link : graph.listAllLinksInBothDirections()) {
-			if (graph.getEndSymbol(link.first, link.second) == CausalGraph.ARROW_END
-					&& graph.getEndSymbol(link.second, link.first) == CausalGraph.CIRCLE_END) {
-				for (int b : graph.getNeighborsOnAcyclicPathsBetween(link.first, link.second, 1)) {
-					if ((graph.getEndSymbol(link.first, b) == CausalGraph.ARROW_END
-							|| graph.getEndSymbol(link.first, b) == CausalGraph.CIRCLE_END)
-							&& graph.getEndSymbol(b, link.first) == CausalGraph.LINE_END
-							&& graph.getEndSymbol(b, link.second) == CausalGraph.ARROW_END
-							&& graph.getEndSymbol(link.second, b) == CausalGraph.LINE_END) {
-						graph.setEndSymbol(link.second, link.first, CausalGraph.LINE_END);
-						if (VERBOSE)
-							System.out.println(
-									"  R08: " + varNames[link.first] + " " + graph.getLinkRepresentation(link.first, b)
-											+ " " + varNames[b] + " " + graph.getLinkRepresentation(b, link.second)
-											+ " " + varNames[link.second] + ", therefore " + varNames[link.first] + " "
-											+ graph.getLinkRepresentation(link.first, link.second) + " "
-											+ varNames[link.second]);
-						hasChanged = true;
-					}
+			hasChanged |= applyZhangOrientationRule8(graph, varNames, link.first, link.second);
+		}
+		return hasChanged;
+	}
+
+	/**
+	 * Applies R8 to the link between var1 and var2, in this direction.
+	 */
+	public boolean applyZhangOrientationRule8(CausalGraph graph, String[] varNames, int var1, int var2) {
+		boolean hasChanged = false;
+		if (graph.getEndSymbol(var1, var2) == CausalGraph.ARROW_END
+				&& graph.getEndSymbol(var2, var1) == CausalGraph.CIRCLE_END) {
+			for (int b : graph.getNeighborsOnAcyclicPathsBetween(var1, var2, 1)) {
+				if ((graph.getEndSymbol(var1, b) == CausalGraph.ARROW_END
+						|| graph.getEndSymbol(var1, b) == CausalGraph.CIRCLE_END)
+						&& graph.getEndSymbol(b, var1) == CausalGraph.LINE_END
+						&& graph.getEndSymbol(b, var2) == CausalGraph.ARROW_END
+						&& graph.getEndSymbol(var2, b) == CausalGraph.LINE_END) {
+					graph.setEndSymbol(var2, var1, CausalGraph.LINE_END);
+					if (verbose)
+						System.out.println(
+								"  R08: " + varNames[var1] + " " + graph.getLinkRepresentation(var1, b)
+										+ " " + varNames[b] + " " + graph.getLinkRepresentation(b, var2)
+										+ " " + varNames[var2] + ", therefore " + varNames[var1] + " "
+										+ graph.getLinkRepresentation(var1, var2) + " "
+										+ varNames[var2]);
+					hasChanged = true;
+					countFiring(8);
 				}
 			}
 		}
 		return hasChanged;
 	}
 
-	public static boolean applyZhangOrientationRule9(CausalGraph graph, String[] varNames) {
+	public boolean applyZhangOrientationRule9(CausalGraph graph, String[] varNames) {
 		// R9: A o-> C and uncovered potentially directed path <A,B,D,...,C>, B -/- C =>
 		// A --> C
 		boolean hasChanged = false;
 		for (Pair<Integer, Integer> link : graph.listAllLinksInBothDirections()) {
-			if (graph.getEndSymbol(link.first, link.second) == CausalGraph.ARROW_END
-					&& graph.getEndSymbol(link.second, link.first) == CausalGraph.CIRCLE_END) {
-				// find non-trivial uncovered potentially directed path <A,B,D,...,C>
-				for (List<Integer> path : graph.getUncoveredPotentiallyDirectedPathsBetween(link.first, link.second,
-						varNames.length)) {
-					if (path.size() > 0) {
-						if (graph.hasLink(path.get(0), link.second))
-							continue;
-						graph.setEndSymbol(link.second, link.first, CausalGraph.LINE_END);
-						if (VERBOSE)
-							System.out.println("  R09: found uncovered potentially directed path "
-									+ varNames[link.first] + " " + graph.getLinkRepresentation(link.first, path.get(0))
-									+ " " + CausalGraphOutput.pathToString(path, graph) + " "
-									+ graph.getLinkRepresentation(path.get(path.size() - 1), link.second) + " "
-									+ varNames[link.second] + ", therefore " + varNames[link.first] + " "
-									+ graph.getLinkRepresentation(link.first, link.second) + " "
-									+ varNames[link.second]);
-						hasChanged = true;
-						break;
-					}
-				}
-			}
+			hasChanged |= applyZhangOrientationRule9(graph, varNames, link.first, link.second);
 		}
 		return hasChanged;
 	}
 
-	public static boolean applyZhangOrientationRule10(CausalGraph graph, String[] varNames) {
+	/**
+	 * Applies R9 to the link between a and c, in this direction.
+	 */
+	public boolean applyZhangOrientationRule9(CausalGraph graph, String[] varNames, int a, int c) {
+		if (graph.getEndSymbol(a, c) != CausalGraph.ARROW_END || graph.getEndSymbol(c, a) != CausalGraph.CIRCLE_END)
+			return false;
+		// find non-trivial uncovered potentially directed path <A,B,D,...,C>
+		for (int b : graph.getNeighbors(a)) {
+			if (b == c || graph.hasLink(b, c))
+				continue;
+			List<Integer> path = graph.findUncoveredPotentiallyDirectedPath(a, b, c, maxExactPathSteps);
+			if (path == null)
+				continue;
+			graph.setEndSymbol(c, a, CausalGraph.LINE_END);
+			if (verbose)
+				System.out.println("  R09: found uncovered potentially directed path "
+						+ CausalGraphOutput.pathToString(path, graph) + ", therefore " + varNames[a] + " "
+						+ graph.getLinkRepresentation(a, c) + " " + varNames[c]);
+			countFiring(9);
+			return true;
+		}
+		return false;
+	}
+
+	public boolean applyZhangOrientationRule10(CausalGraph graph, String[] varNames) {
 		// R10: A o-> C, B --> C <-- D, <A,M,...,B>, <A,N,...,D>, M != N, M -/- N => A
 		// --> C
 		boolean hasChanged = false;
 		for (Pair<Integer, Integer> link : graph.listAllLinksInBothDirections()) {
-			if (graph.getEndSymbol(link.first, link.second) == CausalGraph.ARROW_END
-					&& graph.getEndSymbol(link.second, link.first) == CausalGraph.CIRCLE_END) {
-				List<Integer> relevantCNeighbors = new LinkedList<Integer>();
-				for (int neighborCandidate : graph.getNeighbors(link.second)) {
-					if (graph.getEndSymbol(neighborCandidate, link.second) == CausalGraph.ARROW_END
-							&& graph.getEndSymbol(link.second, neighborCandidate) == CausalGraph.LINE_END) {
-						relevantCNeighbors.add(neighborCandidate);
-					}
-				}
-				// find a fitting pair of paths for any relevant neighbor candidate
-				for (int bIndex = 0; bIndex < relevantCNeighbors.size(); bIndex++) {
-					int b = relevantCNeighbors.get(bIndex);
-					for (List<Integer> abPath : graph.getUncoveredPotentiallyDirectedPathsBetween(link.first, b,
-							varNames.length)) {
-						if (abPath.size() > 0) {
-							int m = abPath.get(0);
-							for (int dIndex = bIndex + 1; dIndex < relevantCNeighbors.size(); dIndex++) {
-								int d = relevantCNeighbors.get(dIndex);
-								for (List<Integer> adPath : graph
-										.getUncoveredPotentiallyDirectedPathsBetween(link.first, d, varNames.length)) {
-									if (adPath.size() > 0) {
-										int n = adPath.get(0);
-										if (n == m)
-											continue;
-										if (graph.hasLink(n, m))
-											continue;
-										// pattern found, orient and
-										graph.setEndSymbol(link.first, link.second, CausalGraph.LINE_END);
-										if (VERBOSE)
-											System.out.println(
-													"  R10: found diverging pair of potentially directed paths "
-															+ varNames[link.first] + " "
-															+ graph.getLinkRepresentation(link.first, abPath.get(0))
-															+ " " + CausalGraphOutput.pathToString(abPath, graph) + " "
-															+ graph.getLinkRepresentation(abPath.get(abPath.size() - 1),
-																	b)
-															+ " " + varNames[b] + " and " + varNames[link.first] + " "
-															+ graph.getLinkRepresentation(link.first, adPath.get(0))
-															+ " " + CausalGraphOutput.pathToString(adPath, graph) + " "
-															+ graph.getLinkRepresentation(adPath.get(adPath.size() - 1),
-																	d)
-															+ " " + varNames[d] + ", therefore " + varNames[link.second]
-															+ " " + graph.getLinkRepresentation(link.second, link.first)
-															+ " " + varNames[link.first]);
-										hasChanged = true;
-										return hasChanged;
-									}
-								}
-							}
-						}
+			hasChanged |= applyZhangOrientationRule10(graph, varNames, link.first, link.second);
+		}
+		return hasChanged;
+	}
+
+	/**
+	 * Applies R10 to the link between a and c, in this direction. As in Zhang (2008), the paths to B and D
+	 * may consist of a single link (M = B or N = D).
+	 */
+	public boolean applyZhangOrientationRule10(CausalGraph graph, String[] varNames, int a, int c) {
+		if (graph.getEndSymbol(a, c) != CausalGraph.ARROW_END || graph.getEndSymbol(c, a) != CausalGraph.CIRCLE_END)
+			return false;
+		List<Integer> relevantCNeighbors = new ArrayList<Integer>();
+		for (int neighborCandidate : graph.getNeighbors(c)) {
+			if (graph.getEndSymbol(neighborCandidate, c) == CausalGraph.ARROW_END
+					&& graph.getEndSymbol(c, neighborCandidate) == CausalGraph.LINE_END) {
+				relevantCNeighbors.add(neighborCandidate);
+			}
+		}
+		if (relevantCNeighbors.size() < 2)
+			return false;
+		// for each relevant neighbor, an uncovered potentially directed path from A through each possible M
+		List<Map<Integer, List<Integer>>> pathsByFirstVar = new ArrayList<Map<Integer, List<Integer>>>();
+		for (int b : relevantCNeighbors) {
+			Map<Integer, List<Integer>> paths = new TreeMap<Integer, List<Integer>>();
+			for (int m : graph.getNeighbors(a)) {
+				if (m == c)
+					continue;
+				List<Integer> path = graph.findUncoveredPotentiallyDirectedPath(a, m, b, maxExactPathSteps);
+				if (path != null)
+					paths.put(m, path);
+			}
+			pathsByFirstVar.add(paths);
+		}
+		// find a fitting pair of paths for any pair of relevant neighbors
+		for (int bIndex = 0; bIndex < relevantCNeighbors.size(); bIndex++) {
+			for (Map.Entry<Integer, List<Integer>> abPath : pathsByFirstVar.get(bIndex).entrySet()) {
+				int m = abPath.getKey();
+				for (int dIndex = bIndex + 1; dIndex < relevantCNeighbors.size(); dIndex++) {
+					for (Map.Entry<Integer, List<Integer>> adPath : pathsByFirstVar.get(dIndex).entrySet()) {
+						int n = adPath.getKey();
+						if (n == m || graph.hasLink(n, m))
+							continue;
+						graph.setEndSymbol(c, a, CausalGraph.LINE_END);
+						if (verbose)
+							System.out.println("  R10: found diverging pair of potentially directed paths "
+									+ CausalGraphOutput.pathToString(abPath.getValue(), graph) + " and "
+									+ CausalGraphOutput.pathToString(adPath.getValue(), graph) + ", therefore "
+									+ varNames[a] + " " + graph.getLinkRepresentation(a, c) + " " + varNames[c]);
+						countFiring(10);
+						return true;
 					}
 				}
 			}
 		}
-		return hasChanged;
+		return false;
 	}
 }
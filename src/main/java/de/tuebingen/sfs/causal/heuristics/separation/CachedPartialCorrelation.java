@@ -0,0 +1,269 @@
+package de.tuebingen.sfs.causal.heuristics.separation;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+
+/**
+ * Decorator which memoizes the partial correlations computed by another measure, under a canonical key
+ * (min(x,y), max(x,y), sorted Z). The measure is assumed to be symmetric in x and y.
+ *
+ * If the measure depends on the graph (see dependsOnGraph()), the key also contains the links of the graph
+ * between the variables in {x,y} and Z (except the link x-y itself), so that results become unreachable
+ * as soon as the graph is edited in a way that can affect them, and the cache can be kept across
+ * levels and runs. The cache is bounded, evicting the least recently used entries, and thread-safe;
+ * forks share the cache with the original.
+ */
+public class CachedPartialCorrelation<T> extends PartialCorrelation<T>
+{
+	//prints the hit and miss counts in displayRelevantInformation() (also collected by RunMetrics)
+	public static boolean VERBOSE = false;
+
+	PartialCorrelation<T> measure;
+	CausalGraph graph;
+
+	//shared between forks
+	Map<CacheKey,Double> cache;
+	AtomicLong numHits;
+	AtomicLong numMisses;
+
+	/**
+	 * @param measure the measure to be cached
+	 * @param graph the graph the measure operates on (only relevant if the measure depends on the graph)
+	 * @param maxSize maximal number of cached results
+	 */
+	public CachedPartialCorrelation(PartialCorrelation<T> measure, CausalGraph graph, final int maxSize)
+	{
+		super(measure.data, measure.varNames);
+		this.measure = measure;
+		this.graph = graph;
+		this.cache = new LinkedHashMap<CacheKey,Double>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<CacheKey,Double> eldest)
+			{
+				return size() > maxSize;
+			}
+		};
+		this.numHits = new AtomicLong();
+		this.numMisses = new AtomicLong();
+	}
+
+	private CachedPartialCorrelation(CachedPartialCorrelation<T> original, PartialCorrelation<T> forkedMeasure)
+	{
+		super(original.data, original.varNames);
+		this.measure = forkedMeasure;
+		this.graph = original.graph;
+		this.cache = original.cache;
+		this.numHits = original.numHits;
+		this.numMisses = original.numMisses;
+	}
+
+	public double correlation(int xVar, int yVar)
+	{
+		return measure.correlation(xVar, yVar);
+	}
+
+	public double partialCorrelation(int xVar, int yVar, Set<Integer> zVars)
+	{
+		if (!measure.isCacheable()) return measure.partialCorrelation(xVar, yVar, zVars);
+		int[] zVarArray = new int[zVars.size()];
+		int zLength = 0;
+		for (int zVar : zVars)
+		{
+			zVarArray[zLength++] = zVar;
+		}
+		return partialCorrelation(xVar, yVar, zVarArray, zLength);
+	}
+
+	public double partialCorrelation(int xVar, int yVar, int[] zVars, int zLength)
+	{
+		if (!measure.isCacheable()) return measure.partialCorrelation(xVar, yVar, zVars, zLength);
+		CacheKey key = new CacheKey(xVar, yVar, zVars, zLength, measure.dependsOnGraph() ? graph : null);
+		Double result;
+		synchronized (cache)
+		{
+			result = cache.get(key);
+		}
+		if (result != null)
+		{
+			numHits.incrementAndGet();
+			return result;
+		}
+		numMisses.incrementAndGet();
+		result = measure.partialCorrelation(xVar, yVar, zVars, zLength);
+		synchronized (cache)
+		{
+			cache.put(key, result);
+		}
+		return result;
+	}
+
+	public boolean independenceTest(double partialCorrelation, int xVar, int yVar, Set<Integer> zVars)
+	{
+		return measure.independenceTest(partialCorrelation, xVar, yVar, zVars);
+	}
+
+	public boolean independenceTest(double partialCorrelation, int xVar, int yVar, int[] zVars, int zLength)
+	{
+		return measure.independenceTest(partialCorrelation, xVar, yVar, zVars, zLength);
+	}
+
+	public boolean vStructureTest(int aVar, int bVar, int cVar)
+	{
+		return measure.vStructureTest(aVar, bVar, cVar);
+	}
+
+	public boolean implementsVStructureTest()
+	{
+		return measure.implementsVStructureTest();
+	}
+
+	public void displayRelevantInformation()
+	{
+		measure.displayRelevantInformation();
+		if (VERBOSE) System.out.println("CI test cache: " + numHits.get() + " hits, " + numMisses.get() + " misses, " + size() + " entries");
+	}
+
+	public void registerSepSets(int xVar, int yVar, List<Set<Integer>> sepSet)
+	{
+		measure.registerSepSets(xVar, yVar, sepSet);
+	}
+
+	public boolean maxCondSetSizeReached(int xVar, int yVar, int condSetSize)
+	{
+		return measure.maxCondSetSizeReached(xVar, yVar, condSetSize);
+	}
+
+	public boolean isReentrant()
+	{
+		return measure.isReentrant();
+	}
+
+	/**
+	 * The default lower bound is a CI test on all candidates, which is then also served from the cache.
+	 */
+	public boolean isMonotone()
+	{
+		return measure.isMonotone();
+	}
+
+	public boolean isForkable()
+	{
+		return measure.isForkable();
+	}
+
+	public PartialCorrelation<T> fork()
+	{
+		return new CachedPartialCorrelation<T>(this, measure.fork());
+	}
+
+	public void setGraph(CausalGraph graph)
+	{
+		this.graph = graph;
+		measure.setGraph(graph);
+	}
+
+	public boolean dependsOnGraph()
+	{
+		return measure.dependsOnGraph();
+	}
+
+	public boolean isCacheable()
+	{
+		return measure.isCacheable();
+	}
+
+	public long getNumHits()
+	{
+		return numHits.get();
+	}
+
+	public long getNumMisses()
+	{
+		return numMisses.get();
+	}
+
+	public int size()
+	{
+		synchronized (cache)
+		{
+			return cache.size();
+		}
+	}
+
+	public void clear()
+	{
+		synchronized (cache)
+		{
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Packed key: the variable pair, the sorted conditioning set (two variables per word),
+	 * and optionally one bit per pair of variables in {x,y} and Z which are linked in the graph.
+	 */
+	static final class CacheKey
+	{
+		final long[] words;
+		final int hash;
+
+		CacheKey(int xVar, int yVar, int[] zVars, int zLength, CausalGraph graph)
+		{
+			int[] vars = new int[zLength + 2];
+			System.arraycopy(zVars, 0, vars, 0, zLength);
+			int numVars = zLength;
+			vars[numVars++] = Math.min(xVar, yVar);
+			vars[numVars++] = Math.max(xVar, yVar);
+			//the pair is kept at the end, the conditioning set is sorted before it
+			Arrays.sort(vars, 0, numVars - 2);
+
+			int numZWords = (numVars - 1) / 2;
+			int numLinkWords = 0;
+			if (graph != null) numLinkWords = (numVars * (numVars - 1) / 2 + 63) / 64;
+			words = new long[1 + numZWords + numLinkWords];
+			words[0] = ((long) vars[numVars - 2] << 32) | vars[numVars - 1];
+			for (int i = 0; i < numVars - 2; i++)
+			{
+				words[1 + i / 2] |= ((long) vars[i]) << (32 * (i % 2));
+			}
+			//pad an odd-sized conditioning set with -1, so that sets of different sizes cannot collide
+			if (numVars % 2 == 1) words[numZWords] |= 0xFFFFFFFFL << 32;
+			if (graph != null)
+			{
+				int bit = 0;
+				for (int i = 0; i < numVars; i++)
+				{
+					for (int j = i + 1; j < numVars; j++)
+					{
+						if (!(i == numVars - 2 && j == numVars - 1) && graph.hasLink(vars[i], vars[j]))
+						{
+							words[1 + numZWords + bit / 64] |= 1L << (bit % 64);
+						}
+						bit++;
+					}
+				}
+			}
+			hash = Arrays.hashCode(words);
+		}
+
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof CacheKey)) return false;
+			CacheKey other = (CacheKey) o;
+			return hash == other.hash && Arrays.equals(words, other.words);
+		}
+	}
+}
@@ -1,8 +1,25 @@
 package de.tuebingen.sfs.causal.heuristics.separation;
 
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+import de.tuebingen.sfs.causal.data.CausalGraph;
+
+/**
+ * Conditional independence measure used by the causal inference algorithms.
+ * 
+ * Concurrency contract: by default, a measure is only called from one thread. A measure which supports
+ * concurrent CI tests returns true from isReentrant(), and then partialCorrelation() and independenceTest()
+ * may be called from several threads at once, provided that the graph it reads (see setGraph()) is not
+ * modified in the meantime. Per-thread scratch state is handled via fork(): every worker thread calls
+ * its own fork, which shares the read-only data and indices with this measure. Measures which keep state
+ * between calls are not reentrant, but can still support concurrent CI tests by overriding fork() and
+ * isForkable(). The algorithms only run CI tests in parallel for measures which are forkable, and test
+ * sequentially otherwise.
+ */
 public abstract class PartialCorrelation<T>
 {
 	protected T data;
@@ -20,6 +37,24 @@ public abstract class PartialCorrelation<T>
 	
 	public abstract boolean independenceTest(double partialCorrelation, int xVar, int yVar, Set<Integer> zVars);
 	
+	/**
+	 * Primitive version of partialCorrelation() for the conditioning set zVars[0], ..., zVars[zLength - 1],
+	 * used by the algorithms for all tests on separating set candidates. The default implementation
+	 * passes a view of the array to the set version, measures can override it to avoid boxing.
+	 */
+	public double partialCorrelation(int xVar, int yVar, int[] zVars, int zLength)
+	{
+		return partialCorrelation(xVar, yVar, new IntArraySet(zVars, zLength));
+	}
+	
+	/**
+	 * Primitive version of independenceTest(), see partialCorrelation(int, int, int[], int).
+	 */
+	public boolean independenceTest(double partialCorrelation, int xVar, int yVar, int[] zVars, int zLength)
+	{
+		return independenceTest(partialCorrelation, xVar, yVar, new IntArraySet(zVars, zLength));
+	}
+	
 	public boolean vStructureTest(int aVar, int bVar, int cVar)
 	{
 		return false;
@@ -51,8 +86,142 @@ public abstract class PartialCorrelation<T>
 		string.setCharAt(string.length() - 1, ']');
 		return string.toString();
 	}
+	
+	public String varSetToString(int[] vars, int numVars)
+	{
+		return varSetToString(new IntArraySet(vars, numVars));
+	}
 
 	public boolean maxCondSetSizeReached(int xVar, int yVar, int condSetSize) {
 		return false;
 	}
+	
+	/**
+	 * @return whether CI tests can be issued from several threads at once (see the class comment)
+	 */
+	public boolean isReentrant()
+	{
+		return false;
+	}
+	
+	/**
+	 * @return whether fork() can create worker copies for concurrent CI tests (by default, only reentrant
+	 *         measures can be forked, as they are their own worker copy)
+	 */
+	public boolean isForkable()
+	{
+		return isReentrant();
+	}
+	
+	/**
+	 * Creates a worker copy for exclusive use by one thread, only called if isForkable() returns true. The copy shares the data and all read-only
+	 * indices with this measure, but has its own scratch state and its own graph reference.
+	 * @return a worker copy, or this measure itself if it does not keep any per-call state
+	 */
+	public PartialCorrelation<T> fork()
+	{
+		if (isReentrant()) return this;
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support concurrent CI tests");
+	}
+	
+	/**
+	 * @return whether partialCorrelation() depends on the links of the graph among x, y and the conditioning set
+	 */
+	public boolean dependsOnGraph()
+	{
+		return false;
+	}
+	
+	/**
+	 * @return false if partialCorrelation() has side effects which would be lost by caching its results
+	 */
+	public boolean isCacheable()
+	{
+		return true;
+	}
+	
+	/**
+	 * A monotone measure allows the algorithms to skip CI tests: partialCorrelation() never increases when
+	 * variables are added to the conditioning set (or links are added to the graph), independenceTest() only
+	 * depends on the value and the pair, and accepts every value below an accepted one, and skipped tests
+	 * would not have had side effects. If no separating set is found for the bound from lowerBound(),
+	 * no subset of the candidate variables can be a separating set.
+	 * @return whether the measure is monotone in this sense
+	 */
+	public boolean isMonotone()
+	{
+		return false;
+	}
+	
+	/**
+	 * @return a lower bound on partialCorrelation(xVar, yVar, zVars) for all subsets zVars of
+	 *         candidateVars[0], ..., candidateVars[numCandidates - 1] on the current graph,
+	 *         or Double.NEGATIVE_INFINITY if the measure is not monotone
+	 */
+	public double lowerBound(int xVar, int yVar, int[] candidateVars, int numCandidates)
+	{
+		if (!isMonotone()) return Double.NEGATIVE_INFINITY;
+		return partialCorrelation(xVar, yVar, candidateVars, numCandidates);
+	}
+	
+	/**
+	 * Unmodifiable view of the first elements of an int array (which are assumed to be distinct),
+	 * in array order, for bridging the primitive methods to the set versions.
+	 */
+	protected static class IntArraySet extends AbstractSet<Integer>
+	{
+		final int[] elements;
+		final int numElements;
+		
+		public IntArraySet(int[] elements, int numElements)
+		{
+			this.elements = elements;
+			this.numElements = numElements;
+		}
+		
+		public boolean contains(Object o)
+		{
+			if (!(o instanceof Integer)) return false;
+			int value = (Integer) o;
+			for (int i = 0; i < numElements; i++)
+			{
+				if (elements[i] == value) return true;
+			}
+			return false;
+		}
+		
+		public Iterator<Integer> iterator()
+		{
+			return new Iterator<Integer>()
+			{
+				int i = 0;
+				
+				public boolean hasNext()
+				{
+					return i < numElements;
+				}
+				
+				public Integer next()
+				{
+					if (i >= numElements) throw new NoSuchElementException();
+					return elements[i++];
+				}
+			};
+		}
+		
+		public int size()
+		{
+			return numElements;
+		}
+	}
+	
+	/**
+	 * Sets the graph which graph-dependent measures evaluate their tests on, e.g. a snapshot
+	 * of the current skeleton which stays unchanged during one level of concurrent CI tests.
+	 * @param graph
+	 */
+	public void setGraph(CausalGraph graph)
+	{
+		
+	}
 }
@@ -1,18 +1,23 @@
 package de.tuebingen.sfs.causal.heuristics.separation;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
 
 import de.tuebingen.sfs.causal.data.CausalGraph;
 import de.tuebingen.sfs.util.struct.Pair;
-import de.tuebingen.sfs.util.struct.SetOperations;
+import de.tuebingen.sfs.util.struct.SparseBitSet;
 import de.tuebingen.sfs.util.struct.Triple;
 
 public class PartialCorrelationDiscreteUnitFlow extends PartialCorrelation<List<Set<Set<Triple<String,String,String>>>>> {
@@ -30,20 +35,80 @@ public class PartialCorrelationDiscreteUnitFlow extends PartialCorrelation<List<
 	public boolean storeOverlaps = false;
 	public Map<String,Map<String,Map<Integer,Set<Pair<String,String>>>>> unexplainedOverlaps;
 	
-	//precomputed maximal sizes of partitions connecting each pair of variables (to support early stops)
-	public Map<String,Map<String,Integer>> maxCognateSetSizeForPair;
+	//precomputed maximal sizes of partitions connecting each pair of variables (to support early stops), by variable IDs
+	public int[][] maxCognateSetSizeForPair;
 	
-	List<Map<Integer,Set<Integer>>> cognateGraphs; 
+	//element units by ID
 	List<Set<Triple<String,String,String>>> elementUnits;
 	
-	Map<String,List<Set<Triple<String,String,String>>>> setsForLanguage;
-	Map<Integer,Map<Integer,Set<Integer>>> setsForLanguagePair;
+	//element units of each variable, by variable ID
+	List<List<Set<Triple<String,String,String>>>> setsForLanguage;
+	//IDs of the element units shared by each pair of variables (and of the units of each variable on the diagonal),
+	//stored only once for both orders as a triangular array, see pairIndex()
+	SparseBitSet[] setsForLanguagePair;
+	
+	//incremental flow state for the pair (flowXVar, flowYVar), see parallelDfsSearchOnCurrentGraph()
+	int flowXVar = -1;
+	int flowYVar = -1;
+	CausalGraph flowGraph;
+	int flowSkeletonVersion;
+	SparseBitSet flowUnits;
+	long[] flowUnitWords;
+	int flowCapacity;
+	//xVar, yVar and the current prefix of conditioning variables
+	int[] flowVars;
+	int flowNumZVars;
+	//flow[level][node]: units which arrived at each variable with the first level conditioning variables
+	long[][][] flow = new long[1][][];
+	int[] numFlowArrived;
+	//scratch state of the propagation, and the units of each variable aligned to the units of the current pair
+	long[][] unprocessedFlow = new long[0][];
+	long[][] nodeUnits;
+	int[] agenda;
+	boolean[] onAgenda;
+	long[][] alignedUnits;
+	int[] alignedUnitsStamp;
+	int currentStamp;
+	//conditioning set passed to the set version of partialCorrelation()
+	int[] zVarArray = new int[0];
+	
+	//statistics of the index construction
+	public long indexBuildMillis;
+	public int indexBuildThreads;
+	
+	/**
+	 * Worker copy for concurrent CI tests: shares the data, indices and overlap store with the original.
+	 */
+	private PartialCorrelationDiscreteUnitFlow(PartialCorrelationDiscreteUnitFlow original)
+	{
+		super(original.data, original.varNames);
+		this.varNameToID = original.varNameToID;
+		this.graph = original.graph;
+		this.thresholds = original.thresholds;
+		this.storeOverlaps = original.storeOverlaps;
+		this.unexplainedOverlaps = original.unexplainedOverlaps;
+		this.maxCognateSetSizeForPair = original.maxCognateSetSizeForPair;
+		this.elementUnits = original.elementUnits;
+		this.setsForLanguage = original.setsForLanguage;
+		this.setsForLanguagePair = original.setsForLanguagePair;
+		this.indexBuildMillis = original.indexBuildMillis;
+		this.indexBuildThreads = original.indexBuildThreads;
+	}
 	
 	public PartialCorrelationDiscreteUnitFlow(List<Set<Set<Triple<String, String, String>>>> samplePartitions, CausalGraph graph, String[] varNames, double[][] thresholds, boolean storeOverlaps) 
+	{
+		this(samplePartitions, graph, varNames, thresholds, storeOverlaps, null);
+	}
+	
+	/**
+	 * @param executor if not null, the index is built in parallel on this executor; the index is identical to the
+	 * one built sequentially
+	 */
+	public PartialCorrelationDiscreteUnitFlow(List<Set<Set<Triple<String, String, String>>>> samplePartitions, CausalGraph graph, String[] varNames, double[][] thresholds, boolean storeOverlaps, ExecutorService executor) 
 	{
 		super(samplePartitions, varNames);
 		
-		varNameToID = new TreeMap<String,Integer>();
+		varNameToID = new HashMap<String,Integer>();
 		for (int i = 0; i < varNames.length; i++)
 		{
 			varNameToID.put(varNames[i], i);
@@ -55,30 +120,6 @@ public class PartialCorrelationDiscreteUnitFlow extends PartialCorrelation<List<
 		this.storeOverlaps = storeOverlaps;
 		this.unexplainedOverlaps = new TreeMap<String,Map<String,Map<Integer,Set<Pair<String,String>>>>>();
 		
-		this.maxCognateSetSizeForPair = new TreeMap<String,Map<String,Integer>>();
-		for (String lang1 : varNames)
-		{
-			Map<String, Integer> innerMap = new TreeMap<String, Integer>();
-			for (String lang2 : varNames) {
-				innerMap.put(lang2, 0);
-			}
-			this.maxCognateSetSizeForPair.put(lang1, innerMap);
-		}
-				
-		this.setsForLanguage = new TreeMap<String,List<Set<Triple<String,String,String>>>>();
-		this.setsForLanguagePair = new TreeMap<Integer,Map<Integer,Set<Integer>>>();
-		for (String lang1 : varNames)
-		{
-			this.setsForLanguage.put(lang1, new LinkedList<Set<Triple<String,String,String>>>());
-			Map<Integer,Set<Integer>> setsForLanguagePairLine = new TreeMap<Integer,Set<Integer>>();
-			for (String lang2 : varNames)
-			{
-				Set<Integer> sets = new TreeSet<Integer>();
-				setsForLanguagePairLine.put(varNameToID.get(lang2), sets);
-			}
-			this.setsForLanguagePair.put(varNameToID.get(lang1), setsForLanguagePairLine);
-		}
-		
 		if (storeOverlaps)
 		{
 			for (String lang1 : varNames)
@@ -92,320 +133,543 @@ public class PartialCorrelationDiscreteUnitFlow extends PartialCorrelation<List<
 			}
 		}
 		
-		//in each "cognate graph", each node is a neighbor to itself (for storage efficiency), null encodes non-presence of cognate at the key
-		cognateGraphs = new LinkedList<Map<Integer,Set<Integer>>>();
-		elementUnits = new LinkedList<Set<Triple<String,String,String>>>();
+		long startTime = System.currentTimeMillis();
+		buildIndex(executor);
+		indexBuildMillis = System.currentTimeMillis() - startTime;
+		if (VERBOSE) System.out.println(getIndexInfo());
+	}
+	
+	/**
+	 * Builds elementUnits, setsForLanguage, setsForLanguagePair and maxCognateSetSizeForPair in three phases.
+	 * First, the partitions are split into contiguous ranges whose units are numbered from known offsets, and the
+	 * variable IDs of each unit are resolved. Then each worker builds its own posting lists from the units of its
+	 * range. Finally, the lists of each pair are concatenated in worker order, for disjoint ranges of pairs in
+	 * parallel. As the unit IDs of the ranges ascend with the workers, every posting list is the same as in a
+	 * sequential build, and every unit is only handled by one worker.
+	 */
+	private void buildIndex(ExecutorService executor)
+	{
+		final List<Set<Set<Triple<String,String,String>>>> partitions = new ArrayList<Set<Set<Triple<String,String,String>>>>(data);
+		int numWorkers = 1;
+		if (executor != null)
+		{
+			numWorkers = (executor instanceof ForkJoinPool) ? ((ForkJoinPool) executor).getParallelism() : Runtime.getRuntime().availableProcessors();
+		}
+		indexBuildThreads = numWorkers;
 		
-		for (int i = 0; i < data.size(); i++)
+		//phase 1: unit IDs and the sorted variable IDs of each unit
+		final int[] unitOffsets = new int[partitions.size() + 1];
+		for (int i = 0; i < partitions.size(); i++)
+		{
+			unitOffsets[i + 1] = unitOffsets[i] + partitions.get(i).size();
+		}
+		final int numUnits = unitOffsets[partitions.size()];
+		elementUnits = new ArrayList<Set<Triple<String,String,String>>>(Collections.<Set<Triple<String,String,String>>>nCopies(numUnits, null));
+		final int[][] unitVars = new int[numUnits][];
+		final int partitionsPerWorker = (partitions.size() + numWorkers - 1) / numWorkers;
+		runWorkers(executor, numWorkers, new IntConsumer()
 		{
-			Set<Set<Triple<String,String,String>>> samplePartition = data.get(i);
-			for (Set<Triple<String,String,String>> cognateSet : samplePartition)
-			{		
-				Set<Integer> coveredVarSet = new TreeSet<Integer>();
-				for (Triple<String,String,String> cognate1 : cognateSet)
+			public void accept(int worker)
+			{
+				int end = Math.min(partitions.size(), (worker + 1) * partitionsPerWorker);
+				for (int i = worker * partitionsPerWorker; i < end; i++)
+				{
+					int unitID = unitOffsets[i];
+					for (Set<Triple<String,String,String>> cognateSet : partitions.get(i))
+					{
+						int[] coveredVars = new int[cognateSet.size()];
+						int numCoveredVars = 0;
+						for (Triple<String,String,String> cognate : cognateSet)
+						{
+							Integer id = varNameToID.get(cognate.first);
+							if (id != null) coveredVars[numCoveredVars++] = id;
+						}
+						Arrays.sort(coveredVars, 0, numCoveredVars);
+						unitVars[unitID] = (numCoveredVars == coveredVars.length) ? coveredVars : Arrays.copyOf(coveredVars, numCoveredVars);
+						elementUnits.set(unitID++, cognateSet);
+					}
+				}
+			}
+		});
+		
+		//phase 2: posting lists of each worker over the units of its range of partitions, sorted by pair index
+		final int numVars = varNames.length;
+		final int numPairIndices = pairIndex(numVars - 1, numVars - 1) + 1;
+		final int[][] workerPairs = new int[numWorkers][];
+		final PairPostings[][] workerPostings = new PairPostings[numWorkers][];
+		final List<List<List<Set<Triple<String,String,String>>>>> workerSetsForLanguage = new ArrayList<List<List<Set<Triple<String,String,String>>>>>(Collections.<List<List<Set<Triple<String,String,String>>>>>nCopies(numWorkers, null));
+		runWorkers(executor, numWorkers, new IntConsumer()
+		{
+			public void accept(int worker)
+			{
+				//posting lists by pair index (references only, for each worker), and the pairs in the order reached
+				PairPostings[] postings = new PairPostings[numPairIndices];
+				int[] pairs = new int[16];
+				int numPairs = 0;
+				List<List<Set<Triple<String,String,String>>>> localSetsForLanguage = new ArrayList<List<Set<Triple<String,String,String>>>>(Collections.<List<Set<Triple<String,String,String>>>>nCopies(numVars, null));
+				int firstUnit = unitOffsets[Math.min(partitions.size(), worker * partitionsPerWorker)];
+				int endUnit = unitOffsets[Math.min(partitions.size(), (worker + 1) * partitionsPerWorker)];
+				for (int unitID = firstUnit; unitID < endUnit; unitID++)
 				{
-					int cognateSetSizeMinusTwo = cognateSet.size() - 2;
-					Integer id1 = varNameToID.get(cognate1.first);
-					if (id1 != null) coveredVarSet.add(id1);
-					if (id1 == null || this.setsForLanguagePair.get(id1) == null) continue;
-					this.setsForLanguage.get(cognate1.first).add(cognateSet);
-					//System.err.println("Adding to sets for language " + cognate1.first + ": ");
-					//System.err.println("  " + cognateSet);
-					for (Triple<String,String, String> cognate2 : cognateSet)
+					int[] coveredVars = unitVars[unitID];
+					Set<Triple<String,String,String>> unit = elementUnits.get(unitID);
+					int cognateSetSizeMinusTwo = unit.size() - 2;
+					for (int j = 0; j < coveredVars.length; j++)
 					{
-						Integer id2 = varNameToID.get(cognate2.first);
-						if (id2 == null || this.setsForLanguagePair.get(id2) == null) continue;
-						this.setsForLanguagePair.get(id1).get(id2).add(elementUnits.size());
-						this.setsForLanguagePair.get(id2).get(id1).add(elementUnits.size());
-						int previousMaxSize = this.maxCognateSetSizeForPair.get(cognate1.first).get(cognate2.first);
-						if (cognateSetSizeMinusTwo > previousMaxSize) {
-							this.maxCognateSetSizeForPair.get(cognate1.first).put(cognate2.first, cognateSetSizeMinusTwo);
-							this.maxCognateSetSizeForPair.get(cognate2.first).put(cognate1.first, cognateSetSizeMinusTwo);
+						int id2 = coveredVars[j];
+						//one entry per element of the variable, as in the unit
+						if (localSetsForLanguage.get(id2) == null) localSetsForLanguage.set(id2, new ArrayList<Set<Triple<String,String,String>>>());
+						localSetsForLanguage.get(id2).add(unit);
+						for (int k = 0; k <= j; k++)
+						{
+							int pairIndex = pairIndex(coveredVars[k], id2);
+							PairPostings pairPostings = postings[pairIndex];
+							if (pairPostings == null)
+							{
+								pairPostings = new PairPostings(coveredVars[k], id2);
+								postings[pairIndex] = pairPostings;
+								if (numPairs == pairs.length) pairs = Arrays.copyOf(pairs, 2 * numPairs);
+								pairs[numPairs++] = pairIndex;
+							}
+							pairPostings.units.add(unitID);
+							if (cognateSetSizeMinusTwo > pairPostings.maxCognateSetSizeMinusTwo) pairPostings.maxCognateSetSizeMinusTwo = cognateSetSizeMinusTwo;
 						}
-						//System.err.println("  overlap for " + cognate1.first + "/" + cognate2.first + " expanded by cognate set ID " + correlateSets.size());
-						//System.err.println("  overlap for " + cognate2.first + "/" + cognate1.first + " expanded by cognate set ID " + correlateSets.size());
 					}
 				}
-				Map<Integer,Set<Integer>> cognateGraph = new TreeMap<Integer,Set<Integer>>();
-				for (int var : coveredVarSet)
+				pairs = Arrays.copyOf(pairs, numPairs);
+				Arrays.sort(pairs);
+				PairPostings[] sortedPostings = new PairPostings[numPairs];
+				for (int i = 0; i < numPairs; i++)
 				{
-					cognateGraph.put(var, coveredVarSet);
+					sortedPostings[i] = postings[pairs[i]];
 				}
-				//System.err.println("COGSET2CONCEPT" + "\t" + correlateSets.size() + "\t" + i);
-				cognateGraphs.add(cognateGraph);
-				elementUnits.add(cognateSet);
-			}	
-		}
-	}
-	
-	private boolean dfsSearchOnCurrentGraph(int xVar, int yVar, Set<Integer> zVars)
-	{
-		Set<Integer> processed = new HashSet<Integer>();
-		Queue<Integer> agenda = new LinkedList<Integer>();
-		agenda.add(xVar);
-		while (agenda.size() > 0)
+				workerPairs[worker] = pairs;
+				workerPostings[worker] = sortedPostings;
+				workerSetsForLanguage.set(worker, localSetsForLanguage);
+			}
+		});
+		
+		//phase 3: concatenation in worker order, each merging worker handles a range of pairs and of variables
+		maxCognateSetSizeForPair = new int[numVars][numVars];
+		setsForLanguage = new ArrayList<List<Set<Triple<String,String,String>>>>(Collections.<List<Set<Triple<String,String,String>>>>nCopies(numVars, null));
+		setsForLanguagePair = new SparseBitSet[numPairIndices];
+		final int numMergeWorkers = numWorkers;
+		runWorkers(executor, numWorkers, new IntConsumer()
 		{
-			int candidate = agenda.remove();
-			if (processed.contains(candidate)) continue;
-			if (candidate == yVar) return true;
-			Set<Integer> neighbors = graph.getNeighbors(candidate);
-			//System.err.println("  neighbors = " + neighbors);
-			for (int neighborVar : neighbors)
+			public void accept(int worker)
 			{
-				if (candidate == xVar && neighborVar == yVar) continue;
-				if (neighborVar == yVar || (zVars.contains(neighborVar) && !processed.contains(neighborVar)))
+				int firstPair = (int) ((long) numPairIndices * worker / numMergeWorkers);
+				int endPair = (int) ((long) numPairIndices * (worker + 1) / numMergeWorkers);
+				for (int buildWorker = 0; buildWorker < numMergeWorkers; buildWorker++)
+				{
+					int[] pairs = workerPairs[buildWorker];
+					PairPostings[] postings = workerPostings[buildWorker];
+					int pos = Arrays.binarySearch(pairs, firstPair);
+					if (pos < 0) pos = -pos - 1;
+					for (; pos < pairs.length && pairs[pos] < endPair; pos++)
+					{
+						int pairIndex = pairs[pos];
+						if (setsForLanguagePair[pairIndex] == null) setsForLanguagePair[pairIndex] = postings[pos].units;
+						else setsForLanguagePair[pairIndex].addAll(postings[pos].units);
+						int id1 = postings[pos].var1;
+						int id2 = postings[pos].var2;
+						int cognateSetSizeMinusTwo = postings[pos].maxCognateSetSizeMinusTwo;
+						if (cognateSetSizeMinusTwo > maxCognateSetSizeForPair[id1][id2])
+						{
+							maxCognateSetSizeForPair[id1][id2] = cognateSetSizeMinusTwo;
+							maxCognateSetSizeForPair[id2][id1] = cognateSetSizeMinusTwo;
+						}
+					}
+				}
+				for (int pairIndex = firstPair; pairIndex < endPair; pairIndex++)
 				{
-					agenda.add(neighborVar);
+					if (setsForLanguagePair[pairIndex] == null) setsForLanguagePair[pairIndex] = SparseBitSet.EMPTY;
+					else setsForLanguagePair[pairIndex].trim();
+				}
+				int firstVar = (int) ((long) numVars * worker / numMergeWorkers);
+				int endVar = (int) ((long) numVars * (worker + 1) / numMergeWorkers);
+				for (int var = firstVar; var < endVar; var++)
+				{
+					List<Set<Triple<String,String,String>>> sets = new ArrayList<Set<Triple<String,String,String>>>();
+					for (int buildWorker = 0; buildWorker < numMergeWorkers; buildWorker++)
+					{
+						List<Set<Triple<String,String,String>>> localSets = workerSetsForLanguage.get(buildWorker).get(var);
+						if (localSets != null) sets.addAll(localSets);
+					}
+					setsForLanguage.set(var, sets);
 				}
 			}
-			processed.add(candidate);
+		});
+	}
+	
+	/**
+	 * Posting list of a pair of variables built by one worker, and the maximal size of its units minus two.
+	 */
+	static final class PairPostings
+	{
+		final int var1;
+		final int var2;
+		SparseBitSet units = new SparseBitSet();
+		int maxCognateSetSizeMinusTwo;
+		
+		PairPostings(int var1, int var2)
+		{
+			this.var1 = var1;
+			this.var2 = var2;
 		}
-		return false;
 	}
 	
-	private Set<Integer> parallelDfsSearchOnCurrentGraph(int xVar, int yVar, Set<Integer> zVars)
+	/**
+	 * Runs task(0), ..., task(numWorkers - 1) on the executor (or sequentially if it is null), and waits for them.
+	 */
+	private static void runWorkers(ExecutorService executor, int numWorkers, final IntConsumer task)
 	{
-		boolean verbose = false;
-		Set<Integer> flowArrived = new TreeSet<Integer>();
-		//store the cognate set IDs that have already been pushed from each node
-		Map<Integer,Set<Integer>> processedFlows = new HashMap<Integer,Set<Integer>>();
-		//store the cognate set IDs that have not yet been pushed from the current node
-		Map<Integer,Set<Integer>> unprocessedFlows = new HashMap<Integer,Set<Integer>>();
-		//agenda of nodes to revisit
-		Queue<Integer> agenda = new LinkedList<Integer>();
-		agenda.add(xVar);
-		unprocessedFlows.put(xVar, setsForLanguagePair.get(xVar).get(xVar));
-		while (agenda.size() > 0)
+		if (executor == null)
 		{
-			int candidate = agenda.remove();
-			//set can be destroyed after this
-			Set<Integer> unprocessedFlow = unprocessedFlows.remove(candidate);
-			if (verbose) System.out.println("Processing " + unprocessedFlow.size() + " units of unprocessed flow at " + varNames[candidate]);
-			unprocessedFlow.removeAll(flowArrived);
-			if (unprocessedFlow.size() == 0) {
-				unprocessedFlows.put(candidate, new TreeSet<Integer>());
-				continue;
-			}
-			if (candidate == yVar) {
-				if (verbose) System.out.println("  " + unprocessedFlow.size() + " units of flow arrived at goal variable " + varNames[candidate]);
-				flowArrived.addAll(unprocessedFlow);
+			for (int worker = 0; worker < numWorkers; worker++)
+			{
+				task.accept(worker);
 			}
-			Set<Integer> neighbors = graph.getNeighbors(candidate);
-			//System.err.println("  neighbors = " + neighbors);
-			for (int neighborVar : neighbors)
+			return;
+		}
+		List<Future<?>> futures = new ArrayList<Future<?>>(numWorkers);
+		for (int worker = 0; worker < numWorkers; worker++)
+		{
+			final int workerID = worker;
+			futures.add(executor.submit(new Runnable()
 			{
-				if (candidate == xVar && neighborVar == yVar) continue; //exclude the direct link
-				//if (verbose) System.err.println("  neighbor: " + varNames[neighborVar]);
-				if (neighborVar == yVar || zVars.contains(neighborVar))
+				public void run()
 				{
-					//add unprocessed flow on neighbor from the intersection of candidate and neighbor
-					Set<Integer> neighborIntersect = setsForLanguagePair.get(candidate).get(neighborVar);
-					Set<Integer> processedFlowOnNeighbor = processedFlows.get(neighborVar);
-					Set<Integer> unprocessedFlowOnNeighbor = unprocessedFlows.get(neighborVar);
-					if (unprocessedFlowOnNeighbor == null) {
-						unprocessedFlowOnNeighbor = new TreeSet<Integer>();
-						unprocessedFlows.put(neighborVar, unprocessedFlowOnNeighbor);
-					}
-					int propagatedFlowSize = 0;
-					for (int setID : unprocessedFlow) {
-						if (neighborIntersect.contains(setID) && (processedFlowOnNeighbor == null || !processedFlowOnNeighbor.contains(setID))) {
-							unprocessedFlowOnNeighbor.add(setID);
-							propagatedFlowSize++;
-						}
-					}
-					if (verbose) System.out.println("  propagated " + propagatedFlowSize + " units of unprocessed flow to " + varNames[neighborVar]);
-					agenda.add(neighborVar);
+					task.accept(workerID);
 				}
+			}));
+		}
+		for (Future<?> future : futures)
+		{
+			try
+			{
+				future.get();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
 			}
-			Set<Integer> processedFlow = processedFlows.get(candidate);
-			if (processedFlow == null) {
-				processedFlow = new TreeSet<Integer>();
-				processedFlows.put(candidate, processedFlow);
+			catch (ExecutionException e)
+			{
+				if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+				throw new RuntimeException(e.getCause());
 			}
-			processedFlow.addAll(unprocessedFlow);
-			unprocessedFlows.put(candidate, new TreeSet<Integer>());
 		}
-		return flowArrived;
 	}
 	
-	private boolean dfsSearchOnCurrentGraph(int xVar, int yVar, Set<Integer> zVars,  Map<Integer,Set<Integer>> cognateGraph)
+	/**
+	 * @return estimated memory of the pair index in bytes
+	 */
+	public long estimateIndexMemory()
 	{
-		Set<Integer> processed = new HashSet<Integer>();
-		Queue<Integer> agenda = new LinkedList<Integer>();
-		agenda.add(xVar);
-		while (agenda.size() > 0)
+		long bytes = 16 + 8L * setsForLanguagePair.length;
+		for (SparseBitSet sets : setsForLanguagePair)
 		{
-			int candidate = agenda.remove();
-			if (processed.contains(candidate)) continue;
-			if (candidate == yVar) return true;
-			Set<Integer> neighbors = graph.getNeighbors(candidate);
-			//System.err.println("  neighbors = " + neighbors);
-			for (int neighborVar : neighbors)
-			{
-				if (candidate == xVar && neighborVar == yVar) continue;
-				//System.err.println("    neighbor: " + neighborVar);
-				if (cognateGraph.get(neighborVar) == null)
-				{
-					//System.err.println("      cognateGraph.get(" + neighborVar + ") == null");
-					continue;
-				}
-				if (!cognateGraph.get(neighborVar).contains(candidate))
-				{
-					//System.err.println("      cognateGraph.get(" + neighborVar + ") == " + cognateGraph.get(neighborVar) + ", does not contain " + lastVar + "!");
-					continue;
-				}
-				if (neighborVar == yVar || (zVars.contains(neighborVar) && !processed.contains(neighborVar)))
-				{
-					agenda.add(neighborVar);
-				}
-			}
-			processed.add(candidate);
+			if (sets != SparseBitSet.EMPTY) bytes += sets.estimateMemory();
 		}
-		return false;
+		bytes += varNames.length * (16 + 4L * varNames.length);
+		return bytes;
 	}
 	
+	public String getIndexInfo()
+	{
+		return "Unit-flow index: " + elementUnits.size() + " element units, " + (estimateIndexMemory() >> 10) + " KB, built in " + indexBuildMillis + " ms using " + indexBuildThreads + " thread(s)";
+	}
 	
-	private List<Integer> dfsPathSearchOnCurrentGraph(int xVar, int yVar, Set<Integer> zVars)
+	/**
+	 * @return the position of the units shared by var1 and var2 in the triangular setsForLanguagePair array
+	 */
+	private static int pairIndex(int var1, int var2)
 	{
-		List<Integer> currentDfsPath = new LinkedList<Integer>();
-		currentDfsPath.add(xVar);
-		return dfsPathSearch(currentDfsPath, yVar, zVars);
+		int min = Math.min(var1, var2);
+		int max = Math.max(var1, var2);
+		return max * (max + 1) / 2 + min;
 	}
 	
-	private List<Integer> dfsPathSearch(List<Integer> currentDfsPath, int goalVar, Set<Integer> allowedVars)
+	SparseBitSet getSetsForLanguagePair(int var1, int var2)
 	{
-		//System.err.println("dfsSearch(" + currentDfsPath + "," + goalVar + "," + allowedVars + ")");
-		//System.err.println(currentDfsPath + " -> " + goalVar);
-		int lastVar = currentDfsPath.get(currentDfsPath.size() - 1);
-		Set<Integer> neighbors = graph.getNeighbors(lastVar);
-		//System.err.println("  neighbors = " + neighbors);
-		for (int neighborVar : neighbors)
+		return setsForLanguagePair[pairIndex(var1, var2)];
+	}
+	
+	/**
+	 * Propagates the element units shared by xVar and yVar from xVar through the variables in zVars, where each unit
+	 * can only pass links between variables which both have it, without using the direct link between xVar and yVar.
+	 * Flow is propagated word by word, as bitmaps aligned to the words of the units shared by xVar and yVar.
+	 * 
+	 * The flow is computed incrementally: the state after each prefix of the last conditioning set for the same pair
+	 * is kept, and only the variables after the common prefix with the previous call are added, one at a time.
+	 * Candidate sets enumerated in lexicographic order (as by SubsetEnumerator) mostly differ only in their last
+	 * element, so most calls only propagate the flow through one new variable. Flow only grows when a variable is
+	 * added, so the result does not depend on the order of additions, and equals the flow computed from scratch.
+	 * 
+	 * @return the units arriving at yVar, aligned to the words of getSetsForLanguagePair(xVar, yVar)
+	 */
+	private long[] parallelDfsSearchOnCurrentGraph(int xVar, int yVar, int[] zVars, int zLength)
+	{
+		if (xVar != flowXVar || yVar != flowYVar || graph != flowGraph || graph.getSkeletonVersion() != flowSkeletonVersion)
+		{
+			resetFlow(xVar, yVar);
+		}
+		int prefixLength = 0;
+		boolean prefixMatches = true;
+		for (int i = 0; i < zLength; i++)
 		{
-			if (!currentDfsPath.contains(neighborVar))
+			int zVar = zVars[i];
+			if (prefixMatches && prefixLength < flowNumZVars && flowVars[prefixLength + 2] == zVar)
 			{
-				if (neighborVar == goalVar)
-				{
-					//System.err.println("      goal reached!");
-					//need to exclude the direct connection which is supposed to be "explained away"
-					if (currentDfsPath.size() > 1) return currentDfsPath;
-				}
-				else
-				{
-					if (allowedVars.contains(neighborVar))
-					{
-						//System.err.println("  moving to neighbor " + neighborVar);
-						currentDfsPath.add(neighborVar);
-						List<Integer> path = dfsPathSearch(currentDfsPath, goalVar, allowedVars);
-						currentDfsPath.remove(currentDfsPath.size() - 1);
-						if (path != null) return path;
-					}
-					else
-					{
-						//System.err.println("  neighbor " + neighborVar + " not allowed!");
-					}
-				}
+				prefixLength++;
+				continue;
 			}
-			else
+			if (prefixMatches)
 			{
-				//System.err.println("  path already contains " + neighborVar + ", skipping!");
+				//retract the variables after the common prefix
+				flowNumZVars = prefixLength;
+				prefixMatches = false;
 			}
+			addFlowVariable(zVar);
 		}
-		return null;
+		if (prefixMatches) flowNumZVars = prefixLength;
+		return flow[flowNumZVars][1];
 	}
 	
-	private boolean dfsPathSearchOnCurrentGraph(int xVar, int yVar, Set<Integer> zVars, Map<Integer,Set<Integer>> cognateGraph)
+	private void resetFlow(int xVar, int yVar)
 	{
-		if (cognateGraph.get(xVar) == null || cognateGraph.get(yVar) == null) return false;
-		List<Integer> currentDfsPath = new LinkedList<Integer>();
-		currentDfsPath.add(xVar);
-		return dfsPathSearch(currentDfsPath, yVar, zVars, cognateGraph);
+		flowXVar = xVar;
+		flowYVar = yVar;
+		flowGraph = graph;
+		flowSkeletonVersion = graph.getSkeletonVersion();
+		flowUnits = getSetsForLanguagePair(xVar, yVar);
+		int numWords = flowUnits.numWords();
+		if (numWords > flowCapacity)
+		{
+			//all buffers are reallocated with the new capacity when they are next used
+			flowCapacity = Math.max(numWords, flowCapacity * 2);
+			flow = new long[1][][];
+			unprocessedFlow = new long[0][];
+			alignedUnits = null;
+		}
+		if (alignedUnits == null)
+		{
+			alignedUnits = new long[varNames.length][];
+			alignedUnitsStamp = new int[varNames.length];
+		}
+		currentStamp++;
+		flowNumZVars = 0;
+		ensureFlowLevel(0);
+		if (flowUnitWords == null || flowUnitWords.length < flowCapacity) flowUnitWords = new long[flowCapacity];
+		for (int i = 0; i < numWords; i++)
+		{
+			flowUnitWords[i] = flowUnits.word(i);
+		}
+		System.arraycopy(flowUnitWords, 0, flow[0][0], 0, numWords);
+		Arrays.fill(flow[0][1], 0, numWords, 0L);
+		numFlowArrived[0] = 0;
+		flowVars[0] = xVar;
+		flowVars[1] = yVar;
 	}
 	
-	private boolean dfsPathSearch(List<Integer> currentDfsPath, int goalVar, Set<Integer> allowedVars, Map<Integer,Set<Integer>> cognateGraph)
+	/**
+	 * Makes sure that the buffers for the given number of conditioning variables exist.
+	 */
+	private void ensureFlowLevel(int level)
 	{
-		//System.err.println("dfsSearch(" + currentDfsPath + "," + goalVar + "," + allowedVars + ")");
-		//System.err.println(currentDfsPath + " -> " + goalVar);
-		int lastVar = currentDfsPath.get(currentDfsPath.size() - 1);
-		Set<Integer> neighbors = graph.getNeighbors(lastVar);
-		//System.err.println("  neighbors = " + neighbors);
-		for (int neighborVar : neighbors)
+		int numNodes = level + 2;
+		if (flowVars == null || flowVars.length < numNodes)
+		{
+			int capacity = Math.max(numNodes, (flowVars == null) ? 4 : flowVars.length * 2);
+			flowVars = (flowVars == null) ? new int[capacity] : Arrays.copyOf(flowVars, capacity);
+			nodeUnits = (nodeUnits == null) ? new long[capacity][] : Arrays.copyOf(nodeUnits, capacity);
+			numFlowArrived = (numFlowArrived == null) ? new int[capacity] : Arrays.copyOf(numFlowArrived, capacity);
+			agenda = new int[capacity];
+			onAgenda = new boolean[capacity];
+		}
+		if (flow.length <= level) flow = Arrays.copyOf(flow, Math.max(level + 1, flow.length * 2));
+		if (flow[level] == null)
 		{
-			//System.err.println("    neighbor: " + neighborVar);
-			if (cognateGraph.get(neighborVar) == null)
+			flow[level] = new long[numNodes][];
+			for (int node = 0; node < numNodes; node++)
 			{
-				//System.err.println("      cognateGraph.get(" + neighborVar + ") == null");
-				continue;
+				flow[level][node] = new long[flowCapacity];
 			}
-			if (!cognateGraph.get(neighborVar).contains(lastVar))
+		}
+		if (unprocessedFlow.length < numNodes)
+		{
+			int oldLength = unprocessedFlow.length;
+			unprocessedFlow = Arrays.copyOf(unprocessedFlow, Math.max(numNodes, oldLength * 2));
+			for (int node = oldLength; node < unprocessedFlow.length; node++)
 			{
-				//System.err.println("      cognateGraph.get(" + neighborVar + ") == " + cognateGraph.get(neighborVar) + ", does not contain " + lastVar + "!");
-				continue;
+				unprocessedFlow[node] = new long[flowCapacity];
 			}
-			if (!currentDfsPath.contains(neighborVar))
+		}
+	}
+	
+	/**
+	 * @return the units of var, aligned to the words of the units shared by the current pair
+	 */
+	private long[] getAlignedUnits(int var)
+	{
+		if (alignedUnitsStamp[var] != currentStamp)
+		{
+			if (alignedUnits[var] == null) alignedUnits[var] = new long[flowCapacity];
+			getSetsForLanguagePair(var, var).alignTo(flowUnits, alignedUnits[var]);
+			alignedUnitsStamp[var] = currentStamp;
+		}
+		return alignedUnits[var];
+	}
+	
+	/**
+	 * Extends the flow state by one conditioning variable.
+	 */
+	private void addFlowVariable(int zVar)
+	{
+		int level = flowNumZVars + 1;
+		ensureFlowLevel(level);
+		int numWords = flowUnits.numWords();
+		int numNodes = level + 2;
+		int newNode = numNodes - 1;
+		flowVars[newNode] = zVar;
+		nodeUnits[1] = flowUnitWords;
+		nodeUnits[newNode] = getAlignedUnits(zVar);
+		long[][] previousFlow = flow[level - 1];
+		long[][] currentFlow = flow[level];
+		for (int node = 0; node < newNode; node++)
+		{
+			System.arraycopy(previousFlow[node], 0, currentFlow[node], 0, numWords);
+		}
+		Arrays.fill(currentFlow[newNode], 0, numWords, 0L);
+		numFlowArrived[level] = numFlowArrived[level - 1];
+		flowNumZVars = level;
+		if (numFlowArrived[level] == flowUnits.size()) return;
+		
+		//flow into the new variable from all variables it is linked to, except yVar (flow which arrived there stops)
+		long[] arrived = currentFlow[1];
+		long[] newNodeFlow = currentFlow[newNode];
+		long[] newNodeUnits = nodeUnits[newNode];
+		boolean flowLeft = false;
+		for (int node = 0; node < newNode; node++)
+		{
+			if (node == 1 || !graph.hasLink(flowVars[node], zVar)) continue;
+			long[] nodeFlow = currentFlow[node];
+			for (int i = 0; i < numWords; i++)
 			{
-				if (neighborVar == goalVar)
+				long newFlow = nodeFlow[i] & newNodeUnits[i] & ~arrived[i];
+				if (newFlow != 0L)
 				{
-					//System.err.println("      goal reached!");
-					//need to exclude the direct connection which is supposed to be "explained away"
-					if (currentDfsPath.size() > 1) return true;
+					newNodeFlow[i] |= newFlow;
+					flowLeft = true;
 				}
-				else
+			}
+		}
+		if (!flowLeft) return;
+		
+		//propagate the new flow onwards, each variable is on the agenda at most once
+		System.arraycopy(newNodeFlow, 0, unprocessedFlow[newNode], 0, numWords);
+		int agendaStart = 0;
+		int agendaSize = 1;
+		agenda[0] = newNode;
+		onAgenda[newNode] = true;
+		while (agendaSize > 0)
+		{
+			int candidate = agenda[agendaStart];
+			agendaStart = (agendaStart + 1) % numNodes;
+			agendaSize--;
+			onAgenda[candidate] = false;
+			long[] candidateFlow = unprocessedFlow[candidate];
+			//units which already arrived at yVar do not need to be pushed any further
+			boolean candidateFlowLeft = false;
+			for (int i = 0; i < numWords; i++)
+			{
+				candidateFlow[i] &= ~arrived[i];
+				if (candidateFlow[i] != 0L) candidateFlowLeft = true;
+			}
+			if (candidateFlowLeft && numFlowArrived[level] < flowUnits.size())
+			{
+				//xVar already has all units, so flow only needs to be pushed to yVar and the conditioning variables
+				for (int neighbor = 1; neighbor < numNodes; neighbor++)
 				{
-					if (allowedVars.contains(neighborVar))
+					if (neighbor == candidate || !graph.hasLink(flowVars[candidate], flowVars[neighbor])) continue;
+					long[] neighborFlow = currentFlow[neighbor];
+					long[] neighborUnits = nodeUnits[neighbor];
+					boolean propagated = false;
+					for (int i = 0; i < numWords; i++)
 					{
-						currentDfsPath.add(neighborVar);
-						boolean result = dfsPathSearch(currentDfsPath, goalVar, allowedVars, cognateGraph);
-						currentDfsPath.remove(currentDfsPath.size() - 1);
-						if (result) return true;
+						long newFlow = candidateFlow[i] & neighborUnits[i] & ~neighborFlow[i];
+						if (newFlow != 0L)
+						{
+							neighborFlow[i] |= newFlow;
+							if (neighbor == 1) numFlowArrived[level] += Long.bitCount(newFlow);
+							else
+							{
+								unprocessedFlow[neighbor][i] |= newFlow;
+								propagated = true;
+							}
+						}
+					}
+					if (propagated && !onAgenda[neighbor])
+					{
+						agenda[(agendaStart + agendaSize) % numNodes] = neighbor;
+						agendaSize++;
+						onAgenda[neighbor] = true;
 					}
 				}
 			}
+			Arrays.fill(candidateFlow, 0, numWords, 0L);
 		}
-		return false;
 	}
 	
 	public double correlation(int xVar, int yVar) {
-		return setsForLanguagePair.get(xVar).get(yVar).size();
+		return getSetsForLanguagePair(xVar, yVar).size();
 	}
 	
 	public double partialCorrelation(int xVar, int yVar, Set<Integer> zVars)
+	{
+		if (zVarArray.length < zVars.size()) zVarArray = new int[zVars.size()];
+		int zLength = 0;
+		for (int zVar : zVars)
+		{
+			zVarArray[zLength++] = zVar;
+		}
+		return partialCorrelation(xVar, yVar, zVarArray, zLength);
+	}
+	
+	public double partialCorrelation(int xVar, int yVar, int[] zVars, int zLength)
 	{
 		//long startTime = System.currentTimeMillis();
 		
 		String xVarName = varNames[xVar];
 		String yVarName = varNames[yVar];
 		
-		if (VERBOSE) System.out.print("      Flow for X=" + xVarName + " Y=" + yVarName + " Z=" + varSetToString(zVars) + ": ");
+		if (VERBOSE) System.out.print("      Flow for X=" + xVarName + " Y=" + yVarName + " Z=" + varSetToString(zVars, zLength) + ": ");
 		
+		//unexplained overlaps are collected locally and published at the end, so that concurrent tests do not interfere
 		Map<Integer,Set<Pair<String,String>>> cognatesPerConcept = null;
 		if (storeOverlaps)
 		{
-			cognatesPerConcept = unexplainedOverlaps.get(varNames[xVar]).get(varNames[yVar]);
-			cognatesPerConcept.clear();
+			cognatesPerConcept = new TreeMap<Integer,Set<Pair<String,String>>>();
 		}
-		boolean flowPossible = true;
-		//shortcut: if no flow is possible given the current graph structure, there is no need to check every single cognate
-		if  (!dfsSearchOnCurrentGraph(xVar, yVar, zVars))
-		{
-			//if (VERBOSE) System.err.println("      No correlate flow possible for X=" + xVarName + " Y=" + yVarName + " Z=" + varSetToString(zVars) + ", returning maximal partial correlation!");
-			flowPossible = false;
-		}
-		
-		double numXSets = setsForLanguagePair.get(xVar).get(xVar).size();
-		double numYSets = setsForLanguagePair.get(yVar).get(yVar).size();
-			
+		SparseBitSet xyUnits = getSetsForLanguagePair(xVar, yVar);
 		double explainedCorrelates = 0.0;
-		Set<Integer> flowCognateIDs = new TreeSet<Integer>();
-		double unexplainedCorrelates = setsForLanguagePair.get(xVar).get(yVar).size();
+		double unexplainedCorrelates = xyUnits.size();
 		
-		if (flowPossible) {
-			flowCognateIDs = parallelDfsSearchOnCurrentGraph(xVar, yVar, zVars);
-			unexplainedCorrelates -= flowCognateIDs.size();
-			explainedCorrelates += flowCognateIDs.size();
+		//the bitmap search also finds out whether any flow is possible given the current graph structure
+		long[] flowCognateIDs = parallelDfsSearchOnCurrentGraph(xVar, yVar, zVars, zLength);
+		//the flow buffers are reused, only the words of xyUnits are valid
+		for (int i = 0; i < xyUnits.numWords(); i++)
+		{
+			explainedCorrelates += Long.bitCount(flowCognateIDs[i]);
 		}
+		unexplainedCorrelates -= explainedCorrelates;
 		if (storeOverlaps) {
-			for (int cognateSetID : setsForLanguagePair.get(xVar).get(yVar)) {
-				if (!flowCognateIDs.contains(cognateSetID)) {
+			for (int i = 0; i < xyUnits.numWords(); i++) {
+				long unexplainedWord = xyUnits.word(i) & ~flowCognateIDs[i];
+				for (; unexplainedWord != 0L; unexplainedWord &= unexplainedWord - 1) {
+					int cognateSetID = (xyUnits.wordIndex(i) << 6) + Long.numberOfTrailingZeros(unexplainedWord);
 					String xString = "?";
 					String yString = "?";		
 					for (Triple<String,String,String> triple : elementUnits.get(cognateSetID))
@@ -424,6 +688,12 @@ public class PartialCorrelationDiscreteUnitFlow extends PartialCorrelation<List<
 					cognatesPerConcept.put(cognateSetID, cognatePairSet);
 				}
 			}
+			Map<Integer,Set<Pair<String,String>>> storedOverlaps = unexplainedOverlaps.get(varNames[xVar]).get(varNames[yVar]);
+			synchronized (storedOverlaps)
+			{
+				storedOverlaps.clear();
+				storedOverlaps.putAll(cognatesPerConcept);
+			}
 		}
 		
 		//versions for other applications (to be reactivated)
@@ -442,6 +712,11 @@ public class PartialCorrelationDiscreteUnitFlow extends PartialCorrelation<List<
 
 	@Override
 	public boolean independenceTest(double partialCorrelation, int xVar, int yVar, Set<Integer> zVars) 
+	{
+		return independenceTest(partialCorrelation, xVar, yVar, null, 0);
+	}
+	
+	public boolean independenceTest(double partialCorrelation, int xVar, int yVar, int[] zVars, int zLength) 
 	{
 		if (VERBOSE) System.out.println("      Condition for independence test: " + partialCorrelation + " <= " + thresholds[xVar][yVar] + " = thresholds[" + xVar + "][" + yVar + "]");
 		boolean result = (partialCorrelation <= thresholds[xVar][yVar]);
@@ -450,10 +725,9 @@ public class PartialCorrelationDiscreteUnitFlow extends PartialCorrelation<List<
 	
 	public boolean vStructureTest(int aIndex, int bIndex, int cIndex)
 	{
-		List<Set<Triple<String,String,String>>> bCognateSets = setsForLanguage.get(varNames[bIndex]);
-		Set<Integer> abCognateSets = setsForLanguagePair.get(aIndex).get(bIndex);
-		Set<Integer> acCognateSets = setsForLanguagePair.get(aIndex).get(cIndex);
-		Set<Integer> bcCognateSets = setsForLanguagePair.get(bIndex).get(cIndex);
+		List<Set<Triple<String,String,String>>> bCognateSets = setsForLanguage.get(bIndex);
+		SparseBitSet abCognateSets = getSetsForLanguagePair(aIndex, bIndex);
+		SparseBitSet bcCognateSets = getSetsForLanguagePair(bIndex, cIndex);
 		int numBCognateSets = 0;
 		for (Set<Triple<String,String,String>> cogset : bCognateSets) {
 			if (cogset.size() >= 2) {
@@ -461,16 +735,16 @@ public class PartialCorrelationDiscreteUnitFlow extends PartialCorrelation<List<
 			}
 		}
 		int abIntersectionSize = 0;
-		for (int setIndex : abCognateSets) {
+		for (int setIndex : abCognateSets.toArray()) {
 			if (elementUnits.get(setIndex).size() >= 3)
 				abIntersectionSize += 1;
 		}
 		int bcIntersectionSize = 0;
-		for (int setIndex : bcCognateSets) {
+		for (int setIndex : bcCognateSets.toArray()) {
 			if (elementUnits.get(setIndex).size() >= 3)
 				bcIntersectionSize += 1;
 		}
-		int abcIntersectionSize = SetOperations.getIntersection(abCognateSets, bcCognateSets).size();
+		int abcIntersectionSize = abCognateSets.intersectionSize(bcCognateSets);
 		
 		System.out.print("v-structure test for " + varNames[aIndex] + " -> " + varNames[bIndex] + " <- " + varNames[cIndex] + ") = ");
 		System.out.print("chyper(" + abcIntersectionSize + ", " + abCognateSets.size() + ", " + (numBCognateSets - abCognateSets.size()) + ", " + bcCognateSets.size() + ") = ");
@@ -531,11 +805,67 @@ public class PartialCorrelationDiscreteUnitFlow extends PartialCorrelation<List<
 	
 	public void registerSepSets(int xVar, int yVar, List<Set<Integer>> sepSet)
 	{
-		if (storeOverlaps) unexplainedOverlaps.get(varNames[xVar]).get(varNames[yVar]).clear();
+		if (storeOverlaps)
+		{
+			Map<Integer,Set<Pair<String,String>>> storedOverlaps = unexplainedOverlaps.get(varNames[xVar]).get(varNames[yVar]);
+			synchronized (storedOverlaps)
+			{
+				storedOverlaps.clear();
+			}
+		}
+	}
+	
+	/**
+	 * The incremental flow state is kept between calls, so concurrent tests need forks, which have their own state
+	 * (the overlap store is shared, but only updated under its lock).
+	 */
+	public boolean isReentrant()
+	{
+		return false;
+	}
+	
+	public boolean isForkable()
+	{
+		return true;
+	}
+	
+	public PartialCorrelation<List<Set<Set<Triple<String,String,String>>>>> fork()
+	{
+		return new PartialCorrelationDiscreteUnitFlow(this);
+	}
+	
+	public void setGraph(CausalGraph graph)
+	{
+		this.graph = graph;
+	}
+	
+	/**
+	 * The flow only passes through links between x, y and the conditioning set (except the link x-y).
+	 */
+	public boolean dependsOnGraph()
+	{
+		return true;
+	}
+	
+	/**
+	 * Storing the unexplained overlaps is a side effect of each call, so results are only cacheable without it.
+	 */
+	public boolean isCacheable()
+	{
+		return !storeOverlaps;
+	}
+	
+	/**
+	 * More conditioning variables and more links only let more units arrive at yVar, and the threshold only
+	 * depends on the pair. Tests are only skipped without storeOverlaps, which would record the overlaps of every test.
+	 */
+	public boolean isMonotone()
+	{
+		return !storeOverlaps;
 	}
 	
 	public boolean maxCondSetSizeReached(int xVar, int yVar, int condSetSize) {
-		int maxCondSetSize = maxCognateSetSizeForPair.get(varNames[xVar]).get(varNames[yVar]);
+		int maxCondSetSize = maxCognateSetSizeForPair[xVar][yVar];
 		//System.err.println("maxCondSetSizeReached(" + varNames[xVar] + "," + varNames[yVar] + "): " + condSetSize + "/" + maxCondSetSize);
 		return (condSetSize >= maxCondSetSize); 
 	}
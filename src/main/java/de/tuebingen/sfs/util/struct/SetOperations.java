@@ -48,6 +48,23 @@ public class SetOperations
 	    getSubsets(superSet, k, idx+1, current, solution);
 	}
 	
+	/**
+	 * @return the number of k-subsets of an n-element set (saturating at Long.MAX_VALUE)
+	 */
+	public static long binomial(int n, int k)
+	{
+		if (k < 0 || k > n) return 0;
+		k = Math.min(k, n - k);
+		long result = 1;
+		for (int i = 1; i <= k; i++)
+		{
+			//result * (n - k + i) is divisible by i, since it is i times a binomial coefficient
+			if (result > Long.MAX_VALUE / (n - k + i)) return Long.MAX_VALUE;
+			result = result * (n - k + i) / i;
+		}
+		return result;
+	}
+	
 	public static <T> Set<T> getIntersection(Set<T> set1, Set<T> set2) 
 	{
 	    boolean set1IsLarger = set1.size() > set2.size();
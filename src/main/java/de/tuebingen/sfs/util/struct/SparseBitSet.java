@@ -0,0 +1,207 @@
+package de.tuebingen.sfs.util.struct;
+
+import java.util.Arrays;
+
+/**
+ * Set of non-negative ints over a large ID space, stored as its non-zero 64-bit words together with their
+ * word indices (in ascending order). Memory is proportional to the number of occupied words, which makes it
+ * suitable for many sparse sets over the same ID space, while intersections work on whole words.
+ * Elements are added in ascending order, the set cannot be modified otherwise.
+ */
+public class SparseBitSet
+{
+	//shared instance for empty sets, which cannot be added to
+	public static final SparseBitSet EMPTY = new SparseBitSet(0);
+
+	int[] wordIndices;
+	long[] words;
+	int numWords;
+	int cardinality;
+
+	public SparseBitSet()
+	{
+		this(2);
+	}
+
+	/**
+	 * @param capacity initial number of words
+	 */
+	public SparseBitSet(int capacity)
+	{
+		wordIndices = new int[capacity];
+		words = new long[capacity];
+	}
+
+	/**
+	 * Adds an element which is not smaller than all elements added before.
+	 * @throws UnsupportedOperationException if called on EMPTY
+	 */
+	public void add(int element)
+	{
+		if (this == EMPTY) throw new UnsupportedOperationException("the shared empty set cannot be modified");
+		int wordIndex = element >>> 6;
+		long bit = 1L << element;
+		if (numWords > 0 && wordIndices[numWords - 1] == wordIndex)
+		{
+			if ((words[numWords - 1] & bit) != 0) return;
+			words[numWords - 1] |= bit;
+		}
+		else
+		{
+			if (numWords > 0 && wordIndices[numWords - 1] > wordIndex)
+				throw new IllegalArgumentException("elements must be added in ascending order");
+			if (numWords == words.length)
+			{
+				wordIndices = Arrays.copyOf(wordIndices, numWords * 2 + 1);
+				words = Arrays.copyOf(words, numWords * 2 + 1);
+			}
+			wordIndices[numWords] = wordIndex;
+			words[numWords++] = bit;
+		}
+		cardinality++;
+	}
+
+	/**
+	 * Adds all elements of another set, which must not be smaller than the elements added before (e.g. when
+	 * concatenating sets built over consecutive ranges of IDs).
+	 * @throws UnsupportedOperationException if called on EMPTY
+	 */
+	public void addAll(SparseBitSet other)
+	{
+		if (this == EMPTY) throw new UnsupportedOperationException("the shared empty set cannot be modified");
+		if (numWords + other.numWords > words.length)
+		{
+			wordIndices = Arrays.copyOf(wordIndices, numWords + other.numWords);
+			words = Arrays.copyOf(words, numWords + other.numWords);
+		}
+		for (int i = 0; i < other.numWords; i++)
+		{
+			int wordIndex = other.wordIndices[i];
+			long word = other.words[i];
+			if (numWords > 0 && wordIndices[numWords - 1] == wordIndex)
+			{
+				//the ranges can meet within a word
+				if (Long.numberOfTrailingZeros(word) < 64 - Long.numberOfLeadingZeros(words[numWords - 1]))
+					throw new IllegalArgumentException("elements must be added in ascending order");
+				words[numWords - 1] |= word;
+			}
+			else
+			{
+				if (numWords > 0 && wordIndices[numWords - 1] > wordIndex)
+					throw new IllegalArgumentException("elements must be added in ascending order");
+				wordIndices[numWords] = wordIndex;
+				words[numWords++] = word;
+			}
+			cardinality += Long.bitCount(word);
+		}
+	}
+
+	/**
+	 * Releases unused capacity after the last element has been added.
+	 */
+	public void trim()
+	{
+		if (numWords < words.length)
+		{
+			wordIndices = Arrays.copyOf(wordIndices, numWords);
+			words = Arrays.copyOf(words, numWords);
+		}
+	}
+
+	/**
+	 * @return estimated memory footprint in bytes
+	 */
+	public long estimateMemory()
+	{
+		return 24 + 16 + 4L * wordIndices.length + 16 + 8L * words.length;
+	}
+
+	public int size()
+	{
+		return cardinality;
+	}
+
+	public boolean contains(int element)
+	{
+		int pos = Arrays.binarySearch(wordIndices, 0, numWords, element >>> 6);
+		return pos >= 0 && (words[pos] & (1L << element)) != 0;
+	}
+
+	public int numWords()
+	{
+		return numWords;
+	}
+
+	/**
+	 * @return the index of the i-th occupied word in the ID space
+	 */
+	public int wordIndex(int i)
+	{
+		return wordIndices[i];
+	}
+
+	public long word(int i)
+	{
+		return words[i];
+	}
+
+	/**
+	 * @return a copy of the occupied words
+	 */
+	public long[] copyWords()
+	{
+		return Arrays.copyOf(words, numWords);
+	}
+
+	/**
+	 * Stores the words of this set at the word indices of another set into target (0 where this set has no word),
+	 * i.e. the intersection with the other set, aligned to its words.
+	 */
+	public void alignTo(SparseBitSet other, long[] target)
+	{
+		int pos = 0;
+		for (int i = 0; i < other.numWords; i++)
+		{
+			//this set is typically much larger than the other one, so its words are found by binary search
+			if (pos < numWords && wordIndices[pos] < other.wordIndices[i])
+			{
+				pos = Arrays.binarySearch(wordIndices, pos, numWords, other.wordIndices[i]);
+				if (pos < 0) pos = -pos - 1;
+			}
+			target[i] = (pos < numWords && wordIndices[pos] == other.wordIndices[i]) ? (words[pos] & other.words[i]) : 0L;
+		}
+	}
+
+	public int intersectionSize(SparseBitSet other)
+	{
+		int size = 0;
+		int i = 0;
+		int j = 0;
+		while (i < numWords && j < other.numWords)
+		{
+			if (wordIndices[i] < other.wordIndices[j]) i++;
+			else if (wordIndices[i] > other.wordIndices[j]) j++;
+			else size += Long.bitCount(words[i++] & other.words[j++]);
+		}
+		return size;
+	}
+
+	/**
+	 * @return the elements in ascending order
+	 */
+	public int[] toArray()
+	{
+		int[] elements = new int[cardinality];
+		int numElements = 0;
+		for (int i = 0; i < numWords; i++)
+		{
+			long word = words[i];
+			while (word != 0)
+			{
+				elements[numElements++] = (wordIndices[i] << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+			}
+		}
+		return elements;
+	}
+}
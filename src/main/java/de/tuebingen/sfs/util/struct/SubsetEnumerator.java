@@ -0,0 +1,192 @@
+package de.tuebingen.sfs.util.struct;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Lazy enumeration of the k-subsets of an int array, in the same lexicographic index order as
+ * SetOperations.getSubsets(). Only one index array is kept, and every step is exposed through the
+ * same live, unmodifiable Set view, so callers which want to keep a subset need to copy it.
+ */
+public class SubsetEnumerator implements Iterable<Set<Integer>>
+{
+	final int[] elements;
+	final int numElements;
+	final int k;
+
+	//indices into elements of the current subset, ascending
+	final int[] indices;
+	boolean started;
+	boolean exhausted;
+
+	final Set<Integer> currentSet;
+
+	public SubsetEnumerator(int[] elements, int k)
+	{
+		this(elements, elements.length, k);
+	}
+
+	/**
+	 * @param elements
+	 * @param numElements number of elements to use from the start of the array
+	 * @param k subset size
+	 */
+	public SubsetEnumerator(int[] elements, int numElements, int k)
+	{
+		this.elements = elements;
+		this.numElements = numElements;
+		this.k = k;
+		this.indices = new int[k];
+		this.currentSet = new CurrentSubsetView();
+		reset();
+	}
+
+	public void reset()
+	{
+		for (int i = 0; i < k; i++)
+		{
+			indices[i] = i;
+		}
+		started = false;
+		exhausted = (k > numElements);
+	}
+
+	/**
+	 * Advances to the next subset.
+	 * @return false if all subsets have been enumerated
+	 */
+	public boolean next()
+	{
+		if (exhausted) return false;
+		if (!started)
+		{
+			started = true;
+			return true;
+		}
+		//find the rightmost index which can still be incremented
+		int i = k - 1;
+		while (i >= 0 && indices[i] == numElements - k + i) i--;
+		if (i < 0)
+		{
+			exhausted = true;
+			return false;
+		}
+		indices[i]++;
+		for (int j = i + 1; j < k; j++)
+		{
+			indices[j] = indices[j - 1] + 1;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the i-th element of the current subset
+	 */
+	public int get(int i)
+	{
+		return elements[indices[i]];
+	}
+
+	public int size()
+	{
+		return k;
+	}
+
+	/**
+	 * Copies the current subset into the given array (which must have room for k elements).
+	 */
+	public void copyCurrent(int[] target)
+	{
+		for (int i = 0; i < k; i++)
+		{
+			target[i] = elements[indices[i]];
+		}
+	}
+
+	/**
+	 * @return live view of the current subset, changing with every call to next()
+	 */
+	public Set<Integer> current()
+	{
+		return currentSet;
+	}
+
+	/**
+	 * @return the number of subsets which will be enumerated in total
+	 */
+	public long count()
+	{
+		return SetOperations.binomial(numElements, k);
+	}
+
+	/**
+	 * Restarts the enumeration; the iterator returns the same live view in every step.
+	 */
+	public Iterator<Set<Integer>> iterator()
+	{
+		reset();
+		return new Iterator<Set<Integer>>()
+		{
+			//whether the enumerator has already been advanced to the subset returned by the next call to next()
+			boolean advanced = false;
+			boolean hasNextSubset;
+
+			public boolean hasNext()
+			{
+				if (!advanced)
+				{
+					hasNextSubset = SubsetEnumerator.this.next();
+					advanced = true;
+				}
+				return hasNextSubset;
+			}
+
+			public Set<Integer> next()
+			{
+				if (!hasNext()) throw new NoSuchElementException();
+				advanced = false;
+				return currentSet;
+			}
+		};
+	}
+
+	private class CurrentSubsetView extends AbstractSet<Integer>
+	{
+		public boolean contains(Object o)
+		{
+			if (!(o instanceof Integer)) return false;
+			int value = (Integer) o;
+			for (int i = 0; i < k; i++)
+			{
+				if (elements[indices[i]] == value) return true;
+			}
+			return false;
+		}
+
+		public Iterator<Integer> iterator()
+		{
+			return new Iterator<Integer>()
+			{
+				int i = 0;
+
+				public boolean hasNext()
+				{
+					return i < k;
+				}
+
+				public Integer next()
+				{
+					if (i >= k) throw new NoSuchElementException();
+					return elements[indices[i++]];
+				}
+			};
+		}
+
+		public int size()
+		{
+			return k;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package de.tuebingen.sfs.causal.algorithms;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.heuristics.separation.DSeparationOracle;
+import junit.framework.TestCase;
+
+public class FciAlgorithmTest extends TestCase
+{
+	static final String[] VAR_NAMES = RfciAlgorithmTest.VAR_NAMES;
+	static final int A = 0, B = 1, C = 2, D = 3;
+
+	boolean quiet;
+
+	protected void setUp()
+	{
+		quiet = PcAlgorithm.QUIET;
+		PcAlgorithm.QUIET = true;
+	}
+
+	protected void tearDown()
+	{
+		PcAlgorithm.QUIET = quiet;
+	}
+
+	static String link(CausalGraph graph, int var1, int var2)
+	{
+		return RfciAlgorithmTest.link(graph, var1, var2);
+	}
+
+	static CausalGraph runFci(DSeparationOracle oracle, CausalGraph graph)
+	{
+		new FciAlgorithm(new PcAlgorithm(oracle, null, VAR_NAMES, graph, 3, true, false, true)).run();
+		return graph;
+	}
+
+	public void testPagWithLatentConfounder()
+	{
+		CausalGraph graph = runFci(RfciAlgorithmTest.confoundedOracle(), new CausalGraph(VAR_NAMES, true));
+		assertEquals("o->", link(graph, A, B));
+		assertEquals("<->", link(graph, B, C));
+		assertEquals("<-o", link(graph, C, D));
+		assertNull(link(graph, A, C));
+		assertNull(link(graph, A, D));
+		assertNull(link(graph, B, D));
+	}
+
+	public void testPagWithDiscriminatingPath()
+	{
+		CausalGraph graph = runFci(RfciAlgorithmTest.discriminatingPathOracle(), new CausalGraph(VAR_NAMES, true));
+		assertEquals("o->", link(graph, A, B));
+		assertEquals("<-o", link(graph, B, C));
+		assertEquals("-->", link(graph, B, D));
+		assertEquals("-->", link(graph, C, D));
+		assertNull(link(graph, A, C));
+		assertNull(link(graph, A, D));
+	}
+
+	public void testUndeletableLinkIsTestedAgainstPossibleDSep()
+	{
+		//A - D is kept by the skeleton phase as if the upper bound test had found it undeletable
+		CausalGraph graph = new CausalGraph(VAR_NAMES, true);
+		graph.setUndeletableLink(A, D, true);
+		runFci(RfciAlgorithmTest.discriminatingPathOracle(), graph);
+		assertNull(link(graph, A, D));
+		assertEquals("-->", link(graph, C, D));
+	}
+
+	public void testPresetLinkIsKept()
+	{
+		CausalGraph graph = new CausalGraph(VAR_NAMES, true);
+		graph.putPresetLink(A, D, true);
+		runFci(RfciAlgorithmTest.discriminatingPathOracle(), graph);
+		assertTrue(graph.hasLink(A, D));
+	}
+}
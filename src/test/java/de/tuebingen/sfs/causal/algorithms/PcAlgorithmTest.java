@@ -0,0 +1,240 @@
+package de.tuebingen.sfs.causal.algorithms;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.data.CausalGraphOutput;
+import de.tuebingen.sfs.causal.generator.PartitionSampler;
+import de.tuebingen.sfs.causal.generator.RandomCausalModel;
+import de.tuebingen.sfs.causal.heuristics.arrows.OrientationRules;
+import de.tuebingen.sfs.causal.heuristics.separation.DSeparationOracle;
+import de.tuebingen.sfs.causal.heuristics.separation.PartialCorrelationDiscreteUnitFlow;
+import de.tuebingen.sfs.util.struct.Pair;
+import de.tuebingen.sfs.util.struct.Triple;
+import junit.framework.TestCase;
+
+public class PcAlgorithmTest extends TestCase
+{
+	static final String[] VAR_NAMES = {"A", "B", "C", "D", "E", "F"};
+
+	boolean quiet;
+
+	protected void setUp()
+	{
+		quiet = PcAlgorithm.QUIET;
+		PcAlgorithm.QUIET = true;
+	}
+
+	protected void tearDown()
+	{
+		PcAlgorithm.QUIET = quiet;
+	}
+
+	/**
+	 * A -> C <- B, C -> D -> E <- F <- B
+	 */
+	static boolean[][] dag()
+	{
+		boolean[][] parents = new boolean[6][6];
+		parents[2][0] = true;
+		parents[2][1] = true;
+		parents[3][2] = true;
+		parents[4][3] = true;
+		parents[4][5] = true;
+		parents[5][1] = true;
+		return parents;
+	}
+
+	static String run(DSeparationOracle oracle, ForkJoinPool executor)
+	{
+		CausalGraph graph = new CausalGraph(VAR_NAMES, true);
+		PcAlgorithm pc = new PcAlgorithm(oracle, null, VAR_NAMES, graph, 3, true, false, true);
+		pc.setExecutor(executor);
+		pc.run();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CausalGraphOutput.outputToTextFormat(graph, new PrintStream(out));
+		return out.toString();
+	}
+
+	public void testSkeletonOfOracle()
+	{
+		boolean[][] parents = dag();
+		CausalGraph graph = new CausalGraph(VAR_NAMES, true);
+		new PcAlgorithm(DSeparationOracle.forDag(parents, VAR_NAMES), null, VAR_NAMES, graph, 3, true, false, true).run();
+		for (int var1 = 0; var1 < VAR_NAMES.length; var1++)
+		{
+			for (int var2 = 0; var2 < VAR_NAMES.length; var2++)
+			{
+				if (var1 == var2) continue;
+				assertEquals(VAR_NAMES[var1] + "-" + VAR_NAMES[var2], parents[var1][var2] || parents[var2][var1], graph.hasLink(var1, var2));
+			}
+		}
+	}
+
+	public void testMeasureWhichCannotBeForkedIsTestedSequentially()
+	{
+		DSeparationOracle oracle = DSeparationOracle.forDag(dag(), VAR_NAMES);
+		assertFalse(oracle.isForkable());
+		String sequential = run(oracle, null);
+		ForkJoinPool executor = new ForkJoinPool(4);
+		try
+		{
+			assertEquals(sequential, run(oracle, executor));
+			oracle.setReentrant(true);
+			assertTrue(oracle.isForkable());
+			assertEquals(sequential, run(oracle, executor));
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	public void testRuleFiringsAreCountedPerRun()
+	{
+		boolean verbose = OrientationRules.VERBOSE;
+		OrientationRules.VERBOSE = true;
+		try
+		{
+			DSeparationOracle oracle = DSeparationOracle.forDag(dag(), VAR_NAMES);
+			RunMetrics[] metrics = new RunMetrics[2];
+			for (int i = 0; i < metrics.length; i++)
+			{
+				metrics[i] = new RunMetrics();
+				PcAlgorithm pc = new PcAlgorithm(oracle, null, VAR_NAMES, new CausalGraph(VAR_NAMES, true), 3, true, false, true);
+				pc.setMetrics(metrics[i]);
+				pc.run();
+			}
+			//C - D is oriented by R1 from the v-structure A -> C <- B
+			assertEquals(1, metrics[0].ruleFirings[1]);
+			assertTrue(Arrays.equals(metrics[0].ruleFirings, metrics[1].ruleFirings));
+			//a quiet run must not change the default for other users of the rules
+			assertTrue(OrientationRules.VERBOSE);
+		}
+		finally
+		{
+			OrientationRules.VERBOSE = verbose;
+		}
+	}
+
+	static PartialCorrelationDiscreteUnitFlow unitFlow(List<Set<Set<Triple<String,String,String>>>> partitions,
+			CausalGraph graph, String[] varNames)
+	{
+		double[][] thresholds = new double[varNames.length][varNames.length];
+		for (double[] row : thresholds)
+		{
+			Arrays.fill(row, partitions.size() / 40.0);
+		}
+		return new PartialCorrelationDiscreteUnitFlow(partitions, graph, varNames, thresholds, false);
+	}
+
+	/**
+	 * @return the links with their strengths, and the separating sets of all pairs, after a skeleton run on
+	 *         unit-flow data of a random model
+	 */
+	static String unitFlowSkeleton(RandomCausalModel model, List<Set<Set<Triple<String,String,String>>>> partitions,
+			ForkJoinPool executor, boolean boundPruning)
+	{
+		String[] varNames = Arrays.copyOf(model.varNames, model.numObserved);
+		CausalGraph graph = new CausalGraph(varNames, true);
+		PartialCorrelationDiscreteUnitFlow measure = unitFlow(partitions, graph, varNames);
+		assertTrue(measure.isForkable());
+		PcAlgorithm pc = new PcAlgorithm(measure, null, varNames, graph, 3, true, false, true);
+		pc.setExecutor(executor);
+		pc.setBoundPruning(boundPruning);
+		RunMetrics metrics = new RunMetrics();
+		pc.setMetrics(metrics);
+		pc.runSkeletonInference();
+		StringBuilder skeleton = new StringBuilder();
+		for (Pair<Integer,Integer> link : graph.listAllLinks())
+		{
+			skeleton.append(link + " " + graph.getRemainingLinkStrength(link.first, link.second) + " " + graph.hasUndeletableLink(link.first, link.second) + "\n");
+		}
+		for (int var1 = 0; var1 < varNames.length; var1++)
+		{
+			for (int var2 = var1 + 1; var2 < varNames.length; var2++)
+			{
+				skeleton.append(var1 + "," + var2 + ": " + pc.separatingSets.getSepSets(var1, var2) + "\n");
+			}
+		}
+		for (RunMetrics.LevelMetrics level : metrics.levels)
+		{
+			skeleton.append(level.depth + ": " + level.numLinksTested + " " + level.numCITests + " " + level.numLinksRemoved + " " + level.numUndeletableLinks + "\n");
+		}
+		return skeleton.toString();
+	}
+
+	public void testParallelSkeletonEqualsSequentialStableRun()
+	{
+		RandomCausalModel model = new RandomCausalModel(24, 1.5, 2, 3, 3);
+		List<Set<Set<Triple<String,String,String>>>> partitions = new PartitionSampler(model, 0.7, 0.05, 3).samplePartitions(300);
+		for (boolean boundPruning : new boolean[] {false, true})
+		{
+			String sequential = unitFlowSkeleton(model, partitions, null, boundPruning);
+			for (int parallelism : new int[] {1, 3})
+			{
+				ForkJoinPool executor = new ForkJoinPool(parallelism);
+				try
+				{
+					assertEquals(sequential, unitFlowSkeleton(model, partitions, executor, boundPruning));
+				}
+				finally
+				{
+					executor.shutdown();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the oriented graph after a run of PC or PC* on unit-flow data, in text format
+	 */
+	static String orientedUnitFlowGraph(RandomCausalModel model, List<Set<Set<Triple<String,String,String>>>> partitions,
+			boolean pcStar, boolean conservative, int maxSepSets, RunMetrics metrics)
+	{
+		String[] varNames = Arrays.copyOf(model.varNames, model.numObserved);
+		CausalGraph graph = new CausalGraph(varNames, true);
+		PartialCorrelationDiscreteUnitFlow measure = unitFlow(partitions, graph, varNames);
+		PcAlgorithm pc = pcStar ? new PcStarAlgorithm(measure, null, varNames, graph, 3, true, conservative, true, false)
+				: new PcAlgorithm(measure, null, varNames, graph, 3, true, conservative, true);
+		pc.setMaxSepSets(maxSepSets);
+		pc.setMetrics(metrics);
+		pc.run();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CausalGraphOutput.outputToTextFormat(graph, new PrintStream(out));
+		return out.toString();
+	}
+
+	public void testFirstSepSetWithCompletionOrientsLikeAllSepSets()
+	{
+		RandomCausalModel model = new RandomCausalModel(24, 1.5, 2, 3, 5);
+		List<Set<Set<Triple<String,String,String>>>> partitions = new PartitionSampler(model, 0.7, 0.05, 5).samplePartitions(300);
+		long numCompletionTests = 0;
+		for (boolean pcStar : new boolean[] {false, true})
+		{
+			for (boolean conservative : new boolean[] {false, true})
+			{
+				RunMetrics allMetrics = new RunMetrics();
+				String all = orientedUnitFlowGraph(model, partitions, pcStar, conservative, PcAlgorithm.ALL_SEPSETS, allMetrics);
+				assertEquals(0, allMetrics.numCompletionTests);
+				assertTrue(allMetrics.numVStructures > 0);
+				for (int maxSepSets : new int[] {PcAlgorithm.FIRST_SEPSET, 2})
+				{
+					RunMetrics metrics = new RunMetrics();
+					String message = (pcStar ? "PC*" : "PC") + ", conservative " + conservative + ", " + maxSepSets + " separating sets";
+					assertEquals(message, all, orientedUnitFlowGraph(model, partitions, pcStar, conservative, maxSepSets, metrics));
+					assertEquals(message, allMetrics.numVStructures, metrics.numVStructures);
+					//the tests saved in the skeleton phase outweigh those needed for the completion
+					assertTrue(message, metrics.getNumCITests() < allMetrics.getNumCITests());
+					numCompletionTests += metrics.numCompletionTests;
+				}
+			}
+		}
+		assertTrue(numCompletionTests > 0);
+	}
+}
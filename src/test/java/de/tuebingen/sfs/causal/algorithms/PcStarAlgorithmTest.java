@@ -0,0 +1,196 @@
+package de.tuebingen.sfs.causal.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.heuristics.separation.PartialCorrelationDiscreteUnitFlow;
+import de.tuebingen.sfs.util.struct.Pair;
+import de.tuebingen.sfs.util.struct.Triple;
+import junit.framework.TestCase;
+
+public class PcStarAlgorithmTest extends TestCase
+{
+	static final int NUM_VARS = 16;
+	static final int NUM_CONCEPTS = 200;
+
+	/**
+	 * Unit-flow measure which records its tests, and which can pretend not to be monotone, so that no tests are
+	 * skipped.
+	 */
+	static class RecordingUnitFlow extends PartialCorrelationDiscreteUnitFlow
+	{
+		boolean monotone;
+		StringBuilder tests = new StringBuilder();
+
+		RecordingUnitFlow(List<Set<Set<Triple<String,String,String>>>> partitions, CausalGraph graph, String[] varNames, double[][] thresholds, boolean monotone)
+		{
+			super(partitions, graph, varNames, thresholds, false);
+			this.monotone = monotone;
+		}
+
+		public double partialCorrelation(int xVar, int yVar, int[] zVars, int zLength)
+		{
+			tests.append(xVar + "," + yVar + "|" + Arrays.toString(Arrays.copyOf(zVars, zLength)) + "\n");
+			return super.partialCorrelation(xVar, yVar, zVars, zLength);
+		}
+
+		public boolean isMonotone()
+		{
+			return monotone;
+		}
+	}
+
+	String[] varNames;
+	List<Set<Set<Triple<String,String,String>>>> partitions;
+	double[][] thresholds;
+	boolean quiet;
+
+	protected void setUp()
+	{
+		quiet = PcAlgorithm.QUIET;
+		PcAlgorithm.QUIET = true;
+		varNames = new String[NUM_VARS];
+		for (int var = 0; var < NUM_VARS; var++)
+		{
+			varNames[var] = "L" + var;
+		}
+		//units are inherited along a random DAG, as cognates are from ancestor languages
+		Random random = new Random(5);
+		List<List<Integer>> parents = new ArrayList<List<Integer>>();
+		for (int var = 0; var < NUM_VARS; var++)
+		{
+			List<Integer> varParents = new ArrayList<Integer>();
+			for (int parent = 0; parent < var; parent++)
+			{
+				if (random.nextDouble() < 3.0 / NUM_VARS) varParents.add(parent);
+			}
+			parents.add(varParents);
+		}
+		partitions = new ArrayList<Set<Set<Triple<String,String,String>>>>();
+		for (int concept = 0; concept < NUM_CONCEPTS; concept++)
+		{
+			int[] units = new int[NUM_VARS];
+			for (int var = 0; var < NUM_VARS; var++)
+			{
+				List<Integer> varParents = parents.get(var);
+				units[var] = (!varParents.isEmpty() && random.nextDouble() < 0.7) ? units[varParents.get(random.nextInt(varParents.size()))] : var;
+			}
+			Map<Integer,Set<Triple<String,String,String>>> partition = new TreeMap<Integer,Set<Triple<String,String,String>>>();
+			for (int var = 0; var < NUM_VARS; var++)
+			{
+				if (random.nextDouble() < 0.05) continue;
+				if (!partition.containsKey(units[var])) partition.put(units[var], new HashSet<Triple<String,String,String>>());
+				partition.get(units[var]).add(new Triple<String,String,String>(varNames[var], "c" + concept, "f" + units[var]));
+			}
+			partitions.add(new HashSet<Set<Triple<String,String,String>>>(partition.values()));
+		}
+		thresholds = new double[NUM_VARS][NUM_VARS];
+		for (double[] row : thresholds)
+		{
+			Arrays.fill(row, NUM_CONCEPTS / 40.0);
+		}
+	}
+
+	protected void tearDown()
+	{
+		PcAlgorithm.QUIET = quiet;
+	}
+
+	String skeleton(PcAlgorithm algorithm, CausalGraph graph, boolean withStrengths)
+	{
+		StringBuilder skeleton = new StringBuilder();
+		for (Pair<Integer,Integer> link : graph.listAllLinks())
+		{
+			skeleton.append(link);
+			if (withStrengths) skeleton.append(" " + graph.getRemainingLinkStrength(link.first, link.second));
+			skeleton.append("\n");
+		}
+		for (int var1 = 0; var1 < NUM_VARS; var1++)
+		{
+			for (int var2 = var1 + 1; var2 < NUM_VARS; var2++)
+			{
+				skeleton.append(var1 + "," + var2 + ": " + algorithm.separatingSets.getSepSets(var1, var2) + "\n");
+			}
+		}
+		return skeleton.toString();
+	}
+
+	public void testPcStarDoesNotSkipTestsOfMonotoneMeasures()
+	{
+		String[] tests = new String[2];
+		String[] skeletons = new String[2];
+		for (int run = 0; run < 2; run++)
+		{
+			CausalGraph graph = new CausalGraph(varNames, true);
+			RecordingUnitFlow measure = new RecordingUnitFlow(partitions, graph, varNames, thresholds, run == 0);
+			PcStarAlgorithm pcStar = new PcStarAlgorithm(measure, null, varNames, graph, 3, true, false, true, false);
+			pcStar.runSkeletonInference();
+			tests[run] = measure.tests.toString();
+			skeletons[run] = skeleton(pcStar, graph, true);
+		}
+		//the remaining link strengths, and thereby the order of the links and their tests, are the same
+		assertEquals(tests[1], tests[0]);
+		assertEquals(skeletons[1], skeletons[0]);
+	}
+
+	public void testPcSkipsTestsOfMonotoneMeasuresWithSameResult()
+	{
+		String[] tests = new String[2];
+		String[] skeletons = new String[2];
+		for (int run = 0; run < 2; run++)
+		{
+			CausalGraph graph = new CausalGraph(varNames, true);
+			RecordingUnitFlow measure = new RecordingUnitFlow(partitions, graph, varNames, thresholds, run == 0);
+			PcAlgorithm pc = new PcAlgorithm(measure, null, varNames, graph, 3, true, false, true);
+			pc.setBoundPruning(true);
+			pc.runSkeletonInference();
+			tests[run] = measure.tests.toString();
+			skeletons[run] = skeleton(pc, graph, false);
+		}
+		assertTrue(tests[0].length() < tests[1].length());
+		assertEquals(skeletons[1], skeletons[0]);
+	}
+
+	public void testPcKeepsStrengthsWithoutBoundPruning()
+	{
+		String[] tests = new String[2];
+		String[] skeletons = new String[2];
+		for (int run = 0; run < 2; run++)
+		{
+			CausalGraph graph = new CausalGraph(varNames, true);
+			RecordingUnitFlow measure = new RecordingUnitFlow(partitions, graph, varNames, thresholds, run == 0);
+			PcAlgorithm pc = new PcAlgorithm(measure, null, varNames, graph, 3, true, false, true);
+			pc.runSkeletonInference();
+			tests[run] = measure.tests.toString();
+			skeletons[run] = skeleton(pc, graph, true);
+		}
+		assertEquals(tests[1], tests[0]);
+		assertEquals(skeletons[1], skeletons[0]);
+	}
+
+	public void testPcStarSkipsTestsWithBoundPruning()
+	{
+		String[] tests = new String[2];
+		String[] skeletons = new String[2];
+		for (int run = 0; run < 2; run++)
+		{
+			CausalGraph graph = new CausalGraph(varNames, true);
+			RecordingUnitFlow measure = new RecordingUnitFlow(partitions, graph, varNames, thresholds, true);
+			PcStarAlgorithm pcStar = new PcStarAlgorithm(measure, null, varNames, graph, 3, true, false, true, false);
+			pcStar.setBoundPruning(run == 0);
+			pcStar.runSkeletonInference();
+			tests[run] = measure.tests.toString();
+			skeletons[run] = skeleton(pcStar, graph, false);
+		}
+		//the strengths are lower bounds with pruning, but the same links are removed with the same separating sets
+		assertTrue(tests[0].length() < tests[1].length());
+		assertEquals(skeletons[1], skeletons[0]);
+	}
+}
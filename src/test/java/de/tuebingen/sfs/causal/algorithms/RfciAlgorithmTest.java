@@ -0,0 +1,117 @@
+package de.tuebingen.sfs.causal.algorithms;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.heuristics.separation.DSeparationOracle;
+import junit.framework.TestCase;
+
+public class RfciAlgorithmTest extends TestCase
+{
+	static final String[] VAR_NAMES = {"A", "B", "C", "D"};
+	static final int A = 0, B = 1, C = 2, D = 3;
+
+	boolean quiet;
+
+	protected void setUp()
+	{
+		quiet = PcAlgorithm.QUIET;
+		PcAlgorithm.QUIET = true;
+	}
+
+	protected void tearDown()
+	{
+		PcAlgorithm.QUIET = quiet;
+	}
+
+	/**
+	 * @return the link between var1 and var2 with its end marks, e.g. "o->"
+	 */
+	static String link(CausalGraph graph, int var1, int var2)
+	{
+		if (!graph.hasLink(var1, var2)) return null;
+		String[] firstMarks = {"o", "-", "<"};
+		String[] secondMarks = {"o", "-", ">"};
+		return firstMarks[graph.getEndSymbol(var2, var1)] + "-" + secondMarks[graph.getEndSymbol(var1, var2)];
+	}
+
+	static CausalGraph runRfci(DSeparationOracle oracle, CausalGraph graph)
+	{
+		new RfciAlgorithm(new PcAlgorithm(oracle, null, VAR_NAMES, graph, 3, true, false, true)).run();
+		return graph;
+	}
+
+	/**
+	 * A -> B <- L -> C <- D with latent L
+	 */
+	static DSeparationOracle confoundedOracle()
+	{
+		boolean[][] parents = new boolean[5][5];
+		parents[B][A] = true;
+		parents[B][4] = true;
+		parents[C][4] = true;
+		parents[C][D] = true;
+		return new DSeparationOracle(parents, VAR_NAMES, new int[] {A, B, C, D});
+	}
+
+	/**
+	 * A -> B <- L -> C, B -> D <- C with latent L, where <A,B,C,D> is a discriminating path for C o-o D
+	 */
+	static DSeparationOracle discriminatingPathOracle()
+	{
+		boolean[][] parents = new boolean[5][5];
+		parents[B][A] = true;
+		parents[B][4] = true;
+		parents[C][4] = true;
+		parents[D][B] = true;
+		parents[D][C] = true;
+		return new DSeparationOracle(parents, VAR_NAMES, new int[] {A, B, C, D});
+	}
+
+	public void testPagWithLatentConfounder()
+	{
+		CausalGraph graph = runRfci(confoundedOracle(), new CausalGraph(VAR_NAMES, true));
+		assertEquals("o->", link(graph, A, B));
+		assertEquals("<->", link(graph, B, C));
+		assertEquals("<-o", link(graph, C, D));
+		assertNull(link(graph, A, C));
+		assertNull(link(graph, A, D));
+		assertNull(link(graph, B, D));
+	}
+
+	public void testPagWithDiscriminatingPath()
+	{
+		CausalGraph graph = runRfci(discriminatingPathOracle(), new CausalGraph(VAR_NAMES, true));
+		assertEquals("o->", link(graph, A, B));
+		assertEquals("<-o", link(graph, B, C));
+		assertEquals("-->", link(graph, B, D));
+		//C is in the separating set of A and D
+		assertEquals("-->", link(graph, C, D));
+		assertNull(link(graph, A, C));
+		assertNull(link(graph, A, D));
+	}
+
+	public void testPresetEndOnDiscriminatingPathTerminates()
+	{
+		CausalGraph graph = new CausalGraph(VAR_NAMES, true);
+		graph.markEndAsPreset(D, C, true);
+		runRfci(discriminatingPathOracle(), graph);
+		assertEquals("o->", link(graph, C, D));
+	}
+
+	public void testPresetLinkIsKept()
+	{
+		//A -> B -> C, B -> D -> C, where A and C are separated by B, and A and D by B
+		boolean[][] parents = new boolean[4][4];
+		parents[B][A] = true;
+		parents[C][B] = true;
+		parents[D][B] = true;
+		parents[C][D] = true;
+		CausalGraph graph = new CausalGraph(VAR_NAMES, true);
+		graph.putPresetLink(A, C, true);
+		runRfci(DSeparationOracle.forDag(parents, VAR_NAMES), graph);
+		//the unshielded triple (A,D,C) would otherwise remove A - C given the separating set {B} of A and D
+		assertTrue(graph.hasLink(A, C));
+		assertFalse(graph.hasLink(A, D));
+		assertTrue(graph.hasLink(B, C));
+		assertTrue(graph.hasLink(D, C));
+	}
+}
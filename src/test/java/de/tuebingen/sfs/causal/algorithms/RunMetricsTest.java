@@ -0,0 +1,190 @@
+package de.tuebingen.sfs.causal.algorithms;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.heuristics.arrows.OrientationRules;
+import de.tuebingen.sfs.causal.heuristics.separation.DSeparationOracle;
+import junit.framework.TestCase;
+
+public class RunMetricsTest extends TestCase
+{
+	static final String[] VAR_NAMES = PcAlgorithmTest.VAR_NAMES;
+
+	/**
+	 * Oracle which counts its CI tests.
+	 */
+	static class CountingOracle extends DSeparationOracle
+	{
+		long numTests;
+
+		CountingOracle(boolean[][] parents)
+		{
+			super(parents, VAR_NAMES, new int[] {0, 1, 2, 3, 4, 5});
+		}
+
+		public double partialCorrelation(int xVar, int yVar, int[] zVars, int zLength)
+		{
+			numTests++;
+			return super.partialCorrelation(xVar, yVar, zVars, zLength);
+		}
+	}
+
+	boolean quiet;
+	CausalGraph graph;
+	CountingOracle oracle;
+	RunMetrics metrics;
+
+	protected void setUp()
+	{
+		quiet = PcAlgorithm.QUIET;
+		PcAlgorithm.QUIET = true;
+		graph = new CausalGraph(VAR_NAMES, true);
+		oracle = new CountingOracle(PcAlgorithmTest.dag());
+		metrics = new RunMetrics();
+		PcAlgorithm pc = new PcAlgorithm(oracle, null, VAR_NAMES, graph, 3, true, false, true);
+		pc.setMetrics(metrics);
+		pc.run();
+	}
+
+	protected void tearDown()
+	{
+		PcAlgorithm.QUIET = quiet;
+	}
+
+	static String[] lines(String text)
+	{
+		return text.split("\r?\n");
+	}
+
+	public void testLevelCounts()
+	{
+		assertFalse(metrics.levels.isEmpty());
+		long numLinks = VAR_NAMES.length * (VAR_NAMES.length - 1) / 2;
+		long numRemoved = 0;
+		for (int i = 0; i < metrics.levels.size(); i++)
+		{
+			RunMetrics.LevelMetrics level = metrics.levels.get(i);
+			assertEquals(i, level.depth);
+			//the links of a level are those which were neither removed nor found undeletable before
+			assertEquals(numLinks, level.numLinks);
+			assertEquals(level.numLinks - level.numUndeletableLinks, level.numLinksTested);
+			assertTrue(level.numLinksRemoved <= level.numLinksTested);
+			assertTrue(level.numSepSets >= level.numLinksRemoved);
+			assertTrue(level.maxCITestsPerLink <= level.numCITests);
+			//the oracle is not cached
+			assertEquals(0, level.numCacheHits);
+			assertEquals(0, level.numCacheMisses);
+			numLinks -= level.numLinksRemoved + level.numUndeletableLinks;
+			numRemoved += level.numLinksRemoved;
+		}
+		//A and B, and A and F, are marginally independent
+		assertTrue(metrics.levels.get(0).numLinksRemoved >= 2);
+		//the skeleton of the DAG has 6 links
+		assertEquals(15 - 6, numRemoved);
+		assertEquals(oracle.numTests, metrics.getNumCITests());
+		//A -> C <- B, and E <- F with D -> E
+		assertEquals(2, metrics.numVStructures);
+		assertEquals(1, metrics.ruleFirings[1]);
+		assertTrue(metrics.skeletonNanos > 0);
+		assertTrue(metrics.orientationNanos > 0);
+	}
+
+	public void testJsonStructure()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		metrics.writeJson(new PrintStream(out));
+		String[] lines = lines(out.toString());
+		assertEquals("{", lines[0]);
+		assertEquals("}", lines[lines.length - 1]);
+		assertEquals("  \"numCITests\": " + metrics.getNumCITests() + ",", lines[3]);
+		int levelsStart = -1;
+		for (int i = 0; i < lines.length; i++)
+		{
+			if (lines[i].equals("  \"levels\": [")) levelsStart = i;
+		}
+		assertTrue(levelsStart > 0);
+		//one object per level, separated by commas, without a trailing comma
+		int numLevels = metrics.levels.size();
+		for (int i = 0; i < numLevels; i++)
+		{
+			String line = lines[levelsStart + 1 + i];
+			assertTrue(line, line.startsWith("    {\"depth\": " + i + ", \"numLinks\": " + metrics.levels.get(i).numLinks + ","));
+			assertTrue(line, line.endsWith((i < numLevels - 1) ? "}," : "}"));
+		}
+		assertEquals("  ],", lines[levelsStart + 1 + numLevels]);
+		//the last property has no trailing comma
+		String firings = lines[levelsStart + 2 + numLevels];
+		assertTrue(firings, firings.startsWith("  \"ruleFirings\": {\"R1\": " + metrics.ruleFirings[1] + ", \"R2\": "));
+		assertTrue(firings, firings.endsWith(", \"R10\": " + metrics.ruleFirings[10] + "}"));
+		assertEquals(lines.length - 2, levelsStart + 2 + numLevels);
+		//all other properties end with a comma
+		for (int i = 1; i < levelsStart; i++)
+		{
+			assertTrue(lines[i], lines[i].matches("  \"\\w+\": [0-9.E-]+,"));
+		}
+	}
+
+	public void testCsvStructure()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		metrics.writeCsv(new PrintStream(out));
+		String[] lines = lines(out.toString());
+		String[] header = lines[0].split(",", -1);
+		assertEquals(15, header.length);
+		assertEquals("numCITests", header[6]);
+		assertEquals(1 + metrics.levels.size() + 3 + 10, lines.length);
+		for (String line : lines)
+		{
+			//the same number of columns in every line, without a trailing separator
+			assertEquals(line, header.length, line.split(",", -1).length);
+		}
+		String[] level = lines[1].split(",", -1);
+		assertEquals("skeleton", level[0]);
+		assertEquals("0", level[1]);
+		assertEquals(String.valueOf(metrics.levels.get(0).numCITests), level[6]);
+		assertEquals("", level[13]);
+		String[] completion = lines[1 + metrics.levels.size()].split(",", -1);
+		assertEquals("completion", completion[0]);
+		assertEquals(String.valueOf(metrics.numCompletionTests), completion[6]);
+		String[] rule = lines[lines.length - 10].split(",", -1);
+		assertEquals("orientation", rule[0]);
+		assertEquals("R1", rule[13]);
+		assertEquals(String.valueOf(metrics.ruleFirings[1]), rule[14]);
+	}
+
+	public void testOrientationRulesCountFirings()
+	{
+		String[] varNames = {"A", "B", "C"};
+		long[] firings = new long[11];
+		OrientationRules rules = new OrientationRules(false, firings);
+		//A *-> B o-o C with A and C not linked: R1 orients B --> C, once
+		CausalGraph graph = new CausalGraph(varNames, false);
+		graph.addLink(0, 1);
+		graph.addLink(1, 2);
+		graph.setEndSymbol(0, 1, CausalGraph.ARROW_END);
+		assertTrue(rules.applyZhangOrientationRule1(graph, varNames));
+		assertFalse(rules.applyZhangOrientationRule1(graph, varNames));
+		assertEquals(CausalGraph.ARROW_END, graph.getEndSymbol(1, 2));
+		assertEquals(1, firings[1]);
+		//A --> B --> C with A o-o C: R2 orients A *-> C
+		graph.addLink(0, 2);
+		graph.setEndSymbol(1, 0, CausalGraph.LINE_END);
+		assertTrue(rules.applyZhangOrientationRule2(graph, varNames));
+		assertEquals(CausalGraph.ARROW_END, graph.getEndSymbol(0, 2));
+		assertEquals(1, firings[2]);
+		assertEquals(1, firings[1]);
+		for (int rule = 3; rule < firings.length; rule++)
+		{
+			assertEquals(0, firings[rule]);
+		}
+		//without counters, the rules still orient
+		graph = new CausalGraph(varNames, false);
+		graph.addLink(0, 1);
+		graph.addLink(1, 2);
+		graph.setEndSymbol(0, 1, CausalGraph.ARROW_END);
+		assertTrue(new OrientationRules(false, null).applyZhangOrientationRule1(graph, varNames));
+		assertEquals(1, firings[1]);
+	}
+}
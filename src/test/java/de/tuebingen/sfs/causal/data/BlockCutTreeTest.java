@@ -0,0 +1,184 @@
+package de.tuebingen.sfs.causal.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+public class BlockCutTreeTest extends TestCase
+{
+	static CausalGraph randomGraph(Random random, int numVars, double linkProbability)
+	{
+		CausalGraph graph = new CausalGraph(CausalGraphTest.varNames(numVars), false);
+		for (int var1 = 0; var1 < numVars; var1++)
+		{
+			for (int var2 = var1 + 1; var2 < numVars; var2++)
+			{
+				if (random.nextDouble() < linkProbability) graph.addLink(var1, var2);
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Exhaustive search for the variables on simple paths of at most maxLength links between var1 and var2.
+	 */
+	static Set<Integer> nodesOnPathsBetween(CausalGraph graph, int var1, int var2, int maxLength)
+	{
+		Set<Integer> nodes = new TreeSet<Integer>();
+		List<Integer> path = new ArrayList<Integer>();
+		path.add(var1);
+		extendPath(graph, path, var2, maxLength, nodes);
+		nodes.remove(var1);
+		return nodes;
+	}
+
+	static void extendPath(CausalGraph graph, List<Integer> path, int var2, int maxLength, Set<Integer> nodes)
+	{
+		for (int neighbor : graph.getNeighbors(path.get(path.size() - 1)))
+		{
+			if (path.contains(neighbor)) continue;
+			if (neighbor == var2)
+			{
+				nodes.addAll(path);
+			}
+			else if (path.size() < maxLength)
+			{
+				path.add(neighbor);
+				extendPath(graph, path, var2, maxLength, nodes);
+				path.remove(path.size() - 1);
+			}
+		}
+	}
+
+	public void testAgreesWithExhaustiveSearch()
+	{
+		Random random = new Random(1);
+		for (int round = 0; round < 60; round++)
+		{
+			int numVars = 4 + random.nextInt(8);
+			CausalGraph graph = randomGraph(random, numVars, 0.1 + 0.4 * random.nextDouble());
+			BlockCutTree tree = graph.getBlockCutTree();
+			for (int var1 = 0; var1 < numVars; var1++)
+			{
+				for (int var2 = 0; var2 < numVars; var2++)
+				{
+					if (var1 == var2) continue;
+					assertEquals(nodesOnPathsBetween(graph, var1, var2, numVars), tree.getNodesOnPathsBetween(var1, var2));
+					for (int maxLength = 0; maxLength <= numVars; maxLength++)
+					{
+						assertEquals("maxLength " + maxLength, nodesOnPathsBetween(graph, var1, var2, maxLength),
+								graph.getNodesOnAcyclicPathsBetween(var1, var2, maxLength));
+					}
+				}
+			}
+		}
+	}
+
+	public void testTreeIsRebuiltAfterSkeletonChanges()
+	{
+		Random random = new Random(2);
+		CausalGraph graph = randomGraph(random, 10, 0.4);
+		for (int round = 0; round < 20; round++)
+		{
+			int var1 = random.nextInt(10);
+			int var2 = (var1 + 1 + random.nextInt(9)) % 10;
+			if (graph.hasLink(var1, var2)) graph.removeLink(var1, var2);
+			else graph.addLink(var1, var2);
+			for (int maxLength = 2; maxLength <= 6; maxLength++)
+			{
+				assertEquals(nodesOnPathsBetween(graph, 0, 9, maxLength), graph.getNodesOnAcyclicPathsBetween(0, 9, maxLength));
+			}
+		}
+	}
+
+	public void testSearchIsGivenUpAfterMaxSteps()
+	{
+		//cycle 0 - 2 - 1 - 3 - 4 - 5 - 6 - 0 with 2 - 7 - 4, where 7 is within 2 + 2 links of 0 and 1 via 2,
+		//but only on simple paths of 5 or more links
+		CausalGraph graph = new CausalGraph(CausalGraphTest.varNames(8), false);
+		int[][] links = {{0, 2}, {2, 1}, {1, 3}, {3, 4}, {4, 5}, {5, 6}, {6, 0}, {2, 7}, {7, 4}};
+		for (int[] link : links)
+		{
+			graph.addLink(link[0], link[1]);
+		}
+		BlockCutTree tree = graph.getBlockCutTree();
+		assertEquals(Collections.singleton(2), tree.getNodesOnPathsBetween(0, 1, 4));
+		assertEquals(new TreeSet<Integer>(Arrays.asList(2, 7)), tree.getNodesOnPathsBetween(0, 1, 4, 0));
+		assertEquals(nodesOnPathsBetween(graph, 0, 1, 5), tree.getNodesOnPathsBetween(0, 1, 5, 100));
+		//on random graphs, the approximation contains the exact result, and the next query is exact again
+		Random random = new Random(3);
+		for (int round = 0; round < 20; round++)
+		{
+			graph = randomGraph(random, 10, 0.3);
+			tree = graph.getBlockCutTree();
+			for (int maxLength = 4; maxLength <= 6; maxLength++)
+			{
+				Set<Integer> exact = nodesOnPathsBetween(graph, 0, 9, maxLength);
+				assertEquals(exact, tree.getNodesOnPathsBetween(0, 9, maxLength, Long.MAX_VALUE));
+				Set<Integer> approximation = tree.getNodesOnPathsBetween(0, 9, maxLength, 0);
+				assertTrue(approximation.containsAll(exact));
+				assertEquals(exact, tree.getNodesOnPathsBetween(0, 9, maxLength));
+			}
+		}
+	}
+
+	public void testConcurrentQueriesOnSnapshot() throws Exception
+	{
+		Random random = new Random(4);
+		final int numVars = 30;
+		final CausalGraph graph = randomGraph(random, numVars, 0.12).readOnlySnapshot();
+		final List<Set<Integer>> expected = new ArrayList<Set<Integer>>();
+		for (int var1 = 0; var1 < numVars; var1++)
+		{
+			for (int var2 = 0; var2 < numVars; var2++)
+			{
+				expected.add(nodesOnPathsBetween(graph, var1, var2, 4));
+			}
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int task = 0; task < 8; task++)
+			{
+				results.add(executor.submit(new Callable<Boolean>()
+				{
+					public Boolean call()
+					{
+						for (int round = 0; round < 10; round++)
+						{
+							for (int var1 = 0; var1 < numVars; var1++)
+							{
+								for (int var2 = 0; var2 < numVars; var2++)
+								{
+									if (var1 == var2) continue;
+									Set<Integer> nodes = graph.getNodesOnAcyclicPathsBetween(var1, var2, 4);
+									if (!nodes.equals(expected.get(var1 * numVars + var2))) return false;
+								}
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results)
+			{
+				assertTrue(result.get());
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,410 @@
+package de.tuebingen.sfs.causal.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class CausalGraphTest extends TestCase
+{
+	static String[] varNames(int numVars)
+	{
+		String[] varNames = new String[numVars];
+		for (int var = 0; var < numVars; var++)
+		{
+			varNames[var] = "V" + var;
+		}
+		return varNames;
+	}
+
+	/**
+	 * A o-o B o-o Z o-o X o-o Y reaches the link X-Y before the longer path A o-o B o-o P o-o Q o-o R o-o X o-o Y,
+	 * but the only way on to G is Y o-o W o-o Z o-o T o-o G, which passes through Z. Z cannot be left towards
+	 * W or T when entered from B, or entered from X after R, since the bidirected links B <-> W, B <-> T and
+	 * R <-> Z cover these triples without being on any uncovered circle or potentially directed path.
+	 */
+	public static final int A = 0, B = 1, Z = 2, X = 3, Y = 4, P = 5, Q = 6, R = 7, W = 8, T = 9, G = 10;
+
+	public static CausalGraph blockingGraph(int storageType)
+	{
+		CausalGraph graph = new CausalGraph(varNames(11), false, storageType);
+		int[][] links = {{A, B}, {B, Z}, {Z, X}, {X, Y}, {B, P}, {P, Q}, {Q, R}, {R, X}, {Y, W}, {W, Z}, {Z, T}, {T, G}};
+		for (int[] link : links)
+		{
+			graph.addLink(link[0], link[1]);
+		}
+		int[][] bidirectedLinks = {{B, W}, {B, T}, {R, Z}};
+		for (int[] link : bidirectedLinks)
+		{
+			graph.addLink(link[0], link[1]);
+			graph.putArrow(link[0], link[1], true);
+			graph.putArrow(link[1], link[0], true);
+		}
+		return graph;
+	}
+
+	public void testUncoveredPathThroughVariableOnShortestPath()
+	{
+		for (int storageType : new int[] {CausalGraph.DENSE_STORAGE, CausalGraph.SPARSE_STORAGE})
+		{
+			CausalGraph graph = blockingGraph(storageType);
+			List<Integer> expected = Arrays.asList(A, B, P, Q, R, X, Y, W, Z, T, G);
+			//the polynomial search misses the path
+			assertNull(graph.findUncoveredCirclePath(A, B, G, -1));
+			assertNull(graph.findUncoveredPotentiallyDirectedPath(A, B, G));
+			//the exact search finds it within its budget, but not with a small one
+			assertEquals(expected, graph.findUncoveredCirclePath(A, B, G, -1, Long.MAX_VALUE));
+			assertEquals(expected, graph.findUncoveredPotentiallyDirectedPath(A, B, G, 1000));
+			assertEquals(expected, graph.findUncoveredCirclePath(A, B, G, A, 1000));
+			assertNull(graph.findUncoveredCirclePath(A, B, G, -1, 5));
+			//T is adjacent to B, so the path cannot end with T o-o G
+			assertNull(graph.findUncoveredCirclePath(A, B, G, B, Long.MAX_VALUE));
+			assertEquals(1, graph.getUncoveredCirclePathsBetween(A, G, 11).size());
+		}
+	}
+
+	static CausalGraph randomPag(Random random, int numVars, double linkProbability)
+	{
+		CausalGraph graph = new CausalGraph(varNames(numVars), false);
+		int[] symbols = {CausalGraph.CIRCLE_END, CausalGraph.CIRCLE_END, CausalGraph.CIRCLE_END, CausalGraph.ARROW_END, CausalGraph.LINE_END};
+		for (int var1 = 0; var1 < numVars; var1++)
+		{
+			for (int var2 = var1 + 1; var2 < numVars; var2++)
+			{
+				if (random.nextDouble() >= linkProbability) continue;
+				graph.addLink(var1, var2);
+				graph.setEndSymbol(var1, var2, symbols[random.nextInt(symbols.length)]);
+				graph.setEndSymbol(var2, var1, symbols[random.nextInt(symbols.length)]);
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * @return whether one of the enumerated paths (without var1 and var2) starts with firstVar and ends with a
+	 *         variable not adjacent to nonAdjacentVar
+	 */
+	static boolean hasPath(CausalGraph graph, List<List<Integer>> paths, int firstVar, int nonAdjacentVar)
+	{
+		for (List<Integer> path : paths)
+		{
+			if (path.isEmpty() || path.get(0) != firstVar) continue;
+			if (nonAdjacentVar < 0 || !graph.hasLink(path.get(path.size() - 1), nonAdjacentVar)) return true;
+		}
+		return false;
+	}
+
+	static void checkWitness(CausalGraph graph, List<Integer> path, boolean circlePath, int nonAdjacentVar)
+	{
+		for (int i = 0; i < path.size(); i++)
+		{
+			assertEquals(i, path.indexOf(path.get(i)));
+			if (i == 0) continue;
+			int var1 = path.get(i - 1);
+			int var2 = path.get(i);
+			assertTrue(graph.hasLink(var1, var2));
+			if (circlePath)
+			{
+				assertEquals(CausalGraph.CIRCLE_END, graph.getEndSymbol(var1, var2));
+				assertEquals(CausalGraph.CIRCLE_END, graph.getEndSymbol(var2, var1));
+			}
+			else
+			{
+				assertTrue(graph.getEndSymbol(var2, var1) != CausalGraph.ARROW_END);
+				assertTrue(graph.getEndSymbol(var1, var2) != CausalGraph.LINE_END);
+			}
+			if (i > 1) assertFalse(graph.hasLink(path.get(i - 2), var2));
+		}
+		if (nonAdjacentVar >= 0) assertFalse(graph.hasLink(path.get(path.size() - 2), nonAdjacentVar));
+	}
+
+	public void testUncoveredPathsAgreeWithEnumeration()
+	{
+		Random random = new Random(1);
+		for (int round = 0; round < 300; round++)
+		{
+			int numVars = 4 + random.nextInt(8);
+			CausalGraph graph = randomPag(random, numVars, 0.2 + 0.4 * random.nextDouble());
+			for (int var1 = 0; var1 < numVars; var1++)
+			{
+				for (int var2 = 0; var2 < numVars; var2++)
+				{
+					if (var1 == var2) continue;
+					List<List<Integer>> circlePaths = graph.getUncoveredCirclePathsBetween(var1, var2, numVars);
+					List<List<Integer>> directedPaths = graph.getUncoveredPotentiallyDirectedPathsBetween(var1, var2, numVars);
+					for (int firstVar : graph.getNeighbors(var1))
+					{
+						if (firstVar == var2) continue;
+						boolean hasDirectedPath = hasPath(graph, directedPaths, firstVar, -1);
+						List<Integer> directedPath = graph.findUncoveredPotentiallyDirectedPath(var1, firstVar, var2, Long.MAX_VALUE);
+						assertEquals(hasDirectedPath, directedPath != null);
+						if (directedPath != null) checkWitness(graph, directedPath, false, -1);
+						//the polynomial search only finds existing paths
+						directedPath = graph.findUncoveredPotentiallyDirectedPath(var1, firstVar, var2);
+						if (directedPath != null) checkWitness(graph, directedPath, false, -1);
+						assertTrue(hasDirectedPath || directedPath == null);
+						for (int nonAdjacentVar : new int[] {-1, var1})
+						{
+							boolean hasCirclePath = hasPath(graph, circlePaths, firstVar, nonAdjacentVar);
+							List<Integer> circlePath = graph.findUncoveredCirclePath(var1, firstVar, var2, nonAdjacentVar, Long.MAX_VALUE);
+							assertEquals(hasCirclePath, circlePath != null);
+							if (circlePath != null) checkWitness(graph, circlePath, true, nonAdjacentVar);
+							circlePath = graph.findUncoveredCirclePath(var1, firstVar, var2, nonAdjacentVar);
+							if (circlePath != null) checkWitness(graph, circlePath, true, nonAdjacentVar);
+							assertTrue(hasCirclePath || circlePath == null);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies the change {type, var1, var2, value} to the graph, unless it does not apply to the current state.
+	 */
+	static void apply(CausalGraph graph, int[] change)
+	{
+		int var1 = change[1];
+		int var2 = change[2];
+		switch (change[0])
+		{
+			case 0: graph.addLink(var1, var2); break;
+			case 1: if (!graph.hasPresetLink(var1, var2)) graph.removeLink(var1, var2); break;
+			case 2: graph.setEndSymbol(var1, var2, change[3] % 3); break;
+			case 3: graph.markEndAsPreset(var1, var2, change[3] % 2 == 0); break;
+			case 4: graph.putPresetLink(var1, var2, change[3] % 2 == 0); break;
+			case 5: graph.setUndeletableLink(var1, var2, change[3] % 2 == 0); break;
+			default: if (graph.hasLink(var1, var2)) graph.setRemainingLinkStrength(var1, var2, change[3] / 10.0);
+		}
+	}
+
+	static String state(CausalGraph graph)
+	{
+		StringBuilder state = new StringBuilder();
+		for (int var1 = 0; var1 < graph.varNames.length; var1++)
+		{
+			state.append(graph.getNeighbors(var1) + " " + graph.getNumNeighbors(var1) + "\n");
+			for (int var2 = 0; var2 < graph.varNames.length; var2++)
+			{
+				if (var1 == var2) continue;
+				state.append(var1 + "," + var2 + ": " + graph.hasLink(var1, var2) + " " + graph.getEndSymbol(var1, var2)
+						+ " " + graph.hasPresetEnd(var1, var2) + " " + graph.hasPresetLink(var1, var2) + " "
+						+ graph.hasUndeletableLink(var1, var2) + " " + graph.getRemainingLinkStrength(var1, var2) + "\n");
+			}
+		}
+		return state.toString();
+	}
+
+	/**
+	 * @return a graph on which all changes are replayed from scratch, without any snapshots
+	 */
+	static CausalGraph replay(List<int[]> changes, int numVars, int storageType)
+	{
+		CausalGraph graph = new CausalGraph(varNames(numVars), false, storageType);
+		for (int[] change : changes)
+		{
+			apply(graph, change);
+		}
+		return graph;
+	}
+
+	public void testSnapshotsAreIsolated()
+	{
+		Random random = new Random(4);
+		int numVars = 8;
+		for (int storageType : new int[] {CausalGraph.DENSE_STORAGE, CausalGraph.SPARSE_STORAGE})
+		{
+			//snapshots of the original graph and of other snapshots, each with the changes it has seen
+			List<CausalGraph> graphs = new ArrayList<CausalGraph>();
+			List<List<int[]>> changes = new ArrayList<List<int[]>>();
+			graphs.add(new CausalGraph(varNames(numVars), false, storageType));
+			changes.add(new ArrayList<int[]>());
+			List<CausalGraph> readOnlyGraphs = new ArrayList<CausalGraph>();
+			List<String> readOnlyStates = new ArrayList<String>();
+			for (int step = 0; step < 300; step++)
+			{
+				int i = random.nextInt(graphs.size());
+				double choice = random.nextDouble();
+				if (choice < 0.05 && graphs.size() < 12)
+				{
+					graphs.add(graphs.get(i).snapshot());
+					changes.add(new ArrayList<int[]>(changes.get(i)));
+				}
+				else if (choice < 0.1)
+				{
+					readOnlyGraphs.add(graphs.get(i).readOnlySnapshot());
+					readOnlyStates.add(state(graphs.get(i)));
+				}
+				else
+				{
+					int var1 = random.nextInt(numVars);
+					int var2 = (var1 + 1 + random.nextInt(numVars - 1)) % numVars;
+					//links are added more often than other changes, so that the graphs do not stay empty
+					int type = (random.nextDouble() < 0.3) ? 0 : random.nextInt(7);
+					int[] change = {type, var1, var2, random.nextInt(12)};
+					apply(graphs.get(i), change);
+					changes.get(i).add(change);
+				}
+				for (int j = 0; j < graphs.size(); j++)
+				{
+					assertEquals("step " + step, state(replay(changes.get(j), numVars, storageType)), state(graphs.get(j)));
+				}
+				for (int j = 0; j < readOnlyGraphs.size(); j++)
+				{
+					assertEquals("step " + step, readOnlyStates.get(j), state(readOnlyGraphs.get(j)));
+				}
+			}
+			assertFalse(readOnlyGraphs.isEmpty());
+		}
+	}
+
+	public void testReadOnlySnapshotCannotBeChanged()
+	{
+		for (int storageType : new int[] {CausalGraph.DENSE_STORAGE, CausalGraph.SPARSE_STORAGE})
+		{
+			CausalGraph graph = blockingGraph(storageType);
+			CausalGraph readOnlyGraph = graph.readOnlySnapshot();
+			String state = state(readOnlyGraph);
+			int[][] changes = {{0, A, G, 0}, {1, A, B, 0}, {2, A, B, 2}, {3, A, B, 0}, {4, A, B, 0}, {5, A, B, 0}, {6, A, B, 5}};
+			for (int[] change : changes)
+			{
+				try
+				{
+					apply(readOnlyGraph, change);
+					fail("change " + change[0] + " of a read-only snapshot");
+				}
+				catch (UnsupportedOperationException e)
+				{
+				}
+			}
+			assertEquals(state, state(readOnlyGraph));
+			assertEquals(state(graph), state);
+		}
+	}
+
+	/**
+	 * @return the state of the graph together with the results of the queries which are implemented by each storage
+	 */
+	static String queries(CausalGraph graph)
+	{
+		StringBuilder queries = new StringBuilder(state(graph));
+		queries.append(graph.listAllLinks() + "\n" + graph.listAllDeletableLinks() + "\n" + graph.listAllLinksInBothDirections() + "\n");
+		queries.append(Arrays.toString(graph.listUnshieldedTripleArray()) + "\n");
+		for (int var1 = 0; var1 < graph.varNames.length; var1++)
+		{
+			for (int var2 = var1 + 1; var2 < graph.varNames.length; var2++)
+			{
+				queries.append(graph.getSharedNeighbors(var1, var2) + " ");
+			}
+		}
+		return queries.toString();
+	}
+
+	public void testSparseStorageEqualsDenseStorage()
+	{
+		Random random = new Random(5);
+		for (int numVars : new int[] {2, 7, 40})
+		{
+			for (boolean completeGraph : new boolean[] {false, true})
+			{
+				CausalGraph dense = new CausalGraph(varNames(numVars), completeGraph, CausalGraph.DENSE_STORAGE);
+				CausalGraph sparse = new CausalGraph(varNames(numVars), completeGraph, CausalGraph.SPARSE_STORAGE);
+				assertEquals(queries(dense), queries(sparse));
+				for (int step = 0; step < 400; step++)
+				{
+					int var1 = random.nextInt(numVars);
+					int var2 = (var1 + 1 + random.nextInt(numVars - 1)) % numVars;
+					//links are removed more often in complete graphs, so that both kinds of graphs become sparse
+					int type = (random.nextDouble() < 0.3) ? (completeGraph ? 1 : 0) : random.nextInt(7);
+					int[] change = {type, var1, var2, random.nextInt(12)};
+					apply(dense, change);
+					apply(sparse, change);
+					if (step % 20 == 0) assertEquals("step " + step, queries(dense), queries(sparse));
+				}
+				assertEquals(queries(dense), queries(sparse));
+			}
+		}
+	}
+
+	/**
+	 * @return the unshielded triples of the graph by checking all triples of variables, in the order of listUnshieldedTriples()
+	 */
+	static List<Integer> unshieldedTriples(CausalGraph graph)
+	{
+		int numVars = graph.varNames.length;
+		List<Integer> triples = new ArrayList<Integer>();
+		for (int cause1 = 0; cause1 < numVars; cause1++)
+		{
+			for (int cause2 = cause1 + 1; cause2 < numVars; cause2++)
+			{
+				if (graph.hasLink(cause1, cause2)) continue;
+				for (int dependent = 0; dependent < numVars; dependent++)
+				{
+					if (dependent == cause1 || dependent == cause2) continue;
+					if (!graph.hasLink(cause1, dependent) || !graph.hasLink(cause2, dependent)) continue;
+					if (graph.hasPresetArrow(dependent, cause1) || graph.hasPresetArrow(dependent, cause2)) continue;
+					triples.addAll(Arrays.asList(cause1, cause2, dependent));
+				}
+			}
+		}
+		return triples;
+	}
+
+	public void testUnshieldedTriplesEqualTriplesFromAllTriples()
+	{
+		Random random = new Random(8);
+		int numTriples = 0;
+		int numExcluded = 0;
+		for (int storageType : new int[] {CausalGraph.DENSE_STORAGE, CausalGraph.SPARSE_STORAGE})
+		{
+			for (int numVars : new int[] {3, 12, 70})
+			{
+				for (double linkProbability : new double[] {0.05, 0.3, 0.9})
+				{
+					CausalGraph graph = new CausalGraph(varNames(numVars), true, storageType);
+					for (int var1 = 0; var1 < numVars; var1++)
+					{
+						for (int var2 = var1 + 1; var2 < numVars; var2++)
+						{
+							if (random.nextDouble() >= linkProbability) graph.removeLink(var1, var2);
+						}
+					}
+					for (int i = 0; i < numVars / 3; i++)
+					{
+						int var1 = random.nextInt(numVars);
+						int var2 = (var1 + 1 + random.nextInt(numVars - 1)) % numVars;
+						//preset arrows into a cause exclude the triple
+						graph.setEndSymbol(var1, var2, CausalGraph.ARROW_END);
+						graph.markEndAsPreset(var1, var2, true);
+					}
+					List<Integer> expected = unshieldedTriples(graph);
+					numTriples += expected.size();
+					List<Integer> triples = new ArrayList<Integer>();
+					for (int triple : graph.listUnshieldedTripleArray())
+					{
+						triples.add(triple);
+					}
+					assertEquals(expected, triples);
+					List<Integer> tripleList = new ArrayList<Integer>();
+					for (Integer[] triple : graph.listUnshieldedTriples())
+					{
+						tripleList.addAll(Arrays.asList(triple));
+					}
+					assertEquals(expected, tripleList);
+					for (int var1 = 0; var1 < numVars; var1++)
+					{
+						for (int var2 = 0; var2 < numVars; var2++)
+						{
+							graph.markEndAsPreset(var1, var2, false);
+						}
+					}
+					numExcluded += unshieldedTriples(graph).size() - expected.size();
+				}
+			}
+		}
+		assertTrue(numTriples > 0);
+		assertTrue(numExcluded > 0);
+	}
+}
@@ -0,0 +1,146 @@
+package de.tuebingen.sfs.causal.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+public class PathNeighborSearchTest extends TestCase
+{
+	/**
+	 * Neighbors of var1 from which var2 can be reached in at most maxDepth links without passing through var1,
+	 * and vice versa, by an exhaustive search.
+	 */
+	static Set<Integer> neighborsOnPaths(CausalGraph graph, int var1, int var2, int maxDepth)
+	{
+		Set<Integer> neighbors = new TreeSet<Integer>();
+		for (int[] vars : new int[][] {{var1, var2}, {var2, var1}})
+		{
+			for (int neighbor : graph.getNeighbors(vars[0]))
+			{
+				if (neighbor == vars[1]) continue;
+				Set<Integer> reached = new TreeSet<Integer>();
+				reached.add(neighbor);
+				for (int depth = 0; depth < maxDepth && !reached.contains(vars[1]); depth++)
+				{
+					for (int var : new ArrayList<Integer>(reached))
+					{
+						for (int next : graph.getNeighbors(var))
+						{
+							if (next != vars[0]) reached.add(next);
+						}
+					}
+				}
+				if (reached.contains(vars[1])) neighbors.add(neighbor);
+			}
+		}
+		return neighbors;
+	}
+
+	static int[] toArray(Set<Integer> vars)
+	{
+		int[] array = new int[vars.size()];
+		int i = 0;
+		for (int var : vars)
+		{
+			array[i++] = var;
+		}
+		return array;
+	}
+
+	public void testBatchAgreesWithSingleQueries()
+	{
+		Random random = new Random(1);
+		for (int round = 0; round < 50; round++)
+		{
+			int numVars = 4 + random.nextInt(16);
+			CausalGraph graph = BlockCutTreeTest.randomGraph(random, numVars, 0.1 + 0.4 * random.nextDouble());
+			PathNeighborSearch search = new PathNeighborSearch(graph);
+			//all links, as in a PC* level, and some pairs which are not linked, with repetitions
+			List<int[]> pairs = new ArrayList<int[]>();
+			for (int var1 = 0; var1 < numVars; var1++)
+			{
+				for (int var2 = var1 + 1; var2 < numVars; var2++)
+				{
+					if (graph.hasLink(var1, var2) || random.nextDouble() < 0.2) pairs.add(new int[] {var1, var2});
+				}
+			}
+			pairs.add(pairs.get(0));
+			int[] vars1 = new int[pairs.size()];
+			int[] vars2 = new int[pairs.size()];
+			for (int pair = 0; pair < pairs.size(); pair++)
+			{
+				vars1[pair] = pairs.get(pair)[random.nextInt(2)];
+				vars2[pair] = pairs.get(pair)[0] + pairs.get(pair)[1] - vars1[pair];
+			}
+			for (int maxDepth = 0; maxDepth <= 3; maxDepth++)
+			{
+				int[][] batch = search.getNeighborArrays(vars1, vars2, maxDepth);
+				for (int pair = 0; pair < vars1.length; pair++)
+				{
+					int[] expected = toArray(neighborsOnPaths(graph, vars1[pair], vars2[pair], maxDepth));
+					assertTrue(Arrays.equals(expected, search.getNeighborArray(vars1[pair], vars2[pair], maxDepth)));
+					assertTrue("maxDepth " + maxDepth, Arrays.equals(expected, batch[pair]));
+				}
+			}
+		}
+	}
+
+	public void testConcurrentQueriesOnGraph() throws Exception
+	{
+		Random random = new Random(2);
+		final int numVars = 60;
+		final CausalGraph graph = BlockCutTreeTest.randomGraph(random, numVars, 0.08).readOnlySnapshot();
+		final List<Set<Integer>> expected = new ArrayList<Set<Integer>>();
+		for (int var1 = 0; var1 < numVars; var1++)
+		{
+			for (int var2 = 0; var2 < numVars; var2++)
+			{
+				expected.add(neighborsOnPaths(graph, var1, var2, 2));
+			}
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int task = 0; task < 8; task++)
+			{
+				results.add(executor.submit(new Callable<Boolean>()
+				{
+					public Boolean call()
+					{
+						for (int round = 0; round < 20; round++)
+						{
+							for (int var1 = 0; var1 < numVars; var1++)
+							{
+								for (int var2 = 0; var2 < numVars; var2++)
+								{
+									if (var1 == var2) continue;
+									Set<Integer> neighbors = graph.getNeighborsOnAcyclicPathsBetween(var1, var2, 2);
+									if (!neighbors.equals(expected.get(var1 * numVars + var2))) return false;
+								}
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results)
+			{
+				assertTrue(result.get());
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package de.tuebingen.sfs.causal.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class SepSetStoreTest extends TestCase
+{
+	public void testDuplicatesAreCounted()
+	{
+		SepSetStore store = new SepSetStore();
+		store.add(2, 5, new int[] {4, 1}, 2);
+		store.add(5, 2, new int[] {1, 4, 7}, 2);
+		store.add(2, 5, new int[] {3, 3, 1}, 3);
+		assertEquals(3, store.size(2, 5));
+		assertEquals(3, store.size(5, 2));
+		//the same separating set is stored twice, but only once per pair and order
+		assertEquals(2, store.countContaining(2, 5, 4));
+		assertEquals(3, store.countContaining(5, 2, 1));
+		assertEquals(1, store.countContaining(2, 5, 3));
+		assertEquals(0, store.countContaining(2, 5, 7));
+		assertSame(store.get(2, 5, 0), store.get(2, 5, 1));
+		assertEquals("[[1, 4], [1, 4], [1, 3]]", store.getSepSets(2, 5).toString());
+		assertEquals(1, store.getNumPairs());
+		assertEquals(2, store.getNumDistinctSepSets());
+	}
+
+	public void testEqualSepSetsAreShared()
+	{
+		SepSetStore store = new SepSetStore();
+		store.add(0, 1, new int[] {5, 3}, 2);
+		store.add(2, 1, new int[] {3, 5}, 2);
+		store.add(0, 2, new int[0], 0);
+		store.add(3, 4, new int[0], 0);
+		assertSame(store.get(1, 0, 0), store.get(1, 2, 0));
+		assertSame(store.get(2, 0, 0), store.get(4, 3, 0));
+		assertEquals(0, store.get(2, 0, 0).length);
+		assertEquals(4, store.getNumPairs());
+		assertEquals(1, store.getNumDistinctSepSets());
+		try
+		{
+			store.get(0, 1, 1);
+			fail("the pair has only one separating set");
+		}
+		catch (IndexOutOfBoundsException e)
+		{
+		}
+	}
+
+	public void testAgreesWithListsOfSets()
+	{
+		Random random = new Random(1);
+		int numVars = 10;
+		SepSetStore store = new SepSetStore();
+		Map<Long,List<Set<Integer>>> reference = new HashMap<Long,List<Set<Integer>>>();
+		for (int step = 0; step < 3000; step++)
+		{
+			int var1 = random.nextInt(numVars);
+			int var2 = (var1 + 1 + random.nextInt(numVars - 1)) % numVars;
+			long key = Math.min(var1, var2) * numVars + Math.max(var1, var2);
+			if (random.nextDouble() < 0.1)
+			{
+				store.remove(var1, var2);
+				reference.remove(key);
+				continue;
+			}
+			int[] vars = new int[4];
+			int numSepSetVars = random.nextInt(vars.length + 1);
+			Set<Integer> sepSet = new TreeSet<Integer>();
+			for (int i = 0; i < numSepSetVars; i++)
+			{
+				vars[i] = random.nextInt(numVars);
+				sepSet.add(vars[i]);
+			}
+			store.add(var1, var2, vars, numSepSetVars);
+			if (!reference.containsKey(key)) reference.put(key, new ArrayList<Set<Integer>>());
+			reference.get(key).add(sepSet);
+		}
+		for (int var1 = 0; var1 < numVars; var1++)
+		{
+			for (int var2 = 0; var2 < numVars; var2++)
+			{
+				if (var1 == var2) continue;
+				List<Set<Integer>> sepSets = reference.get((long) Math.min(var1, var2) * numVars + Math.max(var1, var2));
+				assertEquals(sepSets != null, store.hasSepSets(var1, var2));
+				assertEquals(sepSets, store.getSepSets(var1, var2));
+				assertEquals((sepSets == null) ? 0 : sepSets.size(), store.size(var1, var2));
+				for (int var = 0; var < numVars; var++)
+				{
+					int numContaining = 0;
+					for (int i = 0; sepSets != null && i < sepSets.size(); i++)
+					{
+						if (sepSets.get(i).contains(var)) numContaining++;
+						assertEquals(sepSets.get(i).contains(var), SepSetStore.contains(store.get(var1, var2, i), var));
+					}
+					assertEquals(numContaining, store.countContaining(var1, var2, var));
+				}
+			}
+		}
+		assertEquals(reference.size(), store.getNumPairs());
+	}
+}
@@ -0,0 +1,113 @@
+package de.tuebingen.sfs.causal.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.data.CausalGraphInput;
+import de.tuebingen.sfs.util.struct.Triple;
+import junit.framework.TestCase;
+
+public class PartitionSamplerTest extends TestCase
+{
+	RandomCausalModel model;
+	File file;
+
+	protected void setUp() throws IOException
+	{
+		model = new RandomCausalModel(30, 1.5, 3, 4, 7);
+		file = File.createTempFile("partitions", ".tsv");
+	}
+
+	protected void tearDown()
+	{
+		file.delete();
+	}
+
+	public void testWrittenPartitionsEqualSampledPartitions() throws IOException
+	{
+		PrintStream out = new PrintStream(file);
+		new PartitionSampler(model, 0.6, 0.1, 11).writePartitions(200, out);
+		out.close();
+		List<Set<Set<Triple<String,String,String>>>> partitions = PartitionSampler.readPartitions(file.getPath());
+		List<Set<Set<Triple<String,String,String>>>> sampled = new PartitionSampler(model, 0.6, 0.1, 11).samplePartitions(200);
+		assertEquals(200, partitions.size());
+		assertEquals(sampled, partitions);
+		//classes are inherited, so that some sets have more than one element
+		int maxSetSize = 0;
+		for (Set<Set<Triple<String,String,String>>> partition : sampled)
+		{
+			for (Set<Triple<String,String,String>> set : partition)
+			{
+				maxSetSize = Math.max(maxSetSize, set.size());
+			}
+		}
+		assertTrue(maxSetSize > 1);
+		//another seed gives other partitions
+		assertFalse(sampled.equals(new PartitionSampler(model, 0.6, 0.1, 12).samplePartitions(200)));
+	}
+
+	public void testThresholdsRoundTrip() throws IOException
+	{
+		for (double threshold : new double[] {2.5, 0.1, 1.0 / 3})
+		{
+			PrintStream out = new PrintStream(file);
+			PartitionSampler.writeUniformThresholds(7, threshold, out);
+			out.close();
+			double[][] thresholds = PartitionSampler.readThresholds(file.getPath());
+			assertEquals(7, thresholds.length);
+			for (double[] row : thresholds)
+			{
+				double[] expected = new double[7];
+				Arrays.fill(expected, threshold);
+				assertTrue(Arrays.equals(expected, row));
+			}
+		}
+	}
+
+	public void testGraphRoundTrip() throws IOException
+	{
+		PrintStream out = new PrintStream(file);
+		model.writeInTextFormat(out);
+		out.close();
+		CausalGraph graph = CausalGraphInput.loadFromTextFormat(file.getPath());
+		CausalGraph expected = model.toCausalGraph(CausalGraph.DENSE_STORAGE);
+		assertTrue(Arrays.equals(expected.varNames, graph.varNames));
+		int numLinks = 0;
+		int numBidirected = 0;
+		for (int var1 = 0; var1 < model.numObserved; var1++)
+		{
+			for (int var2 = 0; var2 < model.numObserved; var2++)
+			{
+				if (var1 == var2) continue;
+				assertEquals(expected.hasLink(var1, var2), graph.hasLink(var1, var2));
+				if (!expected.hasLink(var1, var2)) continue;
+				assertEquals(expected.getEndSymbol(var1, var2), graph.getEndSymbol(var1, var2));
+				numLinks++;
+				if (graph.getEndSymbol(var1, var2) == CausalGraph.ARROW_END && graph.getEndSymbol(var2, var1) == CausalGraph.ARROW_END) numBidirected++;
+			}
+		}
+		assertTrue(numLinks > 0);
+		//the latent confounders induce bidirected links
+		assertTrue(numBidirected > 0);
+	}
+
+	public void testModelIsDeterminedBySeed()
+	{
+		RandomCausalModel other = new RandomCausalModel(30, 1.5, 3, 4, 7);
+		assertTrue(Arrays.deepEquals(model.parents, other.parents));
+		assertTrue(Arrays.deepEquals(model.latentChildren, other.latentChildren));
+		for (int var = 0; var < model.numObserved; var++)
+		{
+			for (int parent : model.parents[var])
+			{
+				//observed parents come first in the topological order
+				assertTrue(model.isLatent(parent) || parent < var);
+			}
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package de.tuebingen.sfs.causal.heuristics.arrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.causal.data.CausalGraphTest;
+import junit.framework.TestCase;
+
+public class OrientationRuleEngineTest extends TestCase
+{
+	static final int[] PC_RULES = {1, 2, 3};
+	static final int[] ZHANG_RULES = {1, 2, 3, 5, 6, 7, 8, 9, 10};
+
+	OrientationRules rules = new OrientationRules(false, null);
+
+	static String[] varNames(int numVars)
+	{
+		String[] varNames = new String[numVars];
+		for (int var = 0; var < numVars; var++)
+		{
+			varNames[var] = "V" + var;
+		}
+		return varNames;
+	}
+
+	/**
+	 * Skeleton of a random DAG with its v-structures oriented, as after the second phase of PC.
+	 */
+	static CausalGraph dagPattern(Random random, int numVars, double linkProbability)
+	{
+		CausalGraph graph = new CausalGraph(varNames(numVars), false);
+		boolean[][] parents = new boolean[numVars][numVars];
+		for (int child = 0; child < numVars; child++)
+		{
+			for (int parent = 0; parent < child; parent++)
+			{
+				if (random.nextDouble() < linkProbability)
+				{
+					parents[child][parent] = true;
+					graph.addLink(parent, child);
+				}
+			}
+		}
+		for (int child = 0; child < numVars; child++)
+		{
+			for (int parent1 = 0; parent1 < child; parent1++)
+			{
+				for (int parent2 = parent1 + 1; parent2 < child; parent2++)
+				{
+					if (parents[child][parent1] && parents[child][parent2] && !graph.hasLink(parent1, parent2))
+					{
+						graph.putArrow(parent1, child, true);
+						graph.putArrow(parent2, child, true);
+					}
+				}
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Random skeleton with random end symbols, some of them preset, which exercises all rules.
+	 */
+	static CausalGraph randomPag(Random random, int numVars, double linkProbability)
+	{
+		CausalGraph graph = new CausalGraph(varNames(numVars), false);
+		int[] symbols = {CausalGraph.CIRCLE_END, CausalGraph.CIRCLE_END, CausalGraph.ARROW_END, CausalGraph.LINE_END};
+		for (int var1 = 0; var1 < numVars; var1++)
+		{
+			for (int var2 = var1 + 1; var2 < numVars; var2++)
+			{
+				if (random.nextDouble() >= linkProbability) continue;
+				graph.addLink(var1, var2);
+				graph.setEndSymbol(var1, var2, symbols[random.nextInt(symbols.length)]);
+				graph.setEndSymbol(var2, var1, symbols[random.nextInt(symbols.length)]);
+				if (random.nextDouble() < 0.1) graph.markEndAsPreset(var1, var2, true);
+				if (random.nextDouble() < 0.1) graph.markEndAsPreset(var2, var1, true);
+			}
+		}
+		return graph;
+	}
+
+	boolean sweep(CausalGraph graph, String[] varNames, int rule)
+	{
+		switch (rule)
+		{
+			case 1: return rules.applyZhangOrientationRule1(graph, varNames);
+			case 2: return rules.applyZhangOrientationRule2(graph, varNames);
+			case 3: return rules.applyZhangOrientationRule3(graph, varNames);
+			case 5: return rules.applyZhangOrientationRule5(graph, varNames);
+			case 6: return rules.applyZhangOrientationRule6(graph, varNames);
+			case 7: return rules.applyZhangOrientationRule7(graph, varNames);
+			case 8: return rules.applyZhangOrientationRule8(graph, varNames);
+			case 9: return rules.applyZhangOrientationRule9(graph, varNames);
+			default: return rules.applyZhangOrientationRule10(graph, varNames);
+		}
+	}
+
+	static String endSymbols(CausalGraph graph)
+	{
+		StringBuilder symbols = new StringBuilder();
+		for (int var1 = 0; var1 < graph.varNames.length; var1++)
+		{
+			for (int var2 : graph.getNeighbors(var1))
+			{
+				symbols.append(var1 + "-" + var2 + ":" + graph.getEndSymbol(var1, var2) + " ");
+			}
+		}
+		return symbols.toString();
+	}
+
+	void checkEquivalence(CausalGraph graph, int[] ruleNumbers)
+	{
+		String[] varNames = graph.varNames;
+		CausalGraph sweptGraph = graph.snapshot();
+		boolean sweepsChanged = false;
+		boolean hasChanged = true;
+		while (hasChanged)
+		{
+			hasChanged = false;
+			for (int rule : ruleNumbers)
+			{
+				hasChanged |= sweep(sweptGraph, varNames, rule);
+			}
+			sweepsChanged |= hasChanged;
+		}
+		String before = endSymbols(graph);
+		boolean engineChanged = new OrientationRuleEngine(graph, varNames, rules, ruleNumbers).run();
+		assertEquals(endSymbols(sweptGraph), endSymbols(graph));
+		assertEquals(!before.equals(endSymbols(graph)), engineChanged);
+		assertEquals(sweepsChanged, engineChanged);
+	}
+
+	public void testPcRulesOnDagPatterns()
+	{
+		Random random = new Random(1);
+		for (int round = 0; round < 200; round++)
+		{
+			checkEquivalence(dagPattern(random, 5 + random.nextInt(20), 0.1 + 0.3 * random.nextDouble()), PC_RULES);
+		}
+	}
+
+	public void testZhangRulesOnDagPatterns()
+	{
+		Random random = new Random(2);
+		for (int round = 0; round < 200; round++)
+		{
+			checkEquivalence(dagPattern(random, 5 + random.nextInt(20), 0.1 + 0.3 * random.nextDouble()), ZHANG_RULES);
+		}
+	}
+
+	public void testZhangRulesOnRandomPags()
+	{
+		Random random = new Random(3);
+		for (int round = 0; round < 300; round++)
+		{
+			checkEquivalence(randomPag(random, 4 + random.nextInt(12), 0.2 + 0.4 * random.nextDouble()), ZHANG_RULES);
+		}
+	}
+
+	public void testRuleFourIsRejected()
+	{
+		try
+		{
+			new OrientationRuleEngine(new CausalGraph(varNames(3), true), varNames(3), 1, 4);
+			fail("R4 needs separating sets");
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+	}
+
+	public void testCallerListenerIsNotifiedAndRestored()
+	{
+		//V0 -> V1 o-o V2 is oriented to V0 -> V1 -> V2 by R1
+		CausalGraph graph = new CausalGraph(varNames(3), false);
+		graph.addLink(0, 1);
+		graph.addLink(1, 2);
+		graph.putArrow(0, 1, true);
+		final List<String> changes = new ArrayList<String>();
+		CausalGraph.EndSymbolListener listener = new CausalGraph.EndSymbolListener()
+		{
+			public void endSymbolChanged(int var1, int var2)
+			{
+				changes.add(var1 + "-" + var2);
+			}
+		};
+		graph.setEndSymbolListener(listener);
+		CausalGraph initialGraph = graph.snapshot();
+		initialGraph.setEndSymbolListener(null);
+		assertTrue(new OrientationRuleEngine(graph, graph.varNames, rules, PC_RULES).run());
+		assertSame(listener, graph.getEndSymbolListener());
+		int numChanged = 0;
+		for (int var1 = 0; var1 < graph.varNames.length; var1++)
+		{
+			for (int var2 : graph.getNeighbors(var1))
+			{
+				if (graph.getEndSymbol(var1, var2) != initialGraph.getEndSymbol(var1, var2))
+				{
+					numChanged++;
+					assertTrue(changes.contains(var1 + "-" + var2));
+				}
+			}
+		}
+		assertEquals(2, numChanged);
+		assertEquals(2, changes.size());
+		//the listener is still registered after the run
+		graph.setEndSymbol(0, 1, CausalGraph.CIRCLE_END);
+		assertEquals(3, changes.size());
+	}
+
+	public void testExactPathSearchIsOptIn()
+	{
+		//A o-> G, and the uncovered potentially directed path from A through B to G is missed by the polynomial search
+		CausalGraph graph = CausalGraphTest.blockingGraph(CausalGraph.DENSE_STORAGE);
+		int a = CausalGraphTest.A;
+		int g = CausalGraphTest.G;
+		graph.addLink(a, g);
+		graph.setEndSymbol(a, g, CausalGraph.ARROW_END);
+		assertFalse(rules.applyZhangOrientationRule9(graph, graph.varNames, a, g));
+		assertEquals(CausalGraph.CIRCLE_END, graph.getEndSymbol(g, a));
+		OrientationRules exactRules = new OrientationRules(false, null);
+		exactRules.setMaxExactPathSteps(1000);
+		assertTrue(exactRules.applyZhangOrientationRule9(graph, graph.varNames, a, g));
+		assertEquals(CausalGraph.LINE_END, graph.getEndSymbol(g, a));
+	}
+}
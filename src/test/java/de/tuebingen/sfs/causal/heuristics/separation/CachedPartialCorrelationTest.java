@@ -0,0 +1,162 @@
+package de.tuebingen.sfs.causal.heuristics.separation;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import junit.framework.TestCase;
+
+public class CachedPartialCorrelationTest extends TestCase
+{
+	static final String[] VAR_NAMES = {"A", "B", "C", "D", "E"};
+
+	/**
+	 * Reentrant measure which counts its computations, and whose result depends on the links among x, y and Z.
+	 */
+	static class CountingMeasure extends PartialCorrelation<Object>
+	{
+		CausalGraph graph;
+		int numComputations;
+
+		CountingMeasure(CausalGraph graph)
+		{
+			super(null, VAR_NAMES);
+			this.graph = graph;
+		}
+
+		public double correlation(int xVar, int yVar)
+		{
+			return partialCorrelation(xVar, yVar, new int[0], 0);
+		}
+
+		public double partialCorrelation(int xVar, int yVar, Set<Integer> zVars)
+		{
+			int[] zArray = new int[zVars.size()];
+			int i = 0;
+			for (int zVar : zVars)
+			{
+				zArray[i++] = zVar;
+			}
+			return partialCorrelation(xVar, yVar, zArray, zArray.length);
+		}
+
+		public synchronized double partialCorrelation(int xVar, int yVar, int[] zVars, int zLength)
+		{
+			numComputations++;
+			int numLinks = 0;
+			for (int i = 0; i < zLength; i++)
+			{
+				if (graph.hasLink(xVar, zVars[i])) numLinks++;
+				if (graph.hasLink(yVar, zVars[i])) numLinks++;
+			}
+			return 1.0 / (1 + zLength + numLinks);
+		}
+
+		public boolean independenceTest(double partialCorrelation, int xVar, int yVar, Set<Integer> zVars)
+		{
+			return partialCorrelation < 0.2;
+		}
+
+		public boolean isReentrant()
+		{
+			return true;
+		}
+
+		public boolean dependsOnGraph()
+		{
+			return true;
+		}
+	}
+
+	CausalGraph graph;
+	CountingMeasure measure;
+
+	protected void setUp()
+	{
+		graph = new CausalGraph(VAR_NAMES, true);
+		measure = new CountingMeasure(graph);
+	}
+
+	public void testRepeatedTestsAreServedFromCache()
+	{
+		CachedPartialCorrelation<Object> cached = new CachedPartialCorrelation<Object>(measure, graph, 100);
+		double result = cached.partialCorrelation(0, 1, new int[] {2, 3}, 2);
+		assertEquals(result, cached.partialCorrelation(0, 1, new int[] {2, 3}, 2));
+		//x and y swapped, Z reordered
+		assertEquals(result, cached.partialCorrelation(1, 0, new int[] {3, 2}, 2));
+		//only the first elements of the array are the conditioning set
+		assertEquals(result, cached.partialCorrelation(1, 0, new int[] {3, 2, 4}, 2));
+		assertEquals(result, cached.partialCorrelation(0, 1, new TreeSet<Integer>(Arrays.asList(2, 3))));
+		assertEquals(1, measure.numComputations);
+		assertEquals(4, cached.getNumHits());
+		assertEquals(1, cached.getNumMisses());
+		//a different conditioning set
+		cached.partialCorrelation(0, 1, new int[] {2}, 1);
+		cached.partialCorrelation(0, 1, new int[] {2, 4}, 2);
+		assertEquals(3, measure.numComputations);
+		assertEquals(3, cached.size());
+	}
+
+	public void testGraphEditsAmongVariablesForceRecomputation()
+	{
+		CachedPartialCorrelation<Object> cached = new CachedPartialCorrelation<Object>(measure, graph, 100);
+		cached.partialCorrelation(0, 1, new int[] {2, 3}, 2);
+		//links outside {x,y} u Z, and the link x-y itself, do not affect the result
+		graph.removeLink(0, 4);
+		graph.removeLink(0, 1);
+		cached.partialCorrelation(0, 1, new int[] {2, 3}, 2);
+		assertEquals(1, measure.numComputations);
+		//links between x and Z, and within Z
+		graph.removeLink(0, 2);
+		double result = cached.partialCorrelation(0, 1, new int[] {2, 3}, 2);
+		assertEquals(2, measure.numComputations);
+		assertEquals(measure.partialCorrelation(0, 1, new int[] {2, 3}, 2), result);
+		graph.removeLink(2, 3);
+		cached.partialCorrelation(0, 1, new int[] {2, 3}, 2);
+		assertEquals(4, measure.numComputations);
+		//restoring the links makes the first result reachable again
+		graph.addLink(0, 2);
+		graph.addLink(2, 3);
+		cached.partialCorrelation(0, 1, new int[] {2, 3}, 2);
+		assertEquals(4, measure.numComputations);
+	}
+
+	public void testLeastRecentlyUsedEntriesAreEvicted()
+	{
+		CachedPartialCorrelation<Object> cached = new CachedPartialCorrelation<Object>(measure, graph, 2);
+		cached.partialCorrelation(0, 1, new int[] {2}, 1);
+		cached.partialCorrelation(0, 1, new int[] {3}, 1);
+		//makes {2} the most recently used entry, so that {3} is evicted for {4}
+		cached.partialCorrelation(0, 1, new int[] {2}, 1);
+		cached.partialCorrelation(0, 1, new int[] {4}, 1);
+		assertEquals(2, cached.size());
+		assertEquals(3, measure.numComputations);
+		cached.partialCorrelation(0, 1, new int[] {2}, 1);
+		assertEquals(3, measure.numComputations);
+		cached.partialCorrelation(0, 1, new int[] {3}, 1);
+		assertEquals(4, measure.numComputations);
+		assertEquals(2, cached.size());
+		assertEquals(2, cached.getNumHits());
+		assertEquals(4, cached.getNumMisses());
+	}
+
+	public void testForksShareCacheAndCounters()
+	{
+		CachedPartialCorrelation<Object> cached = new CachedPartialCorrelation<Object>(measure, graph, 100);
+		assertTrue(cached.isForkable());
+		PartialCorrelation<Object> fork = cached.fork();
+		assertNotSame(cached, fork);
+		cached.partialCorrelation(0, 1, new int[] {2}, 1);
+		fork.partialCorrelation(1, 0, new int[] {2}, 1);
+		fork.partialCorrelation(0, 1, new int[] {3}, 1);
+		cached.partialCorrelation(0, 1, new int[] {3}, 1);
+		assertEquals(2, measure.numComputations);
+		assertEquals(2, cached.getNumHits());
+		assertEquals(2, cached.getNumMisses());
+		assertEquals(2, ((CachedPartialCorrelation<Object>) fork).getNumHits());
+		assertEquals(2, cached.size());
+		cached.clear();
+		assertEquals(0, ((CachedPartialCorrelation<Object>) fork).size());
+	}
+}
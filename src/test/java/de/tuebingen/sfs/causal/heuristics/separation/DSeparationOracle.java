@@ -0,0 +1,147 @@
+package de.tuebingen.sfs.causal.heuristics.separation;
+
+import java.util.Set;
+
+/**
+ * CI test oracle for tests of the algorithms: two observed variables are independent given a set of observed
+ * variables iff they are d-separated by it in a DAG, which may contain latent variables. Like a third-party
+ * measure, it is neither reentrant nor forkable unless configured otherwise.
+ */
+public class DSeparationOracle extends PartialCorrelation<boolean[][]>
+{
+	//DAG node of each observed variable
+	int[] observedNodes;
+	boolean reentrant;
+
+	/**
+	 * @param parents parents[child][parent] is true iff the DAG contains the arrow parent -> child
+	 * @param varNames names of the observed variables
+	 * @param observedNodes DAG node of each observed variable, all other nodes are latent
+	 */
+	public DSeparationOracle(boolean[][] parents, String[] varNames, int[] observedNodes)
+	{
+		super(parents, varNames);
+		this.observedNodes = observedNodes;
+	}
+
+	/**
+	 * Oracle on a DAG without latent variables.
+	 */
+	public static DSeparationOracle forDag(boolean[][] parents, String[] varNames)
+	{
+		int[] observedNodes = new int[varNames.length];
+		for (int var = 0; var < observedNodes.length; var++)
+		{
+			observedNodes[var] = var;
+		}
+		return new DSeparationOracle(parents, varNames, observedNodes);
+	}
+
+	public void setReentrant(boolean reentrant)
+	{
+		this.reentrant = reentrant;
+	}
+
+	public boolean isReentrant()
+	{
+		return reentrant;
+	}
+
+	public double correlation(int xVar, int yVar)
+	{
+		return partialCorrelation(xVar, yVar, new int[0], 0);
+	}
+
+	public double partialCorrelation(int xVar, int yVar, Set<Integer> zVars)
+	{
+		int[] zArray = new int[zVars.size()];
+		int i = 0;
+		for (int zVar : zVars)
+		{
+			zArray[i++] = zVar;
+		}
+		return partialCorrelation(xVar, yVar, zArray, zArray.length);
+	}
+
+	public double partialCorrelation(int xVar, int yVar, int[] zVars, int zLength)
+	{
+		return isDSeparated(xVar, yVar, zVars, zLength) ? 0.0 : 1.0;
+	}
+
+	public boolean independenceTest(double partialCorrelation, int xVar, int yVar, Set<Integer> zVars)
+	{
+		return partialCorrelation < 0.5;
+	}
+
+	public boolean independenceTest(double partialCorrelation, int xVar, int yVar, int[] zVars, int zLength)
+	{
+		return partialCorrelation < 0.5;
+	}
+
+	/**
+	 * Checks whether x and y are separated by z in the moral graph of the ancestors of x, y and z.
+	 */
+	public boolean isDSeparated(int xVar, int yVar, int[] zVars, int zLength)
+	{
+		boolean[][] parents = data;
+		int numNodes = parents.length;
+		boolean[] relevant = new boolean[numNodes];
+		boolean[] conditioned = new boolean[numNodes];
+		int[] agenda = new int[numNodes];
+		int agendaEnd = 0;
+		agenda[agendaEnd++] = observedNodes[xVar];
+		agenda[agendaEnd++] = observedNodes[yVar];
+		for (int i = 0; i < zLength; i++)
+		{
+			conditioned[observedNodes[zVars[i]]] = true;
+			agenda[agendaEnd++] = observedNodes[zVars[i]];
+		}
+		int[] ancestorAgenda = new int[numNodes + agendaEnd];
+		System.arraycopy(agenda, 0, ancestorAgenda, 0, agendaEnd);
+		int agendaStart = 0;
+		while (agendaStart < agendaEnd)
+		{
+			int node = ancestorAgenda[agendaStart++];
+			if (relevant[node]) continue;
+			relevant[node] = true;
+			for (int parent = 0; parent < numNodes; parent++)
+			{
+				if (parents[node][parent] && !relevant[parent]) ancestorAgenda[agendaEnd++] = parent;
+			}
+		}
+		boolean[][] moralLinks = new boolean[numNodes][numNodes];
+		for (int node = 0; node < numNodes; node++)
+		{
+			if (!relevant[node]) continue;
+			for (int parent1 = 0; parent1 < numNodes; parent1++)
+			{
+				if (!parents[node][parent1]) continue;
+				moralLinks[node][parent1] = moralLinks[parent1][node] = true;
+				for (int parent2 = 0; parent2 < numNodes; parent2++)
+				{
+					if (parents[node][parent2] && parent2 != parent1) moralLinks[parent1][parent2] = true;
+				}
+			}
+		}
+		boolean[] reached = new boolean[numNodes];
+		agendaStart = 0;
+		agendaEnd = 0;
+		agenda = new int[numNodes];
+		agenda[agendaEnd++] = observedNodes[xVar];
+		reached[observedNodes[xVar]] = true;
+		while (agendaStart < agendaEnd)
+		{
+			int node = agenda[agendaStart++];
+			if (node == observedNodes[yVar]) return false;
+			for (int next = 0; next < numNodes; next++)
+			{
+				if (moralLinks[node][next] && relevant[next] && !reached[next] && !conditioned[next])
+				{
+					reached[next] = true;
+					agenda[agendaEnd++] = next;
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,418 @@
+package de.tuebingen.sfs.causal.heuristics.separation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import de.tuebingen.sfs.causal.data.CausalGraph;
+import de.tuebingen.sfs.util.struct.Pair;
+import de.tuebingen.sfs.util.struct.SparseBitSet;
+import de.tuebingen.sfs.util.struct.Triple;
+import junit.framework.TestCase;
+
+public class PartialCorrelationDiscreteUnitFlowTest extends TestCase
+{
+	static final int NUM_VARS = 8;
+
+	String[] varNames;
+	List<Set<Set<Triple<String,String,String>>>> partitions;
+	CausalGraph graph;
+	PartialCorrelationDiscreteUnitFlow measure;
+	Random random;
+
+	protected void setUp()
+	{
+		random = new Random(2);
+		varNames = new String[NUM_VARS];
+		for (int var = 0; var < NUM_VARS; var++)
+		{
+			varNames[var] = "L" + var;
+		}
+		//each concept partitions the variables into units, which are mostly inherited along a chain of variables
+		partitions = new ArrayList<Set<Set<Triple<String,String,String>>>>();
+		for (int concept = 0; concept < 300; concept++)
+		{
+			int[] units = new int[NUM_VARS];
+			for (int var = 1; var < NUM_VARS; var++)
+			{
+				units[var] = (random.nextDouble() < 0.7) ? units[random.nextInt(var)] : var;
+			}
+			List<Set<Triple<String,String,String>>> partition = new ArrayList<Set<Triple<String,String,String>>>();
+			for (int unit = 0; unit < NUM_VARS; unit++)
+			{
+				partition.add(new HashSet<Triple<String,String,String>>());
+			}
+			for (int var = 0; var < NUM_VARS; var++)
+			{
+				partition.get(units[var]).add(new Triple<String,String,String>(varNames[var], "c" + concept, "f" + units[var]));
+			}
+			Set<Set<Triple<String,String,String>>> nonEmptyUnits = new HashSet<Set<Triple<String,String,String>>>();
+			for (Set<Triple<String,String,String>> unit : partition)
+			{
+				if (!unit.isEmpty()) nonEmptyUnits.add(unit);
+			}
+			partitions.add(nonEmptyUnits);
+		}
+		graph = new CausalGraph(varNames, true);
+		measure = new PartialCorrelationDiscreteUnitFlow(partitions, graph, varNames, new double[NUM_VARS][NUM_VARS], false);
+	}
+
+	/**
+	 * Number of units shared by x and y which cannot flow from x to y through variables in z having the unit,
+	 * without using the link x - y.
+	 */
+	int unexplainedUnits(int xVar, int yVar, int[] zVars, int zLength)
+	{
+		int unexplained = 0;
+		for (Set<Set<Triple<String,String,String>>> partition : partitions)
+		{
+			for (Set<Triple<String,String,String>> unit : partition)
+			{
+				if (isUnexplained(unit, xVar, yVar, zVars, zLength)) unexplained++;
+			}
+		}
+		return unexplained;
+	}
+
+	boolean[] varsOfUnit(Set<Triple<String,String,String>> unit)
+	{
+		boolean[] hasUnit = new boolean[NUM_VARS];
+		for (Triple<String,String,String> element : unit)
+		{
+			hasUnit[Integer.parseInt(element.first.substring(1))] = true;
+		}
+		return hasUnit;
+	}
+
+	/**
+	 * @return whether the unit is shared by x and y, but cannot flow from x to y through variables in z having it
+	 */
+	boolean isUnexplained(Set<Triple<String,String,String>> unit, int xVar, int yVar, int[] zVars, int zLength)
+	{
+		boolean[] hasUnit = varsOfUnit(unit);
+		if (!hasUnit[xVar] || !hasUnit[yVar]) return false;
+		boolean[] allowed = new boolean[NUM_VARS];
+		for (int i = 0; i < zLength; i++)
+		{
+			allowed[zVars[i]] = hasUnit[zVars[i]];
+		}
+		boolean[] reached = new boolean[NUM_VARS];
+		List<Integer> agenda = new ArrayList<Integer>();
+		agenda.add(xVar);
+		reached[xVar] = true;
+		for (int i = 0; i < agenda.size(); i++)
+		{
+			int var = agenda.get(i);
+			for (int next = 0; next < NUM_VARS; next++)
+			{
+				if (reached[next] || !graph.hasLink(var, next)) continue;
+				if (next == yVar && var != xVar) return false;
+				if (allowed[next])
+				{
+					reached[next] = true;
+					agenda.add(next);
+				}
+			}
+		}
+		return true;
+	}
+
+	void checkSubsets(PartialCorrelationDiscreteUnitFlow measure, int xVar, int yVar, int[] candidates, int[] zVars, int zLength, int start, int maxSize)
+	{
+		assertEquals("X=" + xVar + " Y=" + yVar + " zLength=" + zLength, (double) unexplainedUnits(xVar, yVar, zVars, zLength),
+				measure.partialCorrelation(xVar, yVar, zVars, zLength));
+		if (zLength == maxSize) return;
+		for (int i = start; i < candidates.length; i++)
+		{
+			zVars[zLength] = candidates[i];
+			checkSubsets(measure, xVar, yVar, candidates, zVars, zLength + 1, i + 1, maxSize);
+		}
+	}
+
+	void checkAllPairs(PartialCorrelationDiscreteUnitFlow measure, int maxSize)
+	{
+		for (int xVar = 0; xVar < NUM_VARS; xVar++)
+		{
+			for (int yVar = 0; yVar < NUM_VARS; yVar++)
+			{
+				if (xVar == yVar) continue;
+				int[] candidates = new int[NUM_VARS - 2];
+				int numCandidates = 0;
+				for (int var = 0; var < NUM_VARS; var++)
+				{
+					if (var != xVar && var != yVar) candidates[numCandidates++] = var;
+				}
+				//subsets in lexicographic order, as enumerated by the PC algorithm, which share long prefixes
+				checkSubsets(measure, xVar, yVar, candidates, new int[maxSize], 0, 0, maxSize);
+			}
+		}
+	}
+
+	public void testCorrelationCountsSharedUnits()
+	{
+		for (int xVar = 0; xVar < NUM_VARS; xVar++)
+		{
+			for (int yVar = 0; yVar < NUM_VARS; yVar++)
+			{
+				if (xVar != yVar) assertEquals((double) unexplainedUnits(xVar, yVar, new int[0], 0), measure.correlation(xVar, yVar));
+			}
+		}
+	}
+
+	public void testIncrementalFlowEqualsFlowFromScratch()
+	{
+		checkAllPairs(measure, 4);
+	}
+
+	public void testFlowFollowsSkeletonChanges()
+	{
+		for (int round = 0; round < 3; round++)
+		{
+			for (int i = 0; i < 6; i++)
+			{
+				int var1 = random.nextInt(NUM_VARS);
+				int var2 = random.nextInt(NUM_VARS);
+				if (var1 != var2 && graph.hasLink(var1, var2)) graph.removeLink(var1, var2);
+			}
+			checkAllPairs(measure, 3);
+		}
+	}
+
+	public void testRandomQueriesOnForks()
+	{
+		for (int i = 0; i < 8; i++)
+		{
+			int var1 = random.nextInt(NUM_VARS);
+			int var2 = random.nextInt(NUM_VARS);
+			if (var1 != var2 && graph.hasLink(var1, var2)) graph.removeLink(var1, var2);
+		}
+		PartialCorrelationDiscreteUnitFlow fork = (PartialCorrelationDiscreteUnitFlow) measure.fork();
+		for (int query = 0; query < 2000; query++)
+		{
+			int xVar = random.nextInt(NUM_VARS);
+			int yVar = (xVar + 1 + random.nextInt(NUM_VARS - 1)) % NUM_VARS;
+			int[] zVars = new int[NUM_VARS];
+			int zLength = 0;
+			for (int var = 0; var < NUM_VARS; var++)
+			{
+				if (var != xVar && var != yVar && random.nextDouble() < 0.4) zVars[zLength++] = var;
+			}
+			double expected = unexplainedUnits(xVar, yVar, zVars, zLength);
+			assertEquals(expected, measure.partialCorrelation(xVar, yVar, zVars, zLength));
+			assertEquals(expected, fork.partialCorrelation(xVar, yVar, zVars, zLength));
+		}
+	}
+
+	public void testParallelIndexEqualsSequentialIndex()
+	{
+		for (int parallelism : new int[] {2, 3, 7})
+		{
+			ForkJoinPool executor = new ForkJoinPool(parallelism);
+			try
+			{
+				PartialCorrelationDiscreteUnitFlow parallelMeasure = new PartialCorrelationDiscreteUnitFlow(partitions, graph, varNames, new double[NUM_VARS][NUM_VARS], false, executor);
+				assertEquals(parallelism, parallelMeasure.indexBuildThreads);
+				assertEquals(measure.elementUnits, parallelMeasure.elementUnits);
+				assertEquals(measure.setsForLanguage, parallelMeasure.setsForLanguage);
+				assertTrue(Arrays.deepEquals(measure.maxCognateSetSizeForPair, parallelMeasure.maxCognateSetSizeForPair));
+				assertEquals(measure.setsForLanguagePair.length, parallelMeasure.setsForLanguagePair.length);
+				for (int i = 0; i < measure.setsForLanguagePair.length; i++)
+				{
+					assertTrue(Arrays.equals(measure.setsForLanguagePair[i].toArray(), parallelMeasure.setsForLanguagePair[i].toArray()));
+					assertEquals(measure.setsForLanguagePair[i].size(), parallelMeasure.setsForLanguagePair[i].size());
+				}
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+		}
+	}
+
+	public void testIndexMatchesPartitions()
+	{
+		//units are numbered in the order of the partitions
+		List<Set<Triple<String,String,String>>> units = new ArrayList<Set<Triple<String,String,String>>>();
+		for (Set<Set<Triple<String,String,String>>> partition : partitions)
+		{
+			units.addAll(partition);
+		}
+		assertEquals(units, measure.elementUnits);
+		for (int var1 = 0; var1 < NUM_VARS; var1++)
+		{
+			List<Set<Triple<String,String,String>>> unitsOfVar = new ArrayList<Set<Triple<String,String,String>>>();
+			for (Set<Triple<String,String,String>> unit : units)
+			{
+				if (varsOfUnit(unit)[var1]) unitsOfVar.add(unit);
+			}
+			assertEquals(unitsOfVar, measure.setsForLanguage.get(var1));
+			for (int var2 = 0; var2 < NUM_VARS; var2++)
+			{
+				if (var1 == var2) continue;
+				List<Integer> sharedUnits = new ArrayList<Integer>();
+				int maxSizeMinusTwo = 0;
+				for (int unitID = 0; unitID < units.size(); unitID++)
+				{
+					boolean[] hasUnit = varsOfUnit(units.get(unitID));
+					if (!hasUnit[var1] || !hasUnit[var2]) continue;
+					sharedUnits.add(unitID);
+					maxSizeMinusTwo = Math.max(maxSizeMinusTwo, units.get(unitID).size() - 2);
+				}
+				//both orders of the pair share one posting list
+				SparseBitSet postings = measure.getSetsForLanguagePair(var1, var2);
+				assertSame(postings, measure.getSetsForLanguagePair(var2, var1));
+				assertEquals(sharedUnits.size(), postings.size());
+				int[] unitIDs = postings.toArray();
+				for (int i = 0; i < unitIDs.length; i++)
+				{
+					assertEquals((int) sharedUnits.get(i), unitIDs[i]);
+				}
+				assertEquals(maxSizeMinusTwo, measure.maxCognateSetSizeForPair[var1][var2]);
+				assertFalse(measure.maxCondSetSizeReached(var1, var2, maxSizeMinusTwo - 1));
+				assertTrue(measure.maxCondSetSizeReached(var1, var2, maxSizeMinusTwo));
+			}
+		}
+	}
+
+	public void testStoredOverlapsAreUnexplainedUnits()
+	{
+		for (int i = 0; i < 10; i++)
+		{
+			graph.removeLink(random.nextInt(NUM_VARS), random.nextInt(NUM_VARS));
+		}
+		PartialCorrelationDiscreteUnitFlow storing = new PartialCorrelationDiscreteUnitFlow(partitions, graph, varNames, new double[NUM_VARS][NUM_VARS], true);
+		assertFalse(storing.isMonotone());
+		int numStored = 0;
+		for (int query = 0; query < 200; query++)
+		{
+			int xVar = random.nextInt(NUM_VARS);
+			int yVar = random.nextInt(NUM_VARS);
+			if (xVar == yVar) continue;
+			int[] zVars = new int[NUM_VARS];
+			int zLength = 0;
+			for (int var = 0; var < NUM_VARS; var++)
+			{
+				if (var != xVar && var != yVar && random.nextDouble() < 0.4) zVars[zLength++] = var;
+			}
+			double result = storing.partialCorrelation(xVar, yVar, zVars, zLength);
+			assertEquals(measure.partialCorrelation(xVar, yVar, zVars, zLength), result);
+			//the decoded bitmap of unexplained units, with the elements of x and y in each unit
+			Map<Integer,Set<Pair<String,String>>> stored = storing.unexplainedOverlaps.get(varNames[xVar]).get(varNames[yVar]);
+			Set<Integer> expected = new TreeSet<Integer>();
+			for (int unitID = 0; unitID < storing.elementUnits.size(); unitID++)
+			{
+				Set<Triple<String,String,String>> unit = storing.elementUnits.get(unitID);
+				if (!isUnexplained(unit, xVar, yVar, zVars, zLength)) continue;
+				expected.add(unitID);
+				String xString = null;
+				String yString = null;
+				for (Triple<String,String,String> element : unit)
+				{
+					if (element.first.equals(varNames[xVar])) xString = element.second + "#" + element.third;
+					if (element.first.equals(varNames[yVar])) yString = element.second + "#" + element.third;
+				}
+				assertEquals(Collections.singleton(new Pair<String,String>(xString, yString)), stored.get(unitID));
+			}
+			assertEquals(expected, stored.keySet());
+			assertEquals(result, (double) stored.size());
+			numStored += stored.size();
+			//a separating set for the pair clears the stored overlaps
+			if (query % 10 == 0)
+			{
+				storing.registerSepSets(xVar, yVar, null);
+				assertTrue(stored.isEmpty());
+			}
+		}
+		assertTrue(numStored > 0);
+	}
+
+	void checkFlow(PartialCorrelationDiscreteUnitFlow measure, int xVar, int yVar, int... zVars)
+	{
+		assertEquals("X=" + xVar + " Y=" + yVar + " Z=" + Arrays.toString(zVars), (double) unexplainedUnits(xVar, yVar, zVars, zVars.length),
+				measure.partialCorrelation(xVar, yVar, zVars, zVars.length));
+	}
+
+	public void testRetractedAndInterleavedQueriesEqualFlowFromScratch()
+	{
+		graph.removeLink(0, 7);
+		graph.removeLink(2, 5);
+		graph.removeLink(3, 4);
+		//the kept prefix grows, is retracted to a shorter prefix and to the empty set, and has its last element replaced
+		checkFlow(measure, 0, 7, 1, 2, 3, 4);
+		checkFlow(measure, 0, 7, 1, 2);
+		checkFlow(measure, 0, 7, 1, 2, 5, 6);
+		checkFlow(measure, 0, 7);
+		checkFlow(measure, 0, 7, 1, 2, 3, 4, 5, 6);
+		checkFlow(measure, 0, 7, 1, 2, 3, 4, 5);
+		checkFlow(measure, 0, 7, 1, 2, 3, 4, 6);
+		//the same conditioning sets in another order
+		checkFlow(measure, 0, 7, 6, 4, 3, 2, 1);
+		//swapped, and interleaved with other pairs, each of which starts from scratch
+		checkFlow(measure, 7, 0, 1, 2, 3, 4, 6);
+		checkFlow(measure, 2, 5, 1, 3, 4);
+		checkFlow(measure, 0, 7, 1, 2, 3, 4, 6);
+		checkFlow(measure, 2, 5, 1, 3);
+		checkFlow(measure, 3, 4, 1, 2);
+		checkFlow(measure, 3, 4, 1);
+		//skeleton changes between otherwise identical queries
+		graph.removeLink(1, 2);
+		checkFlow(measure, 3, 4, 1);
+		checkFlow(measure, 0, 7, 1, 2, 3, 4, 6);
+		graph.removeLink(4, 6);
+		checkFlow(measure, 0, 7, 1, 2, 3, 4, 6);
+		checkFlow(measure, 0, 7, 1, 2, 3, 4);
+	}
+
+	public void testSetVersionsEqualArrayVersions()
+	{
+		for (int i = 0; i < 10; i++)
+		{
+			graph.removeLink(random.nextInt(NUM_VARS), random.nextInt(NUM_VARS));
+		}
+		double[][] thresholds = new double[NUM_VARS][NUM_VARS];
+		for (double[] row : thresholds)
+		{
+			Arrays.fill(row, 5.0);
+		}
+		PartialCorrelationDiscreteUnitFlow measure = new PartialCorrelationDiscreteUnitFlow(partitions, graph, varNames, thresholds, false);
+		PartialCorrelationDiscreteUnitFlow reference = new PartialCorrelationDiscreteUnitFlow(partitions, graph, varNames, thresholds, false);
+		CachedPartialCorrelation<List<Set<Set<Triple<String,String,String>>>>> cached = new CachedPartialCorrelation<List<Set<Set<Triple<String,String,String>>>>>(
+				new PartialCorrelationDiscreteUnitFlow(partitions, graph, varNames, thresholds, false), graph, 1000);
+		int numIndependent = 0;
+		for (int query = 0; query < 500; query++)
+		{
+			int xVar = random.nextInt(NUM_VARS);
+			int yVar = (xVar + 1 + random.nextInt(NUM_VARS - 1)) % NUM_VARS;
+			int[] zVars = new int[NUM_VARS];
+			int zLength = 0;
+			Set<Integer> zSet = new TreeSet<Integer>();
+			for (int var = 0; var < NUM_VARS; var++)
+			{
+				if (var != xVar && var != yVar && random.nextDouble() < 0.4)
+				{
+					zVars[zLength++] = var;
+					zSet.add(var);
+				}
+			}
+			//set and array versions alternate on the same measure, whose set version reuses one array of its own
+			double expected = reference.partialCorrelation(xVar, yVar, zVars, zLength);
+			double result = (query % 2 == 0) ? measure.partialCorrelation(xVar, yVar, zSet) : measure.partialCorrelation(xVar, yVar, zVars, zLength);
+			assertEquals(expected, result);
+			assertEquals(expected, cached.partialCorrelation(xVar, yVar, zSet));
+			assertEquals(expected, cached.partialCorrelation(xVar, yVar, zVars, zLength));
+			boolean independent = reference.independenceTest(expected, xVar, yVar, zVars, zLength);
+			assertEquals(independent, measure.independenceTest(expected, xVar, yVar, zSet));
+			assertEquals(independent, cached.independenceTest(expected, xVar, yVar, zSet));
+			assertEquals(independent, cached.independenceTest(expected, xVar, yVar, zVars, zLength));
+			if (independent) numIndependent++;
+		}
+		assertTrue(numIndependent > 0 && numIndependent < 500);
+	}
+}
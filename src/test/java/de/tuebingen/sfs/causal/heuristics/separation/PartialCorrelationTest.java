@@ -0,0 +1,112 @@
+package de.tuebingen.sfs.causal.heuristics.separation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class PartialCorrelationTest extends TestCase
+{
+	static final String[] VAR_NAMES = {"A", "B", "C", "D", "E"};
+
+	/**
+	 * Measure which only implements the set versions, and keeps copies of the sets it is called with.
+	 */
+	static class SetMeasure extends PartialCorrelation<Object>
+	{
+		Set<Integer> lastZVars;
+		Set<Integer> lastTestedZVars;
+
+		SetMeasure()
+		{
+			super(null, VAR_NAMES);
+		}
+
+		public double correlation(int xVar, int yVar)
+		{
+			return partialCorrelation(xVar, yVar, new TreeSet<Integer>());
+		}
+
+		public double partialCorrelation(int xVar, int yVar, Set<Integer> zVars)
+		{
+			lastZVars = new TreeSet<Integer>(zVars);
+			double sum = xVar + yVar;
+			for (int zVar : zVars)
+			{
+				sum += zVar * zVar;
+			}
+			return 1.0 / (1 + sum);
+		}
+
+		public boolean independenceTest(double partialCorrelation, int xVar, int yVar, Set<Integer> zVars)
+		{
+			lastTestedZVars = new TreeSet<Integer>(zVars);
+			return partialCorrelation < 0.05 * zVars.size();
+		}
+	}
+
+	public void testArrayVersionsBridgeToSetVersions()
+	{
+		SetMeasure measure = new SetMeasure();
+		int[] zVars = {4, 2, 0, 3};
+		for (int zLength = 0; zLength <= 3; zLength++)
+		{
+			Set<Integer> zSet = new TreeSet<Integer>();
+			for (int i = 0; i < zLength; i++)
+			{
+				zSet.add(zVars[i]);
+			}
+			double result = measure.partialCorrelation(1, 3, zVars, zLength);
+			//only the first zLength elements are passed on
+			assertEquals(zSet, measure.lastZVars);
+			assertEquals(measure.partialCorrelation(1, 3, zSet), result);
+			assertEquals(measure.independenceTest(result, 1, 3, zSet), measure.independenceTest(result, 1, 3, zVars, zLength));
+			assertEquals(zSet, measure.lastTestedZVars);
+		}
+	}
+
+	public void testIntArraySetView()
+	{
+		int[] elements = {4, 2, 0, 3};
+		PartialCorrelation.IntArraySet view = new PartialCorrelation.IntArraySet(elements, 3);
+		assertEquals(3, view.size());
+		assertEquals(new TreeSet<Integer>(Arrays.asList(0, 2, 4)), view);
+		assertEquals(new TreeSet<Integer>(Arrays.asList(0, 2, 4)).hashCode(), view.hashCode());
+		//elements in array order
+		assertEquals(Arrays.asList(4, 2, 0), new ArrayList<Integer>(view));
+		assertTrue(view.contains(2));
+		assertFalse(view.contains(3));
+		assertFalse(view.contains("2"));
+		assertFalse(view.contains(null));
+		try
+		{
+			view.add(1);
+			fail();
+		}
+		catch (UnsupportedOperationException e)
+		{
+		}
+		Iterator<Integer> iterator = view.iterator();
+		for (int i = 0; i < 3; i++)
+		{
+			iterator.next();
+		}
+		assertFalse(iterator.hasNext());
+		try
+		{
+			iterator.next();
+			fail();
+		}
+		catch (NoSuchElementException e)
+		{
+		}
+		//a view, not a copy
+		elements[0] = 1;
+		assertTrue(view.contains(1));
+		assertTrue(new PartialCorrelation.IntArraySet(elements, 0).isEmpty());
+	}
+}
@@ -0,0 +1,130 @@
+package de.tuebingen.sfs.util.struct;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SparseBitSetTest extends TestCase
+{
+	static SparseBitSet randomSet(Random random, BitSet reference, int maxElement, double density)
+	{
+		SparseBitSet set = new SparseBitSet();
+		for (int element = 0; element < maxElement; element++)
+		{
+			if (random.nextDouble() < density)
+			{
+				set.add(element);
+				reference.set(element);
+			}
+		}
+		set.trim();
+		return set;
+	}
+
+	public void testAgreesWithBitSet()
+	{
+		Random random = new Random(1);
+		for (int round = 0; round < 50; round++)
+		{
+			BitSet reference1 = new BitSet();
+			BitSet reference2 = new BitSet();
+			SparseBitSet set1 = randomSet(random, reference1, 5000, 0.01);
+			SparseBitSet set2 = randomSet(random, reference2, 5000, 0.2);
+			assertEquals(reference1.cardinality(), set1.size());
+			assertTrue(Arrays.equals(reference1.stream().toArray(), set1.toArray()));
+			for (int element = 0; element < 5100; element++)
+			{
+				assertEquals(reference1.get(element), set1.contains(element));
+			}
+			BitSet intersection = (BitSet) reference1.clone();
+			intersection.and(reference2);
+			assertEquals(intersection.cardinality(), set1.intersectionSize(set2));
+			assertEquals(intersection.cardinality(), set2.intersectionSize(set1));
+			long[] aligned = new long[set1.numWords()];
+			set2.alignTo(set1, aligned);
+			int alignedSize = 0;
+			for (long word : aligned)
+			{
+				alignedSize += Long.bitCount(word);
+			}
+			assertEquals(intersection.cardinality(), alignedSize);
+		}
+	}
+
+	public void testRepeatedElementIsAddedOnce()
+	{
+		SparseBitSet set = new SparseBitSet();
+		set.add(3);
+		set.add(3);
+		set.add(70);
+		assertEquals(2, set.size());
+		try
+		{
+			set.add(5);
+			fail("elements must be added in ascending order");
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+	}
+
+	public void testEmptyCannotBeModified()
+	{
+		try
+		{
+			SparseBitSet.EMPTY.add(1);
+			fail("the shared empty set was modified");
+		}
+		catch (UnsupportedOperationException e)
+		{
+		}
+		SparseBitSet.EMPTY.trim();
+		assertEquals(0, SparseBitSet.EMPTY.size());
+		assertFalse(SparseBitSet.EMPTY.contains(1));
+		assertEquals(0, SparseBitSet.EMPTY.intersectionSize(new SparseBitSet()));
+	}
+
+	public void testAddAllConcatenatesRanges()
+	{
+		Random random = new Random(2);
+		for (int round = 0; round < 50; round++)
+		{
+			BitSet reference = new BitSet();
+			SparseBitSet set = new SparseBitSet();
+			int start = 0;
+			for (int range = 0; range < 5; range++)
+			{
+				//ranges of random length, which often meet within a word
+				int end = start + random.nextInt(300);
+				SparseBitSet rangeSet = new SparseBitSet();
+				for (int element = start; element < end; element++)
+				{
+					if (random.nextDouble() < 0.1)
+					{
+						rangeSet.add(element);
+						reference.set(element);
+					}
+				}
+				set.addAll(rangeSet);
+				start = end;
+			}
+			set.trim();
+			assertEquals(reference.cardinality(), set.size());
+			assertTrue(Arrays.equals(reference.stream().toArray(), set.toArray()));
+		}
+		SparseBitSet set = new SparseBitSet();
+		set.add(10);
+		SparseBitSet smaller = new SparseBitSet();
+		smaller.add(10);
+		try
+		{
+			set.addAll(smaller);
+			fail("elements must be added in ascending order");
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package de.tuebingen.sfs.util.struct;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class SubsetEnumeratorTest extends TestCase
+{
+	static final int[] ELEMENTS = {7, 3, 9, 1, 5, 8};
+
+	static List<Integer> asList(int[] elements, int numElements)
+	{
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i = 0; i < numElements; i++)
+		{
+			list.add(elements[i]);
+		}
+		return list;
+	}
+
+	public void testSameOrderAndCountAsSetOperations()
+	{
+		for (int numElements = 0; numElements <= ELEMENTS.length; numElements++)
+		{
+			for (int k = 0; k <= numElements + 1; k++)
+			{
+				List<Set<Integer>> expected = SetOperations.getSubsets(asList(ELEMENTS, numElements), k);
+				SubsetEnumerator enumerator = new SubsetEnumerator(ELEMENTS, numElements, k);
+				List<Set<Integer>> subsets = new ArrayList<Set<Integer>>();
+				while (enumerator.next())
+				{
+					subsets.add(new TreeSet<Integer>(enumerator.current()));
+				}
+				assertEquals("n = " + numElements + ", k = " + k, expected, subsets);
+				assertEquals(SetOperations.binomial(numElements, k), enumerator.count());
+				assertEquals(expected.size(), enumerator.count());
+				//exhausted until reset
+				assertFalse(enumerator.next());
+				enumerator.reset();
+				assertEquals(!expected.isEmpty(), enumerator.next());
+			}
+		}
+	}
+
+	public void testEdgeCases()
+	{
+		//k = 0: only the empty set
+		SubsetEnumerator enumerator = new SubsetEnumerator(ELEMENTS, 0);
+		assertTrue(enumerator.next());
+		assertTrue(enumerator.current().isEmpty());
+		assertFalse(enumerator.next());
+		assertEquals(1, enumerator.count());
+		//k = n: only the full set
+		enumerator = new SubsetEnumerator(ELEMENTS, ELEMENTS.length);
+		assertTrue(enumerator.next());
+		assertEquals(new TreeSet<Integer>(asList(ELEMENTS, ELEMENTS.length)), enumerator.current());
+		assertFalse(enumerator.next());
+		assertEquals(1, enumerator.count());
+		//k > n: no subsets
+		enumerator = new SubsetEnumerator(ELEMENTS, ELEMENTS.length + 1);
+		assertFalse(enumerator.next());
+		assertEquals(0, enumerator.count());
+		assertFalse(enumerator.iterator().hasNext());
+	}
+
+	public void testIteratorRestartsEnumeration()
+	{
+		SubsetEnumerator enumerator = new SubsetEnumerator(ELEMENTS, 2);
+		enumerator.next();
+		enumerator.next();
+		int numSubsets = 0;
+		for (Set<Integer> subset : enumerator)
+		{
+			assertEquals(2, subset.size());
+			numSubsets++;
+		}
+		assertEquals(enumerator.count(), numSubsets);
+	}
+
+	public void testViewIsLiveAndCopiesAreNotAliased()
+	{
+		SubsetEnumerator enumerator = new SubsetEnumerator(ELEMENTS, 3);
+		Set<Integer> view = enumerator.current();
+		List<int[]> copies = new ArrayList<int[]>();
+		List<Set<Integer>> viewCopies = new ArrayList<Set<Integer>>();
+		while (enumerator.next())
+		{
+			//the same view in every step, showing the current subset
+			assertSame(view, enumerator.current());
+			int[] copy = new int[3];
+			enumerator.copyCurrent(copy);
+			for (int i = 0; i < 3; i++)
+			{
+				assertEquals(enumerator.get(i), copy[i]);
+				assertTrue(view.contains(copy[i]));
+			}
+			copies.add(copy);
+			viewCopies.add(new TreeSet<Integer>(view));
+		}
+		//the copies keep their subsets after later steps
+		List<Set<Integer>> expected = SetOperations.getSubsets(asList(ELEMENTS, ELEMENTS.length), 3);
+		assertEquals(expected, viewCopies);
+		for (int i = 0; i < copies.size(); i++)
+		{
+			assertEquals(expected.get(i), new TreeSet<Integer>(asList(copies.get(i), 3)));
+		}
+		//the view now shows the last subset, in index order
+		assertEquals(Arrays.asList(1, 5, 8), new ArrayList<Integer>(view));
+	}
+}